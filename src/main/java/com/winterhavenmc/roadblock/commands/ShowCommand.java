@@ -101,8 +101,45 @@ final class ShowCommand extends SubcommandAbstract {
 			}
 		}
 
-		// get set of block locations within distance of player location
-		Collection<Location> locations = plugin.blockManager.selectNearbyBlocks(player.getLocation(), distance);
+		// get set of block locations within distance of player location, including vertically, on a storage thread
+		final int playerY = player.getLocation().getBlockY();
+		plugin.blockManager.selectNearbyBlocks(player.getLocation(), distance, playerY - distance, playerY + distance)
+				.thenAccept(locations -> {
+
+					// highlight blocks on the server thread, if player is still online
+					if (plugin.isEnabled()) {
+						plugin.getServer().getScheduler().runTask(plugin, () -> {
+							if (player.isOnline()) {
+								showBlocks(player, locations);
+							}
+						});
+					}
+				})
+				.exceptionally(e -> {
+
+					// send player failure message on the server thread, if player is still online
+					if (plugin.isEnabled()) {
+						plugin.getServer().getScheduler().runTask(plugin, () -> {
+							if (player.isOnline()) {
+								plugin.messageBuilder.build(player, MessageId.COMMAND_FAIL_SHOW_STORAGE).send();
+								plugin.soundConfig.playSound(player, SoundId.COMMAND_FAIL);
+							}
+						});
+					}
+					return null;
+				});
+
+		return true;
+	}
+
+
+	/**
+	 * Highlight blocks for player and send result message
+	 *
+	 * @param player the player to show blocks to
+	 * @param locations the locations of the blocks to highlight
+	 */
+	private void showBlocks(final Player player, final Collection<Location> locations) {
 
 		// highlight blocks
 		plugin.highlightManager.highlightBlocks(player, locations, HighlightStyle.PROTECT);
@@ -114,7 +151,6 @@ final class ShowCommand extends SubcommandAbstract {
 		if (locations.size() > 0) {
 			plugin.soundConfig.playSound(player, SoundId.COMMAND_SUCCESS_SHOW);
 		}
-
-		return true;
 	}
+
 }
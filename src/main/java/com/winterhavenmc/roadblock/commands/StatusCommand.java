@@ -22,10 +22,13 @@ import com.winterhavenmc.roadblock.sounds.SoundId;
 
 import com.winterhavenmc.roadblock.messages.MessageId;
 import org.bukkit.ChatColor;
+import org.bukkit.World;
 import org.bukkit.command.CommandSender;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.UUID;
 
 
 final class StatusCommand extends SubcommandAbstract {
@@ -75,6 +78,14 @@ final class StatusCommand extends SubcommandAbstract {
 		if (plugin.getConfig().getBoolean("display-total")) {
 			sender.sendMessage(ChatColor.GREEN + "Total blocks protected: "
 					+ ChatColor.RESET + plugin.blockManager.getBlockTotal() + " blocks");
+
+			for (Map.Entry<UUID, Integer> entry : plugin.blockManager.getWorldBlockTotals().entrySet()) {
+				final World world = plugin.getServer().getWorld(entry.getKey());
+				if (world != null) {
+					sender.sendMessage(ChatColor.GREEN + "  " + world.getName() + ": "
+							+ ChatColor.RESET + entry.getValue() + " blocks");
+				}
+			}
 		}
 
 		sender.sendMessage(ChatColor.GREEN + "Spread distance: "
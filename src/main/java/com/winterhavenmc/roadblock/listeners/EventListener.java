@@ -44,6 +44,7 @@ import org.bukkit.potion.PotionEffect;
 import org.bukkit.potion.PotionEffectType;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
@@ -175,7 +176,7 @@ public final class EventListener implements Listener {
 				plugin.highlightManager.highlightBlocks(player, locationSet, HighlightStyle.PROTECT);
 
 				// store blocks
-				plugin.blockManager.storeLocations(blockRecords);
+				notifyStorageFailure(player, plugin.blockManager.storeLocations(blockRecords));
 
 				// send player successful protect message
 				plugin.messageBuilder.build(player, MessageId.TOOL_SUCCESS_PROTECT)
@@ -191,7 +192,7 @@ public final class EventListener implements Listener {
 				plugin.highlightManager.highlightBlocks(player, locationSet, HighlightStyle.UNPROTECT);
 
 				// remove blocks from storage
-				plugin.blockManager.removeLocations(blockRecords);
+				notifyStorageFailure(player, plugin.blockManager.removeLocations(blockRecords));
 
 				// send player successful unprotect message
 				plugin.messageBuilder.build(player, MessageId.TOOL_SUCCESS_UNPROTECT)
@@ -203,6 +204,27 @@ public final class EventListener implements Listener {
 	}
 
 
+	/**
+	 * Send player a message on the server thread if a block change could not be written to storage
+	 *
+	 * @param player the player who changed the blocks
+	 * @param result the result of the storage write
+	 */
+	private void notifyStorageFailure(final Player player, final CompletableFuture<Integer> result) {
+		result.exceptionally(e -> {
+			if (plugin.isEnabled()) {
+				plugin.getServer().getScheduler().runTask(plugin, () -> {
+					if (player.isOnline()) {
+						plugin.messageBuilder.build(player, MessageId.TOOL_FAIL_STORAGE).send();
+						plugin.soundConfig.playSound(player, SoundId.COMMAND_FAIL);
+					}
+				});
+			}
+			return null;
+		});
+	}
+
+
 	/**
 	 * Event handler for PlayerItemHeldEvent;
 	 * unhighlights blocks when player changes held item from road block tool
@@ -353,7 +375,7 @@ public final class EventListener implements Listener {
 			}
 
 			// player does have override permission; remove protection from block and send player message
-			plugin.blockManager.removeLocation(new BlockRecord(block.getLocation()));
+			notifyStorageFailure(player, plugin.blockManager.removeLocation(new BlockRecord(block.getLocation())));
 			plugin.messageBuilder.build(player, MessageId.TOOL_SUCCESS_BREAK_BLOCK).send();
 		}
 	}
@@ -46,6 +46,7 @@ public enum MessageId {
 	COMMAND_FAIL_SHOW_PERMISSION,
 	COMMAND_FAIL_STATUS_PERMISSION,
 	COMMAND_FAIL_SET_INVALID_INTEGER,
+	COMMAND_FAIL_SHOW_STORAGE,
 
 	TOOL_SUCCESS_PROTECT,
 	TOOL_SUCCESS_UNPROTECT,
@@ -55,6 +56,7 @@ public enum MessageId {
 	TOOL_FAIL_USE_PERMISSION,
 	TOOL_FAIL_USE_BLOCK_BREAK_PERMISSION,
 	TOOL_FAIL_INVALID_MATERIAL,
+	TOOL_FAIL_STORAGE,
 
 	BLOCK_PLACE_FAIL_GRASS_PATH,
 	BLOCK_PLACE_FAIL_ABOVE_ROAD,
@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Asynchronous view of a datastore, running reads and writes on the datastore's storage threads, so
+ * callers on the server thread never wait on storage.
+ * <p>
+ * Writes run one at a time in the order submitted, in the low priority lane, so they never hold back chunk loads.
+ * A write takes effect for {@link #getPendingStatus(Location)} on the calling thread before it returns, and stays
+ * there until the datastore has accepted it. Reads run in the high priority lane; record cursors read their pages
+ * in the low priority lane. Futures are completed on a storage thread, so callers using
+ * the Bukkit API with a result must switch back to the server thread.
+ * <p>
+ * Reads and writes submitted while the datastore is starting are held, and run in order once it is ready.
+ */
+final class AsyncDataStore {
+
+	/**
+	 * Cursor reading the records of the datastore in pages, one page at a time on a storage thread
+	 */
+	final class Cursor {
+
+		private final RecordCursor recordCursor;
+		private final Executor reader = executor.serialLane(StorageExecutor.Priority.LOW);
+
+		private Cursor(final RecordCursor recordCursor) {
+			this.recordCursor = recordCursor;
+		}
+
+		/**
+		 * Test if records may follow the position of the last page read
+		 *
+		 * @return {@code false} if the last page read was past the last stored record, else {@code true}
+		 */
+		boolean hasNext() {
+			return recordCursor.hasNext();
+		}
+
+		/**
+		 * Read the next page of records; a page may be empty while records remain
+		 *
+		 * @param pageSize the number of stored records to read
+		 * @return future completed with the records read
+		 */
+		CompletableFuture<Collection<BlockRecord>> nextPage(final int pageSize) {
+			return submit(reader, "read records from", () -> {
+				try {
+					return recordCursor.nextPage(pageSize);
+				}
+				catch (IOException e) {
+					throw new CompletionException(e);
+				}
+			});
+		}
+
+		/**
+		 * Get the position of the last stored record read
+		 *
+		 * @return the position, or {@code null} if no records have been read
+		 */
+		String getPosition() {
+			return recordCursor.getPosition();
+		}
+	}
+
+
+	// logger for failed operations
+	private final Logger logger;
+
+	private final DataStore dataStore;
+	private final StorageExecutor executor;
+	private final Executor writer;
+
+	// future of the last write submitted; writes complete in order, so every write is done when it is
+	private volatile CompletableFuture<Integer> lastWrite = CompletableFuture.completedFuture(0);
+
+	// status of blocks with writes not yet accepted by the datastore
+	private final BlockRecordCache pendingCache = new BlockRecordCache();
+
+	// number of the last write to each block in the pending cache; guarded by this
+	private final Map<BlockRecord, Long> pendingWrites = new HashMap<>();
+	private long writeCount;
+
+	// operations submitted before the datastore is ready; guarded by heldOperations
+	private final List<Runnable> heldOperations = new ArrayList<>();
+	private boolean ready;
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param logger the logger for failed operations
+	 * @param dataStore the datastore
+	 */
+	AsyncDataStore(final Logger logger, final DataStore dataStore) {
+		this.logger = logger;
+		this.dataStore = dataStore;
+		this.executor = dataStore.getExecutor();
+		this.writer = executor.serialLane(StorageExecutor.Priority.LOW);
+	}
+
+
+	/**
+	 * Run reads and writes held while the datastore was starting, in the order they were submitted,
+	 * and run later reads and writes when they are submitted
+	 */
+	void open() {
+		synchronized (heldOperations) {
+			ready = true;
+			heldOperations.forEach(Runnable::run);
+			heldOperations.clear();
+		}
+	}
+
+
+	/**
+	 * Store records
+	 *
+	 * @param blockRecords the records to insert
+	 * @return future completed with the number of records inserted
+	 */
+	synchronized CompletableFuture<Integer> insertRecords(final Collection<BlockRecord> blockRecords) {
+		final Collection<BlockRecord> records = new ArrayList<>(blockRecords);
+		final long write = markPending(records, CacheStatus.PENDING_INSERT);
+		lastWrite = submit(writer, "insert records in", () -> dataStore.insertRecords(records));
+		lastWrite.whenComplete((count, e) -> clearPending(records, write));
+		return lastWrite;
+	}
+
+
+	/**
+	 * Delete records
+	 *
+	 * @param blockRecords the records to delete
+	 * @return future completed with the number of records deleted
+	 */
+	synchronized CompletableFuture<Integer> deleteRecords(final Collection<BlockRecord> blockRecords) {
+		final Collection<BlockRecord> records = new ArrayList<>(blockRecords);
+		final long write = markPending(records, CacheStatus.PENDING_DELETE);
+		lastWrite = submit(writer, "delete records from", () -> dataStore.deleteRecords(records));
+		lastWrite.whenComplete((count, e) -> clearPending(records, write));
+		return lastWrite;
+	}
+
+
+	/**
+	 * Get the status of a block with a write that has not been accepted by the datastore yet
+	 *
+	 * @param location the location of the block
+	 * @return PENDING_INSERT or PENDING_DELETE, or {@code null} if the block has no write waiting
+	 */
+	CacheStatus getPendingStatus(final Location location) {
+		final World world = location.getWorld();
+		if (world == null) {
+			return null;
+		}
+		return CacheStatus.fromCode(pendingCache.getCode(world.getUID(),
+				location.getBlockX(), location.getBlockY(), location.getBlockZ()));
+	}
+
+
+	/**
+	 * Get the status of a block with a write that has not been accepted by the datastore yet
+	 *
+	 * @param blockRecord the record of the block
+	 * @return PENDING_INSERT or PENDING_DELETE, or {@code null} if the block has no write waiting
+	 */
+	CacheStatus getPendingStatus(final BlockRecord blockRecord) {
+		return pendingCache.get(blockRecord);
+	}
+
+
+	/**
+	 * Mark blocks pending for a write, replacing the status of earlier writes to the same blocks
+	 *
+	 * @param blockRecords the records written
+	 * @param status PENDING_INSERT or PENDING_DELETE
+	 * @return the number of the write
+	 */
+	private long markPending(final Collection<BlockRecord> blockRecords, final CacheStatus status) {
+		final long write = ++writeCount;
+		for (BlockRecord blockRecord : blockRecords) {
+			if (blockRecord != null) {
+				pendingWrites.put(blockRecord, write);
+				pendingCache.put(blockRecord, status);
+			}
+		}
+		return write;
+	}
+
+
+	/**
+	 * Clear the pending status of blocks once a write has been accepted or has failed, unless a later
+	 * write to the same block is still waiting
+	 *
+	 * @param blockRecords the records written
+	 * @param write the number of the write
+	 */
+	private synchronized void clearPending(final Collection<BlockRecord> blockRecords, final long write) {
+		for (BlockRecord blockRecord : blockRecords) {
+			if (blockRecord != null && pendingWrites.remove(blockRecord, write)) {
+				pendingCache.remove(blockRecord);
+			}
+		}
+	}
+
+
+	/**
+	 * Get block records within a chunk
+	 *
+	 * @param chunk the chunk
+	 * @return future completed with the block records within the chunk
+	 */
+	CompletableFuture<Collection<BlockRecord>> selectRecordsInChunk(final Chunk chunk) {
+		return read(() -> dataStore.selectRecordsInChunk(chunk));
+	}
+
+
+	/**
+	 * Get locations of blocks within {@code distance} of {@code location}
+	 *
+	 * @param location origin location
+	 * @param distance distance from origin to select blocks
+	 * @return future completed with the locations of blocks within distance of location
+	 */
+	CompletableFuture<Collection<Location>> selectNearbyBlocks(final Location location, final int distance) {
+		final Location origin = location.clone();
+		return read(() -> dataStore.selectNearbyBlocks(origin, distance));
+	}
+
+
+	/**
+	 * Get locations of blocks within {@code distance} of {@code location} horizontally,
+	 * and between {@code minY} and {@code maxY} inclusive vertically
+	 *
+	 * @param location origin location
+	 * @param distance horizontal distance from origin to select blocks
+	 * @param minY minimum block y coordinate
+	 * @param maxY maximum block y coordinate
+	 * @return future completed with the locations of blocks within distance of location and within the y range
+	 */
+	CompletableFuture<Collection<Location>> selectNearbyBlocks(final Location location, final int distance,
+	                                                          final int minY, final int maxY) {
+		final Location origin = location.clone();
+		return read(() -> dataStore.selectNearbyBlocks(origin, distance, minY, maxY));
+	}
+
+
+	/**
+	 * Open a cursor reading all records in pages; only called once the datastore is ready
+	 *
+	 * @param position a position returned by {@link Cursor#getPosition()} to continue after,
+	 *                 or {@code null} to start at the first record
+	 * @return the record cursor
+	 */
+	Cursor openCursor(final String position) {
+		return new Cursor(dataStore.openCursor(position));
+	}
+
+
+	/**
+	 * Wait for writes submitted before this call to complete
+	 *
+	 * @param timeout the maximum time to wait in milliseconds
+	 * @return {@code true} if every write completed, {@code false} if the timeout elapsed first
+	 *         or the datastore is not ready
+	 */
+	boolean awaitWrites(final long timeout) {
+		try {
+			lastWrite.get(timeout, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		catch (TimeoutException e) {
+			return false;
+		}
+		catch (ExecutionException e) {
+			// failed write has been logged; writes before it have completed
+		}
+		return true;
+	}
+
+
+	/**
+	 * Run a read in the high priority lane
+	 *
+	 * @param supplier the read
+	 * @return future completed with the result of the read
+	 */
+	private <T> CompletableFuture<T> read(final Supplier<T> supplier) {
+		return submit(runnable -> executor.execute(StorageExecutor.Priority.HIGH, runnable), "read records from", supplier);
+	}
+
+
+	/**
+	 * Run a datastore operation on an executor; a failed or rejected operation completes the future exceptionally
+	 *
+	 * @param executor the executor to run the operation
+	 * @param action description of the operation for error messages
+	 * @param supplier the operation
+	 * @return future completed with the result of the operation
+	 */
+	private <T> CompletableFuture<T> submit(final Executor executor, final String action, final Supplier<T> supplier) {
+
+		final CompletableFuture<T> future = new CompletableFuture<>();
+
+		final Runnable operation = () -> {
+			try {
+				executor.execute(StorageExecutor.discardable(() -> {
+					try {
+						future.complete(supplier.get());
+					}
+					catch (Throwable e) {
+						logError(action, e);
+						future.completeExceptionally(e);
+					}
+				}, () -> future.completeExceptionally(
+						new RejectedExecutionException("Datastore closed before the operation ran."))));
+			}
+			catch (RejectedExecutionException e) {
+				// datastore is closed
+				future.completeExceptionally(e);
+			}
+		};
+
+		// hold operation until the datastore is ready
+		synchronized (heldOperations) {
+			if (ready) {
+				operation.run();
+			}
+			else {
+				heldOperations.add(operation);
+			}
+		}
+		return future;
+	}
+
+
+	/**
+	 * Output error message for a failed operation
+	 *
+	 * @param action description of the operation
+	 * @param e the exception
+	 */
+	private void logError(final String action, final Throwable e) {
+		logger.log(Level.WARNING, "An error occurred while trying to " + action + " the " + dataStore + " datastore.",
+				e.getCause() != null ? e.getCause() : e);
+	}
+
+}
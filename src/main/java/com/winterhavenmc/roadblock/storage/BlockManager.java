@@ -25,6 +25,10 @@ import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
 public final class BlockManager {
@@ -38,6 +42,18 @@ public final class BlockManager {
 	// data store
 	DataStore dataStore;
 
+	// asynchronous view of data store, for reads and writes off the server thread
+	private AsyncDataStore asyncDataStore;
+
+	// completed when the data store has been initialized and existing data stores converted to it
+	private CompletableFuture<Void> startup;
+
+	// answer for protection checks while the data store is starting
+	private StartupPolicy startupPolicy;
+
+	// set when the plugin is closing; a conversion in progress stops after its current page
+	private volatile boolean closeRequested;
+
 	/**
 	 * Class constructor
 	 *
@@ -51,21 +67,127 @@ public final class BlockManager {
 		// get road block materials from config file
 		updateMaterials();
 
-		// create data store using configured type
-		dataStore = DataStore.connect(plugin);
+		// create and start data store using configured type
+		startDataStore();
+	}
+
+
+	/**
+	 * Create data store of configured type, and initialize it and convert existing data stores to it;
+	 * runs in the background unless the configured startup policy is to wait
+	 */
+	private void startDataStore() {
+
+		startupPolicy = StartupPolicy.match(plugin.getConfig().getString("startup-policy"));
+
+		dataStore = DataStore.create(plugin);
+		asyncDataStore = new AsyncDataStore(plugin.getLogger(), dataStore);
+
+		final DataStore newDataStore = dataStore;
+		final AsyncDataStore newAsyncDataStore = asyncDataStore;
+		final PhaseTimer timer = new PhaseTimer();
+
+		final Runnable task = () -> {
+			try {
+				DataStore.open(plugin, newDataStore, timer, () -> closeRequested);
+			}
+			finally {
+				// run reads and writes held during startup
+				newAsyncDataStore.open();
+			}
+			plugin.getLogger().info(newDataStore + " datastore ready in " + timer.getElapsed()
+					+ " milliseconds (" + timer + ").");
+		};
+
+		if (startupPolicy == StartupPolicy.WAIT) {
+			task.run();
+			startup = CompletableFuture.completedFuture(null);
+		}
+		else {
+			plugin.getLogger().info("Starting " + newDataStore + " datastore in the background; road blocks are treated as "
+					+ (startupPolicy == StartupPolicy.PROTECT ? "protected" : "unprotected") + " until it is ready.");
+			final CompletableFuture<Void> future = new CompletableFuture<>();
+			startup = future;
+			plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+				try {
+					task.run();
+				}
+				finally {
+					future.complete(null);
+				}
+			});
+		}
+	}
+
+
+	/**
+	 * Test if the data store has been initialized and existing data stores converted to it
+	 *
+	 * @return {@code true} if the data store is ready, {@code false} if it is still starting
+	 */
+	public boolean isReady() {
+		return startup.isDone();
 	}
 
 
 	/**
-	 * Close data store
+	 * Close data store, after block changes already submitted have been passed to it; a data store still
+	 * starting is closed when its startup finishes
 	 */
 	public void close() {
 		if (dataStore != null) {
+
+			// stop a conversion in progress after its current page
+			closeRequested = true;
+
+			if (!awaitStartup()) {
+				plugin.getLogger().warning(dataStore + " datastore did not finish starting before the shutdown timeout;"
+						+ " it will be closed when startup finishes, and a conversion in progress will continue"
+						+ " on next start.");
+				final DataStore startingDataStore = dataStore;
+				startup.thenRun(() -> {
+					awaitWrites();
+					startingDataStore.close();
+				});
+				return;
+			}
+			awaitWrites();
 			dataStore.close();
 		}
 	}
 
 
+	/**
+	 * Wait for the data store to finish starting, within the configured shutdown timeout
+	 *
+	 * @return {@code true} if the data store is ready, {@code false} if the timeout elapsed first
+	 */
+	private boolean awaitStartup() {
+		try {
+			startup.get(plugin.getConfig().getLong("shutdown-timeout"), TimeUnit.SECONDS);
+			return true;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		catch (ExecutionException | TimeoutException e) {
+			return false;
+		}
+	}
+
+
+	/**
+	 * Wait for submitted block changes to be passed to the datastore, within the configured shutdown timeout
+	 */
+	private void awaitWrites() {
+		if (!asyncDataStore.awaitWrites(TimeUnit.SECONDS.toMillis(plugin.getConfig().getLong("shutdown-timeout")))) {
+			plugin.getLogger().warning("Block changes submitted to the " + dataStore
+					+ " datastore did not complete before the shutdown timeout.");
+		}
+	}
+
+
 	/**
 	 * reload data store
 	 */
@@ -83,8 +205,19 @@ public final class BlockManager {
 		// if current datastore type does not match configured datastore type, create new datastore
 		if (!currentType.equals(newType)) {
 
-			// create new datastore
-			dataStore = DataStore.connect(plugin);
+			// a starting datastore cannot be closed; the new type is used on the next reload or restart
+			if (!isReady()) {
+				plugin.getLogger().warning(dataStore + " datastore is still starting; the configured storage type"
+						+ " will be used on the next reload.");
+				return;
+			}
+
+			// close current datastore, so its block changes are stored before it is converted
+			awaitWrites();
+			dataStore.close();
+
+			// create and start new datastore
+			startDataStore();
 		}
 	}
 
@@ -191,7 +324,7 @@ public final class BlockManager {
 
 			// don't check datastore unless testBlock is road block material
 			if (isRoadBlockMaterial(testBlock)) {
-				if (dataStore.isProtected(testBlock.getLocation())) {
+				if (isProtected(testBlock.getLocation())) {
 					result = true;
 					break;
 				}
@@ -223,7 +356,27 @@ public final class BlockManager {
 		}
 
 		// check if block is in cache or datastore
-		return dataStore.isProtected(block.getLocation());
+		return isProtected(block.getLocation());
+	}
+
+
+	/**
+	 * Check if the block at a location of road block material is protected; block changes not yet passed to
+	 * the datastore take precedence, and other blocks are answered by the startup policy while the datastore
+	 * is starting
+	 *
+	 * @param location the location of the block to test
+	 * @return {@code true} if the block is protected, else {@code false}
+	 */
+	private boolean isProtected(final Location location) {
+		final CacheStatus pendingStatus = asyncDataStore.getPendingStatus(location);
+		if (pendingStatus != null) {
+			return pendingStatus == CacheStatus.PENDING_INSERT;
+		}
+		if (!isReady()) {
+			return startupPolicy == StartupPolicy.PROTECT;
+		}
+		return dataStore.isProtected(location);
 	}
 
 
@@ -262,34 +415,37 @@ public final class BlockManager {
 
 
 	/**
-	 * Insert block location records into datastore
+	 * Insert block location records into datastore on a storage thread; the blocks are protected
+	 * as soon as this method returns
 	 *
 	 * @param blockRecords a Collection of Locations to be inserted into the datastore
+	 * @return future completed with the number of records inserted
 	 */
-	public void storeLocations(final Collection<BlockRecord> blockRecords) {
-		dataStore.insertRecords(blockRecords);
+	public CompletableFuture<Integer> storeLocations(final Collection<BlockRecord> blockRecords) {
+		return asyncDataStore.insertRecords(blockRecords);
 	}
 
 
 	/**
-	 * Remove block locations from datastore
+	 * Remove block locations from datastore on a storage thread; the blocks are unprotected
+	 * as soon as this method returns
 	 *
 	 * @param blockRecords a Collection of Locations to be deleted from the datastore
+	 * @return future completed with the number of records deleted
 	 */
-	public void removeLocations(final Collection<BlockRecord> blockRecords) {
-		dataStore.deleteRecords(blockRecords);
+	public CompletableFuture<Integer> removeLocations(final Collection<BlockRecord> blockRecords) {
+		return asyncDataStore.deleteRecords(blockRecords);
 	}
 
 
 	/**
-	 * Remove a block location from datastore
+	 * Remove a block location from datastore on a storage thread
 	 *
 	 * @param blockRecord the location to be removed from the datastore
+	 * @return future completed with the number of records deleted
 	 */
-	public void removeLocation(final BlockRecord blockRecord) {
-		Set<BlockRecord> blockRecords = new HashSet<>();
-		blockRecords.add(blockRecord);
-		dataStore.deleteRecords(blockRecords);
+	public CompletableFuture<Integer> removeLocation(final BlockRecord blockRecord) {
+		return asyncDataStore.deleteRecords(Collections.singleton(blockRecord));
 	}
 
 
@@ -326,13 +482,51 @@ public final class BlockManager {
 	}
 
 
-	synchronized public int getBlockTotal() {
+	/**
+	 * Get number of protected blocks from maintained counts; does not query the datastore
+	 *
+	 * @return number of protected blocks
+	 */
+	public int getBlockTotal() {
 		return dataStore.getTotalBlocks();
 	}
 
 
-	public Collection<Location> selectNearbyBlocks(final Location location, final int distance) {
-		return dataStore.selectNearbyBlocks(location, distance);
+	/**
+	 * Get number of protected blocks in each world from maintained counts; does not query the datastore
+	 *
+	 * @return unmodifiable map of world uid to number of protected blocks
+	 */
+	public Map<UUID, Integer> getWorldBlockTotals() {
+		return dataStore.getWorldBlockTotals();
+	}
+
+
+	/**
+	 * Get locations of protected blocks within {@code distance} of {@code location}, read on a storage thread
+	 *
+	 * @param location origin location
+	 * @param distance distance from origin to select blocks
+	 * @return future completed on a storage thread with the locations of protected blocks
+	 */
+	public CompletableFuture<Collection<Location>> selectNearbyBlocks(final Location location, final int distance) {
+		return asyncDataStore.selectNearbyBlocks(location, distance);
+	}
+
+
+	/**
+	 * Get locations of protected blocks within {@code distance} of {@code location} horizontally,
+	 * and between {@code minY} and {@code maxY} inclusive vertically, read on a storage thread
+	 *
+	 * @param location origin location
+	 * @param distance horizontal distance from origin to select blocks
+	 * @param minY minimum block y coordinate
+	 * @param maxY maximum block y coordinate
+	 * @return future completed on a storage thread with the locations of protected blocks
+	 */
+	public CompletableFuture<Collection<Location>> selectNearbyBlocks(final Location location, final int distance,
+	                                                                 final int minY, final int maxY) {
+		return asyncDataStore.selectNearbyBlocks(location, distance, minY, maxY);
 	}
 
 
@@ -18,21 +18,30 @@
 package com.winterhavenmc.roadblock.storage;
 
 import java.util.Map;
-import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 
+/**
+ * Cache of block status for writes that have not yet been committed to the datastore,
+ * held in a bucket per chunk of primitive maps keyed by packed block coordinates,
+ * so that lookups do not allocate, each entry costs a few bytes, and the blocks of a chunk
+ * are visited without walking the blocks of other chunks.
+ * <p>
+ * Protection state of cached chunks is held in the {@link ProtectionIndex}; entries in this cache
+ * are applied over datastore contents whenever a chunk is loaded into the index.
+ */
 @SuppressWarnings("UnusedReturnValue")
 final class BlockRecordCache {
 
-	// block cache
-	private final Map<BlockRecord, CacheStatus> blockMap = new ConcurrentHashMap<>();
+	// chunk buckets keyed by packed chunk coordinates, keyed by world uid
+	private final Map<UUID, LongObjectMap<LongByteMap>> worldMaps = new ConcurrentHashMap<>();
 
 
 	/**
-	 * Private class constructor
+	 * Class constructor, for a cache separate from the shared instance
 	 */
-	private BlockRecordCache() { }
+	BlockRecordCache() { }
 
 
 	/**
@@ -52,24 +61,115 @@ final class BlockRecordCache {
 	}
 
 
+	/**
+	 * Get cache status for block coordinates without creating a key object
+	 *
+	 * @param worldUid the world uid
+	 * @param x block x coordinate
+	 * @param y block y coordinate
+	 * @param z block z coordinate
+	 * @return the cache status code, or {@link LongByteMap#EMPTY} if block is not in cache
+	 */
+	byte getCode(final UUID worldUid, final int x, final int y, final int z) {
+		final LongByteMap bucket = getBucket(worldUid, x >> 4, z >> 4);
+		if (bucket == null) {
+			return LongByteMap.EMPTY;
+		}
+		return bucket.get(PackedCoordinates.packBlock(x, y, z));
+	}
+
+
 	CacheStatus get(final BlockRecord key) {
-		return blockMap.get(key);
+		return CacheStatus.fromCode(getCode(key.getWorldUid(), key.getBlockX(), key.getBlockY(), key.getBlockZ()));
 	}
 
 	CacheStatus put(final BlockRecord key, final CacheStatus value) {
-		return blockMap.put(key, value);
+		final LongObjectMap<LongByteMap> worldMap = worldMaps.computeIfAbsent(key.getWorldUid(), k -> new LongObjectMap<>());
+
+		// bucket changes are serialized per world, so an emptied bucket is never dropped while being filled
+		synchronized (worldMap) {
+			final LongByteMap bucket = worldMap.computeIfAbsent(chunkKey(key), k -> new LongByteMap());
+			return CacheStatus.fromCode(bucket.put(packKey(key), value.getCode()));
+		}
 	}
 
 	CacheStatus remove(final BlockRecord key) {
-		return blockMap.remove(key);
+		final LongObjectMap<LongByteMap> worldMap = worldMaps.get(key.getWorldUid());
+		if (worldMap == null) {
+			return null;
+		}
+		synchronized (worldMap) {
+			final long chunkKey = chunkKey(key);
+			final LongByteMap bucket = worldMap.get(chunkKey);
+			if (bucket == null) {
+				return null;
+			}
+			final byte code = bucket.remove(packKey(key));
+			if (bucket.size() == 0) {
+				worldMap.remove(chunkKey);
+			}
+			return CacheStatus.fromCode(code);
+		}
 	}
 
 	boolean containsKey(final BlockRecord key) {
-		return blockMap.containsKey(key);
+		return get(key) != null;
+	}
+
+
+	/**
+	 * Remove all cached blocks within a chunk
+	 *
+	 * @param worldUid the world uid of the chunk
+	 * @param chunkX the chunk x coordinate
+	 * @param chunkZ the chunk z coordinate
+	 * @return the number of cache entries removed
+	 */
+	int removeChunk(final UUID worldUid, final int chunkX, final int chunkZ) {
+		final LongObjectMap<LongByteMap> worldMap = worldMaps.get(worldUid);
+		if (worldMap == null) {
+			return 0;
+		}
+		synchronized (worldMap) {
+			final LongByteMap bucket = worldMap.remove(PackedCoordinates.packChunk(chunkX, chunkZ));
+			return bucket == null ? 0 : bucket.size();
+		}
 	}
 
-	Set<BlockRecord> keySet() {
-		return blockMap.keySet();
+
+	/**
+	 * Perform an action for each cached block within a chunk
+	 *
+	 * @param worldUid the world uid of the chunk
+	 * @param chunkX the chunk x coordinate
+	 * @param chunkZ the chunk z coordinate
+	 * @param action the action to perform, passed the packed block key and status code; must not modify this cache
+	 */
+	void forEachInChunk(final UUID worldUid, final int chunkX, final int chunkZ,
+	                    final LongByteMap.EntryConsumer action) {
+		final LongByteMap bucket = getBucket(worldUid, chunkX, chunkZ);
+		if (bucket != null) {
+			bucket.forEach(action);
+		}
+	}
+
+
+	private LongByteMap getBucket(final UUID worldUid, final int chunkX, final int chunkZ) {
+		final LongObjectMap<LongByteMap> worldMap = worldMaps.get(worldUid);
+		if (worldMap == null) {
+			return null;
+		}
+		return worldMap.get(PackedCoordinates.packChunk(chunkX, chunkZ));
+	}
+
+
+	private static long chunkKey(final BlockRecord key) {
+		return PackedCoordinates.packChunk(key.getBlockX() >> 4, key.getBlockZ() >> 4);
+	}
+
+
+	private static long packKey(final BlockRecord key) {
+		return PackedCoordinates.packBlock(key.getBlockX(), key.getBlockY(), key.getBlockZ());
 	}
 
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Protected block counts per world, updated as blocks are added and removed, so totals can be
+ * read without counting stored blocks.
+ */
+final class BlockTotals {
+
+	// block count keyed by world uid
+	private final Map<UUID, AtomicInteger> worldTotals = new ConcurrentHashMap<>();
+
+	// block count of all worlds
+	private final AtomicInteger total = new AtomicInteger();
+
+
+	/**
+	 * Add to the block count of a world
+	 *
+	 * @param worldUid the world uid
+	 * @param delta the number of blocks added, or negative number of blocks removed
+	 */
+	void add(final UUID worldUid, final int delta) {
+		if (delta != 0) {
+			worldTotals.computeIfAbsent(worldUid, k -> new AtomicInteger()).addAndGet(delta);
+			total.addAndGet(delta);
+		}
+	}
+
+
+	/**
+	 * Replace the block count of a world
+	 *
+	 * @param worldUid the world uid
+	 * @param count the number of blocks in the world
+	 */
+	void set(final UUID worldUid, final int count) {
+		final int previous = worldTotals.computeIfAbsent(worldUid, k -> new AtomicInteger()).getAndSet(count);
+		total.addAndGet(count - previous);
+	}
+
+
+	/**
+	 * Get the block count of all worlds
+	 *
+	 * @return number of blocks
+	 */
+	int getTotal() {
+		return total.get();
+	}
+
+
+	/**
+	 * Get the block count of each world with stored blocks
+	 *
+	 * @return unmodifiable map of world uid to number of blocks
+	 */
+	Map<UUID, Integer> getWorldTotals() {
+		final Map<UUID, Integer> result = new HashMap<>();
+		for (Map.Entry<UUID, AtomicInteger> entry : worldTotals.entrySet()) {
+			final int count = entry.getValue().get();
+			if (count != 0) {
+				result.put(entry.getKey(), count);
+			}
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+
+	/**
+	 * Remove all counts
+	 */
+	void clear() {
+		worldTotals.clear();
+		total.set(0);
+	}
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+
+/**
+ * Policy for protection checks on blocks whose chunk has not been loaded into the cache yet
+ */
+enum CacheMissPolicy {
+
+	// wait for the chunk to be loaded, up to a configured timeout; treat block as protected on timeout
+	WAIT,
+
+	// do not wait; treat block as protected until its chunk is loaded
+	PROTECT,
+	;
+
+	// default policy
+	private final static CacheMissPolicy defaultPolicy = CacheMissPolicy.WAIT;
+
+
+	/**
+	 * Match policy from passed string; ignores case
+	 *
+	 * @param name A string to match to a CacheMissPolicy
+	 * @return matching CacheMissPolicy or default policy if no match
+	 */
+	static CacheMissPolicy match(final String name) {
+		for (CacheMissPolicy policy : CacheMissPolicy.values()) {
+			if (policy.name().equalsIgnoreCase(name)) {
+				return policy;
+			}
+		}
+		// no match; return default policy
+		return defaultPolicy;
+	}
+
+}
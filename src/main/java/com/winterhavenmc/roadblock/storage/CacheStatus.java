@@ -19,8 +19,66 @@ package com.winterhavenmc.roadblock.storage;
 
 enum CacheStatus {
 
-	RESIDENT,
-	PENDING_INSERT,
-	PENDING_DELETE,
+	RESIDENT((byte) 1),
+	PENDING_INSERT((byte) 2),
+	PENDING_DELETE((byte) 3),
+	;
+
+	// compact status code used by primitive cache maps; zero is reserved for absent entries
+	private final byte code;
+
+	// lookup table indexed by status code
+	private static final CacheStatus[] byCode = new CacheStatus[values().length + 1];
+
+	static {
+		for (CacheStatus status : values()) {
+			byCode[status.code] = status;
+		}
+	}
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param code the compact status code for this status
+	 */
+	CacheStatus(final byte code) {
+		this.code = code;
+	}
+
+
+	/**
+	 * Get compact status code
+	 *
+	 * @return the byte code for this status
+	 */
+	byte getCode() {
+		return code;
+	}
+
+
+	/**
+	 * Get status for compact status code
+	 *
+	 * @param code the byte code of a status
+	 * @return the matching status, or null if code does not represent a status
+	 */
+	static CacheStatus fromCode(final byte code) {
+		if (code <= 0 || code >= byCode.length) {
+			return null;
+		}
+		return byCode[code];
+	}
+
+
+	/**
+	 * Test if a compact status code represents a protected block
+	 *
+	 * @param code the byte code of a status
+	 * @return {@code true} if the code is RESIDENT or PENDING_INSERT, else {@code false}
+	 */
+	static boolean isProtected(final byte code) {
+		return code == RESIDENT.code || code == PENDING_INSERT.code;
+	}
 
 }
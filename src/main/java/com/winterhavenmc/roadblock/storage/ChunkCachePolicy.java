@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+
+/**
+ * Size bound for cached chunks, evicting chunks by a window TinyLFU policy once the estimated memory
+ * use of cached chunks exceeds a budget.
+ * <p>
+ * New chunks enter a small LRU window. Chunks leaving the window are admitted to the main cache only
+ * if their access frequency, estimated by a {@link FrequencySketch}, is higher than that of the chunk
+ * the main cache would evict; the main cache is a segmented LRU that protects chunks accessed more than
+ * once. Chunks that are always in use, such as spawn chunks, keep their place while chunks passed
+ * through once are evicted first.
+ * <p>
+ * Entry lookups and hits are lock free; hits are recorded in a striped buffer and applied to the policy
+ * by the next change, which is synchronized on this object. A hit recorded while its buffer stripe is full
+ * is dropped, as frequency and recency are only estimates. The evictor is called while the lock is held
+ * and must not call back into this policy.
+ */
+final class ChunkCachePolicy {
+
+	/**
+	 * Removes an evicted chunk from the cache
+	 */
+	@FunctionalInterface
+	interface Evictor {
+		void evict(final UUID worldUid, final int chunkX, final int chunkZ);
+	}
+
+	// estimated bytes of index, residency and policy entries held for each cached chunk
+	static final long ENTRY_OVERHEAD = 160;
+
+	// queues an entry can be held in
+	private static final int WINDOW = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+
+	// percentage of the budget held by the window, and of the main cache held by protected entries
+	private static final int WINDOW_PERCENT = 1;
+	private static final int PROTECTED_PERCENT = 80;
+
+	// assumed average weight of an entry, used to size the frequency sketch
+	private static final int AVERAGE_WEIGHT = 512;
+
+	/**
+	 * A cached chunk, linked into the queue it is held in
+	 */
+	private static final class Node {
+		final UUID worldUid;
+		final int chunkX;
+		final int chunkZ;
+		final long hash;
+		final long weight;
+		int queue;
+		Node prev;
+		Node next;
+
+		Node(final UUID worldUid, final int chunkX, final int chunkZ, final long hash, final long weight) {
+			this.worldUid = worldUid;
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+			this.hash = hash;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * Access ordered queue of entries, least recently used first
+	 */
+	private static final class Queue {
+		final Node head = new Node(null, 0, 0, 0, 0);
+		long weight;
+
+		Queue() {
+			head.prev = head;
+			head.next = head;
+		}
+
+		Node first() {
+			return head.next == head ? null : head.next;
+		}
+
+		Node after(final Node node) {
+			return node.next == head ? null : node.next;
+		}
+
+		void addLast(final Node node) {
+			node.prev = head.prev;
+			node.next = head;
+			head.prev.next = node;
+			head.prev = node;
+			weight += node.weight;
+		}
+
+		void unlink(final Node node) {
+			node.prev.next = node.next;
+			node.next.prev = node.prev;
+			node.prev = null;
+			node.next = null;
+			weight -= node.weight;
+		}
+	}
+
+	/**
+	 * Lossy buffer of hit entries in a ring per stripe, written without locks by recording threads
+	 * and drained while the policy lock is held
+	 */
+	private static final class HitBuffer {
+		static final int STRIPES = 4;
+		static final int STRIPE_SIZE = 64;
+
+		final AtomicReferenceArray<Node> slots = new AtomicReferenceArray<>(STRIPES * STRIPE_SIZE);
+		final AtomicLongArray writeCounts = new AtomicLongArray(STRIPES);
+		final AtomicLongArray readCounts = new AtomicLongArray(STRIPES);
+
+		void offer(final Node node) {
+			final int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+			final long writeCount = writeCounts.get(stripe);
+			if (writeCount - readCounts.get(stripe) < STRIPE_SIZE
+					&& writeCounts.compareAndSet(stripe, writeCount, writeCount + 1)) {
+				slots.lazySet(stripe * STRIPE_SIZE + (int) (writeCount & (STRIPE_SIZE - 1)), node);
+			}
+		}
+
+		void drain(final Consumer<Node> action) {
+			for (int stripe = 0; stripe < STRIPES; stripe++) {
+				long readCount = readCounts.get(stripe);
+				final long writeCount = writeCounts.get(stripe);
+				while (readCount < writeCount) {
+					final int index = stripe * STRIPE_SIZE + (int) (readCount & (STRIPE_SIZE - 1));
+					final Node node = slots.get(index);
+
+					// slot claimed but not yet written; the rest of the stripe is read by the next drain
+					if (node == null) {
+						break;
+					}
+					slots.lazySet(index, null);
+					action.accept(node);
+					readCount++;
+				}
+				readCounts.set(stripe, readCount);
+			}
+		}
+	}
+
+	private final Map<UUID, LongObjectMap<Node>> entries = new ConcurrentHashMap<>();
+	private final HitBuffer hitBuffer = new HitBuffer();
+	private final Queue window = new Queue();
+	private final Queue probation = new Queue();
+	private final Queue protectedQueue = new Queue();
+	private final FrequencySketch sketch;
+	private final Evictor evictor;
+
+	private final long maximumWeight;
+	private final long windowMaximum;
+	private final long protectedMaximum;
+
+	private int entryCount;
+	private final LongAdder hitCount = new LongAdder();
+	private long missCount;
+	private long evictionCount;
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param maximumWeight the memory budget of cached chunks in bytes
+	 * @param evictor the evictor called for each chunk evicted to keep within the budget
+	 */
+	ChunkCachePolicy(final long maximumWeight, final Evictor evictor) {
+		this.maximumWeight = maximumWeight;
+		this.windowMaximum = Math.max(1, maximumWeight * WINDOW_PERCENT / 100);
+		this.protectedMaximum = (maximumWeight - windowMaximum) * PROTECTED_PERCENT / 100;
+		this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, maximumWeight / AVERAGE_WEIGHT));
+		this.evictor = evictor;
+	}
+
+
+	/**
+	 * Record a lookup of a cached chunk without taking the policy lock; the hit is applied by the next policy change
+	 *
+	 * @param worldUid the world uid
+	 * @param chunkX the chunk x coordinate
+	 * @param chunkZ the chunk z coordinate
+	 */
+	void recordHit(final UUID worldUid, final int chunkX, final int chunkZ) {
+		hitCount.increment();
+		final Node node = getNode(worldUid, chunkX, chunkZ);
+		if (node != null) {
+			hitBuffer.offer(node);
+		}
+	}
+
+
+	/**
+	 * Apply a buffered hit to the frequency sketch and the queue of its entry
+	 *
+	 * @param node the entry looked up
+	 */
+	private void applyHit(final Node node) {
+
+		// chunk may have been evicted since it was looked up
+		if (node.prev == null) {
+			return;
+		}
+
+		sketch.increment(node.hash);
+
+		if (node.queue == WINDOW) {
+			window.unlink(node);
+			window.addLast(node);
+		}
+		else if (node.queue == PROBATION) {
+			probation.unlink(node);
+			node.queue = PROTECTED;
+			protectedQueue.addLast(node);
+
+			// demote least recently used protected entries that no longer fit
+			Node demoted;
+			while (protectedQueue.weight > protectedMaximum && (demoted = protectedQueue.first()) != null) {
+				protectedQueue.unlink(demoted);
+				demoted.queue = PROBATION;
+				probation.addLast(demoted);
+			}
+		}
+		else {
+			protectedQueue.unlink(node);
+			protectedQueue.addLast(node);
+		}
+	}
+
+
+	/**
+	 * Record a lookup of a chunk that is not cached; the chunk gains frequency before it is admitted
+	 *
+	 * @param worldUid the world uid
+	 * @param chunkX the chunk x coordinate
+	 * @param chunkZ the chunk z coordinate
+	 */
+	synchronized void recordMiss(final UUID worldUid, final int chunkX, final int chunkZ) {
+		missCount++;
+		sketch.increment(hash(worldUid, chunkX, chunkZ));
+	}
+
+
+	/**
+	 * Add a chunk loaded into the cache, evicting chunks as necessary to keep within the budget;
+	 * the added chunk may itself be evicted
+	 *
+	 * @param worldUid the world uid
+	 * @param chunkX the chunk x coordinate
+	 * @param chunkZ the chunk z coordinate
+	 * @param weight the estimated memory use of the chunk in bytes
+	 */
+	synchronized void add(final UUID worldUid, final int chunkX, final int chunkZ, final long weight) {
+
+		hitBuffer.drain(this::applyHit);
+
+		final LongObjectMap<Node> worldEntries = entries.computeIfAbsent(worldUid, k -> new LongObjectMap<>());
+		final long chunkKey = PackedCoordinates.packChunk(chunkX, chunkZ);
+
+		// replace any entry for the chunk, so its weight is current
+		final Node previous = worldEntries.remove(chunkKey);
+		if (previous != null) {
+			unlink(previous);
+		}
+
+		final Node node = new Node(worldUid, chunkX, chunkZ, hash(worldUid, chunkX, chunkZ), weight + ENTRY_OVERHEAD);
+		worldEntries.put(chunkKey, node);
+		node.queue = WINDOW;
+		window.addLast(node);
+		entryCount++;
+		sketch.increment(node.hash);
+
+		evictEntries();
+	}
+
+
+	/**
+	 * Remove a chunk removed from the cache for another reason, such as being unloaded
+	 *
+	 * @param worldUid the world uid
+	 * @param chunkX the chunk x coordinate
+	 * @param chunkZ the chunk z coordinate
+	 */
+	synchronized void remove(final UUID worldUid, final int chunkX, final int chunkZ) {
+		hitBuffer.drain(this::applyHit);
+		final LongObjectMap<Node> worldEntries = entries.get(worldUid);
+		if (worldEntries != null) {
+			final Node node = worldEntries.remove(PackedCoordinates.packChunk(chunkX, chunkZ));
+			if (node != null) {
+				unlink(node);
+			}
+		}
+	}
+
+
+	/**
+	 * Get cache statistics
+	 *
+	 * @return a summary of hit, miss and eviction counts and memory use
+	 */
+	synchronized String getStatistics() {
+		final long hits = hitCount.sum();
+		final long lookups = hits + missCount;
+		return "chunk cache: " + hits + " hits, " + missCount + " misses ("
+				+ (lookups == 0 ? 0 : hits * 100 / lookups) + "% hit rate), "
+				+ evictionCount + " evictions, " + entryCount + " chunks using "
+				+ getWeightedSize() / 1024 + " of " + maximumWeight / 1024 + " KiB.";
+	}
+
+
+	synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+
+	synchronized long getWeightedSize() {
+		return window.weight + probation.weight + protectedQueue.weight;
+	}
+
+
+	/**
+	 * Move entries that overflow the window to probation, then evict entries until the cache is
+	 * within budget, keeping whichever of each window candidate and probation victim is accessed more often
+	 */
+	private void evictEntries() {
+
+		Node candidate = null;
+		Node overflow;
+		while (window.weight > windowMaximum && (overflow = window.first()) != null) {
+			window.unlink(overflow);
+			overflow.queue = PROBATION;
+			probation.addLast(overflow);
+			if (candidate == null) {
+				candidate = overflow;
+			}
+		}
+
+		while (getWeightedSize() > maximumWeight) {
+
+			Node victim = probation.first();
+			if (victim == null) {
+				victim = protectedQueue.first() != null ? protectedQueue.first() : window.first();
+			}
+
+			if (candidate == null || candidate == victim || candidate.queue != PROBATION) {
+				if (candidate == victim) {
+					candidate = probation.after(candidate);
+				}
+				evict(victim);
+			}
+			else if (candidate.weight <= maximumWeight
+					&& sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+				evict(victim);
+			}
+			else {
+				final Node rejected = candidate;
+				candidate = probation.after(candidate);
+				evict(rejected);
+			}
+		}
+	}
+
+
+	private void evict(final Node node) {
+		entries.get(node.worldUid).remove(PackedCoordinates.packChunk(node.chunkX, node.chunkZ));
+		unlink(node);
+		evictionCount++;
+		evictor.evict(node.worldUid, node.chunkX, node.chunkZ);
+	}
+
+
+	private void unlink(final Node node) {
+		if (node.queue == WINDOW) {
+			window.unlink(node);
+		}
+		else if (node.queue == PROBATION) {
+			probation.unlink(node);
+		}
+		else {
+			protectedQueue.unlink(node);
+		}
+		entryCount--;
+	}
+
+
+	private Node getNode(final UUID worldUid, final int chunkX, final int chunkZ) {
+		final LongObjectMap<Node> worldEntries = entries.get(worldUid);
+		return worldEntries == null ? null : worldEntries.get(PackedCoordinates.packChunk(chunkX, chunkZ));
+	}
+
+
+	private static long hash(final UUID worldUid, final int chunkX, final int chunkZ) {
+		return PackedCoordinates.packChunk(chunkX, chunkZ) * 0x9E3779B97F4A7C15L
+				^ worldUid.getLeastSignificantBits() ^ worldUid.getMostSignificantBits() >>> 7;
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import org.bukkit.World;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+
+/**
+ * Queue of unloaded chunks waiting to be evicted from a datastore cache, so that chunk unload events
+ * only record the chunk and eviction work is spread over server ticks within a time budget.
+ * <p>
+ * This class is not thread safe; chunks are added and evicted on the server thread.
+ */
+final class ChunkEvictionQueue {
+
+	/**
+	 * Evicts a chunk from a datastore cache
+	 */
+	@FunctionalInterface
+	interface Evictor {
+		void evict(final World world, final int chunkX, final int chunkZ);
+	}
+
+	/**
+	 * A chunk waiting to be evicted
+	 */
+	private static final class PendingEviction {
+		final World world;
+		final int chunkX;
+		final int chunkZ;
+
+		PendingEviction(final World world, final int chunkX, final int chunkZ) {
+			this.world = world;
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+		}
+	}
+
+	private final Deque<PendingEviction> pending = new ArrayDeque<>();
+	private final Evictor evictor;
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param evictor the evictor called for each queued chunk
+	 */
+	ChunkEvictionQueue(final Evictor evictor) {
+		this.evictor = evictor;
+	}
+
+
+	/**
+	 * Queue chunk for eviction
+	 *
+	 * @param world the world containing the chunk
+	 * @param chunkX the chunk x coordinate
+	 * @param chunkZ the chunk z coordinate
+	 */
+	void add(final World world, final int chunkX, final int chunkZ) {
+		pending.addLast(new PendingEviction(world, chunkX, chunkZ));
+	}
+
+
+	/**
+	 * Evict queued chunks in the order they were queued until the queue is empty or the time budget is
+	 * spent; at least one chunk is evicted if any are queued, so the queue always drains
+	 *
+	 * @param budgetNanos the time budget in nanoseconds
+	 * @return the number of chunks evicted
+	 */
+	int evict(final long budgetNanos) {
+
+		final long deadline = System.nanoTime() + budgetNanos;
+		int count = 0;
+
+		PendingEviction eviction;
+		while ((eviction = pending.pollFirst()) != null) {
+			evictor.evict(eviction.world, eviction.chunkX, eviction.chunkZ);
+			count++;
+			if (System.nanoTime() - deadline >= 0) {
+				break;
+			}
+		}
+		return count;
+	}
+
+
+	/**
+	 * Evict all queued chunks
+	 *
+	 * @return the number of chunks evicted
+	 */
+	int evictAll() {
+		return evict(Long.MAX_VALUE);
+	}
+
+
+	/**
+	 * Get the number of chunks waiting to be evicted
+	 *
+	 * @return number of queued chunks
+	 */
+	int size() {
+		return pending.size();
+	}
+
+}
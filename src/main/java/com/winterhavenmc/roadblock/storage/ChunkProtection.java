@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * Protected block positions within a single chunk, stored per 16x16x16 chunk section.
+ * <p>
+ * A section holding few blocks is kept as a sorted array of local block indexes; once it grows past
+ * {@link #SPARSE_LIMIT} blocks it is promoted to a 4096 bit bitmap. Lookups are lock free;
+ * modifications are synchronized on this object.
+ */
+final class ChunkProtection {
+
+	// sparse sections are promoted to a bitmap above this many blocks (a bitmap costs 512 bytes)
+	static final int SPARSE_LIMIT = 128;
+
+	private static final Section[] NO_SECTIONS = new Section[0];
+
+	// version of serialized format
+	private static final int FORMAT_VERSION = 1;
+
+	private final int chunkX;
+	private final int chunkZ;
+
+	// sections are replaced as a whole when one is added or removed, so readers always see a consistent array
+	private volatile Section[] sections = NO_SECTIONS;
+
+
+	/**
+	 * Functional interface for visiting protected block positions
+	 */
+	@FunctionalInterface
+	interface BlockConsumer {
+		void accept(int x, int y, int z);
+	}
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param chunkX chunk x coordinate
+	 * @param chunkZ chunk z coordinate
+	 */
+	ChunkProtection(final int chunkX, final int chunkZ) {
+		this.chunkX = chunkX;
+		this.chunkZ = chunkZ;
+	}
+
+
+	int getChunkX() {
+		return chunkX;
+	}
+
+
+	int getChunkZ() {
+		return chunkZ;
+	}
+
+
+	/**
+	 * Test if block position is protected
+	 *
+	 * @param x block x coordinate
+	 * @param y block y coordinate
+	 * @param z block z coordinate
+	 * @return {@code true} if the block is protected, else {@code false}
+	 */
+	boolean contains(final int x, final int y, final int z) {
+		final Section section = findSection(sections, y >> 4);
+		return section != null && section.contains(localIndex(x, y, z));
+	}
+
+
+	/**
+	 * Mark block position as protected
+	 *
+	 * @param x block x coordinate
+	 * @param y block y coordinate
+	 * @param z block z coordinate
+	 * @return {@code true} if the block was not already protected, else {@code false}
+	 */
+	synchronized boolean add(final int x, final int y, final int z) {
+
+		Section section = findSection(sections, y >> 4);
+
+		// if section does not exist, create it
+		if (section == null) {
+			section = new Section(y >> 4);
+			final Section[] newSections = Arrays.copyOf(sections, sections.length + 1);
+			newSections[newSections.length - 1] = section;
+			sections = newSections;
+		}
+
+		return section.add(localIndex(x, y, z));
+	}
+
+
+	/**
+	 * Remove protection from block position
+	 *
+	 * @param x block x coordinate
+	 * @param y block y coordinate
+	 * @param z block z coordinate
+	 * @return {@code true} if the block was protected, else {@code false}
+	 */
+	synchronized boolean remove(final int x, final int y, final int z) {
+
+		final Section section = findSection(sections, y >> 4);
+
+		if (section == null || !section.remove(localIndex(x, y, z))) {
+			return false;
+		}
+
+		// drop section when its last block is removed
+		if (section.count == 0) {
+			final Section[] current = sections;
+			final Section[] newSections = new Section[current.length - 1];
+			int i = 0;
+			for (Section s : current) {
+				if (s != section) {
+					newSections[i++] = s;
+				}
+			}
+			sections = newSections;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Get number of protected blocks in chunk
+	 *
+	 * @return number of protected blocks in chunk
+	 */
+	synchronized int size() {
+		int total = 0;
+		for (Section section : sections) {
+			total += section.count;
+		}
+		return total;
+	}
+
+
+	/**
+	 * Estimate memory used by this chunk, assuming compressed object references
+	 *
+	 * @return estimated size in bytes
+	 */
+	synchronized long estimateSize() {
+
+		// object with coordinates and sections array
+		long bytes = 24 + 16 + 4L * sections.length;
+
+		for (Section section : sections) {
+			final short[] blocks = section.sparse;
+			bytes += 24 + (blocks != null ? 16 + 2L * blocks.length : 16 + 16 + 8L * 64);
+		}
+		return bytes;
+	}
+
+
+	/**
+	 * Test if chunk contains no protected blocks
+	 *
+	 * @return {@code true} if chunk contains no protected blocks, else {@code false}
+	 */
+	boolean isEmpty() {
+		return sections.length == 0;
+	}
+
+
+	/**
+	 * Visit every protected block position in chunk
+	 *
+	 * @param action the action to perform for each protected block
+	 */
+	synchronized void forEach(final BlockConsumer action) {
+		final int baseX = chunkX << 4;
+		final int baseZ = chunkZ << 4;
+		for (Section section : sections) {
+			final int baseY = section.sectionY << 4;
+			section.forEach(index -> action.accept(baseX | (index & 15), baseY | (index >> 8), baseZ | ((index >> 4) & 15)));
+		}
+	}
+
+
+	/**
+	 * Serialize protected block positions to a compressed byte array
+	 *
+	 * @return compressed protected block positions
+	 */
+	byte[] toBytes() {
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+			out.writeByte(FORMAT_VERSION);
+			writeTo(out);
+		}
+		catch (IOException e) {
+			// not thrown by byte array streams
+			throw new UncheckedIOException(e);
+		}
+
+		return bytes.toByteArray();
+	}
+
+
+	/**
+	 * Create chunk protection from a compressed byte array written by {@link #toBytes()}
+	 *
+	 * @param chunkX chunk x coordinate
+	 * @param chunkZ chunk z coordinate
+	 * @param data compressed protected block positions
+	 * @return chunk protection containing the stored positions
+	 * @throws IOException if the data is not in a supported format
+	 */
+	static ChunkProtection fromBytes(final int chunkX, final int chunkZ, final byte[] data) throws IOException {
+
+		try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
+
+			final int version = in.readUnsignedByte();
+			if (version != FORMAT_VERSION) {
+				throw new IOException("Unsupported chunk data format version: " + version);
+			}
+
+			return readFrom(chunkX, chunkZ, in);
+		}
+	}
+
+
+	/**
+	 * Write protected block positions to a stream.
+	 * <p>
+	 * Each section is written as its y index and block count, followed by its local block indexes if it holds
+	 * no more than {@link #SPARSE_LIMIT} blocks, or its 4096 bit bitmap otherwise.
+	 *
+	 * @param out the stream to write to
+	 */
+	synchronized void writeTo(final DataOutput out) throws IOException {
+
+		out.writeShort(sections.length);
+
+		for (Section section : sections) {
+			out.writeByte(section.sectionY);
+			out.writeShort(section.count);
+
+			if (section.count <= SPARSE_LIMIT) {
+				final short[] blocks = section.sparse;
+				if (blocks != null) {
+					for (short block : blocks) {
+						out.writeShort(block);
+					}
+				}
+				else {
+					// section was promoted, then shrank; write its bits as indexes
+					for (int word = 0; word < 64; word++) {
+						long bits = section.bitmap.get(word);
+						while (bits != 0) {
+							out.writeShort((word << 6) | Long.numberOfTrailingZeros(bits));
+							bits &= bits - 1;
+						}
+					}
+				}
+			}
+			else {
+				for (int word = 0; word < 64; word++) {
+					out.writeLong(section.bitmap.get(word));
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Read protected block positions written by {@link #writeTo(DataOutput)}
+	 *
+	 * @param chunkX chunk x coordinate
+	 * @param chunkZ chunk z coordinate
+	 * @param in the stream to read from
+	 * @return chunk protection containing the stored positions
+	 */
+	static ChunkProtection readFrom(final int chunkX, final int chunkZ, final DataInput in) throws IOException {
+
+		final ChunkProtection chunkProtection = new ChunkProtection(chunkX, chunkZ);
+
+		final int sectionCount = in.readUnsignedShort();
+
+		for (int i = 0; i < sectionCount; i++) {
+
+			final int baseY = in.readByte() << 4;
+			final int count = in.readUnsignedShort();
+
+			if (count <= SPARSE_LIMIT) {
+				for (int j = 0; j < count; j++) {
+					final int index = in.readUnsignedShort();
+					chunkProtection.add(chunkX << 4 | (index & 15), baseY | (index >> 8), chunkZ << 4 | ((index >> 4) & 15));
+				}
+			}
+			else {
+				for (int word = 0; word < 64; word++) {
+					long bits = in.readLong();
+					while (bits != 0) {
+						final int index = (word << 6) | Long.numberOfTrailingZeros(bits);
+						chunkProtection.add(chunkX << 4 | (index & 15), baseY | (index >> 8), chunkZ << 4 | ((index >> 4) & 15));
+						bits &= bits - 1;
+					}
+				}
+			}
+		}
+
+		return chunkProtection;
+	}
+
+
+	/**
+	 * Get block index within a chunk section
+	 */
+	private static int localIndex(final int x, final int y, final int z) {
+		return ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+	}
+
+
+	private static Section findSection(final Section[] sections, final int sectionY) {
+		for (Section section : sections) {
+			if (section.sectionY == sectionY) {
+				return section;
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * A single 16x16x16 chunk section, held as a sorted sparse array or a bitmap
+	 */
+	private static final class Section {
+
+		private static final short[] NO_BLOCKS = new short[0];
+
+		final int sectionY;
+
+		// sorted local indexes while sparse; replaced on every change, never modified in place
+		private volatile short[] sparse = NO_BLOCKS;
+
+		// bitmap of local indexes once promoted; set before sparse is cleared
+		private volatile AtomicLongArray bitmap;
+
+		// guarded by the owning chunk's monitor
+		private int count;
+
+
+		Section(final int sectionY) {
+			this.sectionY = sectionY;
+		}
+
+
+		boolean contains(final int index) {
+			// read sparse first; promotion publishes the bitmap before clearing it
+			final short[] blocks = sparse;
+			if (blocks != null) {
+				return Arrays.binarySearch(blocks, (short) index) >= 0;
+			}
+			return (bitmap.get(index >>> 6) & (1L << index)) != 0;
+		}
+
+
+		boolean add(final int index) {
+
+			if (sparse == null) {
+				final long word = bitmap.get(index >>> 6);
+				final long bit = 1L << index;
+				if ((word & bit) != 0) {
+					return false;
+				}
+				bitmap.set(index >>> 6, word | bit);
+				count++;
+				return true;
+			}
+
+			final short[] blocks = sparse;
+			final int position = Arrays.binarySearch(blocks, (short) index);
+			if (position >= 0) {
+				return false;
+			}
+
+			// promote to bitmap when sparse array would exceed limit
+			if (blocks.length >= SPARSE_LIMIT) {
+				final AtomicLongArray newBitmap = new AtomicLongArray(64);
+				for (short block : blocks) {
+					newBitmap.set(block >>> 6, newBitmap.get(block >>> 6) | (1L << block));
+				}
+				newBitmap.set(index >>> 6, newBitmap.get(index >>> 6) | (1L << index));
+				bitmap = newBitmap;
+				sparse = null;
+				count++;
+				return true;
+			}
+
+			final int insertAt = -position - 1;
+			final short[] newBlocks = new short[blocks.length + 1];
+			System.arraycopy(blocks, 0, newBlocks, 0, insertAt);
+			newBlocks[insertAt] = (short) index;
+			System.arraycopy(blocks, insertAt, newBlocks, insertAt + 1, blocks.length - insertAt);
+			sparse = newBlocks;
+			count++;
+			return true;
+		}
+
+
+		boolean remove(final int index) {
+
+			if (sparse == null) {
+				final long word = bitmap.get(index >>> 6);
+				final long bit = 1L << index;
+				if ((word & bit) == 0) {
+					return false;
+				}
+				bitmap.set(index >>> 6, word & ~bit);
+				count--;
+				return true;
+			}
+
+			final short[] blocks = sparse;
+			final int position = Arrays.binarySearch(blocks, (short) index);
+			if (position < 0) {
+				return false;
+			}
+			final short[] newBlocks = new short[blocks.length - 1];
+			System.arraycopy(blocks, 0, newBlocks, 0, position);
+			System.arraycopy(blocks, position + 1, newBlocks, position, blocks.length - position - 1);
+			sparse = newBlocks;
+			count--;
+			return true;
+		}
+
+
+		void forEach(final IntConsumer action) {
+			final short[] blocks = sparse;
+			if (blocks != null) {
+				for (short block : blocks) {
+					action.accept(block);
+				}
+				return;
+			}
+			for (int word = 0; word < 64; word++) {
+				long bits = bitmap.get(word);
+				while (bits != 0) {
+					action.accept((word << 6) | Long.numberOfTrailingZeros(bits));
+					bits &= bits - 1;
+				}
+			}
+		}
+	}
+
+}
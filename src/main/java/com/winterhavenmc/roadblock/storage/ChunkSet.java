@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Set of chunks, keyed by world and packed chunk coordinates; used to track chunks resident in the
+ * protection index and chunks with stored blocks.
+ * <p>
+ * Lookups take primitive coordinates, are lock free and safe from any thread, do not allocate,
+ * and never touch the world, so they cannot cause a chunk to load.
+ */
+final class ChunkSet {
+
+	/**
+	 * Functional interface for visiting chunks in set
+	 */
+	@FunctionalInterface
+	interface ChunkConsumer {
+		void accept(final UUID worldUid, final int chunkX, final int chunkZ);
+	}
+
+
+	// marker value for chunks in set
+	private static final byte PRESENT = 1;
+
+	// chunk keys, keyed by world uid
+	private final Map<UUID, LongByteMap> worldSets = new ConcurrentHashMap<>();
+
+
+	/**
+	 * Test if chunk is in set
+	 *
+	 * @param worldUid the world uid
+	 * @param chunkX chunk x coordinate
+	 * @param chunkZ chunk z coordinate
+	 * @return {@code true} if chunk is in set, else {@code false}
+	 */
+	boolean contains(final UUID worldUid, final int chunkX, final int chunkZ) {
+		final LongByteMap worldSet = worldSets.get(worldUid);
+		return worldSet != null && worldSet.get(PackedCoordinates.packChunk(chunkX, chunkZ)) != LongByteMap.EMPTY;
+	}
+
+
+	/**
+	 * Add chunk to set
+	 *
+	 * @param worldUid the world uid
+	 * @param chunkX chunk x coordinate
+	 * @param chunkZ chunk z coordinate
+	 */
+	void add(final UUID worldUid, final int chunkX, final int chunkZ) {
+		worldSets.computeIfAbsent(worldUid, k -> new LongByteMap())
+				.put(PackedCoordinates.packChunk(chunkX, chunkZ), PRESENT);
+	}
+
+
+	/**
+	 * Remove chunk from set
+	 *
+	 * @param worldUid the world uid
+	 * @param chunkX chunk x coordinate
+	 * @param chunkZ chunk z coordinate
+	 */
+	void remove(final UUID worldUid, final int chunkX, final int chunkZ) {
+		final LongByteMap worldSet = worldSets.get(worldUid);
+		if (worldSet != null) {
+			worldSet.remove(PackedCoordinates.packChunk(chunkX, chunkZ));
+		}
+	}
+
+
+	/**
+	 * Perform an action for each chunk in set
+	 *
+	 * @param action the action to perform for each chunk
+	 */
+	void forEach(final ChunkConsumer action) {
+		for (Map.Entry<UUID, LongByteMap> entry : worldSets.entrySet()) {
+			entry.getValue().forEach((key, value) ->
+					action.accept(entry.getKey(), PackedCoordinates.chunkX(key), PackedCoordinates.chunkZ(key)));
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+
+/**
+ * Saved progress of a datastore conversion, so an interrupted conversion continues after the records
+ * already converted instead of starting over.
+ * <p>
+ * Progress is only saved after the converted records have been synced to the new datastore, and only
+ * applies to a conversion between the same two datastore types.
+ */
+final class ConversionProgress {
+
+	private static final String FILE_NAME = "conversion.progress";
+
+	private final File file;
+	private final DataStoreType sourceType;
+	private final DataStoreType targetType;
+
+	private String position;
+	private long records;
+
+
+	/**
+	 * Class constructor; loads progress saved by an interrupted conversion between the same datastore types
+	 *
+	 * @param dataFolder the plugin data folder
+	 * @param sourceType the type of the datastore being converted
+	 * @param targetType the type of the datastore records are converted to
+	 */
+	ConversionProgress(final File dataFolder, final DataStoreType sourceType, final DataStoreType targetType) {
+
+		this.file = new File(dataFolder, FILE_NAME);
+		this.sourceType = sourceType;
+		this.targetType = targetType;
+
+		if (file.exists()) {
+			final Properties properties = new Properties();
+			try (InputStream in = new FileInputStream(file)) {
+				properties.load(in);
+				if (sourceType.name().equals(properties.getProperty("source"))
+						&& targetType.name().equals(properties.getProperty("target"))) {
+					this.position = properties.getProperty("position");
+					this.records = Long.parseLong(properties.getProperty("records", "0"));
+				}
+			}
+			catch (IOException | NumberFormatException e) {
+				// progress cannot be read; conversion starts at the first record
+				this.position = null;
+				this.records = 0;
+			}
+		}
+	}
+
+
+	/**
+	 * Get the cursor position after the last converted page
+	 *
+	 * @return the position, or {@code null} if no progress was saved
+	 */
+	String getPosition() {
+		return position;
+	}
+
+
+	/**
+	 * Get the number of records converted before the saved position
+	 *
+	 * @return number of records
+	 */
+	long getRecords() {
+		return records;
+	}
+
+
+	/**
+	 * Save progress; the file is replaced atomically where supported
+	 *
+	 * @param position the cursor position after the last converted page
+	 * @param records the number of records converted
+	 */
+	void save(final String position, final long records) throws IOException {
+
+		this.position = position;
+		this.records = records;
+
+		final Properties properties = new Properties();
+		properties.setProperty("source", sourceType.name());
+		properties.setProperty("target", targetType.name());
+		properties.setProperty("records", String.valueOf(records));
+		if (position != null) {
+			properties.setProperty("position", position);
+		}
+
+		final File tempFile = new File(file.getPath() + ".tmp");
+		try (OutputStream out = new FileOutputStream(tempFile)) {
+			properties.store(out, "RoadBlock datastore conversion progress");
+		}
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+
+	/**
+	 * Delete saved progress
+	 *
+	 * @return {@code true} if no progress file remains, else {@code false}
+	 */
+	boolean delete() {
+		return !file.exists() || file.delete();
+	}
+
+}
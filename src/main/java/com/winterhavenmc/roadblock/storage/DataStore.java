@@ -22,6 +22,7 @@ import org.bukkit.Location;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.util.*;
+import java.util.function.BooleanSupplier;
 
 
 interface DataStore {
@@ -34,6 +35,15 @@ interface DataStore {
 	void initialize() throws Exception;
 
 
+	/**
+	 * Initialize storage as the source of a conversion; the datastore is only read before it is closed,
+	 * so it does not cache chunks, register event handlers or run periodic tasks
+	 *
+	 * @throws Exception initialization failed
+	 */
+	void initializeForConversion() throws Exception;
+
+
 	/**
 	 * Get datastore initialized field
 	 *
@@ -58,8 +68,18 @@ interface DataStore {
 
 	/**
 	 * Sync datastore to disk if supported
+	 *
+	 * @return {@code true} if every change made before the call has been written, else {@code false}
+	 */
+	boolean sync();
+
+
+	/**
+	 * Get the executor running storage work for this datastore off the server thread
+	 *
+	 * @return the storage executor
 	 */
-	void sync();
+	StorageExecutor getExecutor();
 
 
 	/**
@@ -70,18 +90,29 @@ interface DataStore {
 
 
 	/**
-	 * Create new data store of configured type.<br>
-	 * No parameter version used when no current datastore exists
+	 * Create new data store of configured type; the datastore is not initialized
 	 *
 	 * @return new datastore of configured type
 	 */
-	static DataStore connect(final JavaPlugin plugin) {
+	static DataStore create(final JavaPlugin plugin) {
 
 		// get data store type from config
 		DataStoreType dataStoreType = DataStoreType.match(plugin.getConfig().getString("storage-type"));
 
 		// get new data store of specified type
-		final DataStore newDataStore = dataStoreType.connect(plugin);
+		return dataStoreType.connect(plugin);
+	}
+
+
+	/**
+	 * Initialize new data store and convert any existing data stores to it; may be called off the server thread
+	 *
+	 * @param newDataStore the datastore created by {@link #create(JavaPlugin)}
+	 * @param timer timer ending an initialize and a conversion phase
+	 * @param stopRequested tested between conversion pages; conversion stops and continues on next start once true
+	 */
+	static void open(final JavaPlugin plugin, final DataStore newDataStore, final PhaseTimer timer,
+	                 final BooleanSupplier stopRequested) {
 
 		// initialize new data store
 		try {
@@ -94,12 +125,11 @@ interface DataStore {
 				e.printStackTrace();
 			}
 		}
+		timer.mark("initialize");
 
 		// convert any existing data stores to new type
-		DataStoreType.convertAll(plugin, newDataStore);
-
-		// return initialized data store
-		return newDataStore;
+		DataStoreType.convertAll(plugin, newDataStore, stopRequested);
+		timer.mark("conversion");
 	}
 
 
@@ -141,13 +171,31 @@ interface DataStore {
 
 
 	/**
-	 * count records in blocks table
+	 * Open a cursor reading all records in pages, so records can be processed without holding them all in memory
 	 *
-	 * @return numner of records in blocks table
+	 * @param position a position returned by {@link RecordCursor#getPosition()} to continue after,
+	 *                 or {@code null} to start at the first record
+	 * @return the record cursor
+	 */
+	RecordCursor openCursor(final String position);
+
+
+	/**
+	 * Get number of stored blocks from counts maintained as blocks are written, without counting records
+	 *
+	 * @return number of stored blocks
 	 */
 	int getTotalBlocks();
 
 
+	/**
+	 * Get number of stored blocks in each world from counts maintained as blocks are written
+	 *
+	 * @return unmodifiable map of world uid to number of stored blocks, for worlds with stored blocks
+	 */
+	Map<UUID, Integer> getWorldBlockTotals();
+
+
 	/**
 	 * Get block records for locations within a chunk
 	 *
@@ -166,4 +214,17 @@ interface DataStore {
 	 */
 	Collection<Location> selectNearbyBlocks(final Location location, final int distance);
 
+
+	/**
+	 * Get block records for locations within {@code distance} of {@code location} horizontally,
+	 * and between {@code minY} and {@code maxY} inclusive vertically
+	 *
+	 * @param location origin location
+	 * @param distance horizontal distance from origin to select blocks
+	 * @param minY minimum block y coordinate
+	 * @param maxY maximum block y coordinate
+	 * @return Set of Locations that are within {@code distance} of {@code location} and within the y range
+	 */
+	Collection<Location> selectNearbyBlocks(final Location location, final int distance, final int minY, final int maxY);
+
 }
@@ -0,0 +1,488 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Datastore keeping all protected blocks in memory, in chunk protection bitmaps keyed by world and chunk.
+ * <p>
+ * Every query is answered from memory. The protection index is written to a compressed snapshot file
+ * on {@link #sync()}, on {@link #close()} and at the configured snapshot interval, and read back with a
+ * single sequential read on startup. Changes made after the last snapshot are lost if the server crashes.
+ */
+final class DataStoreMemory extends DataStoreAbstract implements DataStore {
+
+	// reference to main class
+	private final JavaPlugin plugin;
+
+	// snapshot file
+	private final File snapshotFile;
+
+	// all protected blocks
+	private final ProtectionIndex protectionIndex = new ProtectionIndex();
+
+	// number of protected blocks in each world
+	private final BlockTotals blockTotals = new BlockTotals();
+
+	// number of changes since datastore was opened, and number included in last snapshot
+	private final AtomicLong changes = new AtomicLong();
+	private volatile long snapshotChanges;
+
+	// periodic snapshot task
+	private BukkitTask snapshotTask;
+
+	// storage threads for asynchronous reads and writes
+	private final StorageExecutor executor;
+
+	// sorted chunk keys of the world last read by a record cursor, and number of changes when they were sorted
+	private UUID cursorWorldUid;
+	private long[] cursorChunkKeys;
+	private long cursorChanges;
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param plugin reference to main class
+	 */
+	DataStoreMemory(final JavaPlugin plugin) {
+
+		// reference to main class
+		this.plugin = plugin;
+
+		// set datastore type
+		this.type = DataStoreType.MEMORY;
+
+		// set snapshot file
+		this.snapshotFile = new File(plugin.getDataFolder(), type.getStorageName());
+
+		// create storage executor; worker threads are started when initialized
+		this.executor = new StorageExecutor(plugin.getName(), plugin.getLogger(),
+				plugin.getConfig().getInt("storage-threads"));
+	}
+
+
+	/**
+	 * Initialize memory datastore, reading snapshot file if it exists
+	 */
+	@Override
+	public void initialize() throws IOException {
+		initialize(true);
+	}
+
+
+	/**
+	 * Initialize memory datastore as the source of a conversion, without periodic snapshots
+	 */
+	@Override
+	public void initializeForConversion() throws IOException {
+		initialize(false);
+	}
+
+
+	/**
+	 * Initialize memory datastore, reading snapshot file if it exists
+	 *
+	 * @param snapshots {@code true} to write snapshots periodically, else {@code false}
+	 */
+	private void initialize(final boolean snapshots) throws IOException {
+
+		// if data store is already initialized, do nothing and return
+		if (this.isInitialized()) {
+			plugin.getLogger().info(this + " datastore already initialized.");
+			return;
+		}
+
+		if (snapshotFile.exists()) {
+			long startTime = System.nanoTime();
+			final int chunkCount = ProtectionSnapshot.read(snapshotFile, protectionIndex);
+			protectionIndex.forEachChunk((worldUid, chunkProtection) -> blockTotals.add(worldUid, chunkProtection.size()));
+
+			if (plugin.getConfig().getBoolean("profile")) {
+				plugin.getLogger().info(blockTotals.getTotal() + " blocks in " + chunkCount + " chunks loaded from snapshot in "
+						+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " milliseconds.");
+			}
+		}
+
+		// write snapshot periodically if blocks have changed
+		final long interval = plugin.getConfig().getLong("snapshot-interval");
+		if (snapshots && interval > 0) {
+			snapshotTask = new BukkitRunnable() {
+				@Override
+				public void run() {
+					writeSnapshot();
+				}
+			}.runTaskTimerAsynchronously(plugin, interval * 20L, interval * 20L);
+		}
+
+		executor.start();
+
+		// set initialized true
+		setInitialized(true);
+		plugin.getLogger().info(this + " datastore initialized.");
+	}
+
+
+	/**
+	 * Write snapshot file if blocks have changed since the last snapshot
+	 *
+	 * @return {@code true} if the snapshot file is up to date, {@code false} if it could not be written
+	 */
+	@Override
+	public boolean sync() {
+		return writeSnapshot();
+	}
+
+
+	/**
+	 * Write snapshot file and release protected blocks
+	 */
+	@Override
+	public void close() {
+
+		if (snapshotTask != null) {
+			snapshotTask.cancel();
+			snapshotTask = null;
+		}
+
+		// wait for running storage tasks, so the snapshot includes every completed write
+		executor.shutdown(TimeUnit.SECONDS.toMillis(plugin.getConfig().getLong("shutdown-timeout")));
+
+		writeSnapshot();
+
+		plugin.getLogger().info(this + " datastore closed.");
+		setInitialized(false);
+	}
+
+
+	/**
+	 * Get the storage executor of this datastore
+	 *
+	 * @return the storage executor
+	 */
+	@Override
+	public StorageExecutor getExecutor() {
+		return executor;
+	}
+
+
+	/**
+	 * Delete snapshot file
+	 */
+	@Override
+	public boolean delete() {
+
+		boolean result = false;
+		if (snapshotFile.exists()) {
+			result = snapshotFile.delete();
+		}
+		return result;
+	}
+
+
+	@Override
+	public boolean isProtected(final Location location) {
+
+		// get world for location
+		final World world = location.getWorld();
+
+		// if world is null, location cannot be protected
+		if (world == null) {
+			return false;
+		}
+
+		return protectionIndex.isProtected(world.getUID(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+	}
+
+
+	@Override
+	public int insertRecords(final Collection<BlockRecord> blockRecords) {
+
+		int count = 0;
+
+		for (BlockRecord blockRecord : blockRecords) {
+
+			if (blockRecord == null) {
+				continue;
+			}
+
+			// test that world in location is valid, otherwise skip to next location
+			if (plugin.getServer().getWorld(blockRecord.getWorldUid()) == null) {
+				plugin.getLogger().warning("An error occured while inserting"
+						+ " a record in the " + this + " datastore. World invalid!");
+				continue;
+			}
+
+			if (protectionIndex.add(blockRecord.getWorldUid(),
+					blockRecord.getBlockX(), blockRecord.getBlockY(), blockRecord.getBlockZ())) {
+				blockTotals.add(blockRecord.getWorldUid(), 1);
+				count++;
+			}
+		}
+
+		changes.addAndGet(count);
+		return count;
+	}
+
+
+	@Override
+	public int deleteRecords(final Collection<BlockRecord> blockRecords) {
+
+		int count = 0;
+
+		for (BlockRecord blockRecord : blockRecords) {
+			if (blockRecord != null && protectionIndex.remove(blockRecord.getWorldUid(),
+					blockRecord.getBlockX(), blockRecord.getBlockY(), blockRecord.getBlockZ())) {
+				blockTotals.add(blockRecord.getWorldUid(), -1);
+				count++;
+			}
+		}
+
+		changes.addAndGet(count);
+		return count;
+	}
+
+
+	@Override
+	public Collection<BlockRecord> selectAllRecords() {
+
+		final Collection<BlockRecord> returnSet = new HashSet<>();
+
+		protectionIndex.forEachChunk((worldUid, chunkProtection) -> {
+
+			// if world is not loaded, skip its records
+			final World world = plugin.getServer().getWorld(worldUid);
+			if (world == null) {
+				return;
+			}
+
+			chunkProtection.forEach((x, y, z) -> returnSet.add(new BlockRecord(world.getName(), worldUid,
+					x, y, z, chunkProtection.getChunkX(), chunkProtection.getChunkZ())));
+		});
+
+		return returnSet;
+	}
+
+
+	/**
+	 * Open a cursor reading records in world uid and chunk key order
+	 *
+	 * @param position the position to continue after, or {@code null} to start at the first record
+	 * @return the record cursor
+	 */
+	@Override
+	public RecordCursor openCursor(final String position) {
+		return new RecordCursor(this::readPage, position);
+	}
+
+
+	/**
+	 * Read a page of whole chunks for a record cursor; the position is the world uid and key of the last chunk read
+	 */
+	private String readPage(final String position, final int pageSize, final Collection<BlockRecord> page)
+			throws IOException {
+
+		final long[] start;
+		try {
+			start = RecordCursor.parsePosition(position, 3);
+		}
+		catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		final UUID startWorldUid = (start == null) ? null : new UUID(start[0], start[1]);
+
+		final List<UUID> worldUids = new ArrayList<>(protectionIndex.getWorlds());
+		Collections.sort(worldUids);
+
+		int count = 0;
+		String last = null;
+
+		for (UUID worldUid : worldUids) {
+
+			// skip worlds before the starting world
+			if (startWorldUid != null && worldUid.compareTo(startWorldUid) < 0) {
+				continue;
+			}
+
+			// if world is not loaded, skip its records
+			final World world = plugin.getServer().getWorld(worldUid);
+			if (world == null) {
+				continue;
+			}
+
+			final long[] chunkKeys = getSortedChunkKeys(worldUid);
+
+			// in the starting world, continue after the last chunk read
+			int index = 0;
+			if (worldUid.equals(startWorldUid)) {
+				index = Arrays.binarySearch(chunkKeys, start[2]);
+				index = (index >= 0) ? index + 1 : -index - 1;
+			}
+
+			for (; index < chunkKeys.length; index++) {
+
+				final long chunkKey = chunkKeys[index];
+				final ChunkProtection chunkProtection = protectionIndex.getChunk(worldUid,
+						PackedCoordinates.chunkX(chunkKey), PackedCoordinates.chunkZ(chunkKey));
+				if (chunkProtection == null) {
+					continue;
+				}
+
+				chunkProtection.forEach((x, y, z) -> page.add(new BlockRecord(world.getName(), worldUid,
+						x, y, z, chunkProtection.getChunkX(), chunkProtection.getChunkZ())));
+				count += chunkProtection.size();
+				last = worldUid.getMostSignificantBits() + "," + worldUid.getLeastSignificantBits() + "," + chunkKey;
+
+				if (count >= pageSize) {
+					return last;
+				}
+			}
+		}
+
+		return last;
+	}
+
+
+	/**
+	 * Get sorted chunk keys for a world, reusing the keys sorted for the previous page if no blocks have changed
+	 */
+	private synchronized long[] getSortedChunkKeys(final UUID worldUid) {
+		if (!worldUid.equals(cursorWorldUid) || cursorChanges != changes.get()) {
+			cursorChanges = changes.get();
+			cursorChunkKeys = protectionIndex.getChunkKeys(worldUid);
+			cursorWorldUid = worldUid;
+		}
+		return cursorChunkKeys;
+	}
+
+
+	@Override
+	public int getTotalBlocks() {
+		return blockTotals.getTotal();
+	}
+
+
+	@Override
+	public Map<UUID, Integer> getWorldBlockTotals() {
+		return blockTotals.getWorldTotals();
+	}
+
+
+	@Override
+	public Collection<BlockRecord> selectRecordsInChunk(final Chunk chunk) {
+
+		final Collection<BlockRecord> returnSet = new HashSet<>();
+
+		final World world = chunk.getWorld();
+
+		final ChunkProtection chunkProtection = protectionIndex.getChunk(world.getUID(), chunk.getX(), chunk.getZ());
+		if (chunkProtection != null) {
+			chunkProtection.forEach((x, y, z) -> returnSet.add(new BlockRecord(world.getName(), world.getUID(),
+					x, y, z, chunk.getX(), chunk.getZ())));
+		}
+
+		return returnSet;
+	}
+
+
+	@Override
+	public Collection<Location> selectNearbyBlocks(final Location location, final int distance) {
+
+		// if passed location is null, return empty set
+		if (location == null || location.getWorld() == null) {
+			return Collections.emptySet();
+		}
+
+		return selectNearbyBlocks(location, distance, location.getWorld().getMinHeight(), location.getWorld().getMaxHeight());
+	}
+
+
+	@Override
+	public Collection<Location> selectNearbyBlocks(final Location location, final int distance, final int minY, final int maxY) {
+
+		// if passed location or its world is null, return empty set
+		if (location == null || location.getWorld() == null) {
+			return Collections.emptySet();
+		}
+
+		final World world = location.getWorld();
+
+		final int minX = location.getBlockX() - distance;
+		final int maxX = location.getBlockX() + distance;
+		final int minZ = location.getBlockZ() - distance;
+		final int maxZ = location.getBlockZ() + distance;
+
+		final Collection<Location> resultSet = new HashSet<>();
+
+		protectionIndex.forEachInArea(world.getUID(), minX, maxX, minZ, maxZ, minY, maxY,
+				(x, y, z) -> resultSet.add(new Location(world, x, y, z)));
+
+		return resultSet;
+	}
+
+
+	/**
+	 * Write snapshot file if blocks have changed since the last snapshot
+	 */
+	private synchronized boolean writeSnapshot() {
+
+		// changes made while snapshot is written may or may not be included, so they are written again next time
+		final long currentChanges = changes.get();
+		if (currentChanges == snapshotChanges) {
+			return true;
+		}
+
+		try {
+			long startTime = System.nanoTime();
+			final int chunkCount = ProtectionSnapshot.write(snapshotFile, protectionIndex);
+			snapshotChanges = currentChanges;
+
+			if (plugin.getConfig().getBoolean("profile")) {
+				plugin.getLogger().info(chunkCount + " chunks written to " + this + " snapshot in "
+						+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " milliseconds.");
+			}
+			return true;
+		}
+		catch (IOException e) {
+
+			// output simple error message
+			plugin.getLogger().warning("An error occurred while writing the " + this + " datastore snapshot.");
+			plugin.getLogger().warning(e.getLocalizedMessage());
+
+			// if debugging is enabled, output stack trace
+			if (plugin.getConfig().getBoolean("debug")) {
+				e.printStackTrace();
+			}
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,693 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Datastore keeping protection bitmaps in memory mapped region files, one per 32x32 chunks per world.
+ * <p>
+ * Region files are stored in a directory per world uid. Protection checks read the mapped file directly,
+ * so no chunk cache is kept; changes are written to the mapped files immediately and flushed to disk
+ * by the operating system, or by {@link #sync()}.
+ */
+final class DataStoreRegionFile extends DataStoreAbstract implements DataStore {
+
+	// reference to main class
+	private final JavaPlugin plugin;
+
+	// directory containing world region directories
+	private final File regionDirectory;
+
+	// regions keyed by world uid and packed region coordinates; regions without a file are included
+	private final Map<UUID, LongObjectMap<RegionFile>> regions = new ConcurrentHashMap<>();
+
+	// maximum number of region files kept open
+	private static final int MAX_OPEN_REGIONS = 256;
+
+	// number of protected blocks in each world; counted once on initialization
+	private final BlockTotals blockTotals = new BlockTotals();
+
+	// storage threads for asynchronous reads and writes
+	private final StorageExecutor executor;
+
+	private static final Pattern REGION_FILE_NAME = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.rbr");
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param plugin reference to main class
+	 */
+	DataStoreRegionFile(final JavaPlugin plugin) {
+
+		// reference to main class
+		this.plugin = plugin;
+
+		// set datastore type
+		this.type = DataStoreType.REGION_FILE;
+
+		// set region directory
+		this.regionDirectory = new File(plugin.getDataFolder(), type.getStorageName());
+
+		// create storage executor; worker threads are started when initialized
+		this.executor = new StorageExecutor(plugin.getName(), plugin.getLogger(),
+				plugin.getConfig().getInt("storage-threads"));
+	}
+
+
+	/**
+	 * Initialize region file datastore
+	 */
+	@Override
+	public void initialize() throws IOException {
+
+		// if data store is already initialized, do nothing and return
+		if (this.isInitialized()) {
+			plugin.getLogger().info(this + " datastore already initialized.");
+			return;
+		}
+
+		if (!regionDirectory.isDirectory() && !regionDirectory.mkdirs()) {
+			throw new IOException("Could not create directory " + regionDirectory + ".");
+		}
+
+		// count blocks in existing region files
+		long startTime = System.nanoTime();
+		blockTotals.clear();
+		forEachRegion((world, region) -> blockTotals.add(world.getUID(), region.count()));
+		if (plugin.getConfig().getBoolean("profile")) {
+			plugin.getLogger().info(blockTotals.getTotal() + " blocks counted in " + this + " datastore in "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " milliseconds.");
+		}
+
+		executor.start();
+
+		// set initialized true
+		setInitialized(true);
+		plugin.getLogger().info(this + " datastore initialized.");
+	}
+
+
+	/**
+	 * Initialize region file datastore as the source of a conversion; region files are read on demand,
+	 * so this is the same as a normal initialization
+	 */
+	@Override
+	public void initializeForConversion() throws IOException {
+		initialize();
+	}
+
+
+	/**
+	 * Write changes in open region files to disk
+	 *
+	 * @return {@code true}; changes are made directly in the mapped files
+	 */
+	@Override
+	public boolean sync() {
+		for (LongObjectMap<RegionFile> worldRegions : regions.values()) {
+			worldRegions.forEachValue(RegionFile::force);
+		}
+		return true;
+	}
+
+
+	/**
+	 * Close region files
+	 */
+	@Override
+	public void close() {
+
+		// wait for running storage tasks before closing their region files
+		executor.shutdown(TimeUnit.SECONDS.toMillis(plugin.getConfig().getLong("shutdown-timeout")));
+
+		for (LongObjectMap<RegionFile> worldRegions : regions.values()) {
+			worldRegions.forEachValue(this::closeRegion);
+		}
+		regions.clear();
+		plugin.getLogger().info(this + " datastore closed.");
+		setInitialized(false);
+	}
+
+
+	/**
+	 * Get the storage executor of this datastore
+	 *
+	 * @return the storage executor
+	 */
+	@Override
+	public StorageExecutor getExecutor() {
+		return executor;
+	}
+
+
+	/**
+	 * Delete all region files
+	 */
+	@Override
+	public boolean delete() {
+
+		boolean result = true;
+
+		final File[] worldDirectories = regionDirectory.listFiles(File::isDirectory);
+		if (worldDirectories != null) {
+			for (File worldDirectory : worldDirectories) {
+				final File[] regionFiles = worldDirectory.listFiles();
+				if (regionFiles != null) {
+					for (File regionFile : regionFiles) {
+						result &= regionFile.delete();
+					}
+				}
+				result &= worldDirectory.delete();
+			}
+		}
+
+		// return result
+		return result && regionDirectory.delete();
+	}
+
+
+	/**
+	 * Check if a location is a protected road block
+	 *
+	 * @param location the location key to check for protected status
+	 * @return {@code true} if the location is protected, {@code false} if it is not
+	 */
+	@Override
+	public boolean isProtected(final Location location) {
+
+		// get world for location
+		final World world = location.getWorld();
+
+		// if world is null, location cannot be protected
+		if (world == null) {
+			return false;
+		}
+
+		final int x = location.getBlockX();
+		final int y = location.getBlockY();
+		final int z = location.getBlockZ();
+
+		try {
+			return getRegion(world.getUID(), x >> 4, z >> 4).contains(x, y, z);
+		}
+		catch (IOException e) {
+			logError("check protection in", e);
+
+			// fail safe; a block that cannot be checked is treated as protected
+			return true;
+		}
+	}
+
+
+	/**
+	 * Insert records into the region files
+	 *
+	 * @param blockRecords Collection of records to insert
+	 */
+	@Override
+	public int insertRecords(final Collection<BlockRecord> blockRecords) {
+
+		int count = 0;
+		long startTime = System.nanoTime();
+
+		for (BlockRecord blockRecord : blockRecords) {
+
+			if (blockRecord == null) {
+				continue;
+			}
+
+			// test that world in location is valid, otherwise skip to next location
+			if (plugin.getServer().getWorld(blockRecord.getWorldUid()) == null) {
+				plugin.getLogger().warning("An error occured while inserting"
+						+ " a record in the " + this + " datastore. World invalid!");
+				continue;
+			}
+
+			try {
+				if (getRegion(blockRecord.getWorldUid(), blockRecord.getChunkX(), blockRecord.getChunkZ())
+						.add(blockRecord.getBlockX(), blockRecord.getBlockY(), blockRecord.getBlockZ())) {
+					blockTotals.add(blockRecord.getWorldUid(), 1);
+					count++;
+				}
+			}
+			catch (IOException e) {
+				logError("insert records in", e);
+				break;
+			}
+		}
+
+		if (plugin.getConfig().getBoolean("profile")) {
+			plugin.getLogger().info(count + " blocks inserted into " + this + " datastore in "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " milliseconds.");
+		}
+		return count;
+	}
+
+
+	/**
+	 * Delete records from the region files
+	 *
+	 * @param blockRecords Collection of records to delete
+	 */
+	@Override
+	public int deleteRecords(final Collection<BlockRecord> blockRecords) {
+
+		int count = 0;
+		long startTime = System.nanoTime();
+
+		for (BlockRecord blockRecord : blockRecords) {
+
+			if (blockRecord == null) {
+				continue;
+			}
+
+			try {
+				if (getRegion(blockRecord.getWorldUid(), blockRecord.getChunkX(), blockRecord.getChunkZ())
+						.remove(blockRecord.getBlockX(), blockRecord.getBlockY(), blockRecord.getBlockZ())) {
+					blockTotals.add(blockRecord.getWorldUid(), -1);
+					count++;
+				}
+			}
+			catch (IOException e) {
+				logError("delete records from", e);
+				break;
+			}
+		}
+
+		if (plugin.getConfig().getBoolean("profile")) {
+			plugin.getLogger().info(count + " blocks removed from " + this + " datastore in "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " milliseconds.");
+		}
+		return count;
+	}
+
+
+	/**
+	 * Retrieve all block records from all region files of loaded worlds
+	 *
+	 * @return Collection of block records
+	 */
+	@Override
+	public Collection<BlockRecord> selectAllRecords() {
+
+		final Collection<BlockRecord> returnSet = new HashSet<>();
+
+		forEachRegion((world, region) -> region.forEach((chunkX, chunkZ, x, y, z) ->
+				returnSet.add(new BlockRecord(world.getName(), world.getUID(), x, y, z, chunkX, chunkZ))));
+
+		return returnSet;
+	}
+
+
+	/**
+	 * Open a cursor reading records in world uid, region and chunk order
+	 *
+	 * @param position the position to continue after, or {@code null} to start at the first record
+	 * @return the record cursor
+	 */
+	@Override
+	public RecordCursor openCursor(final String position) {
+		return new RecordCursor(this::readPage, position);
+	}
+
+
+	/**
+	 * Read a page of whole chunks for a record cursor; the position is the world uid, region coordinates
+	 * and index within the region of the last chunk read
+	 */
+	private String readPage(final String position, final int pageSize, final Collection<BlockRecord> page)
+			throws IOException {
+
+		final long[] start;
+		try {
+			start = RecordCursor.parsePosition(position, 5);
+		}
+		catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		final UUID startWorldUid = (start == null) ? null : new UUID(start[0], start[1]);
+
+		final SortedMap<UUID, File> worldDirectories = new TreeMap<>();
+		final File[] directories = regionDirectory.listFiles(File::isDirectory);
+		if (directories != null) {
+			for (File worldDirectory : directories) {
+				try {
+					worldDirectories.put(UUID.fromString(worldDirectory.getName()), worldDirectory);
+				}
+				catch (IllegalArgumentException e) {
+					// not a world directory
+				}
+			}
+		}
+
+		int count = 0;
+		String last = null;
+
+		final SortedMap<UUID, File> remainingWorlds = (startWorldUid == null)
+				? worldDirectories
+				: worldDirectories.tailMap(startWorldUid);
+
+		for (Map.Entry<UUID, File> worldEntry : remainingWorlds.entrySet()) {
+
+			final UUID worldUid = worldEntry.getKey();
+
+			// if world is not loaded, skip its records
+			final World world = plugin.getServer().getWorld(worldUid);
+			if (world == null) {
+				continue;
+			}
+
+			for (long regionKey : getRegionKeys(worldEntry.getValue())) {
+
+				final int regionX = PackedCoordinates.orderedChunkX(regionKey);
+				final int regionZ = PackedCoordinates.orderedChunkZ(regionKey);
+
+				// in the starting world, continue after the last chunk read
+				int index = 0;
+				if (worldUid.equals(startWorldUid)) {
+					final long startRegionKey = PackedCoordinates.orderedChunkKey((int) start[2], (int) start[3]);
+					if (regionKey < startRegionKey) {
+						continue;
+					}
+					if (regionKey == startRegionKey) {
+						index = (int) start[4] + 1;
+					}
+				}
+
+				final RegionFile region = getRegion(worldUid,
+						regionX << RegionFile.REGION_SHIFT, regionZ << RegionFile.REGION_SHIFT);
+
+				for (; index < RegionFile.REGION_CHUNKS; index++) {
+
+					final int chunkX = (regionX << RegionFile.REGION_SHIFT) | (index & 31);
+					final int chunkZ = (regionZ << RegionFile.REGION_SHIFT) | (index >> RegionFile.REGION_SHIFT);
+
+					final int pageSizeBefore = page.size();
+					region.forEachInChunk(chunkX, chunkZ, Integer.MIN_VALUE, Integer.MAX_VALUE, (x, y, z) ->
+							page.add(new BlockRecord(world.getName(), worldUid, x, y, z, chunkX, chunkZ)));
+
+					if (page.size() > pageSizeBefore) {
+						count += page.size() - pageSizeBefore;
+						last = worldUid.getMostSignificantBits() + "," + worldUid.getLeastSignificantBits() + ","
+								+ regionX + "," + regionZ + "," + index;
+						if (count >= pageSize) {
+							return last;
+						}
+					}
+				}
+			}
+		}
+
+		return last;
+	}
+
+
+	/**
+	 * Get region coordinates of the region files in a world directory, in ascending order
+	 *
+	 * @param worldDirectory the world directory
+	 * @return sorted region keys packed by {@link PackedCoordinates#orderedChunkKey(int, int)}
+	 */
+	private long[] getRegionKeys(final File worldDirectory) {
+
+		final File[] regionFiles = worldDirectory.listFiles();
+		if (regionFiles == null) {
+			return new long[0];
+		}
+
+		final long[] keys = new long[regionFiles.length];
+		int count = 0;
+		for (File regionFile : regionFiles) {
+			final Matcher matcher = REGION_FILE_NAME.matcher(regionFile.getName());
+			if (matcher.matches()) {
+				keys[count++] = PackedCoordinates.orderedChunkKey(
+						Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+			}
+		}
+
+		final long[] regionKeys = Arrays.copyOf(keys, count);
+		Arrays.sort(regionKeys);
+		return regionKeys;
+	}
+
+
+	@Override
+	public int getTotalBlocks() {
+		return blockTotals.getTotal();
+	}
+
+
+	@Override
+	public Map<UUID, Integer> getWorldBlockTotals() {
+		return blockTotals.getWorldTotals();
+	}
+
+
+	/**
+	 * Retrieve all block records in a chunk
+	 *
+	 * @param chunk the chunk for which to retrieve all block records
+	 * @return Collection of block records
+	 */
+	@Override
+	public Collection<BlockRecord> selectRecordsInChunk(final Chunk chunk) {
+
+		final Collection<BlockRecord> returnSet = new HashSet<>();
+
+		final World world = chunk.getWorld();
+
+		try {
+			getRegion(world.getUID(), chunk.getX(), chunk.getZ()).forEachInChunk(chunk.getX(), chunk.getZ(),
+					Integer.MIN_VALUE, Integer.MAX_VALUE, (x, y, z) -> returnSet.add(
+							new BlockRecord(world.getName(), world.getUID(), x, y, z, chunk.getX(), chunk.getZ())));
+		}
+		catch (IOException e) {
+			logError("fetch records from", e);
+		}
+
+		return returnSet;
+	}
+
+
+	@Override
+	public Collection<Location> selectNearbyBlocks(final Location location, final int distance) {
+
+		// if passed location is null, return empty set
+		if (location == null || location.getWorld() == null) {
+			return Collections.emptySet();
+		}
+
+		return selectNearbyBlocks(location, distance, location.getWorld().getMinHeight(), location.getWorld().getMaxHeight());
+	}
+
+
+	@Override
+	public Collection<Location> selectNearbyBlocks(final Location location, final int distance, final int minY, final int maxY) {
+
+		// if passed location or its world is null, return empty set
+		if (location == null || location.getWorld() == null) {
+			return Collections.emptySet();
+		}
+
+		final World world = location.getWorld();
+
+		final int minX = location.getBlockX() - distance;
+		final int maxX = location.getBlockX() + distance;
+		final int minZ = location.getBlockZ() - distance;
+		final int maxZ = location.getBlockZ() + distance;
+
+		final Collection<Location> resultSet = new HashSet<>();
+
+		long startTime = System.nanoTime();
+
+		try {
+			for (int chunkX = (minX + 1) >> 4; chunkX <= (maxX - 1) >> 4; chunkX++) {
+				for (int chunkZ = (minZ + 1) >> 4; chunkZ <= (maxZ - 1) >> 4; chunkZ++) {
+					getRegion(world.getUID(), chunkX, chunkZ).forEachInChunk(chunkX, chunkZ, minY, maxY, (x, y, z) -> {
+						if (x > minX && x < maxX && z > minZ && z < maxZ) {
+							resultSet.add(new Location(world, x, y, z));
+						}
+					});
+				}
+			}
+		}
+		catch (IOException e) {
+			logError("select nearby block records from", e);
+		}
+
+		if (plugin.getConfig().getBoolean("profile")) {
+			plugin.getLogger().info("Selected " + resultSet.size() + " nearby blocks in "
+					+ TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime) + " microseconds.");
+		}
+
+		return resultSet;
+	}
+
+
+	/**
+	 * Get the region containing a chunk; the region file is opened on first use
+	 *
+	 * @param worldUid the world uid
+	 * @param chunkX chunk x coordinate
+	 * @param chunkZ chunk z coordinate
+	 * @return the region
+	 */
+	private RegionFile getRegion(final UUID worldUid, final int chunkX, final int chunkZ) {
+
+		final int regionX = chunkX >> RegionFile.REGION_SHIFT;
+		final int regionZ = chunkZ >> RegionFile.REGION_SHIFT;
+
+		final LongObjectMap<RegionFile> worldRegions = regions.computeIfAbsent(worldUid, k -> new LongObjectMap<>());
+
+		final long regionKey = PackedCoordinates.packChunk(regionX, regionZ);
+		RegionFile region = worldRegions.get(regionKey);
+		if (region == null) {
+			closeLeastRecentlyUsed();
+			region = worldRegions.computeIfAbsent(regionKey, k -> new RegionFile(
+					new File(new File(regionDirectory, worldUid.toString()), RegionFile.fileName(regionX, regionZ)),
+					regionX, regionZ));
+		}
+
+		// a region closed to limit open files will reopen its file
+		else if (region.isEvicted()) {
+			closeLeastRecentlyUsed();
+		}
+		return region;
+	}
+
+
+	/**
+	 * Close the least recently used region file if the open region limit has been reached
+	 */
+	private void closeLeastRecentlyUsed() {
+
+		final List<RegionFile> openRegions = new ArrayList<>();
+		for (LongObjectMap<RegionFile> worldRegions : regions.values()) {
+			worldRegions.forEachValue(region -> {
+				if (region.isOpen()) {
+					openRegions.add(region);
+				}
+			});
+		}
+
+		if (openRegions.size() >= MAX_OPEN_REGIONS) {
+			openRegions.stream()
+					.min(Comparator.comparingLong(RegionFile::getLastAccess))
+					.ifPresent(this::closeRegion);
+		}
+	}
+
+
+	private void closeRegion(final RegionFile region) {
+		try {
+			region.close();
+		}
+		catch (IOException e) {
+			logError("close a region file of", e);
+		}
+	}
+
+
+	/**
+	 * Functional interface for visiting region files
+	 */
+	@FunctionalInterface
+	private interface RegionAction {
+		void accept(World world, RegionFile region) throws IOException;
+	}
+
+
+	/**
+	 * Perform an action for each region file of loaded worlds
+	 */
+	private void forEachRegion(final RegionAction action) {
+
+		final File[] worldDirectories = regionDirectory.listFiles(File::isDirectory);
+		if (worldDirectories == null) {
+			return;
+		}
+
+		for (File worldDirectory : worldDirectories) {
+
+			final UUID worldUid;
+			try {
+				worldUid = UUID.fromString(worldDirectory.getName());
+			}
+			catch (IllegalArgumentException e) {
+				continue;
+			}
+
+			// get world object from stored world uid; if world is null, skip its records
+			final World world = plugin.getServer().getWorld(worldUid);
+			if (world == null) {
+				plugin.getLogger().warning("Stored blocks have unloaded world: "
+						+ worldUid + ". Skipping records.");
+				continue;
+			}
+
+			final File[] regionFiles = worldDirectory.listFiles();
+			if (regionFiles == null) {
+				continue;
+			}
+
+			for (File regionFile : regionFiles) {
+				final Matcher matcher = REGION_FILE_NAME.matcher(regionFile.getName());
+				if (!matcher.matches()) {
+					continue;
+				}
+				final int regionX = Integer.parseInt(matcher.group(1));
+				final int regionZ = Integer.parseInt(matcher.group(2));
+				try {
+					action.accept(world, getRegion(worldUid,
+							regionX << RegionFile.REGION_SHIFT, regionZ << RegionFile.REGION_SHIFT));
+				}
+				catch (IOException e) {
+					logError("read " + regionFile.getName() + " in", e);
+				}
+			}
+		}
+	}
+
+
+	private void logError(final String action, final IOException e) {
+
+		// output simple error message
+		plugin.getLogger().warning("An error occurred while trying to " + action + " the " + this + " datastore.");
+		plugin.getLogger().warning(e.getLocalizedMessage());
+
+		// if debugging is enabled, output stack trace
+		if (plugin.getConfig().getBoolean("debug")) {
+			e.printStackTrace();
+		}
+	}
+
+}
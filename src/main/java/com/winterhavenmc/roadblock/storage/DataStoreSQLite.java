@@ -21,15 +21,29 @@ import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
 import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldSaveEvent;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 final class DataStoreSQLite extends DataStoreAbstract implements DataStore, Listener {
@@ -37,47 +51,179 @@ final class DataStoreSQLite extends DataStoreAbstract implements DataStore, List
 	// reference to main class
 	private final JavaPlugin plugin;
 
-	// block cache
+	// pending write cache
 	private final BlockRecordCache blockCache;
 
-	// chunk cache
-	private final Collection<Location> chunkCache;
+	// worker threads for chunk loads, writes and maintenance
+	private final StorageExecutor executor;
+
+	// write-behind queue for inserts and deletes
+	private final WriteQueue writeQueue;
+
+	// journal of queued inserts and deletes for replay after a crash; null if disabled
+	private final OperationJournal journal;
+
+	// journal segments with operations that may have failed to be written; kept for replay on restart
+	// until a later checkpoint writes every queued operation
+	private final Set<File> retainedSegments = ConcurrentHashMap.newKeySet();
+
+	// journal segments that could not be replayed; they and every later segment are kept, so that a
+	// restart replays them in order
+	private final Set<File> unreplayedSegments = ConcurrentHashMap.newKeySet();
+
+	// set while a journal checkpoint is running
+	private final AtomicBoolean checkpointRunning = new AtomicBoolean();
+
+	// interval in milliseconds between forcing journal appends to disk; zero forces every append
+	private final long journalSyncInterval;
+
+	// task forcing journal appends to disk, and set while a sync is queued
+	private ScheduledFuture<?> journalSyncTask;
+	private final AtomicBoolean journalSyncRequested = new AtomicBoolean();
+
+	// protected block index for cached chunks
+	private final ProtectionIndex protectionIndex;
+
+	// chunks resident in the protection index
+	private final ChunkSet chunkCache;
+
+	// number of chunks dropped from the cache; advanced before a chunk leaves the index
+	private final AtomicLong dropCount = new AtomicLong();
+
+	// load generation of each cached chunk, keyed by world uid and packed chunk coordinates; chunks are cached
+	// and dropped while holding the lock of their world's map, so a stale prefetch cannot drop a later load
+	private final Map<UUID, LongObjectMap<Long>> cacheGenerations = new ConcurrentHashMap<>();
+	private final AtomicLong loadGenerations = new AtomicLong();
+
+	// true if every stored chunk was loaded into the protection index at startup, so chunks are never cached or evicted
+	private volatile boolean resident;
+
+	// chunks with stored or queued blocks; chunks are not removed when their last block is deleted until restart
+	private final ChunkSet storedChunks;
+
+	// true if stored chunks were read at startup, so chunks not in the set are known to be empty
+	private boolean storedChunksLoaded;
+
+	// memory budget and eviction policy of cached chunks; null if cache size is only bounded by chunk unloads
+	private final ChunkCachePolicy cachePolicy;
+
+	// chunks with a prefetch in progress, keyed by world uid and packed chunk coordinates
+	private final Map<UUID, LongObjectMap<CompletableFuture<Void>>> prefetchMap;
+
+	// unloaded chunks waiting to be removed from cache
+	private final ChunkEvictionQueue evictionQueue;
+
+	// task removing unloaded chunks from cache each tick
+	private BukkitTask evictionTask;
+
+	// set when closed, so chunk caching scheduled by initialization is not started; guarded by cachingLock
+	private final Object cachingLock = new Object();
+	private boolean closed;
+
+	// table layout for stored blocks
+	private final SQLiteLayout layout;
 
 	// database connection object
 	private Connection connection;
 
+	// prepared statements for connection
+	private StatementRegistry statements;
+
+	// read-only connections; readers use the writer connection when not in WAL mode
+	private ReaderPool readers;
+
+	// held while a batch is written on the writer connection, and by readers using writer statements,
+	// so they never see a transaction in progress
+	private final ReentrantLock writerLock = new ReentrantLock();
+
 	// file path for datastore file
 	private final String dataFilePath;
 
 	// schema version
 	private int schemaVersion;
 
+	// datastore generation, advanced when opened; 0 if it could not be read
+	private long generation;
+
+	// warm restart snapshot of cached chunks, and chunks restored from it that have not been cached yet
+	private final File warmRestartFile;
+	private volatile ProtectionIndex warmIndex;
+
+	// true if nearby block queries use the R*Tree spatial index
+	private boolean spatialIndex;
+
+	// world ids in the worlds table, keyed by world uid
+	private final Map<UUID, Integer> worldIds = new ConcurrentHashMap<>();
+
+	// committed block counts per world, read from the worlds table after each write
+	private final BlockTotals blockTotals = new BlockTotals();
+
+	// milliseconds a connection waits for a database lock before failing
+	private static final int BUSY_TIMEOUT = 5000;
+
+	// number of schema v0 records migrated in each transaction
+	private static final int MIGRATION_PAGE_SIZE = 10000;
+
 
 	/**
 	 * Class constructor
 	 *
 	 * @param plugin reference to main class
+	 * @param type the datastore type
+	 * @param layout the table layout for stored blocks
 	 */
-	DataStoreSQLite(final JavaPlugin plugin) {
+	DataStoreSQLite(final JavaPlugin plugin, final DataStoreType type, final SQLiteLayout layout) {
 
 		// reference to main class
 		this.plugin = plugin;
 
 		// set datastore type
-		this.type = DataStoreType.SQLITE;
+		this.type = type;
+
+		// set table layout
+		this.layout = layout;
 
 		// set file path for datastore file
 		this.dataFilePath = plugin.getDataFolder() + File.separator + type.getStorageName();
+		this.warmRestartFile = new File(dataFilePath + ".warm");
 
 		// create empty block cache
 		this.blockCache = BlockRecordCache.getInstance();
 
-		// create empty chunk location cache
-		this.chunkCache = new HashSet<>();
+		// create storage executor; worker threads are started when initialized
+		this.executor = new StorageExecutor(plugin.getName(), plugin.getLogger(),
+				plugin.getConfig().getInt("storage-threads"));
+
+		// create empty write queue
+		this.writeQueue = new WriteQueue(plugin.getLogger(), executor, blockCache, this::writeBatch,
+				plugin.getConfig().getInt("write-batch-size"), plugin.getConfig().getLong("write-flush-interval"));
 
-		// register event handlers in this class
-		plugin.getServer().getPluginManager().registerEvents(this, plugin);
+		// create journal beside datastore file if enabled
+		this.journalSyncInterval = Math.max(0, plugin.getConfig().getLong("write-journal-sync-interval"));
+		this.journal = plugin.getConfig().getBoolean("write-journal")
+				? new OperationJournal(new File(dataFilePath), journalSyncInterval == 0)
+				: null;
 
+		// create empty protection index
+		this.protectionIndex = new ProtectionIndex();
+
+		// create empty chunk residency set; chunks are added from async prefetch tasks
+		this.chunkCache = new ChunkSet();
+
+		// create empty stored chunk set; filled from the datastore when initialized
+		this.storedChunks = new ChunkSet();
+
+		// create cache policy if a memory budget is configured
+		final long cacheSize = plugin.getConfig().getLong("chunk-cache-size");
+		this.cachePolicy = cacheSize > 0
+				? new ChunkCachePolicy(cacheSize * 1024 * 1024, this::dropChunk)
+				: null;
+
+		// create empty prefetch map
+		this.prefetchMap = new ConcurrentHashMap<>();
+
+		// create empty eviction queue
+		this.evictionQueue = new ChunkEvictionQueue(this::flushCache);
 	}
 
 
@@ -86,6 +232,26 @@ final class DataStoreSQLite extends DataStoreAbstract implements DataStore, List
 	 */
 	@Override
 	public void initialize() throws SQLException, ClassNotFoundException {
+		initialize(true);
+	}
+
+
+	/**
+	 * Initialize SQLite datastore as the source of a conversion, without caching chunks
+	 */
+	@Override
+	public void initializeForConversion() throws SQLException, ClassNotFoundException {
+		initialize(false);
+	}
+
+
+	/**
+	 * Initialize SQLite datastore
+	 *
+	 * @param caching {@code true} to cache chunks as they are loaded, {@code false} for a datastore that is only
+	 *                read for conversion
+	 */
+	private void initialize(final boolean caching) throws SQLException, ClassNotFoundException {
 
 		// if data store is already initialized, do nothing and return
 		if (this.isInitialized()) {
@@ -93,6 +259,8 @@ final class DataStoreSQLite extends DataStoreAbstract implements DataStore, List
 			return;
 		}
 
+		final PhaseTimer timer = new PhaseTimer();
+
 		// register the driver 
 		final String jdbcDriverName = "org.sqlite.JDBC";
 
@@ -104,12 +272,211 @@ final class DataStoreSQLite extends DataStoreAbstract implements DataStore, List
 		// create a database connection
 		connection = DriverManager.getConnection(dbUrl);
 
+		// set journal mode and tuning for writer connection
+		final String journalMode = configureWriter(connection);
+
+		// create statement registry for connection
+		statements = new StatementRegistry(connection);
+
+		// create read-only connections; concurrent readers are only possible in WAL mode
+		final List<Connection> readerConnections = new ArrayList<>();
+		if ("wal".equalsIgnoreCase(journalMode)) {
+			final int readerCount = plugin.getConfig().getInt("sqlite-reader-connections");
+			for (int i = 0; i < readerCount; i++) {
+				final Connection readerConnection = DriverManager.getConnection(dbUrl);
+				configureReader(readerConnection);
+				readerConnections.add(readerConnection);
+			}
+		}
+		readers = new ReaderPool(readerConnections, statements, writerLock);
+		if (plugin.getConfig().getBoolean("debug")) {
+			plugin.getLogger().info(this + " datastore opened in " + journalMode
+					+ " journal mode with " + readers.size() + " reader connections.");
+		}
+
+		// start storage threads and writer for queued inserts and deletes
+		executor.start();
+		writeQueue.start();
+		timer.mark("connect");
+
 		// update database schema if necessary
 		updateSchema();
+		timer.mark("schema");
+
+		// advance generation before any block is written
+		openGeneration();
+
+		// read chunks with stored blocks, so chunks without blocks are cached without a query
+		loadStoredChunks();
+		timer.mark("stored chunks");
+
+		// load every stored chunk into the index if configured, else restore chunks cached before the last shutdown
+		if (caching) {
+			loadResidentIndex();
+			timer.mark("resident index");
+			restoreWarmChunks();
+			timer.mark("warm restart");
+		}
+
+		// create or drop spatial index as configured
+		spatialIndex = configureSpatialIndex();
+		timer.mark("spatial index");
+
+		// queue operations left in journal by an unclean shutdown, and start a new journal segment
+		openJournal();
+		timer.mark("journal");
+
+		// prepare remaining queries once for the lifetime of the connection; queries for
+		// optional tables that do not exist are only prepared if they are used
+		final Collection<String> failedQueries = new TreeSet<>(statements.prepareAll());
+		failedQueries.addAll(readers.prepareAll());
+		if (plugin.getConfig().getBoolean("debug")) {
+			for (String name : failedQueries) {
+				plugin.getLogger().info("Query " + name + " not prepared; it will be prepared on first use.");
+			}
+		}
+		timer.mark("statements");
 
 		// set initialized true
 		setInitialized(true);
 		plugin.getLogger().info(this + " datastore initialized.");
+		if (plugin.getConfig().getBoolean("profile")) {
+			plugin.getLogger().info(this + " datastore initialized in " + timer.getElapsed()
+					+ " milliseconds (" + timer + ").");
+		}
+
+		// a conversion source is only read, so it caches no chunks
+		if (!caching) {
+			return;
+		}
+
+		// start caching chunks on the server thread, which loads and unloads them
+		if (plugin.getServer().isPrimaryThread()) {
+			startCaching();
+		}
+		else {
+			plugin.getServer().getScheduler().runTask(plugin, this::startCaching);
+		}
+	}
+
+
+	/**
+	 * Register chunk event handlers, start eviction task and prefetch loaded chunks; called on the server
+	 * thread once initialized, unless the datastore has been closed since
+	 */
+	private void startCaching() {
+
+		synchronized (cachingLock) {
+
+			if (closed) {
+				return;
+			}
+
+			// register event handlers in this class
+			plugin.getServer().getPluginManager().registerEvents(this, plugin);
+
+			// resident chunks are never evicted, and loaded chunks are already in the index
+			if (resident) {
+				return;
+			}
+
+			// remove unloaded chunks from cache each tick, within the configured time budget
+			final long evictionBudget = TimeUnit.MICROSECONDS.toNanos(plugin.getConfig().getLong("chunk-eviction-budget"));
+			evictionTask = new BukkitRunnable() {
+				@Override
+				public void run() {
+					evictionQueue.evict(evictionBudget);
+				}
+			}.runTaskTimer(plugin, 1L, 1L);
+		}
+
+		// prefetch chunks that were loaded before the datastore was initialized
+		for (World world : plugin.getServer().getWorlds()) {
+			for (Chunk chunk : world.getLoadedChunks()) {
+				prefetchChunk(world, chunk.getX(), chunk.getZ());
+			}
+		}
+	}
+
+
+	/**
+	 * Set journal mode, synchronous mode and cache sizes on the writer connection
+	 *
+	 * @param connection the writer connection
+	 * @return the journal mode in effect
+	 */
+	private String configureWriter(final Connection connection) throws SQLException {
+
+		final String journalMode = matchSetting(plugin.getConfig().getString("sqlite-journal-mode"),
+				"WAL", "DELETE", "TRUNCATE", "PERSIST", "WAL");
+		final String synchronous = matchSetting(plugin.getConfig().getString("sqlite-synchronous"),
+				"NORMAL", "OFF", "NORMAL", "FULL", "EXTRA");
+
+		String journalModeInEffect = journalMode;
+
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT);
+
+			// journal mode change returns the mode in effect, which may differ if the requested mode is unavailable
+			try (ResultSet rs = statement.executeQuery("PRAGMA journal_mode = " + journalMode)) {
+				if (rs.next()) {
+					journalModeInEffect = rs.getString(1);
+				}
+			}
+			statement.execute("PRAGMA synchronous = " + synchronous);
+		}
+		configureCache(connection);
+
+		return journalModeInEffect;
+	}
+
+
+	/**
+	 * Make a reader connection read-only and set its cache sizes
+	 *
+	 * @param connection the reader connection
+	 */
+	private void configureReader(final Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT);
+			statement.execute("PRAGMA query_only = true");
+		}
+		configureCache(connection);
+	}
+
+
+	/**
+	 * Set memory map and page cache sizes on a connection
+	 *
+	 * @param connection the connection to configure
+	 */
+	private void configureCache(final Connection connection) throws SQLException {
+		final long mmapSize = Math.max(0L, plugin.getConfig().getLong("sqlite-mmap-size"));
+		final long cacheSize = Math.max(0L, plugin.getConfig().getLong("sqlite-cache-size"));
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("PRAGMA mmap_size = " + mmapSize);
+
+			// a negative cache size is a size in kibibytes rather than a page count
+			statement.execute("PRAGMA cache_size = " + (-cacheSize));
+		}
+	}
+
+
+	/**
+	 * Match a configured setting against its allowed values; ignores case
+	 *
+	 * @param value the configured value
+	 * @param defaultValue the value to use if the configured value is not allowed
+	 * @param allowedValues the allowed values
+	 * @return the matching allowed value, or the default value
+	 */
+	private static String matchSetting(final String value, final String defaultValue, final String... allowedValues) {
+		for (String allowedValue : allowedValues) {
+			if (allowedValue.equalsIgnoreCase(value)) {
+				return allowedValue;
+			}
+		}
+		return defaultValue;
 	}
 
 
@@ -117,10 +484,8 @@ final class DataStoreSQLite extends DataStoreAbstract implements DataStore, List
 
 		int version = -1;
 
-		try {
-			final Statement statement = connection.createStatement();
-
-			ResultSet rs = statement.executeQuery(Queries.getQuery("GetUserVersion"));
+		try (StatementRegistry.Lease lease = statements.acquire("GetUserVersion");
+		     ResultSet rs = lease.getStatement().executeQuery()) {
 
 			while (rs.next()) {
 				version = rs.getInt(1);
@@ -137,331 +502,1100 @@ final class DataStoreSQLite extends DataStoreAbstract implements DataStore, List
 
 		schemaVersion = getSchemaVersion();
 
-		final Statement statement = connection.createStatement();
+		final boolean tableExists;
+		try (StatementRegistry.Lease lease = statements.acquire("SelectBlockTable");
+		     ResultSet rs = lease.getStatement().executeQuery()) {
+			tableExists = rs.next();
+		}
 
-		if (schemaVersion == 0) {
-			int count;
-			ResultSet rs = statement.executeQuery(Queries.getQuery("SelectBlockTable"));
-			if (rs.next()) {
-				Collection<BlockRecord> existingRecords = selectAllRecords();
-				statement.executeUpdate(Queries.getQuery("DropBlockTable"));
-				statement.executeUpdate(Queries.getQuery("DropChunkIndex"));
-				statement.executeUpdate(Queries.getQuery("CreateBlockTable"));
-				statement.executeUpdate(Queries.getQuery("CreateChunkIndex"));
-				count = insertRecords(existingRecords);
-				plugin.getLogger().info(count + " block records migrated to schema v1");
+		// schema v0 stored only world names, so worlds must be resolved by the server; the v0 table is
+		// set aside and its records are migrated below
+		if (schemaVersion == 0 && tableExists) {
+			connection.setAutoCommit(false);
+			try (Statement statement = connection.createStatement()) {
+				statement.executeUpdate(Queries.getQuery("MigrateVersion0DropChunkIndex"));
+				statement.executeUpdate(Queries.getQuery("MigrateVersion0RenameBlockTable"));
+				layout.createSchema(connection);
+				SQLiteSchema.setVersion(connection, SQLiteSchema.VERSION);
+				connection.commit();
+			}
+			catch (SQLException e) {
+				connection.rollback();
+				throw e;
 			}
+			finally {
+				connection.setAutoCommit(true);
+			}
+		}
 
-			// update schema version in database
-			statement.executeUpdate("PRAGMA user_version = 1");
+		// schema v1 is migrated entirely in SQL, to schema v2
+		else if (schemaVersion == 1 && tableExists) {
+			final long startTime = System.nanoTime();
+			final int count = SQLiteSchema.migrateVersion1(connection);
+			plugin.getLogger().info(count + " block records migrated to schema v2 in "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " milliseconds.");
+			schemaVersion = 2;
+		}
+
+		// schema v2 has no world block counts; count stored blocks once
+		if (schemaVersion == 2) {
+			final long startTime = System.nanoTime();
+			SQLiteSchema.migrateVersion2(connection, layout);
+			plugin.getLogger().info("Block counts added for schema v" + SQLiteSchema.VERSION + " in "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " milliseconds.");
+		}
+
+		// create any missing tables, and set version of a new database
+		layout.createSchema(connection);
+		SQLiteSchema.setVersion(connection, SQLiteSchema.VERSION);
 
-			// update schema version field
-			schemaVersion = 1;
+		// update schema version field
+		schemaVersion = SQLiteSchema.VERSION;
+
+		// load world ids
+		try (StatementRegistry.Lease lease = statements.acquire("SelectAllWorlds");
+		     ResultSet rs = lease.getStatement().executeQuery()) {
+			while (rs.next()) {
+				worldIds.put(new UUID(rs.getLong("worlduidmsb"), rs.getLong("worlduidlsb")), rs.getInt("world_id"));
+			}
 		}
 
-		// execute table creation statement
-		statement.executeUpdate(Queries.getQuery("CreateBlockTable"));
+		// migrate schema v0 records, continuing a migration that was interrupted
+		final boolean version0TableExists;
+		try (Statement statement = connection.createStatement();
+		     ResultSet rs = statement.executeQuery(Queries.getQuery("MigrateVersion0SelectTable"))) {
+			version0TableExists = rs.next();
+		}
+		if (version0TableExists) {
+			migrateVersion0();
+		}
 
-		// execute index creation statement
-		statement.executeUpdate(Queries.getQuery("CreateChunkIndex"));
+		// load world block counts
+		loadBlockTotals();
 	}
 
 
 	/**
-	 * Sync in memory datastore to disk<br>
-	 * (unused for SQLite datastore)
+	 * Read world block counts maintained by the schema triggers; called from the writer after each commit
 	 */
-	@Override
-	public void sync() {
-		// no action necessary for this storage type
+	private void loadBlockTotals() throws SQLException {
+
+		final Map<Integer, UUID> worldUids = new HashMap<>();
+		for (Map.Entry<UUID, Integer> entry : worldIds.entrySet()) {
+			worldUids.put(entry.getValue(), entry.getKey());
+		}
+
+		try (StatementRegistry.Lease lease = statements.acquire("SelectWorldBlockCounts");
+		     ResultSet rs = lease.getStatement().executeQuery()) {
+			while (rs.next()) {
+				final UUID worldUid = worldUids.get(rs.getInt("world_id"));
+				if (worldUid != null) {
+					blockTotals.set(worldUid, rs.getInt("block_count"));
+				}
+			}
+		}
 	}
 
 
 	/**
-	 * Close SQLite datastore connection
+	 * Advance the datastore generation; if it cannot be advanced, warm restart snapshots are not used
 	 */
-	@Override
-	public void close() {
-
+	private void openGeneration() {
 		try {
-			connection.close();
-			plugin.getLogger().info(this + " datastore connection closed.");
+			generation = SQLiteSchema.nextGeneration(connection);
 		}
-		catch (Exception e) {
+		catch (SQLException e) {
+			generation = 0;
 
 			// output simple error message
-			plugin.getLogger().warning("An error occurred while closing the " + this + " datastore.");
-			plugin.getLogger().warning(e.getMessage());
+			plugin.getLogger().warning("An error occurred while updating the generation of the " + this + " datastore.");
+			plugin.getLogger().warning(e.getLocalizedMessage());
 
 			// if debugging is enabled, output stack trace
 			if (plugin.getConfig().getBoolean("debug")) {
 				e.printStackTrace();
 			}
 		}
-		setInitialized(false);
 	}
 
 
 	/**
-	 * Delete the SQLite datastore file
+	 * Read the chunks cached at the last shutdown from the warm restart snapshot with a single sequential read;
+	 * a snapshot stamped before the previous generation is older than the stored blocks and is not used. The
+	 * snapshot is deleted once read, so it is never used after blocks have been written
 	 */
-	@Override
-	public boolean delete() {
+	private void restoreWarmChunks() {
 
-		// get reference to dataStore file in file system
-		File dataStoreFile = new File(dataFilePath);
+		if (!warmRestartFile.exists()) {
+			return;
+		}
 
-		// if file exists, delete file
-		boolean result = false;
-		if (dataStoreFile.exists()) {
-			result = dataStoreFile.delete();
+		if (generation > 0 && !resident && plugin.getConfig().getBoolean("warm-restart")) {
+			final ProtectionIndex restored = new ProtectionIndex();
+			final long startTime = System.nanoTime();
+			try {
+				final int count = ProtectionSnapshot.read(warmRestartFile, generation - 1, restored);
+				if (count < 0) {
+					plugin.getLogger().info("Warm restart snapshot of the " + this
+							+ " datastore is older than its stored blocks and was not used.");
+				}
+				else {
+					warmIndex = restored;
+					if (plugin.getConfig().getBoolean("profile")) {
+						plugin.getLogger().info(count + " chunks restored from warm restart snapshot in "
+								+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " milliseconds.");
+					}
+				}
+			}
+			catch (IOException e) {
+				plugin.getLogger().warning("Could not read the warm restart snapshot of the " + this + " datastore.");
+				plugin.getLogger().warning(e.getLocalizedMessage());
+			}
 		}
 
-		// return result
-		return result;
+		if (!warmRestartFile.delete()) {
+			plugin.getLogger().warning("Could not delete " + warmRestartFile.getName() + ".");
+		}
 	}
 
 
 	/**
-	 * Check if a location is a protected road block
-	 *
-	 * @param location the location key to check for protected status
-	 * @return {@code true} if the location is protected, {@code false} if it is not
+	 * Write the protected blocks of cached chunks to the warm restart snapshot, stamped with the current generation
 	 */
-	@Override
-	public boolean isProtected(final Location location) {
+	private void saveWarmChunks() {
 
-		// get LocationRecord for location
-		BlockRecord blockRecord = new BlockRecord(location);
+		if (generation == 0 || resident || !plugin.getConfig().getBoolean("warm-restart")) {
+			return;
+		}
 
-		// check cache first
-		if (isChunkCached(location)) {
-			if (blockCache.containsKey(blockRecord)) {
-				return blockCache.get(blockRecord).equals(CacheStatus.RESIDENT)
-						|| blockCache.get(blockRecord).equals(CacheStatus.PENDING_INSERT);
+		final long startTime = System.nanoTime();
+		try {
+			final int count = ProtectionSnapshot.write(warmRestartFile, generation, protectionIndex);
+			if (plugin.getConfig().getBoolean("profile")) {
+				plugin.getLogger().info(count + " cached chunks written to warm restart snapshot in "
+						+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " milliseconds.");
 			}
-			return false;
 		}
-
-		// add chunk to cache
-		cacheChunk(location.getChunk());
-
-		// check cache again
-		if (blockCache.containsKey(blockRecord)) {
-			return blockCache.get(blockRecord).equals(CacheStatus.RESIDENT)
-					|| blockCache.get(blockRecord).equals(CacheStatus.PENDING_INSERT);
+		catch (IOException e) {
+			plugin.getLogger().warning("Could not write the warm restart snapshot of the " + this + " datastore.");
+			plugin.getLogger().warning(e.getLocalizedMessage());
 		}
-		return false;
 	}
 
 
 	/**
-	 * Insert records into the SQLite datastore
+	 * Discard a chunk restored for a warm restart, so it is read from stored blocks when cached
 	 *
-	 * @param blockRecords Collection of records to insert
+	 * @param worldUid the uid of the world containing the chunk
+	 * @param chunkX the chunk x coordinate
+	 * @param chunkZ the chunk z coordinate
 	 */
-	@Override
-	synchronized public int insertRecords(final Collection<BlockRecord> blockRecords) {
-
-		// set cache for all records in list to pending insert
-		int count = 0;
-		for (BlockRecord blockRecord : blockRecords) {
-			blockCache.put(blockRecord, CacheStatus.PENDING_INSERT);
-			count++;
-		}
-		if (plugin.getConfig().getBoolean("debug")) {
-			plugin.getLogger().info(count + " blocks marked PENDING_INSERT in cache.");
+	private void discardWarmChunk(final UUID worldUid, final int chunkX, final int chunkZ) {
+		final ProtectionIndex warm = warmIndex;
+		if (warm != null) {
+			warm.removeChunk(worldUid, chunkX, chunkZ);
 		}
+	}
 
-		// asynchronously insert all locations in hash set
-		new BukkitRunnable() {
-			@Override
-			public void run() {
-
-				int count = 0;
-				long startTime = System.nanoTime();
-
-				try {
-
-					// set connection to transaction mode
-					connection.setAutoCommit(false);
 
-					for (BlockRecord blockRecord : blockRecords) {
+	/**
+	 * Discard all chunks restored for a warm restart that have not been cached
+	 */
+	private void discardWarmChunks() {
+		final ProtectionIndex warm = warmIndex;
+		if (warm != null) {
+			warmIndex = null;
+			if (plugin.getConfig().getBoolean("profile")) {
+				plugin.getLogger().info(warm.getChunkCount() + " chunks restored for warm restart were not cached"
+						+ " before the first world save and have been discarded.");
+			}
+		}
+	}
 
-						// if location is null, skip to next location
-						if (blockRecord == null) {
-							continue;
-						}
 
-						// test that world in location is valid, otherwise skip to next location
-						if (plugin.getServer().getWorld(blockRecord.getWorldUid()) == null) {
-							plugin.getLogger().warning("An error occured while inserting"
-									+ " a record in the " + this + " datastore. World invalid!");
-							blockCache.remove(blockRecord);
-							continue;
-						}
+	/**
+	 * Read the coordinates of every chunk with stored blocks into the stored chunk set;
+	 * if they cannot be read, every chunk is queried when cached
+	 */
+	private void loadStoredChunks() {
 
-						try {
-							// synchronize on database connection
-							synchronized (this) {
-
-								// create prepared statement
-								PreparedStatement preparedStatement =
-										connection.prepareStatement(Queries.getQuery("InsertOrIgnoreBlock"));
-
-								preparedStatement.setString(1, blockRecord.getWorldName());
-								preparedStatement.setLong(2, blockRecord.getWorldUid().getMostSignificantBits());
-								preparedStatement.setLong(3, blockRecord.getWorldUid().getLeastSignificantBits());
-								preparedStatement.setInt(4, blockRecord.getBlockX());
-								preparedStatement.setInt(5, blockRecord.getBlockY());
-								preparedStatement.setInt(6, blockRecord.getBlockZ());
-								preparedStatement.setInt(7, blockRecord.getChunkX());
-								preparedStatement.setInt(8, blockRecord.getChunkZ());
-
-								// execute prepared statement
-								preparedStatement.executeUpdate();
-							}
-						}
-						catch (SQLException e) {
+		final Map<Integer, UUID> worldUids = new HashMap<>();
+		for (Map.Entry<UUID, Integer> entry : worldIds.entrySet()) {
+			worldUids.put(entry.getValue(), entry.getKey());
+		}
 
-							// output simple error message
-							plugin.getLogger().warning("An error occurred while inserting a location "
-									+ "into the " + this + " datastore.");
-							plugin.getLogger().warning(e.getLocalizedMessage());
+		final long startTime = System.nanoTime();
+		final int[] count = new int[1];
 
-							// if debugging is enabled, output stack trace
-							if (plugin.getConfig().getBoolean("debug")) {
-								e.printStackTrace();
-							}
-							continue;
-						}
-						count++;
-						blockCache.put(blockRecord, CacheStatus.RESIDENT);
-					}
-					connection.commit();
-					connection.setAutoCommit(true);
+		try {
+			layout.selectChunkKeys(statements::acquire, (worldId, chunkX, chunkZ) -> {
+				final UUID worldUid = worldUids.get(worldId);
+				if (worldUid != null) {
+					storedChunks.add(worldUid, chunkX, chunkZ);
+					count[0]++;
 				}
-				catch (SQLException e) {
-					// output simple error message
-					plugin.getLogger().warning("An error occurred while attempting to "
-							+ "insert a block in the " + this + " datastore.");
-					plugin.getLogger().warning(e.getLocalizedMessage());
+			});
+			storedChunksLoaded = true;
+		}
+		catch (SQLException e) {
 
-					// if debugging is enabled, output stack trace
-					if (plugin.getConfig().getBoolean("debug")) {
-						e.printStackTrace();
-					}
-				}
+			// output simple error message
+			plugin.getLogger().warning("An error occurred while reading chunks with stored blocks "
+					+ "from the " + this + " datastore.");
+			plugin.getLogger().warning(e.getLocalizedMessage());
 
-				long elapsedTime = (System.nanoTime() - startTime);
-				if (plugin.getConfig().getBoolean("profile")) {
-					if (count > 0) {
-						plugin.getLogger().info(count + " blocks inserted into " + this + " datastore in "
-								+ TimeUnit.NANOSECONDS.toMillis(elapsedTime) + " milliseconds.");
-					}
-				}
+			// if debugging is enabled, output stack trace
+			if (plugin.getConfig().getBoolean("debug")) {
+				e.printStackTrace();
 			}
-		}.runTaskAsynchronously(plugin);
-		return count;
+			return;
+		}
+
+		if (plugin.getConfig().getBoolean("profile")) {
+			plugin.getLogger().info(count[0] + " chunks with stored blocks read in "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " milliseconds.");
+		}
 	}
 
 
 	/**
-	 * Delete a list of locations from the SQLite datastore
-	 *
-	 * @param blockRecords Collection of locations
+	 * Load every stored chunk into the protection index if resident index is enabled, reading region columns
+	 * in parallel on the reader connections; if the loaded chunks would exceed the configured memory limit,
+	 * or stored chunks could not be read, nothing is loaded and chunks are cached as they are loaded
 	 */
-	@Override
-	synchronized public int deleteRecords(final Collection<BlockRecord> blockRecords) {
+	private void loadResidentIndex() {
 
-		// set cache for all records in list to pending delete
-		int count = 0;
-		for (BlockRecord blockRecord : blockRecords) {
-			blockCache.put(blockRecord, CacheStatus.PENDING_DELETE);
-			count++;
+		if (!plugin.getConfig().getBoolean("resident-index")) {
+			return;
 		}
-		if (plugin.getConfig().getBoolean("debug")) {
-			plugin.getLogger().info(count + " blocks marked PENDING_DELETE in cache.");
+
+		if (!storedChunksLoaded) {
+			plugin.getLogger().warning("Resident index of the " + this + " datastore is disabled because "
+					+ "chunks with stored blocks could not be read; chunks will be cached as they are loaded.");
+			return;
 		}
 
-		// asynchronously delete all locations
-		new BukkitRunnable() {
-			@Override
-			public void run() {
+		final long memoryLimit = Math.max(0L, plugin.getConfig().getLong("resident-index-memory")) * 1024L * 1024L;
+		final ResidentIndexLoader loader = new ResidentIndexLoader((worldUid, minChunkX, maxChunkX, action) -> {
+			final Integer worldId = worldIds.get(worldUid);
+			if (worldId != null) {
+				layout.selectChunkColumns(readers::acquire, worldId, minChunkX, maxChunkX, action);
+			}
+		}, readers.size(), memoryLimit);
 
-				int count = 0;
-				long startTime = System.nanoTime();
+		final ResidentIndexLoader.Result result;
+		try {
+			result = loader.load(storedChunks, protectionIndex);
+		}
+		catch (SQLException e) {
 
-				try {
-					connection.setAutoCommit(false);
+			// output simple error message
+			plugin.getLogger().warning("An error occurred while loading the resident index of the "
+					+ this + " datastore; chunks will be cached as they are loaded.");
+			plugin.getLogger().warning(e.getLocalizedMessage());
 
-					int rowsAffected = 0;
+			// if debugging is enabled, output stack trace
+			if (plugin.getConfig().getBoolean("debug")) {
+				e.printStackTrace();
+			}
+			return;
+		}
 
-					for (final BlockRecord blockRecord : blockRecords) {
+		if (!result.complete) {
+			plugin.getLogger().warning("Resident index of the " + this + " datastore exceeded its memory limit of "
+					+ (memoryLimit >> 20) + " MB after " + result.blocks + " blocks in " + result.chunks
+					+ " chunks and was not enabled; chunks will be cached as they are loaded.");
+			return;
+		}
 
-						// if key is null return, skip to next location
-						if (blockRecord == null) {
-							continue;
-						}
+		resident = true;
 
-						try {
-							// synchronize on database connection
-							synchronized (this) {
+		final long millis = TimeUnit.NANOSECONDS.toMillis(result.nanos);
+		plugin.getLogger().info("Resident index of the " + this + " datastore loaded " + result.blocks
+				+ " blocks in " + result.chunks + " chunks in " + millis + " milliseconds ("
+				+ result.blocks * 1000L / Math.max(1L, millis) + " blocks per second, about "
+				+ ((result.bytes + (1 << 19)) >> 20) + " MB).");
+	}
 
-								// create prepared statement
-								PreparedStatement preparedStatement =
-										connection.prepareStatement(Queries.getQuery("DeleteBlock"));
 
-								preparedStatement.setLong(1, blockRecord.getWorldUid().getMostSignificantBits());
-								preparedStatement.setLong(2, blockRecord.getWorldUid().getLeastSignificantBits());
-								preparedStatement.setInt(3, blockRecord.getBlockX());
-								preparedStatement.setInt(4, blockRecord.getBlockY());
-								preparedStatement.setInt(5, blockRecord.getBlockZ());
+	/**
+	 * Migrate records from the schema v0 table in pages. Each page is written and removed from the v0 table
+	 * in one transaction, so an interrupted migration continues with the remaining records on restart.
+	 * Records in worlds that are not loaded cannot be resolved and are dropped.
+	 */
+	private void migrateVersion0() throws SQLException {
 
-								// execute prepared statement
-								rowsAffected = preparedStatement.executeUpdate();
-							}
-						}
-						catch (SQLException e) {
+		final long startTime = System.nanoTime();
+		int count = 0;
 
-							// output simple error message
-							plugin.getLogger().warning("An error occurred while attempting to "
-									+ "delete a block from the " + this + " datastore.");
-							plugin.getLogger().warning(e.getLocalizedMessage());
+		try (Statement statement = connection.createStatement();
+		     PreparedStatement selectStatement = connection.prepareStatement(Queries.getQuery("MigrateVersion0SelectPage"));
+		     PreparedStatement deleteStatement = connection.prepareStatement(Queries.getQuery("MigrateVersion0DeletePage"))) {
 
-							// if debugging is enabled, output stack trace
-							if (plugin.getConfig().getBoolean("debug")) {
-								e.printStackTrace();
-							}
+			while (true) {
+
+				final List<WriteQueue.PendingWrite> writes = new ArrayList<>();
+				long lastRowId = -1;
+
+				selectStatement.setInt(1, MIGRATION_PAGE_SIZE);
+				try (ResultSet rs = selectStatement.executeQuery()) {
+					while (rs.next()) {
+
+						lastRowId = rs.getLong("rowid");
+
+						final String worldName = rs.getString("worldname");
+						final World world = plugin.getServer().getWorld(worldName);
+
+						// if world is null, skip record
+						if (world == null) {
+							plugin.getLogger().warning("Stored block has unloaded world: "
+									+ worldName + ". Skipping record.");
+							continue;
 						}
-						blockCache.remove(blockRecord);
-						count = count + rowsAffected;
+
+						final int blockX = rs.getInt("x");
+						final int blockZ = rs.getInt("z");
+						final BlockRecord blockRecord = new BlockRecord(world.getName(), world.getUID(),
+								blockX, rs.getInt("y"), blockZ, blockX >> 4, blockZ >> 4);
+						getOrCreateWorldId(blockRecord);
+						writes.add(new WriteQueue.PendingWrite(blockRecord, CacheStatus.PENDING_INSERT));
 					}
+				}
+
+				// if no records remain, migration is complete
+				if (lastRowId < 0) {
+					break;
+				}
+
+				connection.setAutoCommit(false);
+				try {
+					count += layout.write(statements::acquire, writes, worldIds);
+					deleteStatement.setLong(1, lastRowId);
+					deleteStatement.executeUpdate();
 					connection.commit();
-					connection.setAutoCommit(true);
 				}
 				catch (SQLException e) {
-					// output simple error message
-					plugin.getLogger().warning("An error occurred while attempting to "
-							+ "delete a block from the " + this + " datastore.");
+					connection.rollback();
+					throw e;
+				}
+				finally {
+					connection.setAutoCommit(true);
+				}
+
+				plugin.getLogger().info(count + " block records migrated to schema v" + SQLiteSchema.VERSION + "...");
+			}
+
+			statement.executeUpdate(Queries.getQuery("MigrateVersion0DropBlockTable"));
+		}
+
+		plugin.getLogger().info(count + " block records migrated to schema v" + SQLiteSchema.VERSION + " in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " milliseconds.");
+	}
+
+
+	/**
+	 * Create the spatial index if enabled in config, otherwise drop it so block writes do not maintain it
+	 *
+	 * @return {@code true} if the spatial index is available, else {@code false}
+	 */
+	private boolean configureSpatialIndex() {
+
+		// layouts without block rows cannot be indexed
+		if (!layout.supportsSpatialIndex()) {
+			return false;
+		}
+
+		try {
+			if (plugin.getConfig().getBoolean("sqlite-spatial-index")) {
+				final long startTime = System.nanoTime();
+				final int count = SQLiteSchema.createSpatialIndex(connection);
+				if (count >= 0) {
+					plugin.getLogger().info("Spatial index built for " + count + " blocks in "
+							+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " milliseconds.");
+				}
+				return true;
+			}
+			SQLiteSchema.dropSpatialIndex(connection);
+		}
+		catch (SQLException e) {
+
+			// output simple error message
+			plugin.getLogger().warning("Could not configure the " + this + " datastore spatial index; "
+					+ "nearby block queries will use the blocks table.");
+			plugin.getLogger().warning(e.getLocalizedMessage());
+
+			// if debugging is enabled, output stack trace
+			if (plugin.getConfig().getBoolean("debug")) {
+				e.printStackTrace();
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Get the id of a world in the worlds table, adding the world if necessary; called from the writer only
+	 *
+	 * @param blockRecord a block record in the world
+	 * @return the world id
+	 */
+	private int getOrCreateWorldId(final BlockRecord blockRecord) throws SQLException {
+
+		final Integer existingId = worldIds.get(blockRecord.getWorldUid());
+		if (existingId != null) {
+			return existingId;
+		}
+
+		final UUID worldUid = blockRecord.getWorldUid();
+
+		try (StatementRegistry.Lease lease = statements.acquire("InsertOrIgnoreWorld")) {
+			lease.getStatement().setLong(1, worldUid.getMostSignificantBits());
+			lease.getStatement().setLong(2, worldUid.getLeastSignificantBits());
+			lease.getStatement().setString(3, blockRecord.getWorldName());
+			lease.getStatement().executeUpdate();
+		}
+
+		try (StatementRegistry.Lease lease = statements.acquire("SelectWorldId")) {
+			lease.getStatement().setLong(1, worldUid.getMostSignificantBits());
+			lease.getStatement().setLong(2, worldUid.getLeastSignificantBits());
+			try (ResultSet rs = lease.getStatement().executeQuery()) {
+				if (!rs.next()) {
+					throw new SQLException("World could not be added to the worlds table.");
+				}
+				final int worldId = rs.getInt(1);
+				worldIds.put(worldUid, worldId);
+				return worldId;
+			}
+		}
+	}
+
+
+	/**
+	 * Queue operations from journal segments left by an unclean shutdown, then start a new journal segment.
+	 * Replayed segments are deleted by the next checkpoint that writes them.
+	 */
+	private void openJournal() {
+
+		if (journal == null) {
+			return;
+		}
+
+		final List<File> segments = journal.getSegments();
+		try {
+			final int count = OperationJournal.replay(segments, (worldUid, x, y, z, status) -> {
+
+				// if world is no longer loaded, operation cannot be replayed
+				final World world = plugin.getServer().getWorld(worldUid);
+				if (world != null) {
+					if (status == CacheStatus.PENDING_INSERT) {
+						storedChunks.add(worldUid, x >> 4, z >> 4);
+					}
+					discardWarmChunk(worldUid, x >> 4, z >> 4);
+					writeQueue.enqueue(Collections.singletonList(
+							new BlockRecord(world.getName(), worldUid, x, y, z, x >> 4, z >> 4)), status);
+
+					// update index for resident chunks after the pending write, as block changes do
+					if (isChunkCached(worldUid, x >> 4, z >> 4)) {
+						if (status == CacheStatus.PENDING_INSERT) {
+							protectionIndex.add(worldUid, x, y, z);
+						}
+						else {
+							protectionIndex.remove(worldUid, x, y, z);
+						}
+					}
+				}
+			});
+			if (count > 0) {
+				plugin.getLogger().info(count + " journaled block changes replayed into the " + this + " datastore.");
+			}
+		}
+		catch (IOException e) {
+
+			// keep unreadable segments rather than deleting operations that were not replayed
+			unreplayedSegments.addAll(segments);
+			plugin.getLogger().warning("Could not replay the " + this + " datastore journal.");
+			plugin.getLogger().warning(e.getLocalizedMessage());
+		}
+
+		try {
+			journal.open();
+
+			// force appends to disk as a group once per interval
+			if (journalSyncInterval > 0) {
+				journalSyncTask = executor.scheduleWithFixedDelay(this::requestJournalSync, journalSyncInterval);
+			}
+		}
+		catch (IOException e) {
+			plugin.getLogger().warning("Could not open the " + this + " datastore journal; "
+					+ "block changes will not be journaled.");
+			plugin.getLogger().warning(e.getLocalizedMessage());
+		}
+	}
+
+
+	/**
+	 * Journal operations and queue them for writing; operations are appended and queued under the journal
+	 * lock, so a checkpoint cannot start a new segment between the two
+	 *
+	 * @param blockRecords the block records
+	 * @param status PENDING_INSERT or PENDING_DELETE
+	 * @return the number of records queued
+	 */
+	private int queueRecords(final Collection<BlockRecord> blockRecords, final CacheStatus status) {
+
+		if (journal == null) {
+			return writeQueue.enqueue(blockRecords, status);
+		}
+
+		synchronized (journal) {
+			if (journal.isOpen()) {
+				try {
+					journal.append(blockRecords, status);
+				}
+				catch (IOException e) {
+					plugin.getLogger().warning("Could not journal block changes for the " + this + " datastore.");
 					plugin.getLogger().warning(e.getLocalizedMessage());
+				}
+			}
+			return writeQueue.enqueue(blockRecords, status);
+		}
+	}
+
+
+	/**
+	 * Start a new journal segment, write all queued operations, then delete the earlier segments
+	 * if every queued operation was written; runs in the writer lane, so no batch is written concurrently
+	 */
+	private void checkpoint() {
+
+		if (journal == null || !checkpointRunning.compareAndSet(false, true)) {
+			return;
+		}
+
+		try {
+			final List<File> segments;
+
+			synchronized (journal) {
+
+				// if nothing has been journaled since the last checkpoint and no earlier segment
+				// is waiting for its operations to be written, there is nothing to do
+				if (!journal.isOpen() || journal.isEmpty() && retainedSegments.isEmpty()
+						&& unreplayedSegments.containsAll(journal.getSegments())) {
+					return;
+				}
+				segments = journal.rotate();
+			}
+
+			long startTime = System.nanoTime();
+
+			// once the queue has been emptied, every operation journaled before the rotation has been
+			// written, including those of failed batches queued again, so all earlier segments go together
+			if (writeQueue.flushInWriter()) {
+				retainedSegments.clear();
+				deleteSegments(segments);
+			}
+			else {
+				retainedSegments.addAll(segments);
+				plugin.getLogger().warning("Some block changes could not be written to the " + this
+						+ " datastore; their journal will be replayed on restart.");
+			}
+
+			if (plugin.getConfig().getBoolean("profile")) {
+				plugin.getLogger().info(this + " datastore journal checkpointed in "
+						+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " milliseconds.");
+			}
+		}
+		catch (IOException e) {
+			plugin.getLogger().warning("Could not start a new " + this + " datastore journal segment; "
+					+ "block changes will not be journaled.");
+			plugin.getLogger().warning(e.getLocalizedMessage());
+		}
+		finally {
+			checkpointRunning.set(false);
+		}
+	}
+
+
+	/**
+	 * Queue a journal sync if operations have been appended since the last one, and no sync is already queued
+	 */
+	private void requestJournalSync() {
+		if (journal.isSyncPending() && journalSyncRequested.compareAndSet(false, true)) {
+			try {
+				executor.execute(StorageExecutor.Priority.LOW, () -> {
+					journalSyncRequested.set(false);
+					try {
+						journal.sync();
+					}
+					catch (IOException e) {
+						plugin.getLogger().warning("Could not force the " + this + " datastore journal to disk.");
+						plugin.getLogger().warning(e.getLocalizedMessage());
+					}
+				});
+			}
+			catch (RejectedExecutionException e) {
+				// executor was stopped; the journal is forced to disk when closed
+				journalSyncRequested.set(false);
+			}
+		}
+	}
+
+
+	/**
+	 * Close the journal after the write queue has been shut down, deleting its segments if all operations were written
+	 *
+	 * @param unwritten the number of queued operations left unwritten by shutdown
+	 */
+	private void closeJournal(final int unwritten) {
+
+		if (journal == null) {
+			return;
+		}
+
+		if (journalSyncTask != null) {
+			journalSyncTask.cancel(false);
+			journalSyncTask = null;
+		}
+
+		try {
+			journal.close();
+		}
+		catch (IOException e) {
+			plugin.getLogger().warning("An error occurred while closing the " + this + " datastore journal.");
+			plugin.getLogger().warning(e.getLocalizedMessage());
+		}
+
+		if (unwritten > 0) {
+			return;
+		}
+
+		// every queued operation has been written
+		retainedSegments.clear();
+		deleteSegments(journal.getSegments());
+	}
+
+
+	/**
+	 * Delete journal segments whose operations have all been written. Segments are only deleted if no
+	 * earlier segment is kept for replay, so a restart never replays an operation without the ones after it.
+	 *
+	 * @param segments the segments before the current segment
+	 */
+	private void deleteSegments(final List<File> segments) {
+
+		if (!unreplayedSegments.isEmpty()) {
+			plugin.getLogger().warning("Journal segments of the " + this + " datastore that could not be replayed"
+					+ " are kept, with the segments after them.");
+			return;
+		}
+
+		if (!OperationJournal.delete(segments)) {
+			plugin.getLogger().warning("Could not delete checkpointed " + this + " datastore journal segments.");
+		}
+	}
+
+
+	/**
+	 * Write queued inserts and deletes to the database, waiting until they have been written
+	 *
+	 * @return {@code true} if every queued insert and delete was written, else {@code false}
+	 */
+	@Override
+	public boolean sync() {
+		if (!writeQueue.drain()) {
+			plugin.getLogger().warning("Queued blocks were not all written to the " + this
+					+ " datastore; a write failed and will be retried, waiting was interrupted or the datastore is closing.");
+			return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Close SQLite datastore connection
+	 */
+	@Override
+	public void close() {
+
+		// unregister event handlers in this class and stop eviction task; caching is not started after this
+		synchronized (cachingLock) {
+			closed = true;
+			HandlerList.unregisterAll(this);
+			if (evictionTask != null) {
+				evictionTask.cancel();
+				evictionTask = null;
+			}
+		}
+
+		// release chunks still waiting to be evicted
+		evictionQueue.evictAll();
+
+		// write queued inserts and deletes before closing connection, within the configured timeout
+		final long shutdownTimeout = TimeUnit.SECONDS.toMillis(plugin.getConfig().getLong("shutdown-timeout"));
+		final long shutdownStart = System.nanoTime();
+		final int unwritten = writeQueue.shutdown(shutdownTimeout);
+		if (unwritten > 0) {
+			plugin.getLogger().warning(unwritten + " queued block changes could not be written to the " + this
+					+ " datastore before the shutdown timeout; " + (journal != null
+					? "their journal will be replayed on restart."
+					: "they have been lost. Enable write-journal to keep them."));
+		}
+
+		// remove journal if all queued operations were written
+		closeJournal(unwritten);
+
+		// discard queued chunk loads, and wait for running storage tasks for the rest of the timeout
+		final boolean terminated = executor.shutdown(
+				Math.max(0, shutdownTimeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - shutdownStart)));
+
+		// snapshot cached chunks for a warm restart; only if every block change was written, and no
+		// storage task is still changing the cache
+		if (unwritten == 0 && terminated) {
+			saveWarmChunks();
+		}
+
+		// output statement statistics if profiling is enabled
+		if (plugin.getConfig().getBoolean("profile")) {
+			logStatistics("writer", statements.getStatistics());
+			logStatistics("reader", readers.getStatistics());
+			logStorageStatistics();
+		}
+
+		// close reader connections and prepared statements
+		try {
+			readers.close();
+		}
+		catch (SQLException e) {
+			plugin.getLogger().warning("An error occurred while closing the " + this + " datastore reader connections.");
+			plugin.getLogger().warning(e.getMessage());
+		}
+		// wait for a batch still being written after the shutdown timeout; batches are written holding the writer lock
+		writerLock.lock();
+		try {
+			statements.close();
+
+			try {
+				connection.close();
+				plugin.getLogger().info(this + " datastore connection closed.");
+			}
+			catch (Exception e) {
+
+				// output simple error message
+				plugin.getLogger().warning("An error occurred while closing the " + this + " datastore.");
+				plugin.getLogger().warning(e.getMessage());
+
+				// if debugging is enabled, output stack trace
+				if (plugin.getConfig().getBoolean("debug")) {
+					e.printStackTrace();
+				}
+			}
+		}
+		finally {
+			writerLock.unlock();
+		}
+		setInitialized(false);
+	}
+
+
+	private void logStorageStatistics() {
+		if (cachePolicy != null) {
+			plugin.getLogger().info(cachePolicy.getStatistics());
+		}
+		for (String line : executor.getStatistics()) {
+			plugin.getLogger().info(line);
+		}
+	}
+
+
+	private void logStatistics(final String connectionName, final Collection<StatementRegistry.Statistics> statistics) {
+		for (StatementRegistry.Statistics statementStatistics : statistics) {
+			if (statementStatistics.getExecutions() > 0) {
+				plugin.getLogger().info(statementStatistics.getName() + " (" + connectionName + "): "
+						+ statementStatistics.getExecutions() + " executions in "
+						+ TimeUnit.NANOSECONDS.toMillis(statementStatistics.getTotalNanos()) + " milliseconds.");
+			}
+		}
+	}
+
 
-					// if debugging is enabled, output stack trace
-					if (plugin.getConfig().getBoolean("debug")) {
-						e.printStackTrace();
+	/**
+	 * Get the storage executor of this datastore
+	 *
+	 * @return the storage executor
+	 */
+	@Override
+	public StorageExecutor getExecutor() {
+		return executor;
+	}
+
+
+	/**
+	 * Delete the SQLite datastore file
+	 */
+	@Override
+	public boolean delete() {
+
+		// get reference to dataStore file in file system
+		File dataStoreFile = new File(dataFilePath);
+
+		// if file exists, delete file
+		boolean result = false;
+		if (dataStoreFile.exists()) {
+			result = dataStoreFile.delete();
+		}
+
+		// delete write-ahead log files left by WAL journal mode
+		for (String suffix : new String[] { "-wal", "-shm" }) {
+			final File journalFile = new File(dataFilePath + suffix);
+			if (journalFile.exists() && !journalFile.delete()) {
+				plugin.getLogger().warning("Could not delete " + journalFile.getName() + ".");
+			}
+		}
+
+		// delete warm restart snapshot
+		if (warmRestartFile.exists() && !warmRestartFile.delete()) {
+			plugin.getLogger().warning("Could not delete " + warmRestartFile.getName() + ".");
+		}
+
+		// delete operation journal
+		if (journal != null && !OperationJournal.delete(journal.getSegments())) {
+			plugin.getLogger().warning("Could not delete the " + this + " datastore journal.");
+		}
+
+		// return result
+		return result;
+	}
+
+
+	/**
+	 * Check if a location is a protected road block
+	 *
+	 * @param location the location key to check for protected status
+	 * @return {@code true} if the location is protected, {@code false} if it is not
+	 */
+	@Override
+	public boolean isProtected(final Location location) {
+
+		// get world for location
+		final World world = location.getWorld();
+
+		// if world is null, location cannot be protected
+		if (world == null) {
+			return false;
+		}
+
+		// use primitive coordinates for cache lookups, so no key object is created
+		final UUID worldUid = world.getUID();
+		final int x = location.getBlockX();
+		final int y = location.getBlockY();
+		final int z = location.getBlockZ();
+
+		// writes that have not been committed yet take precedence over the index
+		final byte pendingCode = blockCache.getCode(worldUid, x, y, z);
+		if (pendingCode != LongByteMap.EMPTY) {
+			return CacheStatus.isProtected(pendingCode);
+		}
+
+		// if every stored chunk is resident, the index is complete
+		if (resident) {
+			return protectionIndex.isProtected(worldUid, x, y, z);
+		}
+
+		// a chunk evicted while the index is read reads as unprotected, so an unprotected answer only stands
+		// if no chunk was dropped meanwhile; otherwise check once more, then treat the block as protected
+		for (int attempt = 0; attempt < 2; attempt++) {
+
+			final long drops = dropCount.get();
+
+			// if chunk is not cached, apply cache miss policy while chunk is prefetched
+			if (isChunkCached(worldUid, x >> 4, z >> 4)) {
+				if (cachePolicy != null) {
+					cachePolicy.recordHit(worldUid, x >> 4, z >> 4);
+				}
+			}
+			else {
+				if (cachePolicy != null) {
+					cachePolicy.recordMiss(worldUid, x >> 4, z >> 4);
+				}
+				final CompletableFuture<Void> prefetch = prefetchChunk(world, x >> 4, z >> 4);
+				if (!awaitPrefetch(prefetch)) {
+					return true;
+				}
+			}
+
+			// check index
+			if (protectionIndex.isProtected(worldUid, x, y, z)) {
+				return true;
+			}
+			if (dropCount.get() == drops) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Insert records into the SQLite datastore
+	 *
+	 * @param blockRecords Collection of records to insert
+	 */
+	@Override
+	public int insertRecords(final Collection<BlockRecord> blockRecords) {
+
+		// mark chunks stored, so chunk loads do not skip them, and discard chunks restored for a warm restart,
+		// which no longer match stored blocks once these records are written
+		for (BlockRecord blockRecord : blockRecords) {
+			if (blockRecord != null) {
+				storedChunks.add(blockRecord.getWorldUid(), blockRecord.getChunkX(), blockRecord.getChunkZ());
+				discardWarmChunk(blockRecord.getWorldUid(), blockRecord.getChunkX(), blockRecord.getChunkZ());
+			}
+		}
+
+		// queue records for insertion; sets cache for all records to pending insert. The pending write cache
+		// is updated before the index, so a chunk being loaded sees each record in one or the other
+		final int count = queueRecords(blockRecords, CacheStatus.PENDING_INSERT);
+
+		// mark records protected in index for cached chunks
+		for (BlockRecord blockRecord : blockRecords) {
+			if (blockRecord != null
+					&& isChunkCached(blockRecord.getWorldUid(), blockRecord.getChunkX(), blockRecord.getChunkZ())) {
+				protectionIndex.add(blockRecord.getWorldUid(),
+						blockRecord.getBlockX(), blockRecord.getBlockY(), blockRecord.getBlockZ());
+			}
+		}
+		if (plugin.getConfig().getBoolean("debug")) {
+			plugin.getLogger().info(count + " blocks marked PENDING_INSERT in cache.");
+		}
+		return count;
+	}
+
+
+	/**
+	 * Delete a list of locations from the SQLite datastore
+	 *
+	 * @param blockRecords Collection of locations
+	 */
+	@Override
+	public int deleteRecords(final Collection<BlockRecord> blockRecords) {
+
+		// discard chunks restored for a warm restart, which no longer match stored blocks once these records are deleted
+		for (BlockRecord blockRecord : blockRecords) {
+			if (blockRecord != null) {
+				discardWarmChunk(blockRecord.getWorldUid(), blockRecord.getChunkX(), blockRecord.getChunkZ());
+			}
+		}
+
+		// queue records for deletion; sets cache for all records to pending delete before the index is updated
+		final int count = queueRecords(blockRecords, CacheStatus.PENDING_DELETE);
+
+		// remove protection from index
+		for (BlockRecord blockRecord : blockRecords) {
+			if (blockRecord != null) {
+				protectionIndex.remove(blockRecord.getWorldUid(),
+						blockRecord.getBlockX(), blockRecord.getBlockY(), blockRecord.getBlockZ());
+			}
+		}
+		if (plugin.getConfig().getBoolean("debug")) {
+			plugin.getLogger().info(count + " blocks marked PENDING_DELETE in cache.");
+		}
+		return count;
+	}
+
+
+	/**
+	 * Write a batch of queued inserts and deletes in a single transaction; called from the write queue
+	 *
+	 * @param batch the queued operations, at most one per block
+	 * @return {@code true} if the batch was committed, else {@code false}
+	 */
+	private boolean writeBatch(final List<WriteQueue.PendingWrite> batch) {
+		writerLock.lock();
+		try {
+			return writeBatchLocked(batch);
+		}
+		finally {
+			writerLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Write a batch of queued inserts and deletes in a single transaction, holding the writer lock
+	 *
+	 * @param batch the queued operations, at most one per block
+	 * @return {@code true} if the batch was committed, else {@code false}
+	 */
+	private boolean writeBatchLocked(final List<WriteQueue.PendingWrite> batch) {
+
+		int count;
+		long startTime = System.nanoTime();
+
+		try {
+			final List<WriteQueue.PendingWrite> writes = new ArrayList<>(batch.size());
+
+			// add any new worlds before the batch transaction, so a failed batch does not roll back world ids
+			for (WriteQueue.PendingWrite pendingWrite : batch) {
+
+				final BlockRecord blockRecord = pendingWrite.getBlockRecord();
+
+				if (pendingWrite.isInsert()) {
+
+					// test that world in location is valid, otherwise skip to next location
+					if (plugin.getServer().getWorld(blockRecord.getWorldUid()) == null) {
+						plugin.getLogger().warning("An error occured while inserting"
+								+ " a record in the " + this + " datastore. World invalid!");
+						continue;
 					}
+					getOrCreateWorldId(blockRecord);
 				}
+				writes.add(pendingWrite);
+			}
+
+			// set connection to transaction mode
+			connection.setAutoCommit(false);
+
+			try {
+				count = layout.write(statements::acquire, writes, worldIds);
+				connection.commit();
+			}
+			catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			}
+			finally {
+				connection.setAutoCommit(true);
+			}
+
+			// read committed world block counts
+			if (count > 0) {
+				loadBlockTotals();
+			}
+		}
+		catch (SQLException e) {
+
+			// output simple error message
+			plugin.getLogger().warning("An error occurred while writing " + batch.size()
+					+ " queued blocks to the " + this + " datastore.");
+			plugin.getLogger().warning(e.getLocalizedMessage());
+
+			// if debugging is enabled, output stack trace
+			if (plugin.getConfig().getBoolean("debug")) {
+				e.printStackTrace();
+			}
+
+			// operations stay pending in the write queue and are written again; the index keeps agreeing with them
+			return false;
+		}
 
-				long elapsedTime = (System.nanoTime() - startTime);
-				if (plugin.getConfig().getBoolean("profile")) {
-					if (count > 0) {
-						plugin.getLogger().info(count + " blocks removed from " + this + " datastore in "
-								+ TimeUnit.NANOSECONDS.toMillis(elapsedTime) + " milliseconds.");
-					}
-				}
+		long elapsedTime = (System.nanoTime() - startTime);
+		if (plugin.getConfig().getBoolean("profile")) {
+			if (count > 0) {
+				plugin.getLogger().info(count + " blocks inserted or removed in " + this + " datastore in "
+						+ TimeUnit.NANOSECONDS.toMillis(elapsedTime) + " milliseconds.");
 			}
-		}.runTaskAsynchronously(plugin);
-		return count;
+		}
+		return true;
 	}
 
 
@@ -470,56 +1604,25 @@ final class DataStoreSQLite extends DataStoreAbstract implements DataStore, List
 	 *
 	 * @return List of location records
 	 */
-	synchronized public Collection<BlockRecord> selectAllRecords() {
+	public Collection<BlockRecord> selectAllRecords() {
 
 		final Collection<BlockRecord> returnSet = new HashSet<>();
 
-		try {
-			PreparedStatement preparedStatement =
-					connection.prepareStatement(Queries.getQuery("SelectAllBlocks"));
-
-			// execute sql query
-			ResultSet rs = preparedStatement.executeQuery();
-
-			while (rs.next()) {
-
-				final World world;
-				final long worldUidMsb;
-				final long worldUidLsb;
+		// get world objects by stored world id
+		final Map<Integer, World> worlds = getStoredWorlds();
 
-				final String worldName = rs.getString("worldname");
-				final int blockX = rs.getInt("x");
-				final int blockY = rs.getInt("y");
-				final int blockZ = rs.getInt("z");
-				final int chunkX = rs.getInt("chunk_x");
-				final int chunkZ = rs.getInt("chunk_z");
-
-				// if schema version 0, get world object from stored world name
-				if (schemaVersion == 0) {
-					world = plugin.getServer().getWorld(worldName);
-				}
-				// else get world object from stored world uuid
-				else {
-					worldUidMsb = rs.getLong("worlduidmsb");
-					worldUidLsb = rs.getLong("worlduidlsb");
-					UUID worldUid = new UUID(worldUidMsb, worldUidLsb);
-					world = plugin.getServer().getWorld(worldUid);
-				}
+		try {
+			layout.selectAll(readers::acquire, (worldId, blockX, blockY, blockZ) -> {
 
-				// if world is null, skip adding record to return set
+				final World world = worlds.get(worldId);
 				if (world == null) {
-					plugin.getLogger().warning("Stored block has unloaded world: "
-							+ worldName + ". Skipping record.");
-					continue;
+					return;
 				}
 
-				// create block record object from retrieved record
-				BlockRecord blockRecord = new BlockRecord(world.getName(), world.getUID(),
-						blockX, blockY, blockZ, chunkX, chunkZ);
-
-				// add block record to return set
-				returnSet.add(blockRecord);
-			}
+				// create block record object from retrieved record and add to return set
+				returnSet.add(new BlockRecord(world.getName(), world.getUID(),
+						blockX, blockY, blockZ, blockX >> 4, blockZ >> 4));
+			});
 		}
 		catch (SQLException e) {
 
@@ -540,74 +1643,150 @@ final class DataStoreSQLite extends DataStoreAbstract implements DataStore, List
 
 
 	/**
-	 * Retrieve all road block locations in chunk from the SQLite datastore
+	 * Open a cursor reading records in primary key order
 	 *
-	 * @param chunk the chunk for which to retrieve all road block locations from the datastore
-	 * @return Collection of locations
+	 * @param position the position to continue after, or {@code null} to start at the first record
+	 * @return the record cursor
 	 */
 	@Override
-	synchronized public Collection<BlockRecord> selectRecordsInChunk(final Chunk chunk) {
+	public RecordCursor openCursor(final String position) {
+		return new RecordCursor(this::readPage, position);
+	}
 
-		// create new set for results
-		final Collection<BlockRecord> returnSet = new HashSet<>();
+
+	/**
+	 * Read a page of records for a record cursor
+	 */
+	private String readPage(final String position, final int pageSize, final Collection<BlockRecord> page)
+			throws IOException {
+
+		final Map<Integer, World> worlds = getStoredWorlds();
 
 		try {
-			PreparedStatement preparedStatement =
-					connection.prepareStatement(Queries.getQuery("SelectBlocksInChunk"));
+			return layout.selectPage(readers::acquire, position, pageSize, (worldId, blockX, blockY, blockZ) -> {
+
+				// if world is not loaded, skip record
+				final World world = worlds.get(worldId);
+				if (world != null) {
+					page.add(new BlockRecord(world.getName(), world.getUID(),
+							blockX, blockY, blockZ, blockX >> 4, blockZ >> 4));
+				}
+			});
+		}
+		catch (SQLException | IllegalArgumentException e) {
+			throw new IOException("Could not read records from the " + this + " datastore.", e);
+		}
+	}
 
-			long worldUidMsb = chunk.getWorld().getUID().getMostSignificantBits();
-			long worldUidLsb = chunk.getWorld().getUID().getLeastSignificantBits();
 
-			preparedStatement.setLong(1, worldUidMsb);
-			preparedStatement.setLong(2, worldUidLsb);
-			preparedStatement.setInt(3, chunk.getX());
-			preparedStatement.setInt(4, chunk.getZ());
+	/**
+	 * Get loaded worlds keyed by stored world id; a warning is logged for stored worlds that are not loaded
+	 *
+	 * @return map of world id to world
+	 */
+	private Map<Integer, World> getStoredWorlds() {
 
-			// execute sql query
-			long startTime = System.nanoTime();
-			ResultSet rs = preparedStatement.executeQuery();
+		final Map<Integer, World> worlds = new HashMap<>();
+		for (Map.Entry<UUID, Integer> entry : worldIds.entrySet()) {
+			final World world = plugin.getServer().getWorld(entry.getKey());
 
-			long elapsedTime = System.nanoTime() - startTime;
+			// if world is null, skip its records
+			if (world == null) {
+				plugin.getLogger().warning("Stored blocks have unloaded world: "
+						+ entry.getKey() + ". Skipping records.");
+				continue;
+			}
+			worlds.put(entry.getValue(), world);
+		}
+		return worlds;
+	}
 
-			int count = 0;
 
-			while (rs.next()) {
+	/**
+	 * Retrieve all road block locations in chunk from the SQLite datastore
+	 *
+	 * @param chunk the chunk for which to retrieve all road block locations from the datastore
+	 * @return Collection of locations
+	 */
+	@Override
+	public Collection<BlockRecord> selectRecordsInChunk(final Chunk chunk) {
+		return selectRecordsInChunk(chunk.getWorld().getUID(), chunk.getX(), chunk.getZ());
+	}
+
 
-				final long worldUidMSB = rs.getLong("worlduidmsb");
-				final long worldUidLSB = rs.getLong("worlduidlsb");
-				String worldName = rs.getString("worldname");
-				int blockX = rs.getInt("x");
-				int blockY = rs.getInt("y");
-				int blockZ = rs.getInt("z");
-				int chunkX = rs.getInt("chunk_x");
-				int chunkZ = rs.getInt("chunk_z");
+	/**
+	 * Retrieve all road block locations in chunk from the SQLite datastore by chunk coordinates;
+	 * does not access the chunk, so is safe to call from an async thread
+	 *
+	 * @param worldUid the uid of the world containing the chunk
+	 * @param chunkX the chunk x coordinate
+	 * @param chunkZ the chunk z coordinate
+	 * @return Collection of locations
+	 */
+	private Collection<BlockRecord> selectRecordsInChunk(final UUID worldUid, final int chunkX, final int chunkZ) {
 
-				// reconstitute world uid from components
-				UUID worldUid = new UUID(worldUidMSB,worldUidLSB);
+		// create new set for results
+		final Collection<BlockRecord> returnSet = new HashSet<>();
 
-				// get world by uid
-				World world = plugin.getServer().getWorld(worldUid);
+		// get world by uid
+		final World world = plugin.getServer().getWorld(worldUid);
 
-				// if world is null, skip to next record
-				if (world == null) {
-					plugin.getLogger().warning("Stored location has invalid world: "
-							+ worldName + ". Skipping record.");
-					continue;
-				}
+		// if world is null, chunk records cannot be returned
+		if (world == null) {
+			plugin.getLogger().warning("Stored location has invalid world: "
+					+ worldUid + ". Skipping records.");
+			return returnSet;
+		}
 
-				// get current world name
-				worldName = world.getName();
+		// create block records from stored locations, using current world name
+		loadChunk(worldUid, chunkX, chunkZ).forEach((blockX, blockY, blockZ) ->
+				returnSet.add(new BlockRecord(world.getName(), worldUid, blockX, blockY, blockZ, chunkX, chunkZ)));
 
-				// create block record from stored location
-				BlockRecord record = new BlockRecord(worldName, worldUid, blockX, blockY, blockZ, chunkX, chunkZ);
-				returnSet.add(record);
-				count++;
+		// return result set
+		return returnSet;
+	}
+
+
+	/**
+	 * Read the stored protected blocks in a chunk; does not access the chunk, so is safe to call from an async thread
+	 *
+	 * @param worldUid the uid of the world containing the chunk
+	 * @param chunkX the chunk x coordinate
+	 * @param chunkZ the chunk z coordinate
+	 * @return the stored protected blocks; empty if there are none or they could not be read
+	 */
+	private ChunkProtection loadChunk(final UUID worldUid, final int chunkX, final int chunkZ) {
+
+		// if world has never been stored, chunk has no records
+		final Integer worldId = worldIds.get(worldUid);
+		if (worldId == null) {
+			return new ChunkProtection(chunkX, chunkZ);
+		}
+
+		// if chunk has never had blocks stored, skip the query
+		if (storedChunksLoaded && !storedChunks.contains(worldUid, chunkX, chunkZ)) {
+			return new ChunkProtection(chunkX, chunkZ);
+		}
+
+		// use chunk restored for a warm restart, once; it matches stored blocks until a block in it is written
+		final ProtectionIndex warm = warmIndex;
+		if (warm != null) {
+			final ChunkProtection chunkProtection = warm.removeChunk(worldUid, chunkX, chunkZ);
+			if (chunkProtection != null) {
+				return chunkProtection;
 			}
+		}
+
+		try {
+			long startTime = System.nanoTime();
+			final ChunkProtection chunkProtection = layout.selectChunk(readers::acquire, worldId, chunkX, chunkZ);
+			long elapsedTime = System.nanoTime() - startTime;
 
 			if (plugin.getConfig().getBoolean("profile")) {
-				plugin.getLogger().info("Fetched " + count + " blocks in chunk in "
+				plugin.getLogger().info("Fetched " + chunkProtection.size() + " blocks in chunk in "
 						+ TimeUnit.NANOSECONDS.toMicros(elapsedTime) + " microseconds.");
 			}
+			return chunkProtection;
 		}
 		catch (SQLException e) {
 
@@ -621,15 +1800,25 @@ final class DataStoreSQLite extends DataStoreAbstract implements DataStore, List
 				e.printStackTrace();
 			}
 		}
-
-		// return result set
-		return returnSet;
+		return new ChunkProtection(chunkX, chunkZ);
 	}
 
 
 	@Override
 	public Collection<Location> selectNearbyBlocks(final Location location, final int distance) {
 
+		// if passed location is null, return empty set
+		if (location == null || location.getWorld() == null) {
+			return Collections.emptySet();
+		}
+
+		return selectNearbyBlocks(location, distance, location.getWorld().getMinHeight(), location.getWorld().getMaxHeight());
+	}
+
+
+	@Override
+	public Collection<Location> selectNearbyBlocks(final Location location, final int distance, final int minY, final int maxY) {
+
 		// if passed location is null, return empty set
 		if (location == null) {
 			return Collections.emptySet();
@@ -650,33 +1839,43 @@ final class DataStoreSQLite extends DataStoreAbstract implements DataStore, List
 
 		Collection<Location> resultSet = new HashSet<>();
 
-		try {
-			PreparedStatement preparedStatement =
-					connection.prepareStatement(Queries.getQuery("SelectNearbyBlocks"));
-
-			preparedStatement.setLong(1, world.getUID().getMostSignificantBits());
-			preparedStatement.setLong(2, world.getUID().getLeastSignificantBits());
-			preparedStatement.setInt(3, minX);
-			preparedStatement.setInt(4, maxX);
-			preparedStatement.setInt(5, minZ);
-			preparedStatement.setInt(6, maxZ);
-
-			// execute sql query
-			ResultSet rs = preparedStatement.executeQuery();
-
-			while (rs.next()) {
-
-				final double x = rs.getDouble("x");
-				final double y = rs.getDouble("y");
-				final double z = rs.getDouble("z");
+		// if world has never been stored, there are no nearby blocks
+		final Integer worldId = worldIds.get(world.getUID());
+		if (worldId == null) {
+			return resultSet;
+		}
 
-				// get location for stored record
-				Location newLocation = new Location(world, x, y, z);
+		long startTime = System.nanoTime();
 
-				// add location to result set
-				resultSet.add(newLocation);
+		try {
+			if (resident) {
+				protectionIndex.forEachInArea(world.getUID(), minX, maxX, minZ, maxZ, minY, maxY,
+						(x, y, z) -> resultSet.add(new Location(world, x, y, z)));
+			}
+			else if (spatialIndex) {
+				try (StatementRegistry.Lease lease = readers.acquire("SelectNearbyBlocksRTree")) {
+
+					final PreparedStatement preparedStatement = lease.getStatement();
+
+					preparedStatement.setInt(1, worldId);
+					preparedStatement.setInt(2, worldId);
+					preparedStatement.setInt(3, minX);
+					preparedStatement.setInt(4, maxX);
+					preparedStatement.setInt(5, minZ);
+					preparedStatement.setInt(6, maxZ);
+					preparedStatement.setInt(7, minY);
+					preparedStatement.setInt(8, maxY);
+
+					// execute sql query
+					try (ResultSet rs = preparedStatement.executeQuery()) {
+						addLocations(world, rs, resultSet);
+					}
+				}
+			}
+			else {
+				layout.selectNearby(readers::acquire, worldId, minX, maxX, minZ, maxZ, minY, maxY,
+						(x, y, z) -> resultSet.add(new Location(world, x, y, z)));
 			}
-
 		}
 		catch (final SQLException e) {
 
@@ -691,61 +1890,303 @@ final class DataStoreSQLite extends DataStoreAbstract implements DataStore, List
 			}
 		}
 
+		if (plugin.getConfig().getBoolean("profile")) {
+			plugin.getLogger().info("Selected " + resultSet.size() + " nearby blocks in "
+					+ TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime) + " microseconds.");
+		}
+
 		return resultSet;
 	}
 
 
 	/**
-	 * Add all road block locations within chunk to cache
+	 * Add block locations from a result set with x, y and z columns to a collection
+	 */
+	private static void addLocations(final World world, final ResultSet rs, final Collection<Location> locations)
+			throws SQLException {
+
+		while (rs.next()) {
+
+			final double x = rs.getDouble("x");
+			final double y = rs.getDouble("y");
+			final double z = rs.getDouble("z");
+
+			// add location for stored record to result set
+			locations.add(new Location(world, x, y, z));
+		}
+	}
+
+
+	/**
+	 * Load all road block locations within chunk into cache asynchronously,
+	 * unless the chunk is already cached or a load is already in progress
 	 *
-	 * @param chunk the chunk for which to load all road block locations into cache
+	 * @param world the world containing the chunk
+	 * @param chunkX the chunk x coordinate
+	 * @param chunkZ the chunk z coordinate
+	 * @return a future that completes when the chunk load has finished
 	 */
-	private void cacheChunk(final Chunk chunk) {
+	private CompletableFuture<Void> prefetchChunk(final World world, final int chunkX, final int chunkZ) {
+
+		// if chunk is already cached, return completed future
+		if (isChunkCached(world.getUID(), chunkX, chunkZ)) {
+			return CompletableFuture.completedFuture(null);
+		}
 
-		final Collection<BlockRecord> blockSet = selectRecordsInChunk(chunk);
+		final LongObjectMap<CompletableFuture<Void>> worldPrefetches =
+				prefetchMap.computeIfAbsent(world.getUID(), k -> new LongObjectMap<>());
 
-		int count = 0;
+		final long chunkKey = PackedCoordinates.packChunk(chunkX, chunkZ);
+
+		// if a prefetch is already in progress for chunk, return its future
+		final CompletableFuture<Void> newFuture = new CompletableFuture<>();
+		final CompletableFuture<Void> future = worldPrefetches.computeIfAbsent(chunkKey, k -> newFuture);
+		if (future != newFuture) {
+			return future;
+		}
+
+		final Runnable prefetch = () -> {
+			try {
+				final long generation = cacheChunk(world, chunkX, chunkZ);
+
+				// if chunk was unloaded while its records were being fetched, discard them, unless
+				// the chunk has been cached again since by a prefetch for a later load
+				if (!worldPrefetches.remove(chunkKey, future)) {
+					uncacheLoad(world, chunkX, chunkZ, generation);
+				}
+			}
+			finally {
+				worldPrefetches.remove(chunkKey, future);
+				future.complete(null);
+			}
+		};
+
+		// datastore is closing; chunk is not cached
+		final Runnable discard = () -> {
+			worldPrefetches.remove(chunkKey, future);
+			future.complete(null);
+		};
+
+		// chunk loads for players go ahead of writes and maintenance
+		try {
+			executor.execute(StorageExecutor.Priority.HIGH, StorageExecutor.discardable(prefetch, discard));
+		}
+		catch (RejectedExecutionException e) {
+			discard.run();
+		}
+
+		return future;
+	}
+
+
+	/**
+	 * Wait for a chunk prefetch according to the configured cache miss policy
+	 *
+	 * @param prefetch the future of the chunk prefetch
+	 * @return {@code true} if the prefetch completed, {@code false} if the block should be treated as protected
+	 */
+	private boolean awaitPrefetch(final CompletableFuture<Void> prefetch) {
+
+		if (prefetch.isDone()) {
+			return true;
+		}
+
+		final CacheMissPolicy policy = CacheMissPolicy.match(plugin.getConfig().getString("cache-miss-policy"));
+
+		if (policy == CacheMissPolicy.PROTECT) {
+			return false;
+		}
+
+		try {
+			prefetch.get(plugin.getConfig().getLong("cache-miss-timeout"), TimeUnit.MILLISECONDS);
+			return true;
+		}
+		catch (TimeoutException e) {
+			if (plugin.getConfig().getBoolean("debug")) {
+				plugin.getLogger().info("Timed out waiting for chunk prefetch; treating block as protected.");
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e) {
+			plugin.getLogger().warning("An error occurred while waiting for a chunk to be cached.");
+			plugin.getLogger().warning(e.getLocalizedMessage());
+		}
+		return false;
+	}
 
-		for (BlockRecord blockRecord : blockSet) {
-			blockCache.put(blockRecord, CacheStatus.RESIDENT);
-			count++;
+
+	/**
+	 * Add all road block locations within chunk to cache
+	 *
+	 * @param world the world containing the chunk
+	 * @param chunkX the chunk x coordinate
+	 * @param chunkZ the chunk z coordinate
+	 * @return the load generation of the cached chunk
+	 */
+	private long cacheChunk(final World world, final int chunkX, final int chunkZ) {
+
+		final UUID worldUid = world.getUID();
+
+		// read chunk protection bitmap from stored records, then apply writes that have not been committed yet,
+		// so they are not masked by stored records; if a batch was committed in between, its writes may have
+		// left the pending write cache after the stored records were read, so read again
+		ChunkProtection chunkProtection;
+		long commitSequence;
+		do {
+			commitSequence = writeQueue.getCommitSequence();
+			chunkProtection = loadChunk(worldUid, chunkX, chunkZ);
+			applyPendingWrites(worldUid, chunkProtection);
+		} while (commitSequence != writeQueue.getCommitSequence());
+
+		final int count = chunkProtection.size();
+
+		// publish chunk with a new load generation
+		final long generation = loadGenerations.incrementAndGet();
+		final LongObjectMap<Long> worldGenerations = getCacheGenerations(worldUid);
+		synchronized (worldGenerations) {
+
+			protectionIndex.putChunk(worldUid, chunkProtection);
+
+			// mark chunk cached, then apply again for writes queued before they could find it cached. Holding the
+			// index lock keeps writes that find the chunk cached from updating the index until this has finished
+			protectionIndex.updateChunk(worldUid, chunkX, chunkZ, published -> {
+				chunkCache.add(worldUid, chunkX, chunkZ);
+				applyPendingWrites(worldUid, published);
+			});
+
+			worldGenerations.put(PackedCoordinates.packChunk(chunkX, chunkZ), generation);
 		}
 
-		chunkCache.add(chunk.getBlock(0, 0, 0).getLocation());
+		// account for chunk in memory budget; chunks over budget, possibly this one, are evicted
+		if (cachePolicy != null) {
+			cachePolicy.add(worldUid, chunkX, chunkZ, chunkProtection.estimateSize());
+		}
 
 		if (plugin.getConfig().getBoolean("debug")) {
 			if (count > 0) {
 				plugin.getLogger().info(count + " blocks added to cache.");
 			}
 		}
+		return generation;
 	}
 
 
 	/**
-	 * Remove all road block locations within chunk from cache<br>
-	 * called on chunk unload event
+	 * Apply writes in the pending write cache to a chunk protection
 	 *
-	 * @param chunk the chunk for which to remove all road block locations from cache
+	 * @param worldUid the uid of the world containing the chunk
+	 * @param chunkProtection the chunk protection
 	 */
-	private void flushCache(final Chunk chunk) {
+	private void applyPendingWrites(final UUID worldUid, final ChunkProtection chunkProtection) {
+		blockCache.forEachInChunk(worldUid, chunkProtection.getChunkX(), chunkProtection.getChunkZ(), (key, code) -> {
+			if (CacheStatus.isProtected(code)) {
+				chunkProtection.add(PackedCoordinates.blockX(key), PackedCoordinates.blockY(key), PackedCoordinates.blockZ(key));
+			}
+			else {
+				chunkProtection.remove(PackedCoordinates.blockX(key), PackedCoordinates.blockY(key), PackedCoordinates.blockZ(key));
+			}
+		});
+	}
 
-		int count = 0;
-		long startTime = System.nanoTime();
-		for (BlockRecord blockRecord : blockCache.keySet()) {
-			if (blockRecord.getWorldUid().equals(chunk.getWorld().getUID())
-					&& blockRecord.getChunkX() == chunk.getX()
-					&& blockRecord.getChunkZ() == chunk.getZ()) {
-				blockCache.remove(blockRecord);
-				count++;
+
+	/**
+	 * Remove chunk from cache
+	 *
+	 * @param world the world containing the chunk
+	 * @param chunkX the chunk x coordinate
+	 * @param chunkZ the chunk z coordinate
+	 * @return the removed chunk protection, or null if chunk held no protected blocks
+	 */
+	private ChunkProtection uncacheChunk(final World world, final int chunkX, final int chunkZ) {
+		if (cachePolicy != null) {
+			cachePolicy.remove(world.getUID(), chunkX, chunkZ);
+		}
+		return dropChunk(world.getUID(), chunkX, chunkZ);
+	}
+
+
+	/**
+	 * Remove chunk from residency set and index; called directly when the cache policy evicts a chunk
+	 *
+	 * @param worldUid the uid of the world containing the chunk
+	 * @param chunkX the chunk x coordinate
+	 * @param chunkZ the chunk z coordinate
+	 * @return the removed chunk protection, or null if chunk held no protected blocks
+	 */
+	private ChunkProtection dropChunk(final UUID worldUid, final int chunkX, final int chunkZ) {
+		final LongObjectMap<Long> worldGenerations = getCacheGenerations(worldUid);
+		synchronized (worldGenerations) {
+			dropCount.incrementAndGet();
+			worldGenerations.remove(PackedCoordinates.packChunk(chunkX, chunkZ));
+			chunkCache.remove(worldUid, chunkX, chunkZ);
+			return protectionIndex.removeChunk(worldUid, chunkX, chunkZ);
+		}
+	}
+
+
+	/**
+	 * Remove chunk from cache if it is still cached by the load with the passed generation
+	 *
+	 * @param world the world containing the chunk
+	 * @param chunkX the chunk x coordinate
+	 * @param chunkZ the chunk z coordinate
+	 * @param generation the load generation returned when the chunk was cached
+	 */
+	private void uncacheLoad(final World world, final int chunkX, final int chunkZ, final long generation) {
+
+		final LongObjectMap<Long> worldGenerations = getCacheGenerations(world.getUID());
+		synchronized (worldGenerations) {
+			final Long cachedGeneration = worldGenerations.get(PackedCoordinates.packChunk(chunkX, chunkZ));
+			if (cachedGeneration == null || cachedGeneration != generation) {
+				return;
 			}
+			dropChunk(world.getUID(), chunkX, chunkZ);
+		}
+
+		// the policy lock is taken after the generation lock is released, as the policy drops chunks while holding it
+		if (cachePolicy != null) {
+			cachePolicy.remove(world.getUID(), chunkX, chunkZ);
+		}
+	}
+
+
+	/**
+	 * Get load generations of cached chunks in a world
+	 *
+	 * @param worldUid the world uid
+	 * @return the map of load generations keyed by packed chunk coordinates
+	 */
+	private LongObjectMap<Long> getCacheGenerations(final UUID worldUid) {
+		return cacheGenerations.computeIfAbsent(worldUid, k -> new LongObjectMap<>());
+	}
+
+
+	/**
+	 * Remove all road block locations within chunk from cache<br>
+	 * called from the eviction queue after chunk unload; pending writes remain in the block cache until committed
+	 *
+	 * @param world the world containing the chunk
+	 * @param chunkX the chunk x coordinate
+	 * @param chunkZ the chunk z coordinate
+	 */
+	private void flushCache(final World world, final int chunkX, final int chunkZ) {
+
+		// if chunk was loaded again while queued, its cached blocks are still in use
+		if (world.isChunkLoaded(chunkX, chunkZ)) {
+			return;
 		}
 
-		chunkCache.remove(chunk.getBlock(0, 0, 0).getLocation());
+		long startTime = System.nanoTime();
+
+		// drop the chunk's protection bitmap as a single object
+		final ChunkProtection chunkProtection = uncacheChunk(world, chunkX, chunkZ);
 
 		long elapsedTime = (System.nanoTime() - startTime);
 		if (plugin.getConfig().getBoolean("profile")) {
-			if (count > 0) {
-				plugin.getLogger().info(count + " blocks removed from cache in "
+			if (chunkProtection != null) {
+				plugin.getLogger().info(chunkProtection.size() + " blocks removed from cache in "
 						+ TimeUnit.NANOSECONDS.toMicros(elapsedTime) + " microseconds.");
 			}
 		}
@@ -753,68 +2194,88 @@ final class DataStoreSQLite extends DataStoreAbstract implements DataStore, List
 
 
 	/**
-	 * Check if road block locations for a chunk are loaded in the cache
+	 * Check if road block locations for a chunk are loaded in the cache; never touches the world,
+	 * so it is safe from any thread and cannot load the chunk
 	 *
-	 * @param location the location to test to determine if all chunk road blocks are cached
+	 * @param worldUid the uid of the world containing the chunk
+	 * @param chunkX the chunk x coordinate
+	 * @param chunkZ the chunk z coordinate
 	 * @return {@code true} if chunk is cached, {@code false} if not
 	 */
-	private boolean isChunkCached(final Location location) {
+	private boolean isChunkCached(final UUID worldUid, final int chunkX, final int chunkZ) {
+		return resident || chunkCache.contains(worldUid, chunkX, chunkZ);
+	}
 
-		final Location chunkLoc = location.getChunk().getBlock(0, 0, 0).getLocation();
 
-		if (chunkCache.contains(chunkLoc)) {
-			if (plugin.getConfig().getBoolean("debug")) {
-				plugin.getLogger().info("Chunk is cached.");
-			}
-			return true;
-		}
-		return false;
+	@Override
+	public int getTotalBlocks() {
+		return blockTotals.getTotal();
 	}
 
 
 	@Override
-	synchronized public int getTotalBlocks() {
+	public Map<UUID, Integer> getWorldBlockTotals() {
+		return blockTotals.getWorldTotals();
+	}
 
-		int total = 0;
 
-		try {
-			PreparedStatement preparedStatement =
-					connection.prepareStatement(Queries.getQuery("CountAllBlocks"));
+	/**
+	 * Event listener for chunk unload event; queues chunk for removal from cache
+	 *
+	 * @param event the event being handled by this method
+	 */
+	@EventHandler
+	public void onChunkUnload(final ChunkUnloadEvent event) {
 
-			// execute sql query
-			ResultSet rs = preparedStatement.executeQuery();
+		// resident chunks stay in the index when unloaded
+		if (resident) {
+			return;
+		}
 
-			while (rs.next()) {
-				total = rs.getInt("rowcount");
-			}
+		final Chunk chunk = event.getChunk();
 
+		// cancel any prefetch in progress for chunk
+		final LongObjectMap<CompletableFuture<Void>> worldPrefetches = prefetchMap.get(chunk.getWorld().getUID());
+		if (worldPrefetches != null) {
+			worldPrefetches.remove(PackedCoordinates.packChunk(chunk.getX(), chunk.getZ()));
 		}
-		catch (final SQLException e) {
 
-			// output simple error message
-			plugin.getLogger().warning("An error occurred while trying to "
-					+ "count all records from the " + this + " datastore.");
-			plugin.getLogger().warning(e.getLocalizedMessage());
+		// queue chunk for removal from cache within the per-tick eviction budget
+		evictionQueue.add(chunk.getWorld(), chunk.getX(), chunk.getZ());
+	}
 
-			// if debugging is enabled, output stack trace
-			if (plugin.getConfig().getBoolean("debug")) {
-				e.printStackTrace();
-			}
-		}
 
-		// return result
-		return total;
+	/**
+	 * Event listener for chunk load event; loads chunk road block locations into cache asynchronously
+	 *
+	 * @param event the event being handled by this method
+	 */
+	@EventHandler
+	public void onChunkLoad(final ChunkLoadEvent event) {
+		prefetchChunk(event.getWorld(), event.getChunk().getX(), event.getChunk().getZ());
 	}
 
 
 	/**
-	 * Event listener for chunk unload event
+	 * Event listener for world save event; checkpoints the journal in the writer lane
 	 *
 	 * @param event the event being handled by this method
 	 */
 	@EventHandler
-	public void onChunkUnload(final ChunkUnloadEvent event) {
-		flushCache(event.getChunk());
+	public void onWorldSave(final WorldSaveEvent event) {
+
+		// once per save of all worlds, output cache and storage task statistics if profiling is enabled,
+		// and discard chunks restored for a warm restart that players have not returned to
+		if (event.getWorld().equals(plugin.getServer().getWorlds().get(0))) {
+			if (plugin.getConfig().getBoolean("profile")) {
+				logStorageStatistics();
+			}
+			discardWarmChunks();
+		}
+
+		if (journal != null && !checkpointRunning.get()) {
+			writeQueue.executeInWriter(this::checkpoint);
+		}
 	}
 
 }
@@ -20,9 +20,11 @@ package com.winterhavenmc.roadblock.storage;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.function.BooleanSupplier;
 
 
 enum DataStoreType {
@@ -32,8 +34,8 @@ enum DataStoreType {
 		@Override
 		public DataStore connect(final JavaPlugin plugin) {
 
-			// create new sqlite datastore object
-			return new DataStoreSQLite(plugin);
+			// create new sqlite datastore object storing a row per block
+			return new DataStoreSQLite(plugin, this, new SQLiteRowLayout());
 		}
 
 
@@ -43,6 +45,60 @@ enum DataStoreType {
 			File dataStoreFile = new File(plugin.getDataFolder() + File.separator + this.getStorageName());
 			return dataStoreFile.exists();
 		}
+	},
+
+	SQLITE_CHUNK("SQLite-Chunk", "roadblocks-chunks.db") {
+
+		@Override
+		public DataStore connect(final JavaPlugin plugin) {
+
+			// create new sqlite datastore object storing a compressed row per chunk
+			return new DataStoreSQLite(plugin, this, new SQLiteChunkLayout());
+		}
+
+
+		@Override
+		boolean storageObjectExists(final JavaPlugin plugin) {
+			// get path name to data store file
+			File dataStoreFile = new File(plugin.getDataFolder() + File.separator + this.getStorageName());
+			return dataStoreFile.exists();
+		}
+	},
+
+	REGION_FILE("RegionFile", "regions") {
+
+		@Override
+		public DataStore connect(final JavaPlugin plugin) {
+
+			// create new region file datastore object
+			return new DataStoreRegionFile(plugin);
+		}
+
+
+		@Override
+		boolean storageObjectExists(final JavaPlugin plugin) {
+			// get path name to region directory
+			File regionDirectory = new File(plugin.getDataFolder() + File.separator + this.getStorageName());
+			return regionDirectory.isDirectory();
+		}
+	},
+
+	MEMORY("Memory", "roadblocks.snapshot") {
+
+		@Override
+		public DataStore connect(final JavaPlugin plugin) {
+
+			// create new memory datastore object
+			return new DataStoreMemory(plugin);
+		}
+
+
+		@Override
+		boolean storageObjectExists(final JavaPlugin plugin) {
+			// get path name to snapshot file
+			File snapshotFile = new File(plugin.getDataFolder() + File.separator + this.getStorageName());
+			return snapshotFile.exists();
+		}
 	};
 
 
@@ -55,6 +111,12 @@ enum DataStoreType {
 	// default datastore type
 	private final static DataStoreType defaultType = DataStoreType.SQLITE;
 
+	// number of records read from the old datastore at a time during conversion
+	private final static int CONVERSION_PAGE_SIZE = 5000;
+
+	// number of records converted between syncs of the new datastore and saves of conversion progress
+	private final static int CONVERSION_CHECKPOINT_SIZE = 100000;
+
 
 	/**
 	 * Class constructor
@@ -121,8 +183,10 @@ enum DataStoreType {
 	 *
 	 * @param oldDataStore the old datastore to be converted from
 	 * @param newDataStore the new datastore to be converted to
+	 * @param stopRequested tested after each page; once true, progress is saved and conversion stops
 	 */
-	static void convert(final JavaPlugin plugin, final DataStore oldDataStore, final DataStore newDataStore) {
+	static void convert(final JavaPlugin plugin, final DataStore oldDataStore, final DataStore newDataStore,
+	                    final BooleanSupplier stopRequested) {
 
 		// if datastores are same type, do not convert
 		if (oldDataStore.getType().equals(newDataStore.getType())) {
@@ -138,7 +202,7 @@ enum DataStoreType {
 			// initialize old datastore if necessary
 			if (!oldDataStore.isInitialized()) {
 				try {
-					oldDataStore.initialize();
+					oldDataStore.initializeForConversion();
 				}
 				catch (Exception e) {
 					plugin.getLogger().warning("Could not initialize "
@@ -148,19 +212,71 @@ enum DataStoreType {
 				}
 			}
 
-			// get count of records inserted in new datastore from old datastore
-			int count = newDataStore.insertRecords(oldDataStore.selectAllRecords());
+			// copy records in pages, continuing after the records converted before any interruption
+			final ConversionProgress progress = new ConversionProgress(plugin.getDataFolder(),
+					oldDataStore.getType(), newDataStore.getType());
+			if (progress.getPosition() != null) {
+				plugin.getLogger().info("Resuming conversion after " + progress.getRecords() + " records.");
+			}
 
-			// log record count message
-			plugin.getLogger().info(count + " records converted to "
-					+ newDataStore + " datastore.");
+			final long total = oldDataStore.getTotalBlocks();
+			final RecordCursor cursor = oldDataStore.openCursor(progress.getPosition());
+			long count = progress.getRecords();
+			long uncheckpointed = 0;
+			boolean stopped = false;
+
+			try {
+				while (!stopped && cursor.hasNext()) {
+
+					final Collection<BlockRecord> page = cursor.nextPage(CONVERSION_PAGE_SIZE);
+					newDataStore.insertRecords(page);
+					count += page.size();
+					uncheckpointed += page.size();
+
+					// on shutdown, stop after this page and save progress, so conversion continues on next start
+					stopped = stopRequested.getAsBoolean();
+
+					// sync new datastore before saving progress, so saved progress never covers unwritten records;
+					// if records could not be written, progress and the old datastore are kept
+					if (uncheckpointed >= CONVERSION_CHECKPOINT_SIZE || !cursor.hasNext() || stopped) {
+						if (!newDataStore.sync()) {
+							throw new IOException("Converted records could not all be written to the "
+									+ newDataStore + " datastore.");
+						}
+						progress.save(cursor.getPosition(), count);
+						uncheckpointed = 0;
+						plugin.getLogger().info(count + " of " + total + " records converted to "
+								+ newDataStore + " datastore.");
+					}
+				}
+			}
+			catch (IOException e) {
+
+				// leave old datastore and saved progress in place, so conversion continues on next start
+				plugin.getLogger().warning("Conversion of " + oldDataStore + " datastore was interrupted after "
+						+ progress.getRecords() + " records; it will continue on next start.");
+				plugin.getLogger().warning(e.getLocalizedMessage());
+				if (plugin.getConfig().getBoolean("debug")) {
+					e.printStackTrace();
+				}
+				oldDataStore.close();
+				return;
+			}
 
-			// flush new datastore to disk if applicable
-			newDataStore.sync();
+			// leave old datastore and saved progress in place when stopped before the last page
+			if (stopped && cursor.hasNext()) {
+				plugin.getLogger().info("Conversion of " + oldDataStore + " datastore was stopped for shutdown after "
+						+ count + " records; it will continue on next start.");
+				oldDataStore.close();
+				return;
+			}
 
 			// close old datastore
 			oldDataStore.close();
 
+			// delete saved progress before old datastore, so a conversion interrupted between the two starts over
+			progress.delete();
+
 			// delete old datastore
 			oldDataStore.delete();
 		}
@@ -171,8 +287,10 @@ enum DataStoreType {
 	 * convert all existing data stores to new data store
 	 *
 	 * @param newDataStore the new datastore that all other existing datastores should be converted to
+	 * @param stopRequested tested between pages and datastores; once true, conversion stops
 	 */
-	static void convertAll(final JavaPlugin plugin, final DataStore newDataStore) {
+	static void convertAll(final JavaPlugin plugin, final DataStore newDataStore,
+	                       final BooleanSupplier stopRequested) {
 
 		// get collection of all data store types
 		final Collection<DataStoreType> dataStores =
@@ -183,7 +301,10 @@ enum DataStoreType {
 
 		// convert each old datastore type to new datastore
 		for (DataStoreType type : dataStores) {
-			convert(plugin, type.connect(plugin), newDataStore);
+			if (stopRequested.getAsBoolean()) {
+				return;
+			}
+			convert(plugin, type.connect(plugin), newDataStore, stopRequested);
 		}
 	}
 
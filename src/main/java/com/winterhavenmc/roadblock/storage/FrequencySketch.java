@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+
+/**
+ * Approximate access frequency of keys, held as a count-min sketch of 4 bit counters.
+ * <p>
+ * Counters are halved once the number of recorded accesses reaches a sample size proportional to the
+ * number of tracked keys, so frequencies age and keys that were popular long ago lose their weight.
+ * This class is not thread safe.
+ */
+final class FrequencySketch {
+
+	// seeds for the hash function of each counter row
+	private static final long[] SEEDS = {
+			0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L };
+
+	// mask keeping the low three bits of each counter when counters are halved
+	private static final long RESET_MASK = 0x7777777777777777L;
+
+	private final long[] table;
+	private final int tableMask;
+	private final int sampleSize;
+	private int additions;
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param maximumKeys the expected number of tracked keys
+	 */
+	FrequencySketch(final int maximumKeys) {
+		final int length = Integer.highestOneBit(Math.max(64, Math.min(maximumKeys, 1 << 24)) - 1) << 1;
+		this.table = new long[length];
+		this.tableMask = length - 1;
+		this.sampleSize = length * 10;
+	}
+
+
+	/**
+	 * Get the estimated number of recorded accesses of a key
+	 *
+	 * @param hash the hash of the key
+	 * @return the estimated frequency, from 0 to 15
+	 */
+	int frequency(final long hash) {
+		int frequency = 15;
+		for (int row = 0; row < SEEDS.length; row++) {
+			final long rowHash = rehash(hash, row);
+			final int shift = counterShift(rowHash);
+			frequency = Math.min(frequency, (int) ((table[tableIndex(rowHash)] >>> shift) & 15L));
+		}
+		return frequency;
+	}
+
+
+	/**
+	 * Record an access of a key
+	 *
+	 * @param hash the hash of the key
+	 */
+	void increment(final long hash) {
+
+		boolean added = false;
+		for (int row = 0; row < SEEDS.length; row++) {
+			final long rowHash = rehash(hash, row);
+			final int index = tableIndex(rowHash);
+			final int shift = counterShift(rowHash);
+			if (((table[index] >>> shift) & 15L) != 15L) {
+				table[index] += 1L << shift;
+				added = true;
+			}
+		}
+
+		if (added && ++additions == sampleSize) {
+			reset();
+		}
+	}
+
+
+	/**
+	 * Halve all counters
+	 */
+	private void reset() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		additions /= 2;
+	}
+
+
+	private int tableIndex(final long rowHash) {
+		return (int) (rowHash >>> 32) & tableMask;
+	}
+
+
+	private static int counterShift(final long rowHash) {
+		return ((int) rowHash & 15) << 2;
+	}
+
+
+	private static long rehash(final long hash, final int row) {
+		long h = (hash + SEEDS[row]) * SEEDS[row];
+		h ^= h >>> 29;
+		return h;
+	}
+
+}
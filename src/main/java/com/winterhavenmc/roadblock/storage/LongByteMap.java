@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongPredicate;
+
+
+/**
+ * An open addressing hash map of primitive {@code long} keys to primitive {@code byte} values.
+ * <p>
+ * A value of zero is reserved to mark an empty slot, so callers must only store non-zero values.
+ * Reads are lock free and never allocate; writes are serialized by a {@link StampedLock}.
+ */
+final class LongByteMap {
+
+	// reserved value for empty slots
+	static final byte EMPTY = 0;
+
+	private static final int MIN_CAPACITY = 16;
+
+	private final StampedLock lock = new StampedLock();
+
+	private Table table;
+	private int size;
+
+
+	/**
+	 * Functional interface for visiting map entries
+	 */
+	@FunctionalInterface
+	interface EntryConsumer {
+		void accept(long key, byte value);
+	}
+
+
+	/**
+	 * Key and value arrays, published together so that lock free readers always see a matching pair
+	 */
+	private static final class Table {
+		final long[] keys;
+		final byte[] values;
+
+		Table(final int capacity) {
+			this.keys = new long[capacity];
+			this.values = new byte[capacity];
+		}
+	}
+
+
+	/**
+	 * Class constructor
+	 */
+	LongByteMap() {
+		this.table = new Table(MIN_CAPACITY);
+	}
+
+
+	/**
+	 * Get value for key
+	 *
+	 * @param key the key to look up
+	 * @return the value stored for key, or {@link #EMPTY} if key is not present
+	 */
+	byte get(final long key) {
+
+		// try an optimistic read first
+		long stamp = lock.tryOptimisticRead();
+		byte result = find(table, key);
+		if (lock.validate(stamp)) {
+			return result;
+		}
+
+		// a write intervened; fall back to a read lock
+		stamp = lock.readLock();
+		try {
+			return find(table, key);
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+
+	/**
+	 * Put value for key
+	 *
+	 * @param key the key to store
+	 * @param value the non-zero value to store
+	 * @return the previous value for key, or {@link #EMPTY} if key was not present
+	 */
+	byte put(final long key, final byte value) {
+
+		if (value == EMPTY) {
+			throw new IllegalArgumentException("Value must not be zero.");
+		}
+
+		final long stamp = lock.writeLock();
+		try {
+			Table t = table;
+			int mask = t.keys.length - 1;
+			int slot = slot(key, mask);
+			while (t.values[slot] != EMPTY) {
+				if (t.keys[slot] == key) {
+					byte previous = t.values[slot];
+					t.values[slot] = value;
+					return previous;
+				}
+				slot = (slot + 1) & mask;
+			}
+
+			// grow table if insertion would exceed load factor of 0.75
+			if ((size + 1) * 4 > t.keys.length * 3) {
+				t = resize(t.keys.length * 2);
+				mask = t.keys.length - 1;
+				slot = slot(key, mask);
+				while (t.values[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+			}
+
+			t.keys[slot] = key;
+			t.values[slot] = value;
+			size++;
+			return EMPTY;
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+
+	/**
+	 * Remove key
+	 *
+	 * @param key the key to remove
+	 * @return the value that was stored for key, or {@link #EMPTY} if key was not present
+	 */
+	byte remove(final long key) {
+
+		final long stamp = lock.writeLock();
+		try {
+			final Table t = table;
+			final int mask = t.keys.length - 1;
+			int slot = slot(key, mask);
+			while (t.values[slot] != EMPTY) {
+				if (t.keys[slot] == key) {
+					byte previous = t.values[slot];
+					deleteSlot(t, slot);
+					return previous;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return EMPTY;
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+
+	/**
+	 * Remove all keys matching predicate
+	 *
+	 * @param predicate the predicate used to select keys for removal
+	 * @return the number of keys removed
+	 */
+	int removeIf(final LongPredicate predicate) {
+
+		final long stamp = lock.writeLock();
+		try {
+			final Table t = table;
+			int count = 0;
+			int slot = 0;
+			while (slot < t.keys.length) {
+				// deleting shifts a later entry into this slot, so only advance when nothing was removed
+				if (t.values[slot] != EMPTY && predicate.test(t.keys[slot])) {
+					deleteSlot(t, slot);
+					count++;
+				}
+				else {
+					slot++;
+				}
+			}
+			return count;
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+
+	/**
+	 * Perform an action for each entry in the map, while holding the read lock
+	 *
+	 * @param action the action to perform
+	 */
+	void forEach(final EntryConsumer action) {
+		final long stamp = lock.readLock();
+		try {
+			final Table t = table;
+			for (int slot = 0; slot < t.keys.length; slot++) {
+				if (t.values[slot] != EMPTY) {
+					action.accept(t.keys[slot], t.values[slot]);
+				}
+			}
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+
+	/**
+	 * Get number of keys in map
+	 *
+	 * @return number of keys in map
+	 */
+	int size() {
+		final long stamp = lock.readLock();
+		try {
+			return size;
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+
+	/**
+	 * Probe table for key; safe to run against a table that is concurrently modified,
+	 * because the probe is bounded by the table length and the result is discarded if the stamp is invalid.
+	 */
+	private static byte find(final Table t, final long key) {
+		final long[] keys = t.keys;
+		final byte[] values = t.values;
+		final int mask = keys.length - 1;
+		int slot = slot(key, mask);
+		for (int probes = 0; probes < keys.length; probes++) {
+			byte value = values[slot];
+			if (value == EMPTY) {
+				return EMPTY;
+			}
+			if (keys[slot] == key) {
+				return value;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return EMPTY;
+	}
+
+
+	/**
+	 * Remove the entry at slot, shifting back any following entries in the probe sequence
+	 * so that no tombstones are needed
+	 */
+	private void deleteSlot(final Table t, int slot) {
+		final long[] keys = t.keys;
+		final byte[] values = t.values;
+		final int mask = keys.length - 1;
+		int next = (slot + 1) & mask;
+		while (values[next] != EMPTY) {
+			int home = slot(keys[next], mask);
+			// move entry back if its home slot is not cyclically between the hole and its current slot
+			if (((next - home) & mask) >= ((next - slot) & mask)) {
+				keys[slot] = keys[next];
+				values[slot] = values[next];
+				slot = next;
+			}
+			next = (next + 1) & mask;
+		}
+		values[slot] = EMPTY;
+		size--;
+	}
+
+
+	private Table resize(final int capacity) {
+		final Table oldTable = table;
+		final Table newTable = new Table(capacity);
+		final int mask = capacity - 1;
+		for (int i = 0; i < oldTable.keys.length; i++) {
+			if (oldTable.values[i] != EMPTY) {
+				int slot = slot(oldTable.keys[i], mask);
+				while (newTable.values[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				newTable.keys[slot] = oldTable.keys[i];
+				newTable.values[slot] = oldTable.values[i];
+			}
+		}
+		// publish new table; readers holding the old table will fail stamp validation
+		this.table = newTable;
+		return newTable;
+	}
+
+
+	private static int slot(final long key, final int mask) {
+		// murmur3 finalizer mix
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) h & mask;
+	}
+
+}
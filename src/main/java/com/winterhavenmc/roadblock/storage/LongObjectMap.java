@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+
+/**
+ * An open addressing hash map of primitive {@code long} keys to object values.
+ * <p>
+ * Null values are not permitted; a null value marks an empty slot.
+ * Reads are lock free and never allocate; writes are serialized by a {@link StampedLock}.
+ *
+ * @param <V> the type of mapped values
+ */
+final class LongObjectMap<V> {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private final StampedLock lock = new StampedLock();
+
+	private Table table;
+	private int size;
+
+
+	/**
+	 * Key and value arrays, published together so that lock free readers always see a matching pair
+	 */
+	private static final class Table {
+		final long[] keys;
+		final Object[] values;
+
+		Table(final int capacity) {
+			this.keys = new long[capacity];
+			this.values = new Object[capacity];
+		}
+	}
+
+
+	/**
+	 * Class constructor
+	 */
+	LongObjectMap() {
+		this.table = new Table(MIN_CAPACITY);
+	}
+
+
+	/**
+	 * Get value for key
+	 *
+	 * @param key the key to look up
+	 * @return the value stored for key, or null if key is not present
+	 */
+	V get(final long key) {
+
+		// try an optimistic read first
+		long stamp = lock.tryOptimisticRead();
+		V result = find(table, key);
+		if (lock.validate(stamp)) {
+			return result;
+		}
+
+		// a write intervened; fall back to a read lock
+		stamp = lock.readLock();
+		try {
+			return find(table, key);
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+
+	/**
+	 * Put value for key
+	 *
+	 * @param key the key to store
+	 * @param value the non-null value to store
+	 * @return the previous value for key, or null if key was not present
+	 */
+	V put(final long key, final V value) {
+
+		if (value == null) {
+			throw new IllegalArgumentException("Value must not be null.");
+		}
+
+		final long stamp = lock.writeLock();
+		try {
+			return insert(key, value, true);
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+
+	/**
+	 * Get value for key, creating and storing a new value if key is not present
+	 *
+	 * @param key the key to look up
+	 * @param mappingFunction the function used to create a value for an absent key
+	 * @return the existing or newly created value for key
+	 */
+	V computeIfAbsent(final long key, final LongFunction<V> mappingFunction) {
+
+		V existing = get(key);
+		if (existing != null) {
+			return existing;
+		}
+
+		final long stamp = lock.writeLock();
+		try {
+			existing = find(table, key);
+			if (existing != null) {
+				return existing;
+			}
+			final V value = mappingFunction.apply(key);
+			insert(key, value, false);
+			return value;
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+
+	/**
+	 * Remove key
+	 *
+	 * @param key the key to remove
+	 * @return the value that was stored for key, or null if key was not present
+	 */
+	V remove(final long key) {
+
+		final long stamp = lock.writeLock();
+		try {
+			final Table t = table;
+			final int mask = t.keys.length - 1;
+			int slot = slot(key, mask);
+			while (t.values[slot] != null) {
+				if (t.keys[slot] == key) {
+					@SuppressWarnings("unchecked")
+					V previous = (V) t.values[slot];
+					deleteSlot(t, slot);
+					return previous;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return null;
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+
+	/**
+	 * Remove key only if it is currently mapped to value
+	 *
+	 * @param key the key to remove
+	 * @param value the value expected to be mapped to key
+	 * @return {@code true} if the entry was removed, else {@code false}
+	 */
+	boolean remove(final long key, final V value) {
+
+		final long stamp = lock.writeLock();
+		try {
+			final Table t = table;
+			final int mask = t.keys.length - 1;
+			int slot = slot(key, mask);
+			while (t.values[slot] != null) {
+				if (t.keys[slot] == key) {
+					if (t.values[slot] != value) {
+						return false;
+					}
+					deleteSlot(t, slot);
+					return true;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return false;
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+
+	/**
+	 * Perform an action for each value in the map, while holding the read lock
+	 *
+	 * @param action the action to perform
+	 */
+	@SuppressWarnings("unchecked")
+	void forEachValue(final Consumer<? super V> action) {
+		final long stamp = lock.readLock();
+		try {
+			for (Object value : table.values) {
+				if (value != null) {
+					action.accept((V) value);
+				}
+			}
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+
+	/**
+	 * Get the keys in the map, while holding the read lock
+	 *
+	 * @return array of keys, in no particular order
+	 */
+	long[] keys() {
+		final long stamp = lock.readLock();
+		try {
+			final long[] keys = new long[size];
+			int i = 0;
+			for (int slot = 0; slot < table.keys.length; slot++) {
+				if (table.values[slot] != null) {
+					keys[i++] = table.keys[slot];
+				}
+			}
+			return keys;
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+
+	/**
+	 * Get number of keys in map
+	 *
+	 * @return number of keys in map
+	 */
+	int size() {
+		final long stamp = lock.readLock();
+		try {
+			return size;
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+
+	/**
+	 * Insert or replace a mapping; caller must hold the write lock
+	 */
+	private V insert(final long key, final V value, final boolean replace) {
+		Table t = table;
+		int mask = t.keys.length - 1;
+		int slot = slot(key, mask);
+		while (t.values[slot] != null) {
+			if (t.keys[slot] == key) {
+				@SuppressWarnings("unchecked")
+				V previous = (V) t.values[slot];
+				if (replace) {
+					t.values[slot] = value;
+				}
+				return previous;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		// grow table if insertion would exceed load factor of 0.75
+		if ((size + 1) * 4 > t.keys.length * 3) {
+			t = resize(t.keys.length * 2);
+			mask = t.keys.length - 1;
+			slot = slot(key, mask);
+			while (t.values[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		t.keys[slot] = key;
+		t.values[slot] = value;
+		size++;
+		return null;
+	}
+
+
+	/**
+	 * Probe table for key; safe to run against a table that is concurrently modified,
+	 * because the probe is bounded by the table length and the result is discarded if the stamp is invalid.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <V> V find(final Table t, final long key) {
+		final long[] keys = t.keys;
+		final Object[] values = t.values;
+		final int mask = keys.length - 1;
+		int slot = slot(key, mask);
+		for (int probes = 0; probes < keys.length; probes++) {
+			Object value = values[slot];
+			if (value == null) {
+				return null;
+			}
+			if (keys[slot] == key) {
+				return (V) value;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+
+	/**
+	 * Remove the entry at slot, shifting back any following entries in the probe sequence
+	 * so that no tombstones are needed
+	 */
+	private void deleteSlot(final Table t, int slot) {
+		final long[] keys = t.keys;
+		final Object[] values = t.values;
+		final int mask = keys.length - 1;
+		int next = (slot + 1) & mask;
+		while (values[next] != null) {
+			int home = slot(keys[next], mask);
+			// move entry back if its home slot is not cyclically between the hole and its current slot
+			if (((next - home) & mask) >= ((next - slot) & mask)) {
+				keys[slot] = keys[next];
+				values[slot] = values[next];
+				slot = next;
+			}
+			next = (next + 1) & mask;
+		}
+		values[slot] = null;
+		size--;
+	}
+
+
+	private Table resize(final int capacity) {
+		final Table oldTable = table;
+		final Table newTable = new Table(capacity);
+		final int mask = capacity - 1;
+		for (int i = 0; i < oldTable.keys.length; i++) {
+			if (oldTable.values[i] != null) {
+				int slot = slot(oldTable.keys[i], mask);
+				while (newTable.values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				newTable.keys[slot] = oldTable.keys[i];
+				newTable.values[slot] = oldTable.values[i];
+			}
+		}
+		// publish new table; readers holding the old table will fail stamp validation
+		this.table = newTable;
+		return newTable;
+	}
+
+
+	private static int slot(final long key, final int mask) {
+		// murmur3 finalizer mix
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) h & mask;
+	}
+
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+
+/**
+ * Append-only journal of block protect and unprotect operations.
+ * <p>
+ * Operations are appended to the current segment file before they are queued for the datastore, so
+ * operations that were not written before a crash can be replayed on restart. A checkpoint rotates to a
+ * new segment; the old segments can be deleted once every operation in them has been written.
+ * <p>
+ * Each record holds the operation, world uid and block coordinates, followed by a checksum; a record
+ * left incomplete by a crash ends replay of its segment.
+ * <p>
+ * Appended records reach the operating system on return, so they survive a crash of the server process.
+ * To survive a power loss or operating system crash they must also be forced to disk, either on every
+ * append or by calling {@link #sync()} periodically, forcing every record appended since the last sync
+ * at once.
+ */
+final class OperationJournal {
+
+	// segment file identifier and version
+	private static final int MAGIC = 0x52424A4C;
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+
+	// operation, world uid, x, y, z, checksum
+	private static final int RECORD_SIZE = 1 + 16 + 12 + 4;
+
+	private static final byte INSERT = 1;
+	private static final byte DELETE = 2;
+
+	/**
+	 * Functional interface for replaying journal operations
+	 */
+	@FunctionalInterface
+	interface OperationConsumer {
+		void accept(UUID worldUid, int x, int y, int z, CacheStatus status);
+	}
+
+	private final File directory;
+	private final Pattern segmentName;
+	private final String segmentPrefix;
+
+	// force every append to disk before returning
+	private final boolean syncOnAppend;
+
+	// current segment, and number of records appended to it
+	private FileChannel channel;
+	private int segment;
+	private long records;
+
+	// set when records have been appended to the current segment since it was last forced to disk
+	private boolean syncPending;
+
+	// number of times the current and earlier segments were forced to disk
+	private long syncCount;
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param dataFile the datastore file; segment files are created beside it
+	 * @param syncOnAppend if {@code true}, every append is forced to disk before returning;
+	 *                     otherwise appends are forced by {@link #sync()}
+	 */
+	OperationJournal(final File dataFile, final boolean syncOnAppend) {
+		this.syncOnAppend = syncOnAppend;
+		this.directory = dataFile.getAbsoluteFile().getParentFile();
+		this.segmentPrefix = dataFile.getName() + ".journal.";
+		this.segmentName = Pattern.compile(Pattern.quote(segmentPrefix) + "(\\d+)");
+	}
+
+
+	/**
+	 * Get existing segment files in the order they were written, excluding the current segment
+	 *
+	 * @return segment files
+	 */
+	synchronized List<File> getSegments() {
+
+		final SortedMap<Integer, File> segments = new TreeMap<>();
+
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				final Matcher matcher = segmentName.matcher(file.getName());
+				if (matcher.matches()) {
+					final int number = Integer.parseInt(matcher.group(1));
+					if (channel == null || number != segment) {
+						segments.put(number, file);
+					}
+				}
+			}
+		}
+		return new ArrayList<>(segments.values());
+	}
+
+
+	/**
+	 * Start a new segment after any existing segments
+	 */
+	synchronized void open() throws IOException {
+
+		if (channel != null) {
+			return;
+		}
+
+		int last = 0;
+		for (File file : getSegments()) {
+			final Matcher matcher = segmentName.matcher(file.getName());
+			if (matcher.matches()) {
+				last = Math.max(last, Integer.parseInt(matcher.group(1)));
+			}
+		}
+		segment = last + 1;
+		records = 0;
+
+		channel = FileChannel.open(new File(directory, segmentPrefix + segment).toPath(),
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+		writeFully(header);
+	}
+
+
+	/**
+	 * Append operations to the current segment
+	 *
+	 * @param blockRecords the block records
+	 * @param status PENDING_INSERT or PENDING_DELETE
+	 */
+	synchronized void append(final Collection<BlockRecord> blockRecords, final CacheStatus status) throws IOException {
+
+		if (channel == null) {
+			throw new IOException("Journal is not open.");
+		}
+
+		final ByteBuffer buffer = ByteBuffer.allocate(blockRecords.size() * RECORD_SIZE);
+		final CRC32 checksum = new CRC32();
+
+		for (BlockRecord blockRecord : blockRecords) {
+
+			// if record is null, skip to next record
+			if (blockRecord == null) {
+				continue;
+			}
+
+			final int start = buffer.position();
+			buffer.put(status == CacheStatus.PENDING_INSERT ? INSERT : DELETE);
+			buffer.putLong(blockRecord.getWorldUid().getMostSignificantBits());
+			buffer.putLong(blockRecord.getWorldUid().getLeastSignificantBits());
+			buffer.putInt(blockRecord.getBlockX());
+			buffer.putInt(blockRecord.getBlockY());
+			buffer.putInt(blockRecord.getBlockZ());
+
+			checksum.reset();
+			checksum.update(buffer.array(), start, RECORD_SIZE - 4);
+			buffer.putInt((int) checksum.getValue());
+		}
+
+		buffer.flip();
+		writeFully(buffer);
+		records += buffer.limit() / RECORD_SIZE;
+
+		if (syncOnAppend) {
+			channel.force(false);
+			syncCount++;
+		}
+		else {
+			syncPending = true;
+		}
+	}
+
+
+	/**
+	 * Force records appended since the last sync to disk. The journal lock is not held while forcing,
+	 * so operations can be appended meanwhile; they are forced by the next sync.
+	 */
+	void sync() throws IOException {
+
+		final FileChannel syncChannel;
+		synchronized (this) {
+			if (channel == null || !syncPending) {
+				return;
+			}
+			syncChannel = channel;
+			syncPending = false;
+		}
+
+		try {
+			syncChannel.force(false);
+		}
+		catch (ClosedChannelException e) {
+			// segment was closed by a rotation or close, which force it first
+			return;
+		}
+		catch (IOException e) {
+			synchronized (this) {
+				if (channel == syncChannel) {
+					syncPending = true;
+				}
+			}
+			throw e;
+		}
+
+		synchronized (this) {
+			syncCount++;
+		}
+	}
+
+
+	/**
+	 * Test if records have been appended to the current segment since it was last forced to disk
+	 *
+	 * @return {@code true} if a sync is needed, else {@code false}
+	 */
+	synchronized boolean isSyncPending() {
+		return syncPending;
+	}
+
+
+	/**
+	 * Get the number of times appended records were forced to disk
+	 *
+	 * @return the sync count
+	 */
+	synchronized long getSyncCount() {
+		return syncCount;
+	}
+
+
+	/**
+	 * Test if the current segment is open
+	 *
+	 * @return {@code true} if operations can be appended, else {@code false}
+	 */
+	synchronized boolean isOpen() {
+		return channel != null;
+	}
+
+
+	/**
+	 * Test if no operations have been appended to the current segment
+	 *
+	 * @return {@code true} if the current segment is empty, else {@code false}
+	 */
+	synchronized boolean isEmpty() {
+		return records == 0;
+	}
+
+
+	/**
+	 * Close the current segment and start a new one
+	 *
+	 * @return the segments written before the new segment
+	 */
+	synchronized List<File> rotate() throws IOException {
+		close();
+		open();
+		return getSegments();
+	}
+
+
+	/**
+	 * Close the current segment
+	 */
+	synchronized void close() throws IOException {
+		if (channel != null) {
+			channel.force(false);
+			channel.close();
+			channel = null;
+			syncPending = false;
+			syncCount++;
+		}
+	}
+
+
+	/**
+	 * Replay operations from segment files in order
+	 *
+	 * @param segments the segment files
+	 * @param action the action to perform for each operation
+	 * @return the number of operations replayed
+	 */
+	static int replay(final List<File> segments, final OperationConsumer action) throws IOException {
+
+		int count = 0;
+		final CRC32 checksum = new CRC32();
+
+		for (File file : segments) {
+			try (FileChannel segmentChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+				final ByteBuffer buffer = ByteBuffer.allocate((int) segmentChannel.size());
+				int bytesRead = 0;
+				while (buffer.hasRemaining() && bytesRead >= 0) {
+					bytesRead = segmentChannel.read(buffer);
+				}
+				buffer.flip();
+
+				// a segment created just before a crash may have an incomplete header and no records
+				if (buffer.remaining() < HEADER_SIZE) {
+					continue;
+				}
+
+				if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+					throw new IOException("Journal segment " + file.getName() + " is not in a supported format.");
+				}
+
+				while (buffer.remaining() >= RECORD_SIZE) {
+
+					final int start = buffer.position();
+					checksum.reset();
+					checksum.update(buffer.array(), start, RECORD_SIZE - 4);
+					if (buffer.getInt(start + RECORD_SIZE - 4) != (int) checksum.getValue()) {
+						break;
+					}
+
+					final byte operation = buffer.get();
+					final UUID worldUid = new UUID(buffer.getLong(), buffer.getLong());
+					final int x = buffer.getInt();
+					final int y = buffer.getInt();
+					final int z = buffer.getInt();
+					buffer.getInt();
+
+					action.accept(worldUid, x, y, z,
+							operation == INSERT ? CacheStatus.PENDING_INSERT : CacheStatus.PENDING_DELETE);
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+
+	/**
+	 * Delete segment files
+	 *
+	 * @param segments the segment files
+	 * @return {@code true} if all segments were deleted, else {@code false}
+	 */
+	static boolean delete(final Collection<File> segments) {
+		boolean result = true;
+		for (File file : segments) {
+			result &= !file.exists() || file.delete();
+		}
+		return result;
+	}
+
+
+	private void writeFully(final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+}
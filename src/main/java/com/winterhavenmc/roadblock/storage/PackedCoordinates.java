@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+
+/**
+ * Static helpers for packing block and chunk coordinates into primitive {@code long} keys.
+ * <p>
+ * Block keys use the same layout as the server's own block positions: 26 bits of x,
+ * 26 bits of z and 12 bits of y, which covers the full world border and build height.
+ */
+final class PackedCoordinates {
+
+	private static final int XZ_BITS = 26;
+	private static final int Y_BITS = 12;
+
+	private static final long XZ_MASK = (1L << XZ_BITS) - 1L;
+	private static final long Y_MASK = (1L << Y_BITS) - 1L;
+
+	private static final int X_SHIFT = Y_BITS + XZ_BITS;
+	private static final int Z_SHIFT = Y_BITS;
+
+
+	/*
+	 * Private class constructor to prevent instantiation
+	 */
+	private PackedCoordinates() {
+		throw new AssertionError();
+	}
+
+
+	/**
+	 * Pack block coordinates into a long key
+	 *
+	 * @param x block x coordinate
+	 * @param y block y coordinate
+	 * @param z block z coordinate
+	 * @return packed block key
+	 */
+	static long packBlock(final int x, final int y, final int z) {
+		return ((x & XZ_MASK) << X_SHIFT) | ((z & XZ_MASK) << Z_SHIFT) | (y & Y_MASK);
+	}
+
+
+	/**
+	 * Get block x coordinate from packed block key
+	 *
+	 * @param key packed block key
+	 * @return block x coordinate
+	 */
+	static int blockX(final long key) {
+		return (int) (key >> X_SHIFT);
+	}
+
+
+	/**
+	 * Get block y coordinate from packed block key
+	 *
+	 * @param key packed block key
+	 * @return block y coordinate
+	 */
+	static int blockY(final long key) {
+		return (int) (key << (Long.SIZE - Y_BITS) >> (Long.SIZE - Y_BITS));
+	}
+
+
+	/**
+	 * Get block z coordinate from packed block key
+	 *
+	 * @param key packed block key
+	 * @return block z coordinate
+	 */
+	static int blockZ(final long key) {
+		return (int) (key << XZ_BITS >> (Long.SIZE - XZ_BITS));
+	}
+
+
+	/**
+	 * Pack chunk coordinates into a long key
+	 *
+	 * @param chunkX chunk x coordinate
+	 * @param chunkZ chunk z coordinate
+	 * @return packed chunk key
+	 */
+	static long packChunk(final int chunkX, final int chunkZ) {
+		return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+	}
+
+
+	/**
+	 * Pack chunk coordinates into a long key that sorts in chunk x, then chunk z order when compared
+	 * as a signed value; used as the datastore chunk key, so a run of chunks in one column is a single key range
+	 *
+	 * @param chunkX chunk x coordinate
+	 * @param chunkZ chunk z coordinate
+	 * @return ordered chunk key
+	 */
+	static long orderedChunkKey(final int chunkX, final int chunkZ) {
+		return ((long) chunkX << 32) + ((long) chunkZ + 0x80000000L);
+	}
+
+
+	/**
+	 * Get chunk x coordinate from ordered chunk key
+	 *
+	 * @param key ordered chunk key
+	 * @return chunk x coordinate
+	 */
+	static int orderedChunkX(final long key) {
+		return (int) (key >> 32);
+	}
+
+
+	/**
+	 * Get chunk z coordinate from ordered chunk key
+	 *
+	 * @param key ordered chunk key
+	 * @return chunk z coordinate
+	 */
+	static int orderedChunkZ(final long key) {
+		return (int) ((key & 0xFFFFFFFFL) - 0x80000000L);
+	}
+
+
+	/**
+	 * Get chunk x coordinate from packed chunk key
+	 *
+	 * @param key packed chunk key
+	 * @return chunk x coordinate
+	 */
+	static int chunkX(final long key) {
+		return (int) (key >> 32);
+	}
+
+
+	/**
+	 * Get chunk z coordinate from packed chunk key
+	 *
+	 * @param key packed chunk key
+	 * @return chunk z coordinate
+	 */
+	static int chunkZ(final long key) {
+		return (int) key;
+	}
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Elapsed time of consecutive phases of a task, for a timing breakdown in the log
+ */
+final class PhaseTimer {
+
+	private final long startTime = System.nanoTime();
+	private long phaseStartTime = startTime;
+	private final StringJoiner phases = new StringJoiner(", ");
+
+
+	/**
+	 * End the current phase; the next phase starts now
+	 *
+	 * @param name the name of the phase ended
+	 */
+	void mark(final String name) {
+		final long now = System.nanoTime();
+		phases.add(name + " " + TimeUnit.NANOSECONDS.toMillis(now - phaseStartTime) + " ms");
+		phaseStartTime = now;
+	}
+
+
+	/**
+	 * Get time elapsed since the timer was created
+	 *
+	 * @return elapsed time in milliseconds
+	 */
+	long getElapsed() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+	}
+
+
+	/**
+	 * Get the phases ended so far with their elapsed times
+	 *
+	 * @return comma separated phase names and times
+	 */
+	@Override
+	public String toString() {
+		return phases.toString();
+	}
+
+}
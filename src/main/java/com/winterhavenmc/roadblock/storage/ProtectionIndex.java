@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+
+/**
+ * In-memory index of protected blocks, keyed by world and packed chunk coordinates.
+ * <p>
+ * Only chunks containing at least one protected block hold an entry, so dropping a chunk
+ * releases a single object. Lookups are lock free and do not allocate.
+ */
+final class ProtectionIndex {
+
+	// chunk protection maps, keyed by world uid
+	private final Map<UUID, LongObjectMap<ChunkProtection>> worldIndexes = new ConcurrentHashMap<>();
+
+
+	/**
+	 * Test if block is protected in index
+	 *
+	 * @param worldUid the world uid
+	 * @param x block x coordinate
+	 * @param y block y coordinate
+	 * @param z block z coordinate
+	 * @return {@code true} if block is protected, else {@code false}
+	 */
+	boolean isProtected(final UUID worldUid, final int x, final int y, final int z) {
+		final ChunkProtection chunkProtection = getChunk(worldUid, x >> 4, z >> 4);
+		return chunkProtection != null && chunkProtection.contains(x, y, z);
+	}
+
+
+	/**
+	 * Get protected blocks for chunk
+	 *
+	 * @param worldUid the world uid
+	 * @param chunkX chunk x coordinate
+	 * @param chunkZ chunk z coordinate
+	 * @return the chunk protection for chunk, or null if chunk has no protected blocks in index
+	 */
+	ChunkProtection getChunk(final UUID worldUid, final int chunkX, final int chunkZ) {
+		final LongObjectMap<ChunkProtection> worldIndex = worldIndexes.get(worldUid);
+		if (worldIndex == null) {
+			return null;
+		}
+		return worldIndex.get(PackedCoordinates.packChunk(chunkX, chunkZ));
+	}
+
+
+	/**
+	 * Replace protected blocks for chunk; an empty chunk protection removes the chunk from the index
+	 *
+	 * @param worldUid the world uid
+	 * @param chunkProtection the protected blocks for the chunk
+	 */
+	void putChunk(final UUID worldUid, final ChunkProtection chunkProtection) {
+		final long chunkKey = PackedCoordinates.packChunk(chunkProtection.getChunkX(), chunkProtection.getChunkZ());
+		final LongObjectMap<ChunkProtection> worldIndex = getWorldIndex(worldUid);
+		synchronized (worldIndex) {
+			if (chunkProtection.isEmpty()) {
+				worldIndex.remove(chunkKey);
+			}
+			else {
+				worldIndex.put(chunkKey, chunkProtection);
+			}
+		}
+	}
+
+
+	/**
+	 * Update protected blocks for chunk while holding the lock of its world, so the update is not interleaved
+	 * with single block changes; an update that leaves the chunk empty removes it from the index
+	 *
+	 * @param worldUid the world uid
+	 * @param chunkX chunk x coordinate
+	 * @param chunkZ chunk z coordinate
+	 * @param update the update, passed the chunk protection in the index or a new empty one
+	 */
+	void updateChunk(final UUID worldUid, final int chunkX, final int chunkZ, final Consumer<ChunkProtection> update) {
+		final long chunkKey = PackedCoordinates.packChunk(chunkX, chunkZ);
+		final LongObjectMap<ChunkProtection> worldIndex = getWorldIndex(worldUid);
+		synchronized (worldIndex) {
+			ChunkProtection chunkProtection = worldIndex.get(chunkKey);
+			if (chunkProtection == null) {
+				chunkProtection = new ChunkProtection(chunkX, chunkZ);
+			}
+			update.accept(chunkProtection);
+			if (chunkProtection.isEmpty()) {
+				worldIndex.remove(chunkKey);
+			}
+			else {
+				worldIndex.put(chunkKey, chunkProtection);
+			}
+		}
+	}
+
+
+	/**
+	 * Remove chunk from index
+	 *
+	 * @param worldUid the world uid
+	 * @param chunkX chunk x coordinate
+	 * @param chunkZ chunk z coordinate
+	 * @return the removed chunk protection, or null if chunk was not in index
+	 */
+	ChunkProtection removeChunk(final UUID worldUid, final int chunkX, final int chunkZ) {
+		final LongObjectMap<ChunkProtection> worldIndex = worldIndexes.get(worldUid);
+		if (worldIndex == null) {
+			return null;
+		}
+		synchronized (worldIndex) {
+			return worldIndex.remove(PackedCoordinates.packChunk(chunkX, chunkZ));
+		}
+	}
+
+
+	/**
+	 * Mark block as protected in index
+	 *
+	 * @param worldUid the world uid
+	 * @param x block x coordinate
+	 * @param y block y coordinate
+	 * @param z block z coordinate
+	 * @return {@code true} if the block was not already protected, else {@code false}
+	 */
+	boolean add(final UUID worldUid, final int x, final int y, final int z) {
+		final LongObjectMap<ChunkProtection> worldIndex = getWorldIndex(worldUid);
+		synchronized (worldIndex) {
+			return worldIndex.computeIfAbsent(PackedCoordinates.packChunk(x >> 4, z >> 4),
+					key -> new ChunkProtection(x >> 4, z >> 4)).add(x, y, z);
+		}
+	}
+
+
+	/**
+	 * Remove block protection from index
+	 *
+	 * @param worldUid the world uid
+	 * @param x block x coordinate
+	 * @param y block y coordinate
+	 * @param z block z coordinate
+	 * @return {@code true} if the block was protected, else {@code false}
+	 */
+	boolean remove(final UUID worldUid, final int x, final int y, final int z) {
+		final LongObjectMap<ChunkProtection> worldIndex = worldIndexes.get(worldUid);
+		if (worldIndex == null) {
+			return false;
+		}
+		final long chunkKey = PackedCoordinates.packChunk(x >> 4, z >> 4);
+		synchronized (worldIndex) {
+			final ChunkProtection chunkProtection = worldIndex.get(chunkKey);
+			if (chunkProtection == null || !chunkProtection.remove(x, y, z)) {
+				return false;
+			}
+			if (chunkProtection.isEmpty()) {
+				worldIndex.remove(chunkKey);
+			}
+			return true;
+		}
+	}
+
+
+	/**
+	 * Get number of chunks with protected blocks in index
+	 *
+	 * @return number of chunks in index
+	 */
+	int getChunkCount() {
+		int count = 0;
+		for (LongObjectMap<ChunkProtection> worldIndex : worldIndexes.values()) {
+			count += worldIndex.size();
+		}
+		return count;
+	}
+
+
+	/**
+	 * Perform an action for each protected block with x and z strictly between the passed bounds
+	 * and y between the passed bounds inclusive
+	 *
+	 * @param worldUid the world uid
+	 * @param minX exclusive minimum x
+	 * @param maxX exclusive maximum x
+	 * @param minZ exclusive minimum z
+	 * @param maxZ exclusive maximum z
+	 * @param minY inclusive minimum y
+	 * @param maxY inclusive maximum y
+	 * @param action the action to perform for each block
+	 */
+	void forEachInArea(final UUID worldUid, final int minX, final int maxX, final int minZ, final int maxZ,
+	                   final int minY, final int maxY, final ChunkProtection.BlockConsumer action) {
+		for (int chunkX = (minX + 1) >> 4; chunkX <= (maxX - 1) >> 4; chunkX++) {
+			for (int chunkZ = (minZ + 1) >> 4; chunkZ <= (maxZ - 1) >> 4; chunkZ++) {
+				final ChunkProtection chunkProtection = getChunk(worldUid, chunkX, chunkZ);
+				if (chunkProtection != null) {
+					chunkProtection.forEach((x, y, z) -> {
+						if (x > minX && x < maxX && z > minZ && z < maxZ && y >= minY && y <= maxY) {
+							action.accept(x, y, z);
+						}
+					});
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Perform an action for each chunk with protected blocks in index
+	 *
+	 * @param action the action to perform for each world uid and chunk protection
+	 */
+	void forEachChunk(final BiConsumer<UUID, ChunkProtection> action) {
+		for (Map.Entry<UUID, LongObjectMap<ChunkProtection>> entry : worldIndexes.entrySet()) {
+			entry.getValue().forEachValue(chunkProtection -> action.accept(entry.getKey(), chunkProtection));
+		}
+	}
+
+
+	/**
+	 * Get uids of worlds with chunks in index
+	 *
+	 * @return set of world uids
+	 */
+	Set<UUID> getWorlds() {
+		return worldIndexes.keySet();
+	}
+
+
+	/**
+	 * Get keys of chunks with protected blocks in a world, in ascending order
+	 *
+	 * @param worldUid the world uid
+	 * @return sorted array of chunk keys packed by {@link PackedCoordinates#packChunk(int, int)}
+	 */
+	long[] getChunkKeys(final UUID worldUid) {
+		final LongObjectMap<ChunkProtection> worldIndex = worldIndexes.get(worldUid);
+		if (worldIndex == null) {
+			return new long[0];
+		}
+		final long[] keys = worldIndex.keys();
+		Arrays.sort(keys);
+		return keys;
+	}
+
+
+	private LongObjectMap<ChunkProtection> getWorldIndex(final UUID worldUid) {
+		return worldIndexes.computeIfAbsent(worldUid, k -> new LongObjectMap<>());
+	}
+
+}
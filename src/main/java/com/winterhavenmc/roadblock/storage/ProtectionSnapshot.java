@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Compressed snapshot file of a protection index.
+ * <p>
+ * A snapshot is a gzip stream of a header stamped with a datastore generation, followed by chunk records,
+ * each holding the world uid, chunk coordinates and the chunk's protected blocks as written by
+ * {@link ChunkProtection#writeTo(DataOutput)}. A snapshot stamped with a generation is only read while the
+ * datastore is at that generation, so a snapshot older than the stored blocks is rejected. Snapshots are written
+ * to a temporary file and moved over the previous snapshot, so a crash while writing leaves the previous
+ * snapshot intact.
+ */
+final class ProtectionSnapshot {
+
+	// snapshot file identifier and version
+	private static final int MAGIC = 0x52425350;
+	private static final int FORMAT_VERSION = 2;
+
+	// generation of snapshots that are read by any datastore generation
+	static final long ANY_GENERATION = 0;
+
+
+	/*
+	 * Private class constructor to prevent instantiation
+	 */
+	private ProtectionSnapshot() {
+		throw new AssertionError();
+	}
+
+
+	/**
+	 * Write a snapshot of a protection index
+	 *
+	 * @param file the snapshot file
+	 * @param protectionIndex the protection index
+	 * @return the number of chunks written
+	 */
+	static int write(final File file, final ProtectionIndex protectionIndex) throws IOException {
+		return write(file, ANY_GENERATION, protectionIndex);
+	}
+
+
+	/**
+	 * Write a snapshot of a protection index, stamped with a datastore generation
+	 *
+	 * @param file the snapshot file
+	 * @param generation the generation of the datastore holding the protected blocks
+	 * @param protectionIndex the protection index
+	 * @return the number of chunks written
+	 */
+	static int write(final File file, final long generation, final ProtectionIndex protectionIndex) throws IOException {
+
+		final File tempFile = new File(file.getPath() + ".tmp");
+		final int[] count = new int[1];
+
+		try (FileOutputStream fileOut = new FileOutputStream(tempFile)) {
+
+			final GZIPOutputStream gzipOut = new GZIPOutputStream(fileOut);
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzipOut));
+
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(generation);
+
+			try {
+				protectionIndex.forEachChunk((worldUid, chunkProtection) -> {
+					try {
+						out.writeBoolean(true);
+						out.writeLong(worldUid.getMostSignificantBits());
+						out.writeLong(worldUid.getLeastSignificantBits());
+						out.writeInt(chunkProtection.getChunkX());
+						out.writeInt(chunkProtection.getChunkZ());
+						chunkProtection.writeTo(out);
+						count[0]++;
+					}
+					catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			}
+			catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+
+			out.writeBoolean(false);
+
+			// complete gzip stream and flush it to disk before replacing previous snapshot
+			out.flush();
+			gzipOut.finish();
+			fileOut.getFD().sync();
+		}
+
+		try {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		return count[0];
+	}
+
+
+	/**
+	 * Read a snapshot into a protection index; the file is read with a single sequential read
+	 *
+	 * @param file the snapshot file
+	 * @param protectionIndex the protection index to add chunks to
+	 * @return the number of chunks read
+	 */
+	static int read(final File file, final ProtectionIndex protectionIndex) throws IOException {
+		return read(file, ANY_GENERATION, protectionIndex);
+	}
+
+
+	/**
+	 * Read a snapshot stamped with a datastore generation into a protection index; the file is read with
+	 * a single sequential read
+	 *
+	 * @param file the snapshot file
+	 * @param generation the current generation of the datastore, or {@link #ANY_GENERATION}
+	 * @param protectionIndex the protection index to add chunks to
+	 * @return the number of chunks read, or -1 if the snapshot is stamped with another generation
+	 */
+	static int read(final File file, final long generation, final ProtectionIndex protectionIndex) throws IOException {
+
+		final byte[] bytes = Files.readAllBytes(file.toPath());
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new ByteArrayInputStream(bytes))))) {
+
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Snapshot " + file.getName() + " is not in a supported format.");
+			}
+
+			// version 1 snapshots have no generation
+			final int version = in.readInt();
+			if (version < 1 || version > FORMAT_VERSION) {
+				throw new IOException("Snapshot " + file.getName() + " is not in a supported format.");
+			}
+			final long snapshotGeneration = version > 1 ? in.readLong() : ANY_GENERATION;
+			if (generation != ANY_GENERATION && snapshotGeneration != generation) {
+				return -1;
+			}
+
+			int count = 0;
+			while (in.readBoolean()) {
+				final UUID worldUid = new UUID(in.readLong(), in.readLong());
+				final int chunkX = in.readInt();
+				final int chunkZ = in.readInt();
+				protectionIndex.putChunk(worldUid, ChunkProtection.readFrom(chunkX, chunkZ, in));
+				count++;
+			}
+			return count;
+		}
+	}
+
+}
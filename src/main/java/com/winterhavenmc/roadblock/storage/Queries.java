@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.sql.SQLException;
 import java.util.Properties;
+import java.util.Set;
 
 
 final class Queries {
@@ -63,4 +64,8 @@ final class Queries {
 		return getQueries().getProperty(query);
 	}
 
+	static Set<String> getQueryNames() throws SQLException {
+		return getQueries().stringPropertyNames();
+	}
+
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.Lock;
+
+
+/**
+ * A small pool of read-only connections, each with its own prepared statements.
+ * <p>
+ * With the database in WAL mode, readers see the last committed state and never wait for the writer.
+ * A pool without connections hands out statements from the writer connection instead, holding the writer lock
+ * until the lease is closed, so a reader never sees a batch transaction that may still be rolled back.
+ */
+final class ReaderPool {
+
+	// reader connections
+	private final List<Connection> connections;
+
+	// statement registries for reader connections
+	private final List<StatementRegistry> registries = new ArrayList<>();
+
+	// registries not currently leased
+	private final BlockingQueue<StatementRegistry> available;
+
+	// writer statements, used when pool has no connections
+	private final StatementRegistry fallback;
+
+	// lock held by the writer while writing a batch
+	private final Lock writerLock;
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param connections the read-only connections; may be empty
+	 * @param fallback the writer statement registry, used when there are no reader connections
+	 * @param writerLock the lock held by the writer while writing a batch
+	 */
+	ReaderPool(final List<Connection> connections, final StatementRegistry fallback, final Lock writerLock) {
+		this.connections = new ArrayList<>(connections);
+		this.fallback = fallback;
+		this.writerLock = writerLock;
+		this.available = new ArrayBlockingQueue<>(Math.max(1, connections.size()));
+		for (Connection connection : connections) {
+			final StatementRegistry registry = new StatementRegistry(connection);
+			registries.add(registry);
+			available.add(registry);
+		}
+	}
+
+
+	/**
+	 * Get number of reader connections
+	 *
+	 * @return number of reader connections
+	 */
+	int size() {
+		return connections.size();
+	}
+
+
+	/**
+	 * Prepare all queries on every reader connection
+	 *
+	 * @return names of queries that could not be prepared
+	 */
+	Collection<String> prepareAll() throws SQLException {
+		final Collection<String> failed = new TreeSet<>();
+		for (StatementRegistry registry : registries) {
+			failed.addAll(registry.prepareAll());
+		}
+		return failed;
+	}
+
+
+	/**
+	 * Acquire exclusive use of a prepared statement on a reader connection, waiting for a free connection;
+	 * closing the lease returns the connection to the pool
+	 *
+	 * @param name the query name in queries.properties
+	 * @return a lease holding the prepared statement
+	 * @throws SQLException if the statement could not be prepared or the wait was interrupted
+	 */
+	StatementRegistry.Lease acquire(final String name) throws SQLException {
+
+		// use writer statements outside of any batch transaction
+		if (registries.isEmpty()) {
+			writerLock.lock();
+			try {
+				return fallback.acquire(name, writerLock::unlock);
+			}
+			catch (SQLException | RuntimeException e) {
+				writerLock.unlock();
+				throw e;
+			}
+		}
+
+		final StatementRegistry registry;
+		try {
+			registry = available.take();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a reader connection.");
+		}
+
+		try {
+			return registry.acquire(name, () -> available.add(registry));
+		}
+		catch (SQLException | RuntimeException e) {
+			available.add(registry);
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Get execution statistics for reader statements, summed over all reader connections
+	 *
+	 * @return statistics, sorted by query name
+	 */
+	Collection<StatementRegistry.Statistics> getStatistics() {
+		final Map<String, long[]> totals = new TreeMap<>();
+		for (StatementRegistry registry : registries) {
+			for (StatementRegistry.Statistics statistics : registry.getStatistics()) {
+				final long[] total = totals.computeIfAbsent(statistics.getName(), k -> new long[2]);
+				total[0] += statistics.getExecutions();
+				total[1] += statistics.getTotalNanos();
+			}
+		}
+		final Collection<StatementRegistry.Statistics> result = new ArrayList<>();
+		for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+			result.add(new StatementRegistry.Statistics(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+		}
+		return result;
+	}
+
+
+	/**
+	 * Close all reader statements and connections
+	 */
+	void close() throws SQLException {
+		for (StatementRegistry registry : registries) {
+			registry.close();
+		}
+		SQLException exception = null;
+		for (Connection connection : connections) {
+			try {
+				connection.close();
+			}
+			catch (SQLException e) {
+				exception = e;
+			}
+		}
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+}
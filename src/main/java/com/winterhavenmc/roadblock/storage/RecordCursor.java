@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+
+/**
+ * Cursor reading the block records of a datastore in pages, in the datastore's storage order.
+ * <p>
+ * Only the current page is held in memory. The position after a page can be saved and passed to
+ * {@link DataStore#openCursor(String)} to continue after the records already read.
+ */
+final class RecordCursor {
+
+	/**
+	 * Reads a page of records from a datastore
+	 */
+	@FunctionalInterface
+	interface PageReader {
+
+		/**
+		 * Read stored records following a position
+		 *
+		 * @param position the position to read after, or {@code null} to read from the first stored record
+		 * @param pageSize the number of stored records to read; a datastore may read more to complete a chunk
+		 * @param page the collection to add records in loaded worlds to
+		 * @return the position of the last stored record read, or {@code null} if no records follow the position
+		 */
+		String readPage(final String position, final int pageSize, final Collection<BlockRecord> page) throws IOException;
+	}
+
+	private final PageReader pageReader;
+	private String position;
+	private boolean exhausted;
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param pageReader the datastore page reader
+	 * @param position the position to read after, or {@code null} to read from the first stored record
+	 */
+	RecordCursor(final PageReader pageReader, final String position) {
+		this.pageReader = pageReader;
+		this.position = position;
+	}
+
+
+	/**
+	 * Test if records may follow the current position
+	 *
+	 * @return {@code false} if the last page read was past the last stored record, else {@code true}
+	 */
+	boolean hasNext() {
+		return !exhausted;
+	}
+
+
+	/**
+	 * Read the next page of records; records in worlds that are not loaded are skipped, so a page may be
+	 * empty while records remain
+	 *
+	 * @param pageSize the number of stored records to read
+	 * @return the records read
+	 * @throws IOException if the datastore could not be read; the position is unchanged
+	 */
+	Collection<BlockRecord> nextPage(final int pageSize) throws IOException {
+
+		final Collection<BlockRecord> page = new ArrayList<>();
+
+		if (!exhausted) {
+			final String next = pageReader.readPage(position, pageSize, page);
+			if (next == null) {
+				exhausted = true;
+			}
+			else {
+				position = next;
+			}
+		}
+		return page;
+	}
+
+
+	/**
+	 * Get the position of the last stored record read
+	 *
+	 * @return the position, or {@code null} if no records have been read
+	 */
+	String getPosition() {
+		return position;
+	}
+
+
+	/**
+	 * Parse a position made of comma separated numbers
+	 *
+	 * @param position the position, or {@code null}
+	 * @param fields the number of fields in the position
+	 * @return the position fields, or {@code null} if position is {@code null}
+	 * @throws IllegalArgumentException if the position does not have the expected number of numeric fields
+	 */
+	static long[] parsePosition(final String position, final int fields) {
+
+		if (position == null) {
+			return null;
+		}
+
+		final String[] parts = position.split(",");
+		if (parts.length != fields) {
+			throw new IllegalArgumentException("Invalid record position: " + position);
+		}
+
+		final long[] values = new long[fields];
+		for (int i = 0; i < fields; i++) {
+			values[i] = Long.parseLong(parts[i].trim());
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,556 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * Memory mapped file holding protection bitmaps for a region of 32x32 chunks.
+ * <p>
+ * The file has a fixed header and chunk table, followed by section slots. Each slot holds a section's
+ * y index, block count and 4096 bit bitmap. A chunk's table entry points to a run of consecutive slots;
+ * a run that is full is moved to a larger run when the chunk gains a section. Protection is read and
+ * written directly in the mapped buffer, so a lookup is a table read and a bit test.
+ * <p>
+ * All access is synchronized on the region. A region opens its file on first use, and only creates it
+ * when a block is first added, so regions without protected blocks have no file.
+ */
+final class RegionFile {
+
+	// file format identifier and version
+	private static final int MAGIC = 0x52425247;
+	private static final int FORMAT_VERSION = 1;
+
+	// chunks per region side, and total chunks per region
+	static final int REGION_SHIFT = 5;
+	static final int REGION_CHUNKS = 1 << (REGION_SHIFT * 2);
+
+	// header: magic, version, used slot count, reserved
+	private static final int HEADER_SIZE = 16;
+	private static final int SLOT_COUNT_OFFSET = 8;
+
+	// chunk table entry: first slot, slot capacity, slots used
+	private static final int ENTRY_SIZE = 12;
+
+	// section slot: section y, block count, 64 bitmap words
+	private static final int SLOT_SIZE = 8 + 64 * Long.BYTES;
+
+	private static final int DATA_OFFSET = HEADER_SIZE + REGION_CHUNKS * ENTRY_SIZE;
+
+	// initial slots reserved for a chunk, and minimum slots added when a file grows
+	private static final int INITIAL_RUN = 2;
+	private static final int MIN_GROWTH = 64;
+
+	/**
+	 * Functional interface for visiting protected blocks in a region with their chunk
+	 */
+	@FunctionalInterface
+	interface RegionBlockConsumer {
+		void accept(int chunkX, int chunkZ, int x, int y, int z);
+	}
+
+	private final File file;
+	private final int regionX;
+	private final int regionZ;
+
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+
+	// number of slots in mapped buffer, and number allocated to chunks or free runs
+	private int mappedSlots;
+	private int slotCount;
+
+	// unused runs of slots, as {first slot, length}, left by chunks that moved to larger runs
+	private final List<int[]> freeRuns = new ArrayList<>();
+
+	// time of last access, used to close least recently used regions
+	private volatile long lastAccess;
+
+	// true if the file was closed to limit open regions, and has not been reopened
+	private volatile boolean evicted;
+
+	// true if the file was found not to exist; only this region creates it, so the file is not checked again
+	private boolean absent;
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param file the region file; need not exist
+	 * @param regionX region x coordinate
+	 * @param regionZ region z coordinate
+	 */
+	RegionFile(final File file, final int regionX, final int regionZ) {
+		this.file = file;
+		this.regionX = regionX;
+		this.regionZ = regionZ;
+	}
+
+
+	/**
+	 * Get region file name for region coordinates
+	 */
+	static String fileName(final int regionX, final int regionZ) {
+		return "r." + regionX + "." + regionZ + ".rbr";
+	}
+
+
+	long getLastAccess() {
+		return lastAccess;
+	}
+
+
+	synchronized boolean isOpen() {
+		return channel != null;
+	}
+
+
+	boolean isEvicted() {
+		return evicted;
+	}
+
+
+	/**
+	 * Test if block position is protected
+	 *
+	 * @param x block x coordinate
+	 * @param y block y coordinate
+	 * @param z block z coordinate
+	 * @return {@code true} if the block is protected, else {@code false}
+	 */
+	synchronized boolean contains(final int x, final int y, final int z) throws IOException {
+
+		if (!open(false)) {
+			return false;
+		}
+
+		final int slot = findSlot(entryOffset(x >> 4, z >> 4), y >> 4);
+		if (slot < 0) {
+			return false;
+		}
+
+		final int index = localIndex(x, y, z);
+		return (buffer.getLong(wordOffset(slot, index)) & (1L << index)) != 0;
+	}
+
+
+	/**
+	 * Mark block position as protected, creating the region file if necessary
+	 *
+	 * @return {@code true} if the block was not already protected, else {@code false}
+	 */
+	synchronized boolean add(final int x, final int y, final int z) throws IOException {
+
+		open(true);
+
+		final int entry = entryOffset(x >> 4, z >> 4);
+		int slot = findSlot(entry, y >> 4);
+		if (slot < 0) {
+			slot = addSlot(entry, y >> 4);
+		}
+
+		final int index = localIndex(x, y, z);
+		final int wordOffset = wordOffset(slot, index);
+		final long word = buffer.getLong(wordOffset);
+		final long bit = 1L << index;
+		if ((word & bit) != 0) {
+			return false;
+		}
+		buffer.putLong(wordOffset, word | bit);
+		buffer.putInt(slotOffset(slot) + 4, buffer.getInt(slotOffset(slot) + 4) + 1);
+		return true;
+	}
+
+
+	/**
+	 * Remove protection from block position
+	 *
+	 * @return {@code true} if the block was protected, else {@code false}
+	 */
+	synchronized boolean remove(final int x, final int y, final int z) throws IOException {
+
+		if (!open(false)) {
+			return false;
+		}
+
+		final int slot = findSlot(entryOffset(x >> 4, z >> 4), y >> 4);
+		if (slot < 0) {
+			return false;
+		}
+
+		final int index = localIndex(x, y, z);
+		final int wordOffset = wordOffset(slot, index);
+		final long word = buffer.getLong(wordOffset);
+		final long bit = 1L << index;
+		if ((word & bit) == 0) {
+			return false;
+		}
+		buffer.putLong(wordOffset, word & ~bit);
+		buffer.putInt(slotOffset(slot) + 4, buffer.getInt(slotOffset(slot) + 4) - 1);
+		return true;
+	}
+
+
+	/**
+	 * Perform an action for each protected block in a chunk
+	 *
+	 * @param chunkX chunk x coordinate
+	 * @param chunkZ chunk z coordinate
+	 * @param minY minimum block y coordinate, inclusive
+	 * @param maxY maximum block y coordinate, inclusive
+	 * @param action the action to perform for each block
+	 */
+	synchronized void forEachInChunk(final int chunkX, final int chunkZ, final int minY, final int maxY,
+	                                 final ChunkProtection.BlockConsumer action) throws IOException {
+
+		if (!open(false)) {
+			return;
+		}
+
+		final int entry = entryOffset(chunkX, chunkZ);
+		final int firstSlot = buffer.getInt(entry);
+		final int used = buffer.getInt(entry + 8);
+
+		for (int slot = firstSlot; slot < firstSlot + used; slot++) {
+
+			final int slotOffset = slotOffset(slot);
+			final int baseY = buffer.getInt(slotOffset) << 4;
+			if (buffer.getInt(slotOffset + 4) == 0 || baseY > maxY || baseY + 15 < minY) {
+				continue;
+			}
+
+			for (int word = 0; word < 64; word++) {
+				long bits = buffer.getLong(slotOffset + 8 + word * Long.BYTES);
+				while (bits != 0) {
+					final int index = (word << 6) | Long.numberOfTrailingZeros(bits);
+					final int y = baseY | (index >> 8);
+					if (y >= minY && y <= maxY) {
+						action.accept(chunkX << 4 | (index & 15), y, chunkZ << 4 | ((index >> 4) & 15));
+					}
+					bits &= bits - 1;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Perform an action for each protected block in the region
+	 *
+	 * @param action the action to perform for each block
+	 */
+	synchronized void forEach(final RegionBlockConsumer action) throws IOException {
+		for (int i = 0; i < REGION_CHUNKS; i++) {
+			final int chunkX = (regionX << REGION_SHIFT) | (i & 31);
+			final int chunkZ = (regionZ << REGION_SHIFT) | (i >> REGION_SHIFT);
+			forEachInChunk(chunkX, chunkZ, Integer.MIN_VALUE, Integer.MAX_VALUE,
+					(x, y, z) -> action.accept(chunkX, chunkZ, x, y, z));
+		}
+	}
+
+
+	/**
+	 * Count protected blocks in the region
+	 *
+	 * @return number of protected blocks
+	 */
+	synchronized int count() throws IOException {
+
+		if (!open(false)) {
+			return 0;
+		}
+
+		int total = 0;
+		for (int i = 0; i < REGION_CHUNKS; i++) {
+			final int entry = HEADER_SIZE + i * ENTRY_SIZE;
+			final int firstSlot = buffer.getInt(entry);
+			final int used = buffer.getInt(entry + 8);
+			for (int slot = firstSlot; slot < firstSlot + used; slot++) {
+				total += buffer.getInt(slotOffset(slot) + 4);
+			}
+		}
+		return total;
+	}
+
+
+	/**
+	 * Write changes in the mapped buffer to the file
+	 */
+	synchronized void force() {
+		if (buffer != null) {
+			buffer.force();
+		}
+	}
+
+
+	/**
+	 * Write changes to the file and close it; the region reopens the file on next use
+	 */
+	synchronized void close() throws IOException {
+		if (channel != null) {
+			buffer.force();
+			buffer = null;
+			channel.close();
+			channel = null;
+			freeRuns.clear();
+			evicted = true;
+		}
+	}
+
+
+	/**
+	 * Open and map the region file if it is not open
+	 *
+	 * @param create create the file if it does not exist
+	 * @return {@code true} if the file is open, {@code false} if it does not exist and was not created
+	 */
+	private boolean open(final boolean create) throws IOException {
+
+		lastAccess = System.nanoTime();
+
+		if (channel != null) {
+			return true;
+		}
+
+		final boolean exists = !absent && file.exists();
+		if (!exists && !create) {
+			absent = true;
+			return false;
+		}
+
+		if (!exists) {
+			final File parent = file.getParentFile();
+			if (!parent.isDirectory() && !parent.mkdirs()) {
+				throw new IOException("Could not create directory " + parent + ".");
+			}
+		}
+
+		channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+
+		try {
+			if (channel.size() < DATA_OFFSET) {
+
+				// new file; map header and empty chunk table, with all chunks pointing at no slots
+				map(0);
+				buffer.putInt(0, MAGIC);
+				buffer.putInt(4, FORMAT_VERSION);
+				buffer.putInt(SLOT_COUNT_OFFSET, 0);
+				slotCount = 0;
+			}
+			else {
+				map((int) ((channel.size() - DATA_OFFSET) / SLOT_SIZE));
+				if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+					throw new IOException("Region file " + file.getName() + " is not in a supported format.");
+				}
+				slotCount = buffer.getInt(SLOT_COUNT_OFFSET);
+				if (slotCount < 0 || slotCount > mappedSlots) {
+					throw new IOException("Region file " + file.getName() + " is damaged.");
+				}
+				findFreeRuns();
+			}
+		}
+		catch (IOException e) {
+			channel.close();
+			channel = null;
+			buffer = null;
+			throw e;
+		}
+		evicted = false;
+		absent = false;
+		return true;
+	}
+
+
+	/**
+	 * Map the file with room for a number of slots, extending the file if necessary
+	 */
+	private void map(final int slots) throws IOException {
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + (long) slots * SLOT_SIZE);
+		mappedSlots = slots;
+	}
+
+
+	/**
+	 * Rebuild the free run list from gaps between the slot runs of chunks
+	 */
+	private void findFreeRuns() {
+
+		final List<int[]> runs = new ArrayList<>();
+		for (int i = 0; i < REGION_CHUNKS; i++) {
+			final int entry = HEADER_SIZE + i * ENTRY_SIZE;
+			final int capacity = buffer.getInt(entry + 4);
+			if (capacity > 0) {
+				runs.add(new int[] { buffer.getInt(entry), capacity });
+			}
+		}
+		runs.sort(Comparator.comparingInt(run -> run[0]));
+
+		int next = 0;
+		for (int[] run : runs) {
+			if (run[0] > next) {
+				freeRuns.add(new int[] { next, run[0] - next });
+			}
+			next = Math.max(next, run[0] + run[1]);
+		}
+		if (slotCount > next) {
+			freeRuns.add(new int[] { next, slotCount - next });
+		}
+	}
+
+
+	/**
+	 * Find the slot holding a section of a chunk
+	 *
+	 * @return the slot, or -1 if the chunk has no slot for the section
+	 */
+	private int findSlot(final int entry, final int sectionY) {
+		final int firstSlot = buffer.getInt(entry);
+		final int used = buffer.getInt(entry + 8);
+		for (int slot = firstSlot; slot < firstSlot + used; slot++) {
+			if (buffer.getInt(slotOffset(slot)) == sectionY) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Add a slot for a section to a chunk, reusing an emptied slot or moving the chunk to a larger run if necessary
+	 *
+	 * @return the new slot
+	 */
+	private int addSlot(final int entry, final int sectionY) throws IOException {
+
+		int firstSlot = buffer.getInt(entry);
+		final int capacity = buffer.getInt(entry + 4);
+		final int used = buffer.getInt(entry + 8);
+
+		// reuse a slot whose section has no protected blocks
+		for (int slot = firstSlot; slot < firstSlot + used; slot++) {
+			if (buffer.getInt(slotOffset(slot) + 4) == 0) {
+				buffer.putInt(slotOffset(slot), sectionY);
+				return slot;
+			}
+		}
+
+		if (used == capacity) {
+
+			// move chunk to a run twice the size; the old run is written before the table entry is changed
+			final int newCapacity = Math.max(INITIAL_RUN, capacity * 2);
+			final int newFirstSlot = allocate(newCapacity);
+			for (int slot = 0; slot < used; slot++) {
+				copySlot(firstSlot + slot, newFirstSlot + slot);
+			}
+			buffer.putInt(entry, newFirstSlot);
+			buffer.putInt(entry + 4, newCapacity);
+			if (capacity > 0) {
+				freeRuns.add(new int[] { firstSlot, capacity });
+			}
+			firstSlot = newFirstSlot;
+		}
+
+		final int slot = firstSlot + used;
+		clearSlot(slot);
+		buffer.putInt(slotOffset(slot), sectionY);
+		buffer.putInt(entry + 8, used + 1);
+		return slot;
+	}
+
+
+	/**
+	 * Allocate a run of slots from the first free run that is large enough, or from the end of the file
+	 *
+	 * @return the first slot of the run
+	 */
+	private int allocate(final int length) throws IOException {
+
+		final Iterator<int[]> iterator = freeRuns.iterator();
+		while (iterator.hasNext()) {
+			final int[] run = iterator.next();
+			if (run[1] >= length) {
+				final int first = run[0];
+				run[0] += length;
+				run[1] -= length;
+				if (run[1] == 0) {
+					iterator.remove();
+				}
+				return first;
+			}
+		}
+
+		final int first = slotCount;
+		if (first + length > mappedSlots) {
+			map(Math.max(first + length, mappedSlots + Math.max(MIN_GROWTH, mappedSlots / 2)));
+		}
+		slotCount = first + length;
+		buffer.putInt(SLOT_COUNT_OFFSET, slotCount);
+		return first;
+	}
+
+
+	private void copySlot(final int from, final int to) {
+		final int fromOffset = slotOffset(from);
+		final int toOffset = slotOffset(to);
+		for (int offset = 0; offset < SLOT_SIZE; offset += Long.BYTES) {
+			buffer.putLong(toOffset + offset, buffer.getLong(fromOffset + offset));
+		}
+	}
+
+
+	private void clearSlot(final int slot) {
+		final int slotOffset = slotOffset(slot);
+		for (int offset = 0; offset < SLOT_SIZE; offset += Long.BYTES) {
+			buffer.putLong(slotOffset + offset, 0L);
+		}
+	}
+
+
+	private static int entryOffset(final int chunkX, final int chunkZ) {
+		return HEADER_SIZE + (((chunkZ & 31) << REGION_SHIFT) | (chunkX & 31)) * ENTRY_SIZE;
+	}
+
+
+	private static int slotOffset(final int slot) {
+		return DATA_OFFSET + slot * SLOT_SIZE;
+	}
+
+
+	private static int wordOffset(final int slot, final int index) {
+		return slotOffset(slot) + 8 + (index >>> 6) * Long.BYTES;
+	}
+
+
+	/**
+	 * Get block index within a chunk section; matches the layout used by {@link ChunkProtection}
+	 */
+	private static int localIndex(final int x, final int y, final int z) {
+		return ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+	}
+
+}
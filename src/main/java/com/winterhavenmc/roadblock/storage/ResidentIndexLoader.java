@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+
+/**
+ * Loads every stored chunk into a protection index, split by world and region column across a fork-join pool.
+ * <p>
+ * A region column is 32 chunk columns of a world; its chunks are a single primary key range, so each is read
+ * with one range scan. The load stops as soon as the estimated memory of the loaded chunks exceeds a limit,
+ * and chunks are only added to the target index once every chunk has been loaded within the limit.
+ */
+final class ResidentIndexLoader {
+
+	/**
+	 * Reads the stored chunks of a range of chunk columns
+	 */
+	@FunctionalInterface
+	interface ColumnReader {
+		void read(final UUID worldUid, final int minChunkX, final int maxChunkX,
+		          final Consumer<ChunkProtection> action) throws SQLException;
+	}
+
+
+	/**
+	 * Chunks and blocks loaded, and their estimated memory
+	 */
+	static final class Result {
+
+		final boolean complete;
+		final int chunks;
+		final long blocks;
+		final long bytes;
+		final long nanos;
+
+		private Result(final boolean complete, final int chunks, final long blocks, final long bytes, final long nanos) {
+			this.complete = complete;
+			this.chunks = chunks;
+			this.blocks = blocks;
+			this.bytes = bytes;
+			this.nanos = nanos;
+		}
+	}
+
+
+	/**
+	 * Loads a range of region columns, splitting ranges of more than one column in two
+	 */
+	private final class LoadTask extends RecursiveAction {
+
+		private final List<long[]> regions;
+		private final int from;
+		private final int to;
+
+		LoadTask(final List<long[]> regions, final int from, final int to) {
+			this.regions = regions;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				final int middle = (from + to) >>> 1;
+				invokeAll(new LoadTask(regions, from, middle), new LoadTask(regions, middle, to));
+				return;
+			}
+
+			final long[] region = regions.get(from);
+			final UUID worldUid = worldUids.get((int) region[0]);
+			final int minChunkX = (int) region[1] << RegionFile.REGION_SHIFT;
+			final int maxChunkX = minChunkX + (1 << RegionFile.REGION_SHIFT) - 1;
+
+			try {
+				reader.read(worldUid, minChunkX, maxChunkX, chunkProtection -> {
+					if (bytes.addAndGet(chunkProtection.estimateSize()) > memoryLimit) {
+						limitExceeded.set(true);
+						throw new CancellationException();
+					}
+					blocks.addAndGet(chunkProtection.size());
+					loaded.putChunk(worldUid, chunkProtection);
+				});
+			}
+			catch (SQLException e) {
+				throw new CompletionException(e);
+			}
+		}
+	}
+
+
+	private final ColumnReader reader;
+	private final int parallelism;
+	private final long memoryLimit;
+
+	private final List<UUID> worldUids = new ArrayList<>();
+	private final ProtectionIndex loaded = new ProtectionIndex();
+	private final AtomicLong blocks = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicBoolean limitExceeded = new AtomicBoolean();
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param reader the reader of stored chunks
+	 * @param parallelism the number of region columns read at once
+	 * @param memoryLimit the maximum estimated memory of loaded chunks in bytes
+	 */
+	ResidentIndexLoader(final ColumnReader reader, final int parallelism, final long memoryLimit) {
+		this.reader = reader;
+		this.parallelism = Math.max(1, parallelism);
+		this.memoryLimit = memoryLimit;
+	}
+
+
+	/**
+	 * Load the stored chunks in the region columns of a set of chunks into an index
+	 *
+	 * @param storedChunks the chunks with stored blocks
+	 * @param protectionIndex the index to add chunks to if all are loaded within the memory limit
+	 * @return the load result; incomplete if the memory limit was exceeded, in which case no chunks were added
+	 * @throws SQLException if stored chunks could not be read; no chunks were added
+	 */
+	Result load(final ChunkSet storedChunks, final ProtectionIndex protectionIndex) throws SQLException {
+
+		final long startTime = System.nanoTime();
+
+		// collect region columns with stored chunks, as world index and region x
+		final Map<UUID, Integer> worldIndexes = new HashMap<>();
+		final Set<Long> regionKeys = new HashSet<>();
+		final List<long[]> regions = new ArrayList<>();
+		storedChunks.forEach((worldUid, chunkX, chunkZ) -> {
+			final int worldIndex = worldIndexes.computeIfAbsent(worldUid, k -> {
+				worldUids.add(k);
+				return worldUids.size() - 1;
+			});
+			final int regionX = chunkX >> RegionFile.REGION_SHIFT;
+			if (regionKeys.add(PackedCoordinates.packChunk(worldIndex, regionX))) {
+				regions.add(new long[] { worldIndex, regionX });
+			}
+		});
+
+		if (!regions.isEmpty()) {
+			final ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				pool.invoke(new LoadTask(regions, 0, regions.size()));
+			}
+			catch (RuntimeException e) {
+
+				// exceptions thrown in other pool threads may be wrapped again when rethrown
+				if (limitExceeded.get()) {
+					return new Result(false, loaded.getChunkCount(), blocks.get(), bytes.get(), System.nanoTime() - startTime);
+				}
+				for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+					if (cause instanceof SQLException) {
+						throw (SQLException) cause;
+					}
+				}
+				throw e;
+			}
+			finally {
+				pool.shutdownNow();
+			}
+		}
+
+		loaded.forEachChunk(protectionIndex::putChunk);
+		return new Result(true, loaded.getChunkCount(), blocks.get(), bytes.get(), System.nanoTime() - startTime);
+	}
+
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.function.Consumer;
+
+
+/**
+ * Layout storing one row per chunk in a {@code chunks} table, holding the chunk's protected blocks
+ * as a compressed blob written by {@link ChunkProtection#toBytes()}.
+ * <p>
+ * A chunk is loaded with a single primary key lookup, and its blocks take a few bytes each instead of
+ * a b-tree entry per block. Writes read, modify and rewrite each changed chunk once per batch.
+ */
+final class SQLiteChunkLayout implements SQLiteLayout {
+
+	@Override
+	public void createSchema(final Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate(Queries.getQuery("CreateWorldTable"));
+			statement.executeUpdate(Queries.getQuery("CreateChunkTable"));
+			statement.executeUpdate(Queries.getQuery("CreateChunkCountInsertTrigger"));
+			statement.executeUpdate(Queries.getQuery("CreateChunkCountUpdateTrigger"));
+			statement.executeUpdate(Queries.getQuery("CreateChunkCountDeleteTrigger"));
+		}
+	}
+
+
+	@Override
+	public void countWorldBlocks(final Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate(Queries.getQuery("MigrateVersion2CountChunkBlocks"));
+		}
+	}
+
+
+	@Override
+	public boolean supportsSpatialIndex() {
+		return false;
+	}
+
+
+	@Override
+	public int write(final StatementSource writer, final List<WriteQueue.PendingWrite> batch, final Map<UUID, Integer> worldIds)
+			throws SQLException {
+
+		// group writes by world and chunk, so each changed chunk is read and written once; chunks are
+		// written in primary key order
+		final Map<Integer, SortedMap<Long, List<WriteQueue.PendingWrite>>> chunkWrites = new HashMap<>();
+
+		for (WriteQueue.PendingWrite pendingWrite : batch) {
+
+			final BlockRecord blockRecord = pendingWrite.getBlockRecord();
+
+			// if world has never been stored, there is nothing to delete
+			final Integer worldId = worldIds.get(blockRecord.getWorldUid());
+			if (worldId == null) {
+				continue;
+			}
+
+			chunkWrites.computeIfAbsent(worldId, k -> new TreeMap<>())
+					.computeIfAbsent(PackedCoordinates.orderedChunkKey(blockRecord.getChunkX(), blockRecord.getChunkZ()),
+							k -> new ArrayList<>())
+					.add(pendingWrite);
+		}
+
+		int count = 0;
+
+		for (Map.Entry<Integer, SortedMap<Long, List<WriteQueue.PendingWrite>>> worldEntry : chunkWrites.entrySet()) {
+
+			final int worldId = worldEntry.getKey();
+
+			for (Map.Entry<Long, List<WriteQueue.PendingWrite>> chunkEntry : worldEntry.getValue().entrySet()) {
+
+				final long chunkKey = chunkEntry.getKey();
+				final ChunkProtection chunkProtection = selectChunk(writer, worldId,
+						PackedCoordinates.orderedChunkX(chunkKey), PackedCoordinates.orderedChunkZ(chunkKey));
+
+				int changes = 0;
+				for (WriteQueue.PendingWrite pendingWrite : chunkEntry.getValue()) {
+					final BlockRecord blockRecord = pendingWrite.getBlockRecord();
+					final boolean changed = pendingWrite.isInsert()
+							? chunkProtection.add(blockRecord.getBlockX(), blockRecord.getBlockY(), blockRecord.getBlockZ())
+							: chunkProtection.remove(blockRecord.getBlockX(), blockRecord.getBlockY(), blockRecord.getBlockZ());
+					if (changed) {
+						changes++;
+					}
+				}
+
+				// if no block in chunk changed, leave row as it is
+				if (changes == 0) {
+					continue;
+				}
+
+				if (chunkProtection.isEmpty()) {
+					try (StatementRegistry.Lease lease = writer.acquire("DeleteChunk")) {
+						lease.getStatement().setInt(1, worldId);
+						lease.getStatement().setLong(2, chunkKey);
+						lease.getStatement().executeUpdate();
+					}
+				}
+				else {
+
+					// update existing row in place, so the update trigger adjusts the world block count
+					final byte[] data = chunkProtection.toBytes();
+					final int updated;
+					try (StatementRegistry.Lease lease = writer.acquire("UpdateChunk")) {
+						lease.getStatement().setInt(1, chunkProtection.size());
+						lease.getStatement().setBytes(2, data);
+						lease.getStatement().setInt(3, worldId);
+						lease.getStatement().setLong(4, chunkKey);
+						updated = lease.getStatement().executeUpdate();
+					}
+					if (updated == 0) {
+						try (StatementRegistry.Lease lease = writer.acquire("InsertChunk")) {
+							lease.getStatement().setInt(1, worldId);
+							lease.getStatement().setLong(2, chunkKey);
+							lease.getStatement().setInt(3, chunkProtection.size());
+							lease.getStatement().setBytes(4, data);
+							lease.getStatement().executeUpdate();
+						}
+					}
+				}
+				count += changes;
+			}
+		}
+		return count;
+	}
+
+
+	@Override
+	public ChunkProtection selectChunk(final StatementSource reader, final int worldId, final int chunkX, final int chunkZ)
+			throws SQLException {
+
+		try (StatementRegistry.Lease lease = reader.acquire("SelectChunk")) {
+
+			lease.getStatement().setInt(1, worldId);
+			lease.getStatement().setLong(2, PackedCoordinates.orderedChunkKey(chunkX, chunkZ));
+
+			try (ResultSet rs = lease.getStatement().executeQuery()) {
+				if (rs.next()) {
+					return decode(chunkX, chunkZ, rs.getBytes("data"));
+				}
+			}
+		}
+		return new ChunkProtection(chunkX, chunkZ);
+	}
+
+
+	@Override
+	public void selectNearby(final StatementSource reader, final int worldId,
+	                         final int minX, final int maxX, final int minZ, final int maxZ, final int minY, final int maxY,
+	                         final ChunkProtection.BlockConsumer action) throws SQLException {
+
+		try (StatementRegistry.Lease lease = reader.acquire("SelectChunksInRange")) {
+
+			final PreparedStatement preparedStatement = lease.getStatement();
+
+			// chunks in one chunk column are a single primary key range, so scan each column in the area
+			for (int chunkX = (minX + 1) >> 4; chunkX <= (maxX - 1) >> 4; chunkX++) {
+
+				preparedStatement.setInt(1, worldId);
+				preparedStatement.setLong(2, PackedCoordinates.orderedChunkKey(chunkX, (minZ + 1) >> 4));
+				preparedStatement.setLong(3, PackedCoordinates.orderedChunkKey(chunkX, (maxZ - 1) >> 4));
+
+				try (ResultSet rs = preparedStatement.executeQuery()) {
+					while (rs.next()) {
+						final long chunkKey = rs.getLong("chunk_key");
+						decode(PackedCoordinates.orderedChunkX(chunkKey), PackedCoordinates.orderedChunkZ(chunkKey),
+								rs.getBytes("data")).forEach((x, y, z) -> {
+							if (x > minX && x < maxX && z > minZ && z < maxZ && y >= minY && y <= maxY) {
+								action.accept(x, y, z);
+							}
+						});
+					}
+				}
+			}
+		}
+	}
+
+
+	@Override
+	public void selectChunkColumns(final StatementSource reader, final int worldId, final int minChunkX, final int maxChunkX,
+	                               final Consumer<ChunkProtection> action) throws SQLException {
+
+		try (StatementRegistry.Lease lease = reader.acquire("SelectChunksInRange")) {
+
+			final PreparedStatement preparedStatement = lease.getStatement();
+			preparedStatement.setInt(1, worldId);
+			preparedStatement.setLong(2, PackedCoordinates.orderedChunkKey(minChunkX, Integer.MIN_VALUE));
+			preparedStatement.setLong(3, PackedCoordinates.orderedChunkKey(maxChunkX, Integer.MAX_VALUE));
+
+			try (ResultSet rs = preparedStatement.executeQuery()) {
+				while (rs.next()) {
+					final long chunkKey = rs.getLong("chunk_key");
+					action.accept(decode(PackedCoordinates.orderedChunkX(chunkKey), PackedCoordinates.orderedChunkZ(chunkKey),
+							rs.getBytes("data")));
+				}
+			}
+		}
+	}
+
+
+	@Override
+	public void selectAll(final StatementSource reader, final WorldBlockConsumer action) throws SQLException {
+		try (StatementRegistry.Lease lease = reader.acquire("SelectAllChunks");
+		     ResultSet rs = lease.getStatement().executeQuery()) {
+			while (rs.next()) {
+				final int worldId = rs.getInt("world_id");
+				final long chunkKey = rs.getLong("chunk_key");
+				decode(PackedCoordinates.orderedChunkX(chunkKey), PackedCoordinates.orderedChunkZ(chunkKey),
+						rs.getBytes("data")).forEach((x, y, z) -> action.accept(worldId, x, y, z));
+			}
+		}
+	}
+
+
+	@Override
+	public void selectChunkKeys(final StatementSource reader, final WorldChunkConsumer action) throws SQLException {
+		try (StatementRegistry.Lease lease = reader.acquire("SelectChunkKeys");
+		     ResultSet rs = lease.getStatement().executeQuery()) {
+			while (rs.next()) {
+				final long chunkKey = rs.getLong("chunk_key");
+				action.accept(rs.getInt("world_id"),
+						PackedCoordinates.orderedChunkX(chunkKey), PackedCoordinates.orderedChunkZ(chunkKey));
+			}
+		}
+	}
+
+
+	@Override
+	public String selectPage(final StatementSource reader, final String position, final int pageSize,
+	                         final WorldBlockConsumer action) throws SQLException {
+
+		// position is the primary key of the last chunk selected: world id, chunk key
+		final long[] key = RecordCursor.parsePosition(position, 2);
+
+		try (StatementRegistry.Lease lease = reader.acquire("SelectChunkPage")) {
+
+			final PreparedStatement preparedStatement = lease.getStatement();
+			preparedStatement.setLong(1, key == null ? -1 : key[0]);
+			preparedStatement.setLong(2, key == null ? Long.MIN_VALUE : key[1]);
+
+			// every chunk holds at least one block, so a page never needs more chunks than blocks
+			preparedStatement.setInt(3, pageSize);
+
+			String last = null;
+			int count = 0;
+			try (ResultSet rs = preparedStatement.executeQuery()) {
+				while (count < pageSize && rs.next()) {
+					final int worldId = rs.getInt("world_id");
+					final long chunkKey = rs.getLong("chunk_key");
+					final ChunkProtection chunkProtection = decode(PackedCoordinates.orderedChunkX(chunkKey),
+							PackedCoordinates.orderedChunkZ(chunkKey), rs.getBytes("data"));
+					chunkProtection.forEach((x, y, z) -> action.accept(worldId, x, y, z));
+					count += chunkProtection.size();
+					last = worldId + "," + chunkKey;
+				}
+			}
+			return last;
+		}
+	}
+
+
+	@Override
+	public int countBlocks(final StatementSource reader) throws SQLException {
+		try (StatementRegistry.Lease lease = reader.acquire("CountAllChunkBlocks");
+		     ResultSet rs = lease.getStatement().executeQuery()) {
+			return rs.next() ? rs.getInt("rowcount") : 0;
+		}
+	}
+
+
+	/**
+	 * Decode a stored chunk blob
+	 */
+	private static ChunkProtection decode(final int chunkX, final int chunkZ, final byte[] data) throws SQLException {
+		try {
+			return ChunkProtection.fromBytes(chunkX, chunkZ, data);
+		}
+		catch (IOException e) {
+			throw new SQLException("Stored data for chunk " + chunkX + "," + chunkZ + " could not be read.", e);
+		}
+	}
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+
+/**
+ * Table layout used by the SQLite datastore to store protected blocks.
+ * <p>
+ * A layout owns the tables that hold block positions; the worlds table, connections, transactions
+ * and caching are managed by the datastore.
+ */
+interface SQLiteLayout {
+
+	/**
+	 * Source of prepared statements; implemented by the writer statement registry and the reader pool
+	 */
+	@FunctionalInterface
+	interface StatementSource {
+		StatementRegistry.Lease acquire(final String name) throws SQLException;
+	}
+
+
+	/**
+	 * Functional interface for visiting stored block positions with their world id
+	 */
+	@FunctionalInterface
+	interface WorldBlockConsumer {
+		void accept(final int worldId, final int x, final int y, final int z);
+	}
+
+
+	/**
+	 * Functional interface for visiting stored chunks with their world id
+	 */
+	@FunctionalInterface
+	interface WorldChunkConsumer {
+		void accept(final int worldId, final int chunkX, final int chunkZ);
+	}
+
+
+	/**
+	 * Create the worlds table, layout tables and the triggers maintaining world block counts if they do not exist
+	 *
+	 * @param connection the writer connection
+	 */
+	void createSchema(final Connection connection) throws SQLException;
+
+
+	/**
+	 * Set the block count of every world in the worlds table from the stored blocks
+	 *
+	 * @param connection the writer connection
+	 */
+	void countWorldBlocks(final Connection connection) throws SQLException;
+
+
+	/**
+	 * Test if layout stores rows that the R*Tree spatial index can be built from
+	 *
+	 * @return {@code true} if the spatial index is supported, else {@code false}
+	 */
+	boolean supportsSpatialIndex();
+
+
+	/**
+	 * Apply a batch of queued writes; called by the writer inside an open transaction
+	 *
+	 * @param writer statements on the writer connection
+	 * @param batch the queued writes, at most one per block
+	 * @param worldIds world ids keyed by world uid; contains every world with an insert in the batch
+	 * @return the number of blocks added or removed
+	 */
+	int write(final StatementSource writer, final List<WriteQueue.PendingWrite> batch, final Map<UUID, Integer> worldIds)
+			throws SQLException;
+
+
+	/**
+	 * Select protected blocks in a chunk
+	 *
+	 * @param reader statements on a reader connection
+	 * @param worldId the world id
+	 * @param chunkX chunk x coordinate
+	 * @param chunkZ chunk z coordinate
+	 * @return the protected blocks in the chunk; empty if there are none
+	 */
+	ChunkProtection selectChunk(final StatementSource reader, final int worldId, final int chunkX, final int chunkZ)
+			throws SQLException;
+
+
+	/**
+	 * Select protected blocks with x and z strictly between the passed bounds and y between the passed bounds inclusive
+	 *
+	 * @param reader statements on a reader connection
+	 * @param worldId the world id
+	 * @param minX exclusive minimum x
+	 * @param maxX exclusive maximum x
+	 * @param minZ exclusive minimum z
+	 * @param maxZ exclusive maximum z
+	 * @param minY inclusive minimum y
+	 * @param maxY inclusive maximum y
+	 * @param action the action to perform for each selected block
+	 */
+	void selectNearby(final StatementSource reader, final int worldId,
+	                  final int minX, final int maxX, final int minZ, final int maxZ, final int minY, final int maxY,
+	                  final ChunkProtection.BlockConsumer action) throws SQLException;
+
+
+	/**
+	 * Select the protected blocks of every stored chunk in a range of chunk columns, with one primary key range scan
+	 *
+	 * @param reader statements on a reader connection
+	 * @param worldId the world id
+	 * @param minChunkX first chunk column
+	 * @param maxChunkX last chunk column, inclusive
+	 * @param action the action to perform for each chunk with protected blocks, passed once with all its blocks
+	 */
+	void selectChunkColumns(final StatementSource reader, final int worldId, final int minChunkX, final int maxChunkX,
+	                        final Consumer<ChunkProtection> action) throws SQLException;
+
+
+	/**
+	 * Select all protected blocks
+	 *
+	 * @param reader statements on a reader connection
+	 * @param action the action to perform for each block
+	 */
+	void selectAll(final StatementSource reader, final WorldBlockConsumer action) throws SQLException;
+
+
+	/**
+	 * Select the coordinates of every chunk with stored blocks
+	 *
+	 * @param reader statements on a reader connection
+	 * @param action the action to perform for each chunk
+	 */
+	void selectChunkKeys(final StatementSource reader, final WorldChunkConsumer action) throws SQLException;
+
+
+	/**
+	 * Select stored blocks in primary key order, following a position returned by a previous page
+	 *
+	 * @param reader statements on a reader connection
+	 * @param position the position to select after, or {@code null} to select from the first block
+	 * @param pageSize the number of blocks to select; layouts storing chunks complete the last chunk selected
+	 * @param action the action to perform for each selected block
+	 * @return the position of the last block selected, or {@code null} if no blocks follow the position
+	 */
+	String selectPage(final StatementSource reader, final String position, final int pageSize,
+	                  final WorldBlockConsumer action) throws SQLException;
+
+
+	/**
+	 * Count all protected blocks
+	 *
+	 * @param reader statements on a reader connection
+	 * @return number of protected blocks
+	 */
+	int countBlocks(final StatementSource reader) throws SQLException;
+
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+
+/**
+ * Layout storing one row per protected block in the schema v2 {@code blocks} table
+ */
+final class SQLiteRowLayout implements SQLiteLayout {
+
+	@Override
+	public void createSchema(final Connection connection) throws SQLException {
+		SQLiteSchema.create(connection);
+	}
+
+
+	@Override
+	public void countWorldBlocks(final Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate(Queries.getQuery("MigrateVersion2CountBlocks"));
+		}
+	}
+
+
+	@Override
+	public boolean supportsSpatialIndex() {
+		return true;
+	}
+
+
+	@Override
+	public int write(final StatementSource writer, final List<WriteQueue.PendingWrite> batch, final Map<UUID, Integer> worldIds)
+			throws SQLException {
+
+		try (StatementRegistry.Lease insertLease = writer.acquire("InsertOrIgnoreBlock");
+		     StatementRegistry.Lease deleteLease = writer.acquire("DeleteBlock")) {
+
+			final PreparedStatement insertStatement = insertLease.getStatement();
+			final PreparedStatement deleteStatement = deleteLease.getStatement();
+
+			for (WriteQueue.PendingWrite pendingWrite : batch) {
+
+				final BlockRecord blockRecord = pendingWrite.getBlockRecord();
+
+				// if world has never been stored, there is nothing to delete
+				final Integer worldId = worldIds.get(blockRecord.getWorldUid());
+				if (worldId == null) {
+					continue;
+				}
+
+				final PreparedStatement statement = pendingWrite.isInsert() ? insertStatement : deleteStatement;
+				statement.setInt(1, worldId);
+				statement.setLong(2, PackedCoordinates.orderedChunkKey(blockRecord.getChunkX(), blockRecord.getChunkZ()));
+				statement.setInt(3, blockRecord.getBlockX());
+				statement.setInt(4, blockRecord.getBlockZ());
+				statement.setInt(5, blockRecord.getBlockY());
+				statement.addBatch();
+			}
+
+			// each block appears at most once in a batch, so inserts and deletes do not depend on each other
+			return sumUpdateCounts(insertStatement.executeBatch()) + sumUpdateCounts(deleteStatement.executeBatch());
+		}
+	}
+
+
+	@Override
+	public ChunkProtection selectChunk(final StatementSource reader, final int worldId, final int chunkX, final int chunkZ)
+			throws SQLException {
+
+		final ChunkProtection chunkProtection = new ChunkProtection(chunkX, chunkZ);
+
+		try (StatementRegistry.Lease lease = reader.acquire("SelectBlocksInChunk")) {
+
+			lease.getStatement().setInt(1, worldId);
+			lease.getStatement().setLong(2, PackedCoordinates.orderedChunkKey(chunkX, chunkZ));
+
+			try (ResultSet rs = lease.getStatement().executeQuery()) {
+				while (rs.next()) {
+					chunkProtection.add(rs.getInt("x"), rs.getInt("y"), rs.getInt("z"));
+				}
+			}
+		}
+		return chunkProtection;
+	}
+
+
+	@Override
+	public void selectNearby(final StatementSource reader, final int worldId,
+	                         final int minX, final int maxX, final int minZ, final int maxZ, final int minY, final int maxY,
+	                         final ChunkProtection.BlockConsumer action) throws SQLException {
+
+		try (StatementRegistry.Lease lease = reader.acquire("SelectNearbyBlocks")) {
+
+			final PreparedStatement preparedStatement = lease.getStatement();
+
+			// blocks in one chunk column are a single primary key range, so scan each column in the area
+			for (int chunkX = (minX + 1) >> 4; chunkX <= (maxX - 1) >> 4; chunkX++) {
+
+				preparedStatement.setInt(1, worldId);
+				preparedStatement.setLong(2, PackedCoordinates.orderedChunkKey(chunkX, (minZ + 1) >> 4));
+				preparedStatement.setLong(3, PackedCoordinates.orderedChunkKey(chunkX, (maxZ - 1) >> 4));
+				preparedStatement.setInt(4, minX);
+				preparedStatement.setInt(5, maxX);
+				preparedStatement.setInt(6, minZ);
+				preparedStatement.setInt(7, maxZ);
+				preparedStatement.setInt(8, minY);
+				preparedStatement.setInt(9, maxY);
+
+				try (ResultSet rs = preparedStatement.executeQuery()) {
+					while (rs.next()) {
+						action.accept(rs.getInt("x"), rs.getInt("y"), rs.getInt("z"));
+					}
+				}
+			}
+		}
+	}
+
+
+	@Override
+	public void selectChunkColumns(final StatementSource reader, final int worldId, final int minChunkX, final int maxChunkX,
+	                               final Consumer<ChunkProtection> action) throws SQLException {
+
+		try (StatementRegistry.Lease lease = reader.acquire("SelectBlocksInChunkColumns")) {
+
+			final PreparedStatement preparedStatement = lease.getStatement();
+			preparedStatement.setInt(1, worldId);
+			preparedStatement.setLong(2, PackedCoordinates.orderedChunkKey(minChunkX, Integer.MIN_VALUE));
+			preparedStatement.setLong(3, PackedCoordinates.orderedChunkKey(maxChunkX, Integer.MAX_VALUE));
+
+			// rows are in primary key order, so the blocks of each chunk are consecutive
+			try (ResultSet rs = preparedStatement.executeQuery()) {
+				ChunkProtection chunkProtection = null;
+				long currentKey = 0;
+				while (rs.next()) {
+					final long chunkKey = rs.getLong("chunk_key");
+					if (chunkProtection == null || chunkKey != currentKey) {
+						if (chunkProtection != null) {
+							action.accept(chunkProtection);
+						}
+						chunkProtection = new ChunkProtection(PackedCoordinates.orderedChunkX(chunkKey),
+								PackedCoordinates.orderedChunkZ(chunkKey));
+						currentKey = chunkKey;
+					}
+					chunkProtection.add(rs.getInt("x"), rs.getInt("y"), rs.getInt("z"));
+				}
+				if (chunkProtection != null) {
+					action.accept(chunkProtection);
+				}
+			}
+		}
+	}
+
+
+	@Override
+	public void selectAll(final StatementSource reader, final WorldBlockConsumer action) throws SQLException {
+		try (StatementRegistry.Lease lease = reader.acquire("SelectAllBlocks");
+		     ResultSet rs = lease.getStatement().executeQuery()) {
+			while (rs.next()) {
+				action.accept(rs.getInt("world_id"), rs.getInt("x"), rs.getInt("y"), rs.getInt("z"));
+			}
+		}
+	}
+
+
+	@Override
+	public void selectChunkKeys(final StatementSource reader, final WorldChunkConsumer action) throws SQLException {
+		try (StatementRegistry.Lease lease = reader.acquire("SelectBlockChunks");
+		     ResultSet rs = lease.getStatement().executeQuery()) {
+			while (rs.next()) {
+				final long chunkKey = rs.getLong("chunk_key");
+				action.accept(rs.getInt("world_id"),
+						PackedCoordinates.orderedChunkX(chunkKey), PackedCoordinates.orderedChunkZ(chunkKey));
+			}
+		}
+	}
+
+
+	@Override
+	public String selectPage(final StatementSource reader, final String position, final int pageSize,
+	                         final WorldBlockConsumer action) throws SQLException {
+
+		// position is the primary key of the last block selected: world id, chunk key, x, z, y
+		final long[] key = RecordCursor.parsePosition(position, 5);
+
+		try (StatementRegistry.Lease lease = reader.acquire("SelectBlockPage")) {
+
+			final PreparedStatement preparedStatement = lease.getStatement();
+			if (key == null) {
+				preparedStatement.setInt(1, -1);
+				preparedStatement.setLong(2, Long.MIN_VALUE);
+				preparedStatement.setInt(3, Integer.MIN_VALUE);
+				preparedStatement.setInt(4, Integer.MIN_VALUE);
+				preparedStatement.setInt(5, Integer.MIN_VALUE);
+			}
+			else {
+				preparedStatement.setLong(1, key[0]);
+				preparedStatement.setLong(2, key[1]);
+				preparedStatement.setLong(3, key[2]);
+				preparedStatement.setLong(4, key[3]);
+				preparedStatement.setLong(5, key[4]);
+			}
+			preparedStatement.setInt(6, pageSize);
+
+			String last = null;
+			try (ResultSet rs = preparedStatement.executeQuery()) {
+				while (rs.next()) {
+					final int worldId = rs.getInt("world_id");
+					final int x = rs.getInt("x");
+					final int y = rs.getInt("y");
+					final int z = rs.getInt("z");
+					action.accept(worldId, x, y, z);
+					last = worldId + "," + rs.getLong("chunk_key") + "," + x + "," + z + "," + y;
+				}
+			}
+			return last;
+		}
+	}
+
+
+	@Override
+	public int countBlocks(final StatementSource reader) throws SQLException {
+		try (StatementRegistry.Lease lease = reader.acquire("CountAllBlocks");
+		     ResultSet rs = lease.getStatement().executeQuery()) {
+			return rs.next() ? rs.getInt("rowcount") : 0;
+		}
+	}
+
+
+	/**
+	 * Sum update counts returned by a batch execution; drivers may report SUCCESS_NO_INFO for rows
+	 */
+	private static int sumUpdateCounts(final int[] updateCounts) {
+		int total = 0;
+		for (int updateCount : updateCounts) {
+			if (updateCount > 0) {
+				total += updateCount;
+			}
+		}
+		return total;
+	}
+
+}
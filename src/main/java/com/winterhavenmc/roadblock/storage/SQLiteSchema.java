@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+
+/**
+ * Schema creation and migration for the SQLite datastore.
+ * <p>
+ * Schema v2 stores worlds once in a {@code worlds} table and blocks in a {@code WITHOUT ROWID} table
+ * clustered on world id, ordered chunk key and block position, so the blocks of a chunk, or of a run of
+ * chunks in one chunk column, are stored together and read with a single primary key range scan.
+ * <p>
+ * Schema v3 adds a block count to each world, maintained by triggers in the same transaction as block writes.
+ */
+final class SQLiteSchema {
+
+	// current schema version
+	static final int VERSION = 3;
+
+
+	/*
+	 * Private class constructor to prevent instantiation
+	 */
+	private SQLiteSchema() {
+		throw new AssertionError();
+	}
+
+
+	/**
+	 * Create current schema tables if they do not exist
+	 *
+	 * @param connection the database connection
+	 */
+	static void create(final Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate(Queries.getQuery("CreateWorldTable"));
+			statement.executeUpdate(Queries.getQuery("CreateBlockTable"));
+			statement.executeUpdate(Queries.getQuery("CreateBlockCountInsertTrigger"));
+			statement.executeUpdate(Queries.getQuery("CreateBlockCountDeleteTrigger"));
+		}
+	}
+
+
+	/**
+	 * Set schema version in database
+	 *
+	 * @param connection the database connection
+	 * @param version the schema version
+	 */
+	static void setVersion(final Connection connection, final int version) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate("PRAGMA user_version = " + version);
+		}
+	}
+
+
+	/**
+	 * Advance the datastore generation, creating the generation table if it does not exist; the generation
+	 * is advanced before any block is written, so blocks written since a snapshot was stamped are detected
+	 *
+	 * @param connection the database connection, in auto-commit mode
+	 * @return the new generation
+	 */
+	static long nextGeneration(final Connection connection) throws SQLException {
+
+		connection.setAutoCommit(false);
+
+		try (Statement statement = connection.createStatement()) {
+
+			statement.executeUpdate(Queries.getQuery("CreateGenerationTable"));
+
+			long generation = 0;
+			try (ResultSet rs = statement.executeQuery(Queries.getQuery("SelectGeneration"))) {
+				if (rs.next()) {
+					generation = rs.getLong(1);
+				}
+			}
+			generation++;
+
+			try (PreparedStatement preparedStatement = connection.prepareStatement(Queries.getQuery("UpdateGeneration"))) {
+				preparedStatement.setLong(1, generation);
+				preparedStatement.executeUpdate();
+			}
+
+			connection.commit();
+			return generation;
+		}
+		catch (SQLException e) {
+			connection.rollback();
+			throw e;
+		}
+		finally {
+			connection.setAutoCommit(true);
+		}
+	}
+
+
+	/**
+	 * Create the R*Tree spatial index and its sync triggers if they do not exist, filling a new index
+	 * from the blocks table in the same transaction
+	 *
+	 * @param connection the database connection, in auto-commit mode
+	 * @return the number of blocks added to a new index, or -1 if the index already existed
+	 */
+	static int createSpatialIndex(final Connection connection) throws SQLException {
+
+		connection.setAutoCommit(false);
+
+		try (Statement statement = connection.createStatement()) {
+
+			final boolean exists;
+			try (ResultSet rs = statement.executeQuery(Queries.getQuery("SelectBlockRTree"))) {
+				exists = rs.next();
+			}
+
+			int count = -1;
+			if (!exists) {
+				statement.executeUpdate(Queries.getQuery("CreateBlockRTree"));
+				statement.executeUpdate(Queries.getQuery("PopulateBlockRTree"));
+
+				// update count would include R*Tree node writes, so count index entries
+				try (ResultSet rs = statement.executeQuery(Queries.getQuery("CountBlockRTree"))) {
+					count = rs.next() ? rs.getInt(1) : 0;
+				}
+			}
+			statement.executeUpdate(Queries.getQuery("CreateBlockRTreeInsertTrigger"));
+			statement.executeUpdate(Queries.getQuery("CreateBlockRTreeDeleteTrigger"));
+
+			connection.commit();
+			return count;
+		}
+		catch (SQLException e) {
+			connection.rollback();
+			throw e;
+		}
+		finally {
+			connection.setAutoCommit(true);
+		}
+	}
+
+
+	/**
+	 * Drop the R*Tree spatial index and its sync triggers, so block writes no longer maintain it
+	 *
+	 * @param connection the database connection
+	 */
+	static void dropSpatialIndex(final Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate(Queries.getQuery("DropBlockRTreeInsertTrigger"));
+			statement.executeUpdate(Queries.getQuery("DropBlockRTreeDeleteTrigger"));
+			statement.executeUpdate(Queries.getQuery("DropBlockRTree"));
+		}
+	}
+
+
+	/**
+	 * Migrate a schema v1 blocks table to schema v2 in a single transaction; rows without a world uid are dropped.
+	 * The migrated database must then be migrated to the current version by {@link #migrateVersion2}.
+	 *
+	 * @param connection the database connection, in auto-commit mode
+	 * @return the number of block records in the migrated table
+	 */
+	static int migrateVersion1(final Connection connection) throws SQLException {
+
+		connection.setAutoCommit(false);
+
+		try (Statement statement = connection.createStatement()) {
+
+			statement.executeUpdate(Queries.getQuery("CreateWorldTable"));
+			statement.executeUpdate(Queries.getQuery("MigrateVersion1Worlds"));
+			statement.executeUpdate(Queries.getQuery("MigrateVersion1CreateBlockTable"));
+			statement.executeUpdate(Queries.getQuery("MigrateVersion1Blocks"));
+			statement.executeUpdate(Queries.getQuery("MigrateVersion1DropBlockTable"));
+			statement.executeUpdate(Queries.getQuery("MigrateVersion1RenameBlockTable"));
+			statement.executeUpdate("PRAGMA user_version = 2");
+
+			final int count;
+			try (ResultSet rs = statement.executeQuery(Queries.getQuery("CountAllBlocks"))) {
+				count = rs.next() ? rs.getInt(1) : 0;
+			}
+
+			connection.commit();
+			return count;
+		}
+		catch (SQLException e) {
+			connection.rollback();
+			throw e;
+		}
+		finally {
+			connection.setAutoCommit(true);
+		}
+	}
+
+
+	/**
+	 * Migrate a schema v2 database to schema v3 in a single transaction, adding world block counts
+	 * and the triggers that maintain them
+	 *
+	 * @param connection the database connection, in auto-commit mode
+	 * @param layout the layout of the database, which counts its blocks
+	 */
+	static void migrateVersion2(final Connection connection, final SQLiteLayout layout) throws SQLException {
+
+		connection.setAutoCommit(false);
+
+		try (Statement statement = connection.createStatement()) {
+
+			// worlds table created by a schema v1 migration already has the column
+			boolean hasBlockCount = false;
+			try (ResultSet rs = statement.executeQuery(Queries.getQuery("MigrateVersion2SelectWorldColumns"))) {
+				while (rs.next()) {
+					hasBlockCount |= "block_count".equals(rs.getString("name"));
+				}
+			}
+			if (!hasBlockCount) {
+				statement.executeUpdate(Queries.getQuery("MigrateVersion2AddBlockCount"));
+			}
+
+			layout.createSchema(connection);
+			layout.countWorldBlocks(connection);
+			statement.executeUpdate("PRAGMA user_version = " + VERSION);
+
+			connection.commit();
+		}
+		catch (SQLException e) {
+			connection.rollback();
+			throw e;
+		}
+		finally {
+			connection.setAutoCommit(true);
+		}
+	}
+
+}
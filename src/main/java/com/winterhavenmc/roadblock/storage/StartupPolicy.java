@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+
+/**
+ * Policy for datastore startup, and for protection checks while the datastore is starting
+ */
+enum StartupPolicy {
+
+	// start datastore before server startup continues; protection checks are never answered before it is ready
+	WAIT,
+
+	// start datastore in the background; treat road block materials as protected until it is ready
+	PROTECT,
+
+	// start datastore in the background; treat all blocks as unprotected until it is ready
+	ALLOW,
+	;
+
+	// default policy
+	private final static StartupPolicy defaultPolicy = StartupPolicy.PROTECT;
+
+
+	/**
+	 * Match policy from passed string; ignores case
+	 *
+	 * @param name A string to match to a StartupPolicy
+	 * @return matching StartupPolicy or default policy if no match
+	 */
+	static StartupPolicy match(final String name) {
+		for (StartupPolicy policy : StartupPolicy.values()) {
+			if (policy.name().equalsIgnoreCase(name)) {
+				return policy;
+			}
+		}
+		// no match; return default policy
+		return defaultPolicy;
+	}
+
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Prepared statements for the queries in queries.properties, prepared once and reused for the
+ * lifetime of a connection.
+ * <p>
+ * A statement is handed out as a {@link Lease}, which holds the statement's lock until it is closed,
+ * so a statement is never used by two threads at once. Executions and time held are counted per statement.
+ */
+final class StatementRegistry {
+
+	// connection on which statements are prepared
+	private final Connection connection;
+
+	// registered statements, keyed by query name
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param connection the connection on which statements are prepared
+	 */
+	StatementRegistry(final Connection connection) {
+		this.connection = connection;
+	}
+
+
+	// prefix of one-time migration queries, which are not prepared in advance
+	static final String MIGRATION_PREFIX = "Migrate";
+
+
+	/**
+	 * Prepare every query that has not been prepared yet, except one-time migration queries
+	 *
+	 * @return names of queries that could not be prepared; they are prepared again on first use
+	 */
+	Collection<String> prepareAll() throws SQLException {
+		final Collection<String> failed = new ArrayList<>();
+		for (String name : Queries.getQueryNames()) {
+			if (name.startsWith(MIGRATION_PREFIX)) {
+				continue;
+			}
+			try {
+				getEntry(name);
+			}
+			catch (SQLException e) {
+				failed.add(name);
+			}
+		}
+		return failed;
+	}
+
+
+	/**
+	 * Acquire exclusive use of a prepared statement; the returned lease must be closed after use
+	 *
+	 * @param name the query name in queries.properties
+	 * @return a lease holding the prepared statement
+	 * @throws SQLException if the statement could not be prepared
+	 */
+	Lease acquire(final String name) throws SQLException {
+		return acquire(name, null);
+	}
+
+
+	/**
+	 * Acquire exclusive use of a prepared statement, running an action once the lease is closed
+	 *
+	 * @param name the query name in queries.properties
+	 * @param onRelease action to run after the statement is released; may be null
+	 * @return a lease holding the prepared statement
+	 * @throws SQLException if the statement could not be prepared
+	 */
+	Lease acquire(final String name, final Runnable onRelease) throws SQLException {
+		final Entry entry = getEntry(name);
+		entry.lock.lock();
+		return new Lease(entry, onRelease);
+	}
+
+
+	/**
+	 * Get execution statistics for all prepared statements
+	 *
+	 * @return statistics, sorted by query name
+	 */
+	Collection<Statistics> getStatistics() {
+		final Collection<Statistics> statistics = new TreeSet<>(Comparator.comparing(Statistics::getName));
+		for (Entry entry : entries.values()) {
+			statistics.add(new Statistics(entry.name, entry.executions.get(), entry.totalNanos.get()));
+		}
+		return statistics;
+	}
+
+
+	/**
+	 * Close all prepared statements
+	 */
+	void close() {
+		for (Entry entry : entries.values()) {
+			entry.lock.lock();
+			try {
+				entry.statement.close();
+			}
+			catch (SQLException e) {
+				// statement is discarded either way
+			}
+			finally {
+				entry.lock.unlock();
+			}
+		}
+		entries.clear();
+	}
+
+
+	private Entry getEntry(final String name) throws SQLException {
+
+		final Entry entry = entries.get(name);
+		if (entry != null) {
+			return entry;
+		}
+
+		final String sql = Queries.getQuery(name);
+		if (sql == null) {
+			throw new SQLException("Unknown query: " + name);
+		}
+
+		synchronized (entries) {
+			final Entry existing = entries.get(name);
+			if (existing != null) {
+				return existing;
+			}
+			final Entry newEntry = new Entry(name, connection.prepareStatement(sql));
+			entries.put(name, newEntry);
+			return newEntry;
+		}
+	}
+
+
+	/**
+	 * A prepared statement with its lock and counters
+	 */
+	private static final class Entry {
+
+		final String name;
+		final PreparedStatement statement;
+		final ReentrantLock lock = new ReentrantLock();
+		final AtomicLong executions = new AtomicLong();
+		final AtomicLong totalNanos = new AtomicLong();
+
+		Entry(final String name, final PreparedStatement statement) {
+			this.name = name;
+			this.statement = statement;
+		}
+	}
+
+
+	/**
+	 * Exclusive use of a prepared statement; closing the lease clears parameters and releases the statement
+	 */
+	static final class Lease implements AutoCloseable {
+
+		private final Entry entry;
+		private final Runnable onRelease;
+		private final long startTime = System.nanoTime();
+		private boolean closed;
+
+		private Lease(final Entry entry, final Runnable onRelease) {
+			this.entry = entry;
+			this.onRelease = onRelease;
+		}
+
+		PreparedStatement getStatement() {
+			return entry.statement;
+		}
+
+		@Override
+		public void close() {
+
+			if (closed) {
+				return;
+			}
+			closed = true;
+
+			try {
+				entry.statement.clearParameters();
+				entry.statement.clearBatch();
+			}
+			catch (SQLException e) {
+				// parameters are replaced on next use
+			}
+			finally {
+				entry.executions.incrementAndGet();
+				entry.totalNanos.addAndGet(System.nanoTime() - startTime);
+				entry.lock.unlock();
+				if (onRelease != null) {
+					onRelease.run();
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Execution statistics for a prepared statement
+	 */
+	static final class Statistics {
+
+		private final String name;
+		private final long executions;
+		private final long totalNanos;
+
+		Statistics(final String name, final long executions, final long totalNanos) {
+			this.name = name;
+			this.executions = executions;
+			this.totalNanos = totalNanos;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		long getExecutions() {
+			return executions;
+		}
+
+		long getTotalNanos() {
+			return totalNanos;
+		}
+	}
+
+}
@@ -0,0 +1,499 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Worker threads for datastore work, taking tasks from a high priority lane before a low priority lane.
+ * <p>
+ * Chunk loads for players go in the high priority lane; bulk writes and maintenance go in the low priority
+ * lane. There are at least two threads, and low priority tasks never occupy every thread, so a long write
+ * cannot hold back a chunk load waiting behind it. A task that throws is logged and does not stop its thread.
+ * Queue depth and wait time are recorded for each lane.
+ * <p>
+ * Tasks still queued at shutdown are discarded; a {@link DiscardableTask} is told, so that whoever waits on it
+ * is not left waiting.
+ */
+final class StorageExecutor {
+
+	// minimum number of worker threads; one thread is always left for high priority tasks
+	static final int MIN_THREADS = 2;
+
+	/**
+	 * Task priority
+	 */
+	enum Priority {
+		HIGH,
+		LOW
+	}
+
+
+	/**
+	 * A task told when it is discarded without running, because the executor was shut down
+	 */
+	interface DiscardableTask extends Runnable {
+
+		/**
+		 * Called instead of {@link #run()} when the task is discarded
+		 */
+		void discard();
+	}
+
+
+	/**
+	 * Create a task that runs an action when it is discarded by shutdown
+	 *
+	 * @param task the task
+	 * @param onDiscard the action run instead of the task if it is discarded
+	 * @return the discardable task
+	 */
+	static DiscardableTask discardable(final Runnable task, final Runnable onDiscard) {
+		return new DiscardableTask() {
+			@Override
+			public void run() {
+				task.run();
+			}
+
+			@Override
+			public void discard() {
+				onDiscard.run();
+			}
+		};
+	}
+
+
+	/**
+	 * Queue depth and wait time counters of a lane
+	 */
+	private static final class LaneStatistics {
+		final AtomicLong submitted = new AtomicLong();
+		final AtomicLong completed = new AtomicLong();
+		final AtomicLong totalWait = new AtomicLong();
+		final AtomicLong maxWait = new AtomicLong();
+		int maxDepth;
+	}
+
+
+	/**
+	 * A queued task with the time it was queued
+	 */
+	private static final class Task {
+		final Priority priority;
+		final Runnable runnable;
+		final long queuedTime = System.nanoTime();
+
+		Task(final Priority priority, final Runnable runnable) {
+			this.priority = priority;
+			this.runnable = runnable;
+		}
+	}
+
+
+	/**
+	 * Runs tasks submitted to it one at a time in submission order, in a lane of this executor. Once the
+	 * executor is shut down, the lane discards its queued tasks and rejects new ones.
+	 */
+	final class SerialLane implements Executor {
+
+		private final Priority priority;
+		private final Deque<Runnable> tasks = new ArrayDeque<>();
+		private boolean active;
+		private boolean rejecting;
+
+		private SerialLane(final Priority priority) {
+			this.priority = priority;
+		}
+
+		/**
+		 * Queue a task to run after the tasks queued before it
+		 *
+		 * @param runnable the task
+		 * @throws RejectedExecutionException if the executor has been shut down
+		 */
+		@Override
+		public void execute(final Runnable runnable) {
+			synchronized (this) {
+				if (rejecting || isShutdown()) {
+					rejecting = true;
+					throw new RejectedExecutionException("Storage executor has been shut down.");
+				}
+				tasks.addLast(runnable);
+				if (active) {
+					return;
+				}
+				active = true;
+			}
+			scheduleNext();
+		}
+
+		/**
+		 * Queue the next task in the executor; only called by the holder of the active flag, so tasks are
+		 * queued one at a time. Callbacks of discarded tasks are run without holding the lane's monitor.
+		 */
+		private void scheduleNext() {
+			final Runnable next;
+			synchronized (this) {
+				next = tasks.pollFirst();
+				active = next != null;
+				if (next == null) {
+					return;
+				}
+			}
+
+			final DiscardableTask laneTask = discardable(() -> {
+				try {
+					next.run();
+				}
+				finally {
+					scheduleNext();
+				}
+			}, () -> reject(next));
+
+			try {
+				StorageExecutor.this.execute(priority, laneTask);
+			}
+			catch (RejectedExecutionException e) {
+				reject(next);
+			}
+		}
+
+		/**
+		 * Discard a task the executor will not run, with every task queued after it, and reject new tasks
+		 */
+		private void reject(final Runnable first) {
+			final List<Runnable> discarded;
+			synchronized (this) {
+				rejecting = true;
+				active = false;
+				discarded = new ArrayList<>(tasks);
+				tasks.clear();
+			}
+			discard(first);
+			for (Runnable runnable : discarded) {
+				discard(runnable);
+			}
+		}
+	}
+
+
+	// logger for task errors
+	private final Logger logger;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	private final Deque<Task> highLane = new ArrayDeque<>();
+	private final Deque<Task> lowLane = new ArrayDeque<>();
+	private final LaneStatistics[] statistics = { new LaneStatistics(), new LaneStatistics() };
+	private final List<Thread> workers = new ArrayList<>();
+	private final ScheduledExecutorService timer;
+	private final int maxLowRunning;
+	private int lowRunning;
+	private boolean shutdown;
+
+
+	/**
+	 * Class constructor; tasks are queued until the executor is started
+	 *
+	 * @param name the name prefix of worker threads
+	 * @param logger the logger for task errors
+	 * @param threads the number of worker threads; at least {@link #MIN_THREADS} are created
+	 */
+	StorageExecutor(final String name, final Logger logger, final int threads) {
+
+		this.logger = logger;
+
+		final int threadCount = Math.max(MIN_THREADS, threads);
+		this.maxLowRunning = threadCount - 1;
+
+		for (int i = 0; i < threadCount; i++) {
+			final Thread worker = new Thread(this::work, name + " Storage " + (i + 1));
+			worker.setDaemon(true);
+			workers.add(worker);
+		}
+
+		this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, name + " Storage Timer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+
+	/**
+	 * Start worker threads
+	 */
+	void start() {
+		for (Thread worker : workers) {
+			if (worker.getState() == Thread.State.NEW) {
+				worker.start();
+			}
+		}
+	}
+
+
+	/**
+	 * Queue a task
+	 *
+	 * @param priority the lane to queue the task in
+	 * @param runnable the task
+	 * @throws RejectedExecutionException if the executor has been shut down
+	 */
+	void execute(final Priority priority, final Runnable runnable) {
+		lock.lock();
+		try {
+			if (shutdown) {
+				throw new RejectedExecutionException("Storage executor has been shut down.");
+			}
+			final Deque<Task> lane = priority == Priority.HIGH ? highLane : lowLane;
+			lane.addLast(new Task(priority, runnable));
+			final LaneStatistics laneStatistics = statistics[priority.ordinal()];
+			laneStatistics.submitted.incrementAndGet();
+			laneStatistics.maxDepth = Math.max(laneStatistics.maxDepth, lane.size());
+			available.signal();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+
+	/**
+	 * Create an executor running its tasks one at a time in submission order, in a lane of this executor
+	 *
+	 * @param priority the lane to run tasks in
+	 * @return the serial executor
+	 */
+	SerialLane serialLane(final Priority priority) {
+		return new SerialLane(priority);
+	}
+
+
+	/**
+	 * Run a short task periodically on the timer thread, typically to queue work in a lane
+	 *
+	 * @param runnable the task
+	 * @param delay the delay in milliseconds between runs
+	 * @return the scheduled future, which can be used to cancel the task
+	 */
+	ScheduledFuture<?> scheduleWithFixedDelay(final Runnable runnable, final long delay) {
+		return timer.scheduleWithFixedDelay(runnable, delay, delay, TimeUnit.MILLISECONDS);
+	}
+
+
+	/**
+	 * Get number of tasks waiting in a lane
+	 *
+	 * @param priority the lane
+	 * @return number of queued tasks
+	 */
+	int getQueueDepth(final Priority priority) {
+		lock.lock();
+		try {
+			return priority == Priority.HIGH ? highLane.size() : lowLane.size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+
+	/**
+	 * Get lane statistics
+	 *
+	 * @return a summary of queue depth and wait time for each lane
+	 */
+	List<String> getStatistics() {
+		final List<String> lines = new ArrayList<>();
+		for (Priority priority : Priority.values()) {
+			final LaneStatistics laneStatistics = statistics[priority.ordinal()];
+			final long completed = laneStatistics.completed.get();
+			final int maxDepth;
+			lock.lock();
+			try {
+				maxDepth = laneStatistics.maxDepth;
+			}
+			finally {
+				lock.unlock();
+			}
+			lines.add(priority + " priority storage tasks: " + completed + " completed, "
+					+ getQueueDepth(priority) + " queued (maximum " + maxDepth + "), average wait "
+					+ (completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(laneStatistics.totalWait.get() / completed))
+					+ " microseconds, maximum wait "
+					+ TimeUnit.NANOSECONDS.toMicros(laneStatistics.maxWait.get()) + " microseconds.");
+		}
+		return lines;
+	}
+
+
+	/**
+	 * Test if the executor has been shut down
+	 *
+	 * @return {@code true} if new tasks are rejected, else {@code false}
+	 */
+	boolean isShutdown() {
+		lock.lock();
+		try {
+			return shutdown;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+
+	/**
+	 * Stop accepting tasks, discard queued tasks and wait for running tasks to finish. Discarded
+	 * {@link DiscardableTask}s are told before waiting.
+	 *
+	 * @param timeout maximum time in milliseconds to wait
+	 * @return {@code true} if all worker threads finished, else {@code false}
+	 */
+	boolean shutdown(final long timeout) {
+
+		timer.shutdownNow();
+
+		final List<Task> discarded = new ArrayList<>();
+		lock.lock();
+		try {
+			shutdown = true;
+			discarded.addAll(highLane);
+			discarded.addAll(lowLane);
+			highLane.clear();
+			lowLane.clear();
+			available.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+
+		// tell discarded tasks outside the lock, as they may complete futures with dependent actions
+		for (Task task : discarded) {
+			discard(task.runnable);
+		}
+
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		try {
+			for (Thread worker : workers) {
+				if (worker.getState() == Thread.State.NEW) {
+					continue;
+				}
+				final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining > 0) {
+					worker.join(remaining);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		for (Thread worker : workers) {
+			if (worker.isAlive()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Tell a task it was discarded, if it wants to know
+	 *
+	 * @param runnable the discarded task
+	 */
+	private void discard(final Runnable runnable) {
+		if (runnable instanceof DiscardableTask) {
+			try {
+				((DiscardableTask) runnable).discard();
+			}
+			catch (Throwable e) {
+				logger.log(Level.WARNING, "An error occurred while discarding a storage task.", e);
+			}
+		}
+	}
+
+
+	/**
+	 * Worker loop; takes high priority tasks first, and low priority tasks while fewer than the limit are running
+	 */
+	private void work() {
+		while (true) {
+
+			final Task task;
+			lock.lock();
+			try {
+				while (true) {
+					if (shutdown) {
+						return;
+					}
+					if (!highLane.isEmpty()) {
+						task = highLane.pollFirst();
+						break;
+					}
+					if (!lowLane.isEmpty() && lowRunning < maxLowRunning) {
+						task = lowLane.pollFirst();
+						lowRunning++;
+						break;
+					}
+					available.awaitUninterruptibly();
+				}
+			}
+			finally {
+				lock.unlock();
+			}
+
+			final LaneStatistics laneStatistics = statistics[task.priority.ordinal()];
+			final long wait = System.nanoTime() - task.queuedTime;
+			laneStatistics.totalWait.addAndGet(wait);
+			laneStatistics.maxWait.accumulateAndGet(wait, Math::max);
+
+			// an error thrown by a task, such as running out of memory, must not stop the worker
+			try {
+				task.runnable.run();
+			}
+			catch (Throwable e) {
+				logger.log(Level.WARNING, "An error occurred while running a storage task.", e);
+			}
+			finally {
+				laneStatistics.completed.incrementAndGet();
+				if (task.priority == Priority.LOW) {
+					lock.lock();
+					try {
+						lowRunning--;
+						available.signal();
+					}
+					finally {
+						lock.unlock();
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,584 @@
+/*
+ * Copyright (c) 2022 Tim Savage.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.winterhavenmc.roadblock.storage;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * A write-behind queue of block inserts and deletes, applied to the datastore in batches one at a time in the
+ * low priority lane of the storage executor.
+ * <p>
+ * Operations on the same block are coalesced so that only the most recent one is written. Each queued
+ * operation is reflected in the pending write cache until the batch containing it has been committed.
+ * Operations in a batch that failed stay in the cache and are queued again, unless the same block has been
+ * queued since; writing resumes after a delay that doubles with each consecutive failed batch. After
+ * repeated failures, operations are written one at a time, and any operation that still fails is dropped.
+ */
+final class WriteQueue {
+
+	// maximum delay before writing again after failed batches
+	private static final long MAX_RETRY_DELAY = TimeUnit.SECONDS.toNanos(60);
+
+	// consecutive failed batches before operations are written one at a time
+	static final int MAX_BATCH_ATTEMPTS = 3;
+
+	// logger for write errors
+	private final Logger logger;
+
+	// pending write cache
+	private final BlockRecordCache blockCache;
+
+	// writer for batches taken from the queue
+	private final BatchWriter batchWriter;
+
+	// maximum number of operations in a batch
+	private final int batchSize;
+
+	// maximum time in milliseconds an operation waits in the queue
+	private final long flushInterval;
+
+	// queued operations in arrival order, keyed by block; guarded by this
+	private final Map<BlockRecord, PendingWrite> pendingWrites = new LinkedHashMap<>();
+
+	// set when a flush has been requested because the queue reached batch size
+	private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+	// number of batches that could not be written
+	private final AtomicLong failedBatches = new AtomicLong();
+
+	// number of operations dropped because they could not be written on their own
+	private final AtomicLong droppedWrites = new AtomicLong();
+
+	// number of committed batches; incremented after each commit, before its operations leave the cache
+	private final AtomicLong commitSequence = new AtomicLong();
+
+	// number of batches failed since the last committed batch, and the time writing resumes after them
+	private int consecutiveFailures;
+	private volatile long retryTime;
+	private volatile boolean retrying;
+
+	// executor running batches
+	private final StorageExecutor executor;
+
+	// serial low priority lane writing batches one at a time; null until started and after shutdown
+	private Executor writer;
+
+	// periodic flush
+	private ScheduledFuture<?> flushTask;
+
+	// set on shutdown; writing stops after the batch in progress once the shutdown deadline has passed
+	private volatile boolean stopping;
+	private volatile long shutdownDeadline;
+
+
+	/**
+	 * Writes a batch of operations to the datastore
+	 */
+	@FunctionalInterface
+	interface BatchWriter {
+
+		/**
+		 * Write a batch of operations in a single transaction
+		 *
+		 * @param batch the operations to write; contains at most one operation per block
+		 * @return {@code true} if the batch was committed, else {@code false}
+		 */
+		boolean write(final List<PendingWrite> batch);
+	}
+
+
+	/**
+	 * A queued block insert or delete
+	 */
+	static final class PendingWrite {
+
+		private final BlockRecord blockRecord;
+		private final CacheStatus status;
+
+		PendingWrite(final BlockRecord blockRecord, final CacheStatus status) {
+			this.blockRecord = blockRecord;
+			this.status = status;
+		}
+
+		BlockRecord getBlockRecord() {
+			return blockRecord;
+		}
+
+		CacheStatus getStatus() {
+			return status;
+		}
+
+		boolean isInsert() {
+			return status == CacheStatus.PENDING_INSERT;
+		}
+	}
+
+
+	/**
+	 * Class constructor
+	 *
+	 * @param logger the logger for write errors
+	 * @param executor the storage executor running batches
+	 * @param blockCache the pending write cache
+	 * @param batchWriter the writer for batches taken from the queue
+	 * @param batchSize the maximum number of operations in a batch
+	 * @param flushInterval the maximum time in milliseconds an operation waits in the queue
+	 */
+	WriteQueue(final Logger logger, final StorageExecutor executor, final BlockRecordCache blockCache,
+	           final BatchWriter batchWriter, final int batchSize, final long flushInterval) {
+		this.logger = logger;
+		this.executor = executor;
+		this.blockCache = blockCache;
+		this.batchWriter = batchWriter;
+		this.batchSize = Math.max(1, batchSize);
+		this.flushInterval = Math.max(1L, flushInterval);
+	}
+
+
+	/**
+	 * Start writing queued operations
+	 */
+	synchronized void start() {
+		if (writer != null) {
+			return;
+		}
+		writer = executor.serialLane(StorageExecutor.Priority.LOW);
+		flushTask = executor.scheduleWithFixedDelay(this::requestFlush, flushInterval);
+	}
+
+
+	/**
+	 * Write remaining operations and stop writing, waiting at most the timeout. Operations are written
+	 * after any batch in progress; if the timeout passes, writing stops after the batch in progress and
+	 * the remaining operations stay queued. A batch may still be in progress on return.
+	 *
+	 * @param timeout maximum time in milliseconds to wait
+	 * @return the number of operations not written
+	 */
+	int shutdown(final long timeout) {
+
+		shutdownDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		stopping = true;
+
+		final Executor stoppingWriter;
+		synchronized (this) {
+			stoppingWriter = writer;
+			writer = null;
+			if (flushTask != null) {
+				flushTask.cancel(false);
+				flushTask = null;
+			}
+		}
+
+		if (stoppingWriter != null) {
+			try {
+				submitFlush(stoppingWriter).get(timeout, TimeUnit.MILLISECONDS);
+			}
+			catch (RejectedExecutionException e) {
+				// executor was stopped; write on this thread
+				flush();
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof RejectedExecutionException) {
+					// flush was discarded by a stopped executor; write on this thread
+					flush();
+				}
+			}
+			catch (TimeoutException e) {
+				// writing stops after the batch in progress; remaining operations are reported by size
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		else {
+			flush();
+		}
+
+		return size();
+	}
+
+
+	/**
+	 * Queue block records for a write operation
+	 *
+	 * @param blockRecords the block records to queue
+	 * @param status PENDING_INSERT or PENDING_DELETE
+	 * @return the number of records queued
+	 */
+	int enqueue(final Collection<BlockRecord> blockRecords, final CacheStatus status) {
+
+		int count = 0;
+		final int queueSize;
+
+		synchronized (this) {
+			for (BlockRecord blockRecord : blockRecords) {
+
+				// if record is null, skip to next record
+				if (blockRecord == null) {
+					continue;
+				}
+
+				// replace any queued operation for the same block, keeping its place in the queue
+				pendingWrites.put(blockRecord, new PendingWrite(blockRecord, status));
+				blockCache.put(blockRecord, status);
+				count++;
+			}
+			queueSize = pendingWrites.size();
+		}
+
+		// if queue has reached batch size, write it now instead of waiting for the flush interval
+		if (queueSize >= batchSize) {
+			requestFlush();
+		}
+
+		return count;
+	}
+
+
+	/**
+	 * Queue a flush in the writer lane, unless one is already queued
+	 */
+	private void requestFlush() {
+
+		// after a failed batch, wait for the retry delay before writing again
+		if (retrying && System.nanoTime() - retryTime < 0) {
+			return;
+		}
+
+		if (flushRequested.compareAndSet(false, true)) {
+			final Executor currentWriter;
+			synchronized (this) {
+				currentWriter = writer;
+			}
+			try {
+				if (currentWriter != null) {
+					currentWriter.execute(this::flush);
+					return;
+				}
+			}
+			catch (RejectedExecutionException e) {
+				// executor was stopped; operations are written on shutdown
+			}
+			flushRequested.set(false);
+		}
+	}
+
+
+	/**
+	 * Queue a flush in a writer lane
+	 *
+	 * @param lane the writer lane
+	 * @return a future completing with the result of the flush
+	 * @throws RejectedExecutionException if the executor has been shut down
+	 */
+	private CompletableFuture<Boolean> submitFlush(final Executor lane) {
+		final CompletableFuture<Boolean> result = new CompletableFuture<>();
+		lane.execute(StorageExecutor.discardable(() -> {
+			try {
+				result.complete(flush());
+			}
+			catch (Throwable e) {
+				result.completeExceptionally(e);
+			}
+		}, () -> result.completeExceptionally(new RejectedExecutionException("Writer lane was shut down."))));
+		return result;
+	}
+
+
+	/**
+	 * Get number of queued operations
+	 *
+	 * @return number of queued operations
+	 */
+	synchronized int size() {
+		return pendingWrites.size();
+	}
+
+
+	/**
+	 * Get number of batches that could not be written since the queue was created
+	 *
+	 * @return number of failed batches
+	 */
+	long getFailedBatches() {
+		return failedBatches.get();
+	}
+
+
+	/**
+	 * Get number of operations dropped since the queue was created because they could not be written
+	 *
+	 * @return number of dropped operations
+	 */
+	long getDroppedWrites() {
+		return droppedWrites.get();
+	}
+
+
+	/**
+	 * Get number of batches committed since the queue was created. A reader that sees the same sequence
+	 * before reading the datastore and after reading the pending write cache has seen every committed
+	 * operation, either in the datastore or in the cache.
+	 *
+	 * @return number of committed batches
+	 */
+	long getCommitSequence() {
+		return commitSequence.get();
+	}
+
+
+	/**
+	 * Run a task in the writer lane, so no batch is written while it runs. The task may write queued
+	 * operations on its own thread with {@link #flushInWriter()}.
+	 *
+	 * @param task the task
+	 * @return {@code true} if the task was queued, {@code false} if writing has been stopped
+	 */
+	boolean executeInWriter(final Runnable task) {
+
+		final Executor currentWriter;
+		synchronized (this) {
+			currentWriter = writer;
+		}
+
+		try {
+			if (currentWriter != null) {
+				currentWriter.execute(task);
+				return true;
+			}
+		}
+		catch (RejectedExecutionException e) {
+			// executor was stopped
+		}
+		return false;
+	}
+
+
+	/**
+	 * Write all queued operations on the calling thread; only called from a task run by
+	 * {@link #executeInWriter(Runnable)}
+	 *
+	 * @return {@code true} if the queue was emptied, {@code false} if writing was stopped by shutdown
+	 */
+	boolean flushInWriter() {
+		return flush();
+	}
+
+
+	/**
+	 * Write all operations queued before this call, and wait until they have been written or have failed.
+	 * Operations are written in the writer lane, after any batch it is writing; if writing is stopped,
+	 * they are written on the calling thread. Must not be called from a storage executor task.
+	 *
+	 * @return {@code true} if the queued operations were written, {@code false} if a write failed, waiting
+	 * was interrupted or writing was stopped by shutdown
+	 */
+	boolean drain() {
+
+		final Executor currentWriter;
+		synchronized (this) {
+			currentWriter = writer;
+		}
+
+		if (currentWriter != null) {
+			try {
+				return submitFlush(currentWriter).get();
+			}
+			catch (RejectedExecutionException e) {
+				// writer was stopped; write on this thread
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			catch (ExecutionException e) {
+				if (!(e.getCause() instanceof RejectedExecutionException)) {
+					failedBatches.incrementAndGet();
+					logger.warning("An error occurred while writing queued blocks to the datastore.");
+					logger.warning(e.getLocalizedMessage());
+					return false;
+				}
+				// flush was discarded by a stopped writer; write on this thread
+			}
+		}
+		return flush();
+	}
+
+
+	/**
+	 * Write all queued operations in batches of at most batch size; a failed batch is queued again,
+	 * and writing stops until the retry delay has passed
+	 *
+	 * @return {@code true} if the queue was emptied, {@code false} if writing was stopped by shutdown
+	 * or a failed batch
+	 */
+	private boolean flush() {
+
+		flushRequested.set(false);
+
+		List<PendingWrite> batch = takeBatch();
+
+		while (!batch.isEmpty()) {
+
+			// a batch that keeps failing is written one operation at a time, so one bad row cannot stall the queue
+			if (getConsecutiveFailures() >= MAX_BATCH_ATTEMPTS) {
+				writeSeparately(batch);
+				batch = takeBatch();
+				continue;
+			}
+
+			boolean committed = false;
+			try {
+				committed = batchWriter.write(batch);
+				if (!committed) {
+					failedBatches.incrementAndGet();
+				}
+			}
+			catch (RuntimeException e) {
+				failedBatches.incrementAndGet();
+				logger.log(Level.WARNING, "An error occurred while writing queued blocks to the datastore.", e);
+			}
+			finally {
+				complete(batch, committed);
+			}
+
+			// leave failed operations queued for a retry after the delay
+			if (!committed) {
+				return false;
+			}
+
+			// on shutdown, leave remaining operations queued once the deadline has passed
+			if (stopping && System.nanoTime() - shutdownDeadline >= 0) {
+				return size() == 0;
+			}
+			batch = takeBatch();
+		}
+		return true;
+	}
+
+
+	/**
+	 * Write each operation of a batch in its own transaction; operations that still fail are logged and dropped
+	 *
+	 * @param batch the operations to write
+	 */
+	private void writeSeparately(final List<PendingWrite> batch) {
+
+		logger.warning("Writing " + batch.size() + " queued blocks one at a time after "
+				+ MAX_BATCH_ATTEMPTS + " failed batches.");
+
+		for (PendingWrite pendingWrite : batch) {
+			final List<PendingWrite> single = Collections.singletonList(pendingWrite);
+			boolean committed = false;
+			try {
+				committed = batchWriter.write(single);
+			}
+			catch (RuntimeException e) {
+				logger.log(Level.WARNING, "An error occurred while writing a queued block to the datastore.", e);
+			}
+
+			if (!committed) {
+				failedBatches.incrementAndGet();
+				droppedWrites.incrementAndGet();
+				final BlockRecord blockRecord = pendingWrite.getBlockRecord();
+				logger.warning("Dropped queued " + (pendingWrite.isInsert() ? "insert" : "delete")
+						+ " of block at " + blockRecord.getWorldName() + " " + blockRecord.getBlockX() + ","
+						+ blockRecord.getBlockY() + "," + blockRecord.getBlockZ() + " that could not be written.");
+			}
+
+			// written or dropped, the operation leaves the queue
+			complete(single, true);
+		}
+	}
+
+
+	/**
+	 * Remove up to batch size operations from head of queue
+	 */
+	private synchronized List<PendingWrite> takeBatch() {
+
+		if (pendingWrites.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		final List<PendingWrite> batch = new ArrayList<>(Math.min(batchSize, pendingWrites.size()));
+		final Iterator<PendingWrite> iterator = pendingWrites.values().iterator();
+		while (iterator.hasNext() && batch.size() < batchSize) {
+			batch.add(iterator.next());
+			iterator.remove();
+		}
+		return batch;
+	}
+
+
+	/**
+	 * Get number of batches failed since the last committed batch
+	 *
+	 * @return number of consecutive failed batches
+	 */
+	private synchronized int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+
+	/**
+	 * Clear pending status for committed operations, unless the same block has been queued again; operations
+	 * of a failed batch keep their status and are queued again, unless the same block has been queued since
+	 *
+	 * @param batch the operations written
+	 * @param committed {@code true} if the batch was committed, else {@code false}
+	 */
+	private synchronized void complete(final List<PendingWrite> batch, final boolean committed) {
+
+		if (!committed) {
+			for (PendingWrite pendingWrite : batch) {
+				pendingWrites.putIfAbsent(pendingWrite.getBlockRecord(), pendingWrite);
+			}
+
+			// delay the next write by the flush interval, doubled for each consecutive failure up to the maximum
+			final long delay = Math.min(MAX_RETRY_DELAY,
+					TimeUnit.MILLISECONDS.toNanos(flushInterval) << Math.min(consecutiveFailures, 16));
+			consecutiveFailures++;
+			retryTime = System.nanoTime() + delay;
+			retrying = true;
+			logger.warning(batch.size() + " queued blocks will be written again in "
+					+ TimeUnit.NANOSECONDS.toMillis(delay) + " milliseconds.");
+			return;
+		}
+
+		consecutiveFailures = 0;
+		retrying = false;
+
+		// publish the commit before any operation leaves the cache
+		commitSequence.incrementAndGet();
+
+		for (PendingWrite pendingWrite : batch) {
+			if (!pendingWrites.containsKey(pendingWrite.getBlockRecord())) {
+				blockCache.remove(pendingWrite.getBlockRecord());
+			}
+		}
+	}
+
+}
@@ -15,6 +15,28 @@ public enum ConfigSetting {
 	ON_ROAD_HEIGHT("6"),
 	SNOW_PLOW("true"),
 	SOUND_EFFECTS("true"),
+	CACHE_MISS_POLICY("WAIT"),
+	CACHE_MISS_TIMEOUT("50"),
+	STARTUP_POLICY("PROTECT"),
+	CHUNK_EVICTION_BUDGET("500"),
+	CHUNK_CACHE_SIZE("64"),
+	WRITE_BATCH_SIZE("10000"),
+	WRITE_FLUSH_INTERVAL("1000"),
+	WRITE_JOURNAL("true"),
+	WRITE_JOURNAL_SYNC_INTERVAL("1000"),
+	SHUTDOWN_TIMEOUT("30"),
+	STORAGE_THREADS("2"),
+	WARM_RESTART("true"),
+	RESIDENT_INDEX("false"),
+	RESIDENT_INDEX_MEMORY("1024"),
+	STORAGE_TYPE("SQLite"),
+	SNAPSHOT_INTERVAL("300"),
+	SQLITE_JOURNAL_MODE("WAL"),
+	SQLITE_SYNCHRONOUS("NORMAL"),
+	SQLITE_MMAP_SIZE("67108864"),
+	SQLITE_CACHE_SIZE("8192"),
+	SQLITE_READER_CONNECTIONS("2"),
+	SQLITE_SPATIAL_INDEX("true"),
 	MATERIALS("[DIRT_PATH, COBBLESTONE, COBBLESTONE_SLAB, COBBLESTONE_STAIRS, " +
 			"MOSSY_COBBLESTONE, MOSSY_COBBLESTONE_SLAB, MOSSY_COBBLESTONE_STAIRS, " +
 			"STONE_BRICKS, STONE_BRICK_SLAB, STONE_BRICK_STAIRS, CRACKED_STONE_BRICKS, " +
@@ -0,0 +1,250 @@
+package com.winterhavenmc.roadblock.storage;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+
+public class AsyncDataStoreTests {
+
+	private final UUID worldUid = new UUID(1, 2);
+	private final BlockRecord blockA = new BlockRecord("world", worldUid, 1, 64, 1, 0, 0);
+	private final BlockRecord blockB = new BlockRecord("world", worldUid, 2, 64, 2, 0, 0);
+
+	private final Logger logger = Logger.getAnonymousLogger();
+
+	private StorageExecutor executor;
+	private RecordingDataStore dataStore;
+	private AsyncDataStore asyncDataStore;
+
+
+	@BeforeEach
+	void setUp() {
+		logger.setUseParentHandlers(false);
+		executor = new StorageExecutor("Test", logger, 2);
+		executor.start();
+		dataStore = new RecordingDataStore(executor);
+		asyncDataStore = new AsyncDataStore(logger, dataStore);
+	}
+
+	@AfterEach
+	void tearDown() {
+		dataStore.releaseInserts.countDown();
+		dataStore.releaseDeletes.countDown();
+		executor.shutdown(1000);
+	}
+
+
+	private void awaitNotPending(final BlockRecord blockRecord) throws InterruptedException {
+		final long deadline = System.nanoTime() + 5_000_000_000L;
+		while (asyncDataStore.getPendingStatus(blockRecord) != null && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+
+	@Test
+	@DisplayName("the most recent write to a block stays pending until it completes, even when an earlier write completes.")
+	void PendingOverlayOrdered() throws Exception {
+
+		asyncDataStore.open();
+
+		final CompletableFuture<Integer> insert = asyncDataStore.insertRecords(List.of(blockA, blockB));
+		final CompletableFuture<Integer> delete = asyncDataStore.deleteRecords(List.of(blockA));
+
+		Assertions.assertEquals(CacheStatus.PENDING_DELETE, asyncDataStore.getPendingStatus(blockA));
+		Assertions.assertEquals(CacheStatus.PENDING_INSERT, asyncDataStore.getPendingStatus(blockB));
+
+		// the insert completes while the delete is blocked
+		dataStore.releaseInserts.countDown();
+		Assertions.assertEquals(2, insert.get(5, TimeUnit.SECONDS));
+		Assertions.assertTrue(dataStore.deleteEntered.await(5, TimeUnit.SECONDS));
+		awaitNotPending(blockB);
+
+		Assertions.assertNull(asyncDataStore.getPendingStatus(blockB));
+		Assertions.assertEquals(CacheStatus.PENDING_DELETE, asyncDataStore.getPendingStatus(blockA));
+
+		dataStore.releaseDeletes.countDown();
+		Assertions.assertEquals(1, delete.get(5, TimeUnit.SECONDS));
+		awaitNotPending(blockA);
+		Assertions.assertNull(asyncDataStore.getPendingStatus(blockA));
+		Assertions.assertEquals(List.of("insert 2", "delete 1"), dataStore.operations);
+	}
+
+
+	@Test
+	@DisplayName("operations submitted while the datastore is starting are held, and run in order when it opens.")
+	void HeldOperationsReplayed() throws Exception {
+
+		dataStore.releaseInserts.countDown();
+		dataStore.releaseDeletes.countDown();
+
+		final CompletableFuture<Integer> insert = asyncDataStore.insertRecords(List.of(blockA));
+		final CompletableFuture<Collection<BlockRecord>> read = asyncDataStore.selectRecordsInChunk(null);
+		final CompletableFuture<Integer> delete = asyncDataStore.deleteRecords(List.of(blockA, blockB));
+
+		Thread.sleep(50);
+		Assertions.assertTrue(dataStore.operations.isEmpty());
+		Assertions.assertFalse(insert.isDone());
+		Assertions.assertFalse(read.isDone());
+		Assertions.assertEquals(CacheStatus.PENDING_DELETE, asyncDataStore.getPendingStatus(blockA));
+
+		asyncDataStore.open();
+
+		Assertions.assertEquals(1, insert.get(5, TimeUnit.SECONDS));
+		Assertions.assertEquals(2, delete.get(5, TimeUnit.SECONDS));
+		Assertions.assertTrue(read.get(5, TimeUnit.SECONDS).isEmpty());
+		Assertions.assertTrue(asyncDataStore.awaitWrites(5000));
+		Assertions.assertEquals(List.of("insert 1", "delete 2"),
+				dataStore.operations.stream()
+						.filter(operation -> !operation.startsWith("read"))
+						.collect(Collectors.toList()));
+	}
+
+
+	@Test
+	@DisplayName("operations submitted after the datastore is closed complete exceptionally and leave no pending status.")
+	void RejectedAfterClose() throws Exception {
+
+		asyncDataStore.open();
+		executor.shutdown(1000);
+
+		final CompletableFuture<Integer> insert = asyncDataStore.insertRecords(List.of(blockA));
+		final CompletableFuture<Collection<BlockRecord>> read = asyncDataStore.selectRecordsInChunk(null);
+
+		final ExecutionException insertError = Assertions.assertThrows(ExecutionException.class,
+				() -> insert.get(5, TimeUnit.SECONDS));
+		Assertions.assertTrue(insertError.getCause() instanceof RejectedExecutionException);
+		final ExecutionException readError = Assertions.assertThrows(ExecutionException.class,
+				() -> read.get(5, TimeUnit.SECONDS));
+		Assertions.assertTrue(readError.getCause() instanceof RejectedExecutionException);
+
+		awaitNotPending(blockA);
+		Assertions.assertNull(asyncDataStore.getPendingStatus(blockA));
+		Assertions.assertTrue(asyncDataStore.awaitWrites(5000));
+		Assertions.assertTrue(dataStore.operations.isEmpty());
+	}
+
+
+	/**
+	 * Datastore recording the operations run on it; inserts and deletes wait until released
+	 */
+	private static final class RecordingDataStore implements DataStore {
+
+		private final StorageExecutor executor;
+		private final List<String> operations = Collections.synchronizedList(new ArrayList<>());
+		private final CountDownLatch deleteEntered = new CountDownLatch(1);
+		private final CountDownLatch releaseInserts = new CountDownLatch(1);
+		private final CountDownLatch releaseDeletes = new CountDownLatch(1);
+
+		private RecordingDataStore(final StorageExecutor executor) {
+			this.executor = executor;
+		}
+
+		@Override
+		public void initialize() { }
+
+		@Override
+		public void initializeForConversion() { }
+
+		@Override
+		public boolean isInitialized() {
+			return true;
+		}
+
+		@Override
+		public DataStoreType getType() {
+			return DataStoreType.SQLITE;
+		}
+
+		@Override
+		public void close() { }
+
+		@Override
+		public boolean sync() {
+			return true;
+		}
+
+		@Override
+		public StorageExecutor getExecutor() {
+			return executor;
+		}
+
+		@Override
+		public boolean delete() {
+			return false;
+		}
+
+		@Override
+		public boolean isProtected(final Location location) {
+			return false;
+		}
+
+		@Override
+		public int insertRecords(final Collection<BlockRecord> blockRecords) {
+			await(releaseInserts);
+			operations.add("insert " + blockRecords.size());
+			return blockRecords.size();
+		}
+
+		@Override
+		public int deleteRecords(final Collection<BlockRecord> blockRecords) {
+			deleteEntered.countDown();
+			await(releaseDeletes);
+			operations.add("delete " + blockRecords.size());
+			return blockRecords.size();
+		}
+
+		private void await(final CountDownLatch latch) {
+			try {
+				latch.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public Collection<BlockRecord> selectAllRecords() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public RecordCursor openCursor(final String position) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int getTotalBlocks() {
+			return 0;
+		}
+
+		@Override
+		public Map<UUID, Integer> getWorldBlockTotals() {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public Collection<BlockRecord> selectRecordsInChunk(final Chunk chunk) {
+			operations.add("read");
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Collection<Location> selectNearbyBlocks(final Location location, final int distance) {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Collection<Location> selectNearbyBlocks(final Location location, final int distance,
+		                                               final int minY, final int maxY) {
+			return Collections.emptyList();
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+package com.winterhavenmc.roadblock.storage;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+
+public class BlockRecordCacheTests {
+
+	private final UUID worldUid = new UUID(1, 2);
+	private final UUID otherWorldUid = new UUID(3, 4);
+
+	private final BlockRecordCache blockCache = new BlockRecordCache();
+
+
+	@Test
+	@DisplayName("packed block keys round trip coordinates at the limits of the world border and build height.")
+	void PackedKeysRoundTrip() {
+
+		final int[][] coordinates = {
+				{ 0, 0, 0 },
+				{ -1, -1, -1 },
+				{ 30_000_000, 2031, -30_000_000 },
+				{ -30_000_000, -2032, 30_000_000 },
+				{ 15, -64, -16 },
+		};
+
+		for (int[] block : coordinates) {
+			final long key = PackedCoordinates.packBlock(block[0], block[1], block[2]);
+			Assertions.assertEquals(block[0], PackedCoordinates.blockX(key));
+			Assertions.assertEquals(block[1], PackedCoordinates.blockY(key));
+			Assertions.assertEquals(block[2], PackedCoordinates.blockZ(key));
+		}
+
+		final long chunkKey = PackedCoordinates.packChunk(-1_875_000, 1_875_000);
+		Assertions.assertEquals(-1_875_000, PackedCoordinates.chunkX(chunkKey));
+		Assertions.assertEquals(1_875_000, PackedCoordinates.chunkZ(chunkKey));
+	}
+
+
+	@Test
+	@DisplayName("blocks differing in one coordinate or in world are cached separately.")
+	void KeysDistinct() {
+
+		final BlockRecord block = new BlockRecord("world", worldUid, -1, 64, -1, -1, -1);
+		final BlockRecord above = new BlockRecord("world", worldUid, -1, 65, -1, -1, -1);
+		final BlockRecord east = new BlockRecord("world", worldUid, 0, 64, -1, 0, -1);
+		final BlockRecord otherWorld = new BlockRecord("other", otherWorldUid, -1, 64, -1, -1, -1);
+
+		Assertions.assertNull(blockCache.put(block, CacheStatus.PENDING_INSERT));
+		Assertions.assertNull(blockCache.put(above, CacheStatus.PENDING_DELETE));
+		Assertions.assertNull(blockCache.put(east, CacheStatus.PENDING_DELETE));
+
+		Assertions.assertEquals(CacheStatus.PENDING_INSERT, blockCache.get(block));
+		Assertions.assertEquals(CacheStatus.PENDING_DELETE, blockCache.get(above));
+		Assertions.assertEquals(CacheStatus.PENDING_DELETE, blockCache.get(east));
+		Assertions.assertNull(blockCache.get(otherWorld));
+		Assertions.assertEquals(CacheStatus.PENDING_INSERT.getCode(), blockCache.getCode(worldUid, -1, 64, -1));
+		Assertions.assertEquals(LongByteMap.EMPTY, blockCache.getCode(otherWorldUid, -1, 64, -1));
+
+		Assertions.assertEquals(CacheStatus.PENDING_INSERT, blockCache.put(block, CacheStatus.PENDING_DELETE));
+		Assertions.assertEquals(CacheStatus.PENDING_DELETE, blockCache.remove(block));
+		Assertions.assertFalse(blockCache.containsKey(block));
+		Assertions.assertTrue(blockCache.containsKey(above));
+	}
+
+
+	@Test
+	@DisplayName("blocks are bucketed by chunk, so a chunk is visited and removed without touching its neighbours.")
+	void ChunkBuckets() {
+
+		final BlockRecord first = new BlockRecord("world", worldUid, -16, 10, 31, -1, 1);
+		final BlockRecord second = new BlockRecord("world", worldUid, -1, -64, 16, -1, 1);
+		final BlockRecord neighbour = new BlockRecord("world", worldUid, 0, 10, 16, 0, 1);
+
+		blockCache.put(first, CacheStatus.PENDING_INSERT);
+		blockCache.put(second, CacheStatus.PENDING_DELETE);
+		blockCache.put(neighbour, CacheStatus.PENDING_INSERT);
+
+		final List<Long> visited = new ArrayList<>();
+		blockCache.forEachInChunk(worldUid, -1, 1, (key, code) -> visited.add(key));
+		Assertions.assertEquals(2, visited.size());
+		Assertions.assertTrue(visited.contains(PackedCoordinates.packBlock(-16, 10, 31)));
+		Assertions.assertTrue(visited.contains(PackedCoordinates.packBlock(-1, -64, 16)));
+
+		Assertions.assertEquals(2, blockCache.removeChunk(worldUid, -1, 1));
+		Assertions.assertNull(blockCache.get(first));
+		Assertions.assertNull(blockCache.get(second));
+		Assertions.assertEquals(CacheStatus.PENDING_INSERT, blockCache.get(neighbour));
+		Assertions.assertEquals(0, blockCache.removeChunk(worldUid, -1, 1));
+	}
+
+}
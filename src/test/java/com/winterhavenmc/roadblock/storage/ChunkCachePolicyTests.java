@@ -0,0 +1,92 @@
+package com.winterhavenmc.roadblock.storage;
+
+import org.junit.jupiter.api.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+
+public class ChunkCachePolicyTests {
+
+	private final UUID worldUid = new UUID(1, 2);
+	private final Set<Long> evicted = new HashSet<>();
+
+	private final ChunkCachePolicy policy = new ChunkCachePolicy(100 * (100 + ChunkCachePolicy.ENTRY_OVERHEAD),
+			(worldUid, chunkX, chunkZ) -> evicted.add(PackedCoordinates.packChunk(chunkX, chunkZ)));
+
+
+	@Test
+	@DisplayName("cache stays within budget.")
+	void WithinBudget() {
+		for (int x = 0; x < 1000; x++) {
+			policy.add(worldUid, x, 0, 100);
+		}
+		Assertions.assertTrue(policy.getWeightedSize() <= 100 * (100 + ChunkCachePolicy.ENTRY_OVERHEAD));
+		Assertions.assertEquals(900, policy.getEvictionCount());
+	}
+
+
+	@Test
+	@DisplayName("frequently accessed chunks survive a scan of chunks accessed rarely.")
+	void FrequentChunksSurviveScan() {
+
+		for (int z = 0; z < 10; z++) {
+			policy.add(worldUid, 0, z, 100);
+			for (int i = 0; i < 5; i++) {
+				policy.recordHit(worldUid, 0, z);
+			}
+		}
+
+		// frequent chunks are still accessed while other chunks pass through
+		for (int x = 1; x < 1000; x++) {
+			policy.add(worldUid, x, 0, 100);
+			policy.recordHit(worldUid, x, 0);
+			policy.recordHit(worldUid, 0, x % 10);
+		}
+
+		for (int z = 0; z < 10; z++) {
+			Assertions.assertFalse(evicted.contains(PackedCoordinates.packChunk(0, z)));
+		}
+	}
+
+
+	@Test
+	@DisplayName("hits recorded concurrently with additions keep the cache within budget.")
+	void ConcurrentHits() throws InterruptedException {
+
+		final Thread[] readers = new Thread[4];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread(() -> {
+				for (int n = 0; n < 100_000; n++) {
+					policy.recordHit(worldUid, n % 1000, 0);
+				}
+			});
+			readers[i].start();
+		}
+		for (int x = 0; x < 1000; x++) {
+			policy.add(worldUid, x, 0, 100);
+		}
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		// a policy change applies buffered hits
+		policy.remove(worldUid, -1, 0);
+
+		Assertions.assertTrue(policy.getWeightedSize() <= 100 * (100 + ChunkCachePolicy.ENTRY_OVERHEAD));
+		Assertions.assertEquals(900, policy.getEvictionCount());
+		Assertions.assertTrue(policy.getStatistics().startsWith("chunk cache: 400000 hits"));
+	}
+
+
+	@Test
+	@DisplayName("removed chunks are not counted as evictions.")
+	void RemoveIsNotEviction() {
+		policy.add(worldUid, 0, 0, 100);
+		policy.remove(worldUid, 0, 0);
+		Assertions.assertEquals(0, policy.getWeightedSize());
+		Assertions.assertEquals(0, policy.getEvictionCount());
+		Assertions.assertTrue(evicted.isEmpty());
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.winterhavenmc.roadblock.storage;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+public class ChunkEvictionQueueTests {
+
+	private final List<Integer> evicted = new ArrayList<>();
+
+
+	@Test
+	@DisplayName("an exhausted budget still evicts one chunk per call, in the order chunks were queued.")
+	void OneChunkPerSpentBudget() {
+
+		final ChunkEvictionQueue queue = new ChunkEvictionQueue((world, chunkX, chunkZ) -> evicted.add(chunkX));
+		for (int chunkX = 0; chunkX < 3; chunkX++) {
+			queue.add(null, chunkX, 0);
+		}
+
+		Assertions.assertEquals(1, queue.evict(0));
+		Assertions.assertEquals(1, queue.evict(-1));
+		Assertions.assertEquals(1, queue.size());
+		Assertions.assertEquals(List.of(0, 1), evicted);
+
+		Assertions.assertEquals(1, queue.evict(0));
+		Assertions.assertEquals(0, queue.evict(0));
+		Assertions.assertEquals(List.of(0, 1, 2), evicted);
+	}
+
+
+	@Test
+	@DisplayName("eviction stops once slow evictions spend the tick budget, leaving the rest queued.")
+	void StopsWhenBudgetSpent() {
+
+		final ChunkEvictionQueue queue = new ChunkEvictionQueue((world, chunkX, chunkZ) -> {
+			evicted.add(chunkX);
+			final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2);
+			while (System.nanoTime() < end) {
+				Thread.onSpinWait();
+			}
+		});
+		for (int chunkX = 0; chunkX < 10; chunkX++) {
+			queue.add(null, chunkX, 0);
+		}
+
+		// each eviction takes at least 2 ms, so a 3 ms budget allows at most two
+		final int count = queue.evict(TimeUnit.MILLISECONDS.toNanos(3));
+		Assertions.assertTrue(count >= 1 && count <= 2);
+		Assertions.assertEquals(10 - count, queue.size());
+
+		Assertions.assertEquals(10 - count, queue.evictAll());
+		Assertions.assertEquals(0, queue.size());
+		Assertions.assertEquals(10, evicted.size());
+	}
+
+}
@@ -0,0 +1,151 @@
+package com.winterhavenmc.roadblock.storage;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+public class ChunkProtectionTests {
+
+	private static Set<List<Integer>> positions(final ChunkProtection chunkProtection) {
+		final Set<List<Integer>> positions = new HashSet<>();
+		chunkProtection.forEach((x, y, z) -> positions.add(List.of(x, y, z)));
+		return positions;
+	}
+
+
+	@Test
+	@DisplayName("added blocks are contained until removed.")
+	void AddContainsRemove() {
+		final ChunkProtection chunkProtection = new ChunkProtection(0, 0);
+
+		Assertions.assertTrue(chunkProtection.isEmpty());
+		Assertions.assertTrue(chunkProtection.add(3, 64, 5));
+		Assertions.assertFalse(chunkProtection.add(3, 64, 5));
+		Assertions.assertTrue(chunkProtection.contains(3, 64, 5));
+		Assertions.assertFalse(chunkProtection.contains(5, 64, 3));
+		Assertions.assertFalse(chunkProtection.contains(3, 80, 5));
+		Assertions.assertEquals(1, chunkProtection.size());
+
+		Assertions.assertTrue(chunkProtection.remove(3, 64, 5));
+		Assertions.assertFalse(chunkProtection.remove(3, 64, 5));
+		Assertions.assertFalse(chunkProtection.contains(3, 64, 5));
+		Assertions.assertTrue(chunkProtection.isEmpty());
+	}
+
+
+	@Test
+	@DisplayName("blocks in the lowest and highest sections are kept apart by section.")
+	void SectionAndYPacking() {
+		final ChunkProtection chunkProtection = new ChunkProtection(0, 0);
+
+		chunkProtection.add(0, -64, 0);
+		chunkProtection.add(0, -1, 0);
+		chunkProtection.add(0, 0, 0);
+		chunkProtection.add(0, 15, 0);
+		chunkProtection.add(0, 319, 0);
+
+		// same local position in other sections
+		Assertions.assertFalse(chunkProtection.contains(0, -48, 0));
+		Assertions.assertFalse(chunkProtection.contains(0, 16, 0));
+		Assertions.assertFalse(chunkProtection.contains(0, 303, 0));
+
+		Assertions.assertEquals(5, chunkProtection.size());
+		Assertions.assertEquals(Set.of(List.of(0, -64, 0), List.of(0, -1, 0), List.of(0, 0, 0),
+				List.of(0, 15, 0), List.of(0, 319, 0)), positions(chunkProtection));
+	}
+
+
+	@Test
+	@DisplayName("chunk border coordinates map to their own local positions in positive and negative chunks.")
+	void ChunkBorders() {
+		final ChunkProtection positive = new ChunkProtection(1, 1);
+		positive.add(16, 70, 16);
+		positive.add(31, 70, 31);
+		positive.add(16, 70, 31);
+		Assertions.assertEquals(Set.of(List.of(16, 70, 16), List.of(31, 70, 31), List.of(16, 70, 31)), positions(positive));
+		Assertions.assertFalse(positive.contains(31, 70, 16));
+
+		final ChunkProtection negative = new ChunkProtection(-1, -1);
+		negative.add(-1, 70, -1);
+		negative.add(-16, 70, -16);
+		negative.add(-16, -64, -1);
+		Assertions.assertTrue(negative.contains(-1, 70, -1));
+		Assertions.assertTrue(negative.contains(-16, 70, -16));
+		Assertions.assertFalse(negative.contains(-1, 70, -16));
+		Assertions.assertEquals(Set.of(List.of(-1, 70, -1), List.of(-16, 70, -16), List.of(-16, -64, -1)), positions(negative));
+	}
+
+
+	@Test
+	@DisplayName("a full section is promoted to a bitmap and keeps every block through removal.")
+	void BitmapEncoding() throws IOException {
+		final ChunkProtection chunkProtection = new ChunkProtection(-2, 3);
+
+		for (int y = -16; y < 0; y++) {
+			for (int z = 48; z < 64; z++) {
+				for (int x = -32; x < -16; x++) {
+					Assertions.assertTrue(chunkProtection.add(x, y, z));
+				}
+			}
+		}
+		Assertions.assertEquals(4096, chunkProtection.size());
+		Assertions.assertTrue(chunkProtection.contains(-32, -16, 48));
+		Assertions.assertTrue(chunkProtection.contains(-17, -1, 63));
+		Assertions.assertEquals(4096, positions(chunkProtection).size());
+
+		// bitmap and sparse sections round trip through the serialized form
+		chunkProtection.add(-20, 100, 50);
+		ChunkProtection copy = ChunkProtection.fromBytes(-2, 3, chunkProtection.toBytes());
+		Assertions.assertEquals(positions(chunkProtection), positions(copy));
+
+		// shrink the bitmap below the sparse limit
+		for (int y = -16; y < 0; y++) {
+			for (int z = 48; z < 64; z++) {
+				for (int x = -32; x < -16; x++) {
+					if (!(y == -1 && z == 63)) {
+						Assertions.assertTrue(chunkProtection.remove(x, y, z));
+					}
+				}
+			}
+		}
+		Assertions.assertEquals(17, chunkProtection.size());
+		Assertions.assertFalse(chunkProtection.contains(-32, -16, 48));
+		Assertions.assertTrue(chunkProtection.contains(-17, -1, 63));
+
+		copy = ChunkProtection.fromBytes(-2, 3, chunkProtection.toBytes());
+		Assertions.assertEquals(positions(chunkProtection), positions(copy));
+	}
+
+
+	@Test
+	@DisplayName("estimated size grows with sparse blocks and is capped per section by the bitmap.")
+	void EstimateSize() {
+		final ChunkProtection chunkProtection = new ChunkProtection(0, 0);
+		final long empty = chunkProtection.estimateSize();
+
+		chunkProtection.add(0, 0, 0);
+		final long one = chunkProtection.estimateSize();
+		Assertions.assertTrue(one > empty);
+
+		chunkProtection.add(1, 0, 0);
+		Assertions.assertEquals(one + 2, chunkProtection.estimateSize());
+
+		for (int i = 0; i < 4096; i++) {
+			chunkProtection.add(i & 15, i >> 8, (i >> 4) & 15);
+		}
+		final long full = chunkProtection.estimateSize();
+		Assertions.assertTrue(full < one + 2 * 4096);
+		Assertions.assertTrue(full >= empty + 512);
+
+		chunkProtection.add(0, 16, 0);
+		Assertions.assertEquals(full + one - empty, chunkProtection.estimateSize());
+
+		chunkProtection.remove(0, 16, 0);
+		Assertions.assertEquals(full, chunkProtection.estimateSize());
+	}
+
+}
@@ -0,0 +1,94 @@
+package com.winterhavenmc.roadblock.storage;
+
+import org.junit.jupiter.api.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+public class ChunkSetTests {
+
+	private final UUID worldUid = new UUID(1, 2);
+	private final UUID otherWorldUid = new UUID(3, 4);
+
+	private final ChunkSet chunkSet = new ChunkSet();
+
+
+	@Test
+	@DisplayName("chunks are keyed by world and both coordinates, including negative coordinates.")
+	void ChunksDistinct() {
+
+		chunkSet.add(worldUid, -1, 0);
+		chunkSet.add(worldUid, 0, -1);
+		chunkSet.add(otherWorldUid, -1_875_000, 1_875_000);
+
+		Assertions.assertTrue(chunkSet.contains(worldUid, -1, 0));
+		Assertions.assertTrue(chunkSet.contains(worldUid, 0, -1));
+		Assertions.assertFalse(chunkSet.contains(worldUid, 0, 0));
+		Assertions.assertFalse(chunkSet.contains(worldUid, -1, -1));
+		Assertions.assertFalse(chunkSet.contains(otherWorldUid, -1, 0));
+		Assertions.assertTrue(chunkSet.contains(otherWorldUid, -1_875_000, 1_875_000));
+
+		chunkSet.remove(worldUid, -1, 0);
+		chunkSet.remove(new UUID(5, 6), 0, -1);
+		Assertions.assertFalse(chunkSet.contains(worldUid, -1, 0));
+		Assertions.assertTrue(chunkSet.contains(worldUid, 0, -1));
+	}
+
+
+	@Test
+	@DisplayName("forEach visits every chunk once with its world and coordinates.")
+	void ForEachVisitsChunks() {
+
+		final Set<String> expected = new HashSet<>();
+		for (int chunkX = -20; chunkX < 20; chunkX++) {
+			chunkSet.add(worldUid, chunkX, -chunkX);
+			expected.add(worldUid + " " + chunkX + " " + -chunkX);
+		}
+		chunkSet.add(otherWorldUid, 7, 7);
+		expected.add(otherWorldUid + " 7 7");
+
+		final Set<String> visited = new HashSet<>();
+		chunkSet.forEach((uid, chunkX, chunkZ) ->
+				Assertions.assertTrue(visited.add(uid + " " + chunkX + " " + chunkZ)));
+		Assertions.assertEquals(expected, visited);
+	}
+
+
+	@Test
+	@DisplayName("lookups from other threads see chunks that stay in the set while chunks are added and removed.")
+	void ConcurrentLookups() throws InterruptedException {
+
+		chunkSet.add(worldUid, 0, 0);
+
+		final AtomicBoolean stop = new AtomicBoolean();
+		final AtomicBoolean missed = new AtomicBoolean();
+		final CountDownLatch done = new CountDownLatch(2);
+		for (int i = 0; i < 2; i++) {
+			new Thread(() -> {
+				while (!stop.get()) {
+					if (!chunkSet.contains(worldUid, 0, 0)) {
+						missed.set(true);
+					}
+				}
+				done.countDown();
+			}).start();
+		}
+
+		for (int chunkX = 1; chunkX < 20_000; chunkX++) {
+			chunkSet.add(worldUid, chunkX, chunkX);
+			if (chunkX % 3 == 0) {
+				chunkSet.remove(worldUid, chunkX - 1, chunkX - 1);
+			}
+		}
+		stop.set(true);
+
+		Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+		Assertions.assertFalse(missed.get());
+	}
+
+}
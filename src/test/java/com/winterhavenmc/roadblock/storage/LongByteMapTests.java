@@ -0,0 +1,92 @@
+package com.winterhavenmc.roadblock.storage;
+
+import org.junit.jupiter.api.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+
+public class LongByteMapTests {
+
+	private final LongByteMap map = new LongByteMap();
+
+
+	@Test
+	@DisplayName("put returns the previous value, and get and remove find keys after the table grows.")
+	void PutGetRemove() {
+
+		Assertions.assertEquals(LongByteMap.EMPTY, map.put(42L, (byte) 1));
+		Assertions.assertEquals(1, map.put(42L, (byte) 2));
+		Assertions.assertEquals(2, map.get(42L));
+
+		for (long key = 0; key < 1000; key++) {
+			map.put(key << 20, (byte) 3);
+		}
+		Assertions.assertEquals(1001, map.size());
+		Assertions.assertEquals(2, map.get(42L));
+		Assertions.assertEquals(3, map.get(999L << 20));
+
+		Assertions.assertEquals(2, map.remove(42L));
+		Assertions.assertEquals(LongByteMap.EMPTY, map.remove(42L));
+		Assertions.assertEquals(LongByteMap.EMPTY, map.get(42L));
+		Assertions.assertEquals(1000, map.size());
+	}
+
+
+	@Test
+	@DisplayName("the reserved empty value cannot be stored.")
+	void EmptyValueRejected() {
+		Assertions.assertThrows(IllegalArgumentException.class, () -> map.put(1L, LongByteMap.EMPTY));
+	}
+
+
+	@Test
+	@DisplayName("removing keys keeps colliding keys reachable, matching a reference map.")
+	void RemoveKeepsProbeSequences() {
+
+		final Map<Long, Byte> reference = new HashMap<>();
+		final Random random = new Random(1);
+
+		// a narrow key range forces collisions and wrapped probe sequences
+		for (int i = 0; i < 20_000; i++) {
+			final long key = random.nextInt(512) * 64L;
+			if (random.nextInt(3) == 0) {
+				final Byte previous = reference.remove(key);
+				Assertions.assertEquals(previous == null ? LongByteMap.EMPTY : previous, map.remove(key));
+			}
+			else {
+				final byte value = (byte) (random.nextInt(127) + 1);
+				final Byte previous = reference.put(key, value);
+				Assertions.assertEquals(previous == null ? LongByteMap.EMPTY : previous, map.put(key, value));
+			}
+		}
+
+		Assertions.assertEquals(reference.size(), map.size());
+		for (long key = 0; key < 512 * 64L; key += 64) {
+			Assertions.assertEquals(reference.getOrDefault(key, LongByteMap.EMPTY), map.get(key));
+		}
+	}
+
+
+	@Test
+	@DisplayName("removeIf removes every matching key, and forEach visits the remaining entries once.")
+	void RemoveIfAndForEach() {
+
+		for (long key = -500; key < 500; key++) {
+			map.put(key, (byte) (key & 1 | 2));
+		}
+
+		Assertions.assertEquals(500, map.removeIf(key -> (key & 1) == 0));
+		Assertions.assertEquals(500, map.size());
+
+		final Map<Long, Byte> visited = new HashMap<>();
+		map.forEach((key, value) -> Assertions.assertNull(visited.put(key, value)));
+		Assertions.assertEquals(500, visited.size());
+		visited.forEach((key, value) -> {
+			Assertions.assertEquals(1, key & 1);
+			Assertions.assertEquals((byte) 3, value);
+		});
+	}
+
+}
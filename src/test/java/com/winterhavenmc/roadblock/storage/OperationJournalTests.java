@@ -0,0 +1,98 @@
+package com.winterhavenmc.roadblock.storage;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+
+public class OperationJournalTests {
+
+	@TempDir
+	File directory;
+
+	private final UUID worldUid = new UUID(1, 2);
+
+
+	private BlockRecord blockRecord(final int x, final int y, final int z) {
+		return new BlockRecord("world", worldUid, x, y, z, x >> 4, z >> 4);
+	}
+
+
+	@Test
+	@DisplayName("operations are replayed in order across rotated segments, stopping at an incomplete record.")
+	void JournalReplaysSegmentsInOrder() throws IOException {
+
+		final OperationJournal journal = new OperationJournal(new File(directory, "roadblocks.db"), false);
+		journal.open();
+		journal.append(List.of(blockRecord(1, 64, 1), blockRecord(-2, -10, 3)), CacheStatus.PENDING_INSERT);
+
+		final List<File> rotated = journal.rotate();
+		Assertions.assertEquals(1, rotated.size());
+		Assertions.assertTrue(journal.isEmpty());
+
+		journal.append(Collections.singletonList(blockRecord(1, 64, 1)), CacheStatus.PENDING_DELETE);
+		journal.close();
+
+		// simulate a crash while appending by truncating the last record
+		final List<File> segments = journal.getSegments();
+		Assertions.assertEquals(2, segments.size());
+		journal.open();
+		journal.append(Collections.singletonList(blockRecord(5, 5, 5)), CacheStatus.PENDING_INSERT);
+		journal.close();
+		final File torn = journal.getSegments().get(2);
+		try (RandomAccessFile file = new RandomAccessFile(torn, "rw")) {
+			file.setLength(file.length() - 3);
+		}
+
+		final List<String> operations = new ArrayList<>();
+		final int count = OperationJournal.replay(journal.getSegments(),
+				(uid, x, y, z, status) -> operations.add(status + " " + x + "," + y + "," + z));
+
+		Assertions.assertEquals(3, count);
+		Assertions.assertEquals(List.of("PENDING_INSERT 1,64,1", "PENDING_INSERT -2,-10,3", "PENDING_DELETE 1,64,1"),
+				operations);
+
+		Assertions.assertTrue(OperationJournal.delete(journal.getSegments()));
+		Assertions.assertTrue(journal.getSegments().isEmpty());
+	}
+
+
+	@Test
+	@DisplayName("appends are forced to disk as a group by sync, or on every append if configured.")
+	void JournalSyncsAppends() throws IOException {
+
+		final OperationJournal grouped = new OperationJournal(new File(directory, "grouped.db"), false);
+		grouped.open();
+		Assertions.assertFalse(grouped.isSyncPending());
+
+		grouped.append(Collections.singletonList(blockRecord(1, 64, 1)), CacheStatus.PENDING_INSERT);
+		grouped.append(Collections.singletonList(blockRecord(2, 64, 2)), CacheStatus.PENDING_INSERT);
+		Assertions.assertTrue(grouped.isSyncPending());
+		Assertions.assertEquals(0, grouped.getSyncCount());
+
+		grouped.sync();
+		Assertions.assertFalse(grouped.isSyncPending());
+		Assertions.assertEquals(1, grouped.getSyncCount());
+
+		// nothing appended since the last sync
+		grouped.sync();
+		Assertions.assertEquals(1, grouped.getSyncCount());
+		grouped.close();
+
+		final OperationJournal eager = new OperationJournal(new File(directory, "eager.db"), true);
+		eager.open();
+		eager.append(Collections.singletonList(blockRecord(1, 64, 1)), CacheStatus.PENDING_INSERT);
+		eager.append(Collections.singletonList(blockRecord(2, 64, 2)), CacheStatus.PENDING_DELETE);
+		Assertions.assertFalse(eager.isSyncPending());
+		Assertions.assertEquals(2, eager.getSyncCount());
+		eager.close();
+	}
+
+}
@@ -0,0 +1,71 @@
+package com.winterhavenmc.roadblock.storage;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+
+public class ProtectionSnapshotTests {
+
+	@TempDir
+	File directory;
+
+
+	@Test
+	@DisplayName("snapshot restores protected blocks in every world and chunk.")
+	void SnapshotRoundTrip() throws IOException {
+
+		final UUID overworld = new UUID(1, 2);
+		final UUID nether = new UUID(3, 4);
+
+		final ProtectionIndex protectionIndex = new ProtectionIndex();
+		for (int y = -64; y < 320; y++) {
+			protectionIndex.add(overworld, 8, y, -8);
+		}
+		protectionIndex.add(overworld, -3000, 70, 4000);
+		protectionIndex.add(nether, 1, 2, 3);
+
+		final File file = new File(directory, "roadblocks.snapshot");
+		Assertions.assertEquals(3, ProtectionSnapshot.write(file, protectionIndex));
+		Assertions.assertFalse(new File(directory, "roadblocks.snapshot.tmp").exists());
+
+		final ProtectionIndex restored = new ProtectionIndex();
+		Assertions.assertEquals(3, ProtectionSnapshot.read(file, restored));
+
+		final int[] count = new int[1];
+		restored.forEachChunk((worldUid, chunkProtection) -> count[0] += chunkProtection.size());
+		Assertions.assertEquals(386, count[0]);
+		Assertions.assertTrue(restored.isProtected(overworld, 8, -64, -8));
+		Assertions.assertTrue(restored.isProtected(overworld, 8, 319, -8));
+		Assertions.assertTrue(restored.isProtected(overworld, -3000, 70, 4000));
+		Assertions.assertTrue(restored.isProtected(nether, 1, 2, 3));
+		Assertions.assertFalse(restored.isProtected(nether, 1, 2, 4));
+		Assertions.assertFalse(restored.isProtected(overworld, 1, 2, 3));
+	}
+
+
+	@Test
+	@DisplayName("snapshot stamped with another datastore generation is rejected.")
+	void SnapshotGenerationMismatch() throws IOException {
+
+		final UUID overworld = new UUID(1, 2);
+
+		final ProtectionIndex protectionIndex = new ProtectionIndex();
+		protectionIndex.add(overworld, 8, 64, -8);
+
+		final File file = new File(directory, "roadblocks.db.warm");
+		Assertions.assertEquals(1, ProtectionSnapshot.write(file, 7, protectionIndex));
+
+		final ProtectionIndex rejected = new ProtectionIndex();
+		Assertions.assertEquals(-1, ProtectionSnapshot.read(file, 8, rejected));
+		Assertions.assertEquals(0, rejected.getChunkCount());
+
+		final ProtectionIndex restored = new ProtectionIndex();
+		Assertions.assertEquals(1, ProtectionSnapshot.read(file, 7, restored));
+		Assertions.assertTrue(restored.isProtected(overworld, 8, 64, -8));
+	}
+
+}
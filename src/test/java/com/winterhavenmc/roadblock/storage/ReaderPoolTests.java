@@ -0,0 +1,122 @@
+package com.winterhavenmc.roadblock.storage;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+public class ReaderPoolTests {
+
+	@TempDir
+	File directory;
+
+	private Connection connection;
+	private Connection readerConnection;
+
+	@BeforeEach
+	public void setUp() throws SQLException {
+		final String url = "jdbc:sqlite:" + new File(directory, "roadblocks.db").getPath();
+		connection = DriverManager.getConnection(url);
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("PRAGMA journal_mode = WAL");
+			statement.executeUpdate(Queries.getQuery("CreateBlockTable"));
+		}
+		readerConnection = DriverManager.getConnection(url);
+	}
+
+	@AfterEach
+	public void tearDown() throws SQLException {
+		readerConnection.close();
+		connection.close();
+	}
+
+
+	@Test
+	@DisplayName("a reader connection is leased to one reader at a time and returned when the lease is closed.")
+	void LeaseHoldsReaderConnection() throws SQLException, InterruptedException {
+
+		final ReaderPool readers = new ReaderPool(List.of(readerConnection), new StatementRegistry(connection),
+				new ReentrantLock());
+		final AtomicBoolean leased = new AtomicBoolean();
+
+		final Thread reader = new Thread(() -> {
+			try (StatementRegistry.Lease lease = readers.acquire("SelectAllBlocks")) {
+				leased.set(lease.getStatement().getConnection() == readerConnection);
+			}
+			catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+
+		try (StatementRegistry.Lease lease = readers.acquire("CountAllBlocks")) {
+			Assertions.assertSame(readerConnection, lease.getStatement().getConnection());
+			reader.start();
+			while (reader.getState() != Thread.State.WAITING) {
+				Thread.onSpinWait();
+			}
+			Assertions.assertFalse(leased.get());
+		}
+
+		reader.join();
+		Assertions.assertTrue(leased.get());
+	}
+
+
+	@Test
+	@DisplayName("a pool without connections hands out writer statements.")
+	void EmptyPoolUsesWriter() throws SQLException {
+
+		final ReaderPool readers = new ReaderPool(Collections.emptyList(), new StatementRegistry(connection),
+				new ReentrantLock());
+		Assertions.assertEquals(0, readers.size());
+
+		try (StatementRegistry.Lease lease = readers.acquire("CountAllBlocks")) {
+			Assertions.assertSame(connection, lease.getStatement().getConnection());
+		}
+	}
+
+
+	@Test
+	@DisplayName("readers using writer statements wait for a batch being written.")
+	void FallbackWaitsForWriter() throws SQLException, InterruptedException {
+
+		final ReentrantLock writerLock = new ReentrantLock();
+		final ReaderPool readers = new ReaderPool(Collections.emptyList(), new StatementRegistry(connection), writerLock);
+		final AtomicBoolean leased = new AtomicBoolean();
+
+		final Thread reader = new Thread(() -> {
+			try (StatementRegistry.Lease ignored = readers.acquire("SelectBlocksInChunkColumns")) {
+				leased.set(true);
+			}
+			catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+
+		writerLock.lock();
+		try {
+			reader.start();
+			while (!writerLock.hasQueuedThread(reader)) {
+				Thread.onSpinWait();
+			}
+			Assertions.assertFalse(leased.get());
+		}
+		finally {
+			writerLock.unlock();
+		}
+
+		reader.join();
+		Assertions.assertTrue(leased.get());
+		Assertions.assertFalse(writerLock.isLocked());
+	}
+
+}
@@ -0,0 +1,65 @@
+package com.winterhavenmc.roadblock.storage;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class RegionFileTests {
+
+	@TempDir
+	File directory;
+
+
+	@Test
+	@DisplayName("region file is only created when a block is added.")
+	void RegionFileCreatedOnAdd() throws IOException {
+		final File file = new File(new File(directory, "world"), RegionFile.fileName(0, 0));
+		final RegionFile region = new RegionFile(file, 0, 0);
+
+		Assertions.assertFalse(region.contains(1, 64, 1));
+		Assertions.assertFalse(region.remove(1, 64, 1));
+		Assertions.assertFalse(file.exists(), "region file created by read.");
+
+		Assertions.assertTrue(region.add(1, 64, 1));
+		Assertions.assertFalse(region.add(1, 64, 1), "block added twice.");
+		Assertions.assertTrue(file.exists(), "region file not created by add.");
+		region.close();
+	}
+
+
+	@Test
+	@DisplayName("blocks in many sections and chunks persist after reopening.")
+	void RegionFilePersists() throws IOException {
+		final File file = new File(directory, RegionFile.fileName(-1, 0));
+
+		// region -1,0 spans chunks -32..-1 on x and 0..31 on z
+		final RegionFile region = new RegionFile(file, -1, 0);
+		for (int y = -64; y < 320; y += 16) {
+			Assertions.assertTrue(region.add(-1, y, 0));
+			Assertions.assertTrue(region.add(-512, y + 1, 511));
+		}
+		Assertions.assertTrue(region.remove(-1, -64, 0));
+		region.close();
+
+		final RegionFile reopened = new RegionFile(file, -1, 0);
+		Assertions.assertEquals(47, reopened.count());
+		Assertions.assertFalse(reopened.contains(-1, -64, 0));
+		Assertions.assertTrue(reopened.contains(-1, 304, 0));
+		Assertions.assertTrue(reopened.contains(-512, 305, 511));
+		Assertions.assertFalse(reopened.contains(-512, 304, 511));
+
+		// emptied section slot is reused
+		Assertions.assertTrue(reopened.add(-16, 400, 15));
+
+		final List<Integer> ys = new ArrayList<>();
+		reopened.forEachInChunk(-1, 0, 0, 100, (x, y, z) -> ys.add(y));
+		Assertions.assertEquals(List.of(0, 16, 32, 48, 64, 80, 96), ys);
+		reopened.close();
+	}
+
+}
@@ -0,0 +1,93 @@
+package com.winterhavenmc.roadblock.storage;
+
+import org.junit.jupiter.api.*;
+
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+
+public class ResidentIndexLoaderTests {
+
+	private final UUID overworld = new UUID(1, 2);
+	private final UUID nether = new UUID(3, 4);
+
+	private final ProtectionIndex stored = new ProtectionIndex();
+	private final ChunkSet storedChunks = new ChunkSet();
+
+
+	@BeforeEach
+	void setUp() {
+		for (int chunkX = -40; chunkX < 40; chunkX++) {
+			for (int y = 0; y < 4; y++) {
+				store(overworld, chunkX * 16, y, chunkX * 16 + 1);
+			}
+		}
+		store(nether, 1000, 64, -1000);
+	}
+
+
+	private void store(final UUID worldUid, final int x, final int y, final int z) {
+		stored.add(worldUid, x, y, z);
+		storedChunks.add(worldUid, x >> 4, z >> 4);
+	}
+
+
+	private void read(final UUID worldUid, final int minChunkX, final int maxChunkX,
+	                  final Consumer<ChunkProtection> action) {
+		stored.forEachChunk((uid, chunkProtection) -> {
+			if (uid.equals(worldUid)
+					&& chunkProtection.getChunkX() >= minChunkX && chunkProtection.getChunkX() <= maxChunkX) {
+				action.accept(chunkProtection);
+			}
+		});
+	}
+
+
+	@Test
+	@DisplayName("loader reads every stored chunk once across region columns.")
+	void LoadsEveryChunk() throws SQLException {
+
+		final ProtectionIndex protectionIndex = new ProtectionIndex();
+		final ResidentIndexLoader.Result result =
+				new ResidentIndexLoader(this::read, 4, Long.MAX_VALUE).load(storedChunks, protectionIndex);
+
+		Assertions.assertTrue(result.complete);
+		Assertions.assertEquals(81, result.chunks);
+		Assertions.assertEquals(321, result.blocks);
+		Assertions.assertTrue(result.bytes > 0);
+		Assertions.assertEquals(81, protectionIndex.getChunkCount());
+		Assertions.assertTrue(protectionIndex.isProtected(overworld, -640, 3, -639));
+		Assertions.assertTrue(protectionIndex.isProtected(overworld, 624, 0, 625));
+		Assertions.assertTrue(protectionIndex.isProtected(nether, 1000, 64, -1000));
+		Assertions.assertFalse(protectionIndex.isProtected(nether, 1000, 65, -1000));
+	}
+
+
+	@Test
+	@DisplayName("loader exceeding its memory limit leaves the index unchanged.")
+	void MemoryLimitExceeded() throws SQLException {
+
+		final ProtectionIndex protectionIndex = new ProtectionIndex();
+		final ResidentIndexLoader.Result result =
+				new ResidentIndexLoader(this::read, 4, 1024).load(storedChunks, protectionIndex);
+
+		Assertions.assertFalse(result.complete);
+		Assertions.assertEquals(0, protectionIndex.getChunkCount());
+	}
+
+
+	@Test
+	@DisplayName("loader passes on read errors and leaves the index unchanged.")
+	void ReadErrorPassedOn() {
+
+		final ProtectionIndex protectionIndex = new ProtectionIndex();
+		final ResidentIndexLoader loader = new ResidentIndexLoader((worldUid, minChunkX, maxChunkX, action) -> {
+			throw new SQLException("read failed");
+		}, 2, Long.MAX_VALUE);
+
+		Assertions.assertThrows(SQLException.class, () -> loader.load(storedChunks, protectionIndex));
+		Assertions.assertEquals(0, protectionIndex.getChunkCount());
+	}
+
+}
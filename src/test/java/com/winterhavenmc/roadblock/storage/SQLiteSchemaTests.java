@@ -0,0 +1,459 @@
+package com.winterhavenmc.roadblock.storage;
+
+import org.junit.jupiter.api.*;
+
+import java.sql.*;
+import java.util.*;
+
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class SQLiteSchemaTests {
+
+	private Connection connection;
+
+	@BeforeEach
+	public void setUp() throws SQLException {
+		connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+	}
+
+	@AfterEach
+	public void tearDown() throws SQLException {
+		connection.close();
+	}
+
+
+	/**
+	 * Get query plan details for a named query
+	 */
+	private List<String> queryPlan(final String queryName) throws SQLException {
+		final List<String> details = new ArrayList<>();
+		try (Statement statement = connection.createStatement();
+		     ResultSet rs = statement.executeQuery("EXPLAIN QUERY PLAN " + Queries.getQuery(queryName))) {
+			while (rs.next()) {
+				details.add(rs.getString("detail"));
+			}
+		}
+		return details;
+	}
+
+
+	private void assertPrimaryKeySearch(final String queryName, final String keyColumns) throws SQLException {
+		final List<String> details = queryPlan(queryName);
+		Assertions.assertFalse(details.isEmpty(), queryName + " has no query plan.");
+		for (String detail : details) {
+			Assertions.assertFalse(detail.startsWith("SCAN"), queryName + " scans table: " + detail);
+			Assertions.assertTrue(detail.contains("PRIMARY KEY (" + keyColumns),
+					queryName + " does not search primary key on " + keyColumns + ": " + detail);
+		}
+	}
+
+
+	@Nested
+	@DisplayName("Test schema v2 query plans.")
+	class QueryPlanTests {
+
+		@BeforeEach
+		void createSchema() throws SQLException {
+			SQLiteSchema.create(connection);
+		}
+
+		@Test
+		@DisplayName("chunk select searches primary key on world and chunk.")
+		void SelectBlocksInChunkUsesPrimaryKey() throws SQLException {
+			assertPrimaryKeySearch("SelectBlocksInChunk", "world_id=? AND chunk_key=?");
+		}
+
+		@Test
+		@DisplayName("nearby select searches primary key range on world and chunk.")
+		void SelectNearbyBlocksUsesPrimaryKeyRange() throws SQLException {
+			assertPrimaryKeySearch("SelectNearbyBlocks", "world_id=? AND chunk_key>? AND chunk_key<?");
+		}
+
+		@Test
+		@DisplayName("chunk column select searches primary key range without sorting.")
+		void SelectBlocksInChunkColumnsUsesPrimaryKeyRange() throws SQLException {
+			assertPrimaryKeySearch("SelectBlocksInChunkColumns", "world_id=? AND chunk_key>? AND chunk_key<?");
+		}
+
+		@Test
+		@DisplayName("delete searches full primary key.")
+		void DeleteBlockUsesPrimaryKey() throws SQLException {
+			assertPrimaryKeySearch("DeleteBlock", "world_id=? AND chunk_key=? AND x=? AND z=? AND y=?");
+		}
+	}
+
+
+	@Nested
+	@DisplayName("Test spatial index.")
+	class SpatialIndexTests {
+
+		@BeforeEach
+		void createSchema() throws SQLException {
+			SQLiteSchema.create(connection);
+		}
+
+		private int countRows(final String table) throws SQLException {
+			try (Statement statement = connection.createStatement();
+			     ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+				return rs.next() ? rs.getInt(1) : 0;
+			}
+		}
+
+		@Test
+		@DisplayName("spatial index is filled from existing blocks and kept in sync by triggers.")
+		void SpatialIndexFollowsBlocks() throws SQLException {
+
+			try (Statement statement = connection.createStatement()) {
+				statement.executeUpdate("INSERT INTO blocks VALUES (1, 0, 1, 1, 64)");
+				statement.executeUpdate("INSERT INTO blocks VALUES (1, 0, 2, 1, 64)");
+			}
+
+			Assertions.assertEquals(2, SQLiteSchema.createSpatialIndex(connection), "spatial index not filled.");
+			Assertions.assertEquals(-1, SQLiteSchema.createSpatialIndex(connection), "spatial index rebuilt.");
+
+			try (Statement statement = connection.createStatement()) {
+				statement.executeUpdate("INSERT INTO blocks VALUES (1, 0, 3, 1, 64)");
+				statement.executeUpdate("INSERT OR IGNORE INTO blocks VALUES (1, 0, 3, 1, 64)");
+				statement.executeUpdate("INSERT INTO blocks VALUES (2, 0, 1, 1, 64)");
+				statement.executeUpdate("DELETE FROM blocks WHERE world_id = 1 AND x = 1");
+			}
+			Assertions.assertEquals(3, countRows("blocks_rtree"), "spatial index out of sync with blocks.");
+
+			SQLiteSchema.dropSpatialIndex(connection);
+			try (Statement statement = connection.createStatement()) {
+				statement.executeUpdate("INSERT INTO blocks VALUES (1, 0, 4, 1, 64)");
+			}
+			Assertions.assertEquals(4, countRows("blocks"), "block insert failed after spatial index dropped.");
+		}
+
+		@Test
+		@DisplayName("nearby select uses spatial index constraints.")
+		void SelectNearbyBlocksRTreeUsesIndex() throws SQLException {
+			SQLiteSchema.createSpatialIndex(connection);
+			final List<String> details = queryPlan("SelectNearbyBlocksRTree");
+			Assertions.assertEquals(1, details.size());
+			Assertions.assertTrue(details.get(0).contains("VIRTUAL TABLE INDEX 2:"),
+					"spatial index not searched by constraint: " + details.get(0));
+		}
+	}
+
+
+	@Nested
+	@DisplayName("Test schema v1 and v2 migration.")
+	class MigrationTests {
+
+		@Test
+		@DisplayName("v1 records are migrated with ordered chunk keys.")
+		void MigrateVersion1() throws SQLException {
+
+			try (Statement statement = connection.createStatement()) {
+				statement.executeUpdate("CREATE TABLE blocks (worldname VARCHAR(255) NOT NULL, worlduidmsb BIGINT, "
+						+ "worlduidlsb BIGINT, x INT, y INT, z INT, chunk_x INT, chunk_z INT, "
+						+ "UNIQUE (worldname,worlduidmsb,worlduidlsb,x,y,z))");
+				statement.executeUpdate("CREATE INDEX chunk_coords ON blocks (chunk_x,chunk_z)");
+				statement.executeUpdate("INSERT INTO blocks VALUES ('world', 1, 2, 5, 64, -5, 0, -1)");
+				statement.executeUpdate("INSERT INTO blocks VALUES ('world', 1, 2, -17, -10, 33, -2, 2)");
+				statement.executeUpdate("INSERT INTO blocks VALUES ('world_nether', 3, 4, 0, 0, 0, 0, 0)");
+				statement.executeUpdate("INSERT INTO blocks VALUES ('orphan', NULL, NULL, 0, 0, 0, 0, 0)");
+				statement.executeUpdate("PRAGMA user_version = 1");
+			}
+
+			Assertions.assertEquals(3, SQLiteSchema.migrateVersion1(connection), "migrated record count is wrong.");
+			SQLiteSchema.migrateVersion2(connection, new SQLiteRowLayout());
+
+			try (Statement statement = connection.createStatement()) {
+
+				try (ResultSet rs = statement.executeQuery("PRAGMA user_version")) {
+					Assertions.assertTrue(rs.next());
+					Assertions.assertEquals(SQLiteSchema.VERSION, rs.getInt(1), "schema version not updated.");
+				}
+
+				try (ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM worlds")) {
+					Assertions.assertTrue(rs.next());
+					Assertions.assertEquals(2, rs.getInt(1), "world count is wrong.");
+				}
+
+				try (ResultSet rs = statement.executeQuery("SELECT block_count FROM worlds ORDER BY worlduidmsb")) {
+					Assertions.assertTrue(rs.next());
+					Assertions.assertEquals(2, rs.getInt(1), "world block count is wrong.");
+					Assertions.assertTrue(rs.next());
+					Assertions.assertEquals(1, rs.getInt(1), "world block count is wrong.");
+				}
+
+				try (ResultSet rs = statement.executeQuery("SELECT chunk_key FROM blocks WHERE x = -17")) {
+					Assertions.assertTrue(rs.next());
+					Assertions.assertEquals(PackedCoordinates.orderedChunkKey(-2, 2), rs.getLong(1),
+							"chunk key does not match ordered chunk key.");
+				}
+
+				try (ResultSet rs = statement.executeQuery("SELECT chunk_key FROM blocks WHERE x = 5")) {
+					Assertions.assertTrue(rs.next());
+					Assertions.assertEquals(PackedCoordinates.orderedChunkKey(0, -1), rs.getLong(1),
+							"chunk key does not match ordered chunk key.");
+				}
+			}
+
+			assertPrimaryKeySearch("SelectBlocksInChunk", "world_id=? AND chunk_key=?");
+		}
+	}
+
+
+	@Nested
+	@DisplayName("Test chunk blob layout.")
+	class ChunkLayoutTests {
+
+		private final SQLiteLayout layout = new SQLiteChunkLayout();
+		private final UUID worldUid = new UUID(1, 2);
+		private final Map<UUID, Integer> worldIds = Collections.singletonMap(worldUid, 1);
+		private StatementRegistry statements;
+
+		@BeforeEach
+		void createSchema() throws SQLException {
+			layout.createSchema(connection);
+			statements = new StatementRegistry(connection);
+		}
+
+		@AfterEach
+		void closeStatements() {
+			statements.close();
+		}
+
+		private List<WriteQueue.PendingWrite> writes(final CacheStatus status, final int... coordinates) {
+			final List<WriteQueue.PendingWrite> writes = new ArrayList<>();
+			for (int i = 0; i < coordinates.length; i += 3) {
+				final int x = coordinates[i];
+				final int z = coordinates[i + 2];
+				writes.add(new WriteQueue.PendingWrite(new BlockRecord("world", worldUid,
+						x, coordinates[i + 1], z, x >> 4, z >> 4), status));
+			}
+			return writes;
+		}
+
+		@Test
+		@DisplayName("written blocks are read back by chunk, area and count.")
+		void ChunkLayoutRoundTrip() throws SQLException {
+
+			Assertions.assertEquals(4, layout.write(statements::acquire,
+					writes(CacheStatus.PENDING_INSERT, 1, 64, 1, 15, -64, 15, -1, 300, -17, 40, 0, 0), worldIds));
+			Assertions.assertEquals(2, layout.write(statements::acquire,
+					writes(CacheStatus.PENDING_DELETE, 1, 64, 1, 40, 0, 0, 2, 2, 2), worldIds));
+
+			final ChunkProtection chunk = layout.selectChunk(statements::acquire, 1, 0, 0);
+			Assertions.assertEquals(1, chunk.size());
+			Assertions.assertTrue(chunk.contains(15, -64, 15));
+
+			final ChunkProtection other = layout.selectChunk(statements::acquire, 1, -1, -2);
+			Assertions.assertTrue(other.contains(-1, 300, -17), "block in negative chunk not stored.");
+
+			final List<Integer> nearby = new ArrayList<>();
+			layout.selectNearby(statements::acquire, 1, -5, 20, -20, 20, -64, 64, (x, y, z) -> nearby.add(x));
+			Assertions.assertEquals(Collections.singletonList(15), nearby, "nearby blocks are wrong.");
+
+			Assertions.assertEquals(2, layout.countBlocks(statements::acquire));
+
+			// emptied chunk rows are deleted
+			try (Statement statement = connection.createStatement();
+			     ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM chunks")) {
+				Assertions.assertTrue(rs.next());
+				Assertions.assertEquals(2, rs.getInt(1), "chunk row count is wrong.");
+			}
+		}
+
+		@Test
+		@DisplayName("dense chunk sections survive serialization.")
+		void DenseChunkRoundTrip() throws Exception {
+			final ChunkProtection chunk = new ChunkProtection(3, -4);
+			for (int x = 48; x < 64; x++) {
+				for (int z = -64; z < -48; z++) {
+					chunk.add(x, 70, z);
+					chunk.add(x, 71, z);
+				}
+			}
+			chunk.add(50, -60, -50);
+			final ChunkProtection copy = ChunkProtection.fromBytes(3, -4, chunk.toBytes());
+			Assertions.assertEquals(chunk.size(), copy.size());
+			Assertions.assertTrue(copy.contains(63, 71, -49));
+			Assertions.assertTrue(copy.contains(50, -60, -50));
+			Assertions.assertFalse(copy.contains(50, 72, -50));
+		}
+	}
+
+
+	@Nested
+	@DisplayName("Test world block counts.")
+	class BlockCountTests {
+
+		private final UUID worldUid = new UUID(1, 2);
+		private final Map<UUID, Integer> worldIds = Collections.singletonMap(worldUid, 1);
+
+		private int writeAndCount(final SQLiteLayout layout) throws SQLException {
+			layout.createSchema(connection);
+			try (Statement statement = connection.createStatement()) {
+				statement.executeUpdate("INSERT INTO worlds (world_id, worlduidmsb, worlduidlsb, worldname) VALUES (1, 1, 2, 'world')");
+			}
+
+			final StatementRegistry statements = new StatementRegistry(connection);
+			try {
+				final List<WriteQueue.PendingWrite> inserts = new ArrayList<>();
+				final List<WriteQueue.PendingWrite> deletes = new ArrayList<>();
+				for (int x = 0; x < 40; x += 2) {
+					inserts.add(new WriteQueue.PendingWrite(new BlockRecord("world", worldUid, x, 64, 0, x >> 4, 0),
+							CacheStatus.PENDING_INSERT));
+				}
+				deletes.add(new WriteQueue.PendingWrite(new BlockRecord("world", worldUid, 0, 64, 0, 0, 0),
+						CacheStatus.PENDING_DELETE));
+				deletes.add(new WriteQueue.PendingWrite(new BlockRecord("world", worldUid, 1, 64, 0, 0, 0),
+						CacheStatus.PENDING_DELETE));
+
+				layout.write(statements::acquire, inserts, worldIds);
+				layout.write(statements::acquire, inserts, worldIds);
+				layout.write(statements::acquire, deletes, worldIds);
+			}
+			finally {
+				statements.close();
+			}
+
+			try (Statement statement = connection.createStatement();
+			     ResultSet rs = statement.executeQuery(Queries.getQuery("SelectWorldBlockCounts"))) {
+				Assertions.assertTrue(rs.next());
+				return rs.getInt("block_count");
+			}
+		}
+
+		@Test
+		@DisplayName("row layout triggers count inserted and deleted blocks once.")
+		void RowLayoutCounts() throws SQLException {
+			Assertions.assertEquals(19, writeAndCount(new SQLiteRowLayout()));
+		}
+
+		@Test
+		@DisplayName("chunk layout triggers count inserted and deleted blocks once.")
+		void ChunkLayoutCounts() throws SQLException {
+			Assertions.assertEquals(19, writeAndCount(new SQLiteChunkLayout()));
+		}
+	}
+
+
+	@Nested
+	@DisplayName("Test paged record selection.")
+	class PagingTests {
+
+		private final UUID worldUid = new UUID(1, 2);
+		private final Map<UUID, Integer> worldIds = Collections.singletonMap(worldUid, 1);
+
+		private List<String> readAllPages(final SQLiteLayout layout, final int pageSize) throws SQLException {
+			layout.createSchema(connection);
+			final List<WriteQueue.PendingWrite> writes = new ArrayList<>();
+			for (int i = 0; i < 7; i++) {
+				final int x = i * 20 - 70;
+				writes.add(new WriteQueue.PendingWrite(new BlockRecord("world", worldUid, x, i, 5, x >> 4, 0),
+						CacheStatus.PENDING_INSERT));
+			}
+			writes.add(new WriteQueue.PendingWrite(new BlockRecord("world", worldUid, -70, 1, 5, -5, 0),
+					CacheStatus.PENDING_INSERT));
+
+			final StatementRegistry statements = new StatementRegistry(connection);
+			try {
+				layout.write(statements::acquire, writes, worldIds);
+
+				final List<String> blocks = new ArrayList<>();
+				String position = null;
+				do {
+					position = layout.selectPage(statements::acquire, position, pageSize,
+							(worldId, x, y, z) -> blocks.add(x + "," + y));
+				} while (position != null);
+				return blocks;
+			}
+			finally {
+				statements.close();
+			}
+		}
+
+		@Test
+		@DisplayName("row layout pages return every block once in key order.")
+		void RowLayoutPages() throws SQLException {
+			Assertions.assertEquals(List.of("-70,0", "-70,1", "-50,1", "-30,2", "-10,3", "10,4", "30,5", "50,6"),
+					readAllPages(new SQLiteRowLayout(), 3));
+			for (String detail : queryPlan("SelectBlockPage")) {
+				Assertions.assertFalse(detail.startsWith("SCAN") || detail.contains("TEMP B-TREE"),
+						"SelectBlockPage does not use primary key order: " + detail);
+			}
+		}
+
+		@Test
+		@DisplayName("chunk layout pages return every block once, completing each chunk.")
+		void ChunkLayoutPages() throws SQLException {
+			final List<String> blocks = readAllPages(new SQLiteChunkLayout(), 1);
+			Assertions.assertEquals(8, blocks.size());
+			Assertions.assertEquals(8, new HashSet<>(blocks).size(), "block read twice.");
+		}
+	}
+
+
+	@Nested
+	@DisplayName("Test stored chunk selection.")
+	class ChunkKeyTests {
+
+		private final UUID worldUid = new UUID(1, 2);
+		private final Map<UUID, Integer> worldIds = Collections.singletonMap(worldUid, 1);
+
+		private Set<String> selectChunkKeys(final SQLiteLayout layout) throws SQLException {
+			layout.createSchema(connection);
+			final List<WriteQueue.PendingWrite> writes = new ArrayList<>();
+			writes.add(new WriteQueue.PendingWrite(new BlockRecord("world", worldUid, -1, 64, -1, -1, -1),
+					CacheStatus.PENDING_INSERT));
+			writes.add(new WriteQueue.PendingWrite(new BlockRecord("world", worldUid, -2, 64, -1, -1, -1),
+					CacheStatus.PENDING_INSERT));
+			writes.add(new WriteQueue.PendingWrite(new BlockRecord("world", worldUid, 40, 64, -300, 2, -19),
+					CacheStatus.PENDING_INSERT));
+
+			final StatementRegistry statements = new StatementRegistry(connection);
+			try {
+				layout.write(statements::acquire, writes, worldIds);
+
+				final Set<String> chunks = new HashSet<>();
+				layout.selectChunkKeys(statements::acquire,
+						(worldId, chunkX, chunkZ) -> Assertions.assertTrue(chunks.add(worldId + ":" + chunkX + "," + chunkZ)));
+				return chunks;
+			}
+			finally {
+				statements.close();
+			}
+		}
+
+		@Test
+		@DisplayName("row layout selects each chunk with stored blocks once.")
+		void RowLayoutChunkKeys() throws SQLException {
+			Assertions.assertEquals(Set.of("1:-1,-1", "1:2,-19"), selectChunkKeys(new SQLiteRowLayout()));
+			for (String detail : queryPlan("SelectBlockChunks")) {
+				Assertions.assertFalse(detail.contains("TEMP B-TREE"), "SelectBlockChunks sorts rows: " + detail);
+			}
+		}
+
+		@Test
+		@DisplayName("chunk layout selects each chunk with stored blocks once.")
+		void ChunkLayoutChunkKeys() throws SQLException {
+			Assertions.assertEquals(Set.of("1:-1,-1", "1:2,-19"), selectChunkKeys(new SQLiteChunkLayout()));
+		}
+	}
+
+
+	@Test
+	@DisplayName("datastore generation advances each time it is opened.")
+	void GenerationAdvances() throws SQLException {
+		SQLiteSchema.create(connection);
+		Assertions.assertEquals(1, SQLiteSchema.nextGeneration(connection));
+		Assertions.assertEquals(2, SQLiteSchema.nextGeneration(connection));
+		Assertions.assertTrue(connection.getAutoCommit());
+	}
+
+
+	@Test
+	@DisplayName("ordered chunk keys sort by chunk x, then chunk z.")
+	void OrderedChunkKeySortsByColumn() {
+		Assertions.assertTrue(PackedCoordinates.orderedChunkKey(0, -1) < PackedCoordinates.orderedChunkKey(0, 0));
+		Assertions.assertTrue(PackedCoordinates.orderedChunkKey(0, Integer.MAX_VALUE) < PackedCoordinates.orderedChunkKey(1, Integer.MIN_VALUE));
+		Assertions.assertTrue(PackedCoordinates.orderedChunkKey(-1, Integer.MAX_VALUE) < PackedCoordinates.orderedChunkKey(0, Integer.MIN_VALUE));
+	}
+
+}
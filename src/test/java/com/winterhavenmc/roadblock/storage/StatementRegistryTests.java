@@ -0,0 +1,107 @@
+package com.winterhavenmc.roadblock.storage;
+
+import org.junit.jupiter.api.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class StatementRegistryTests {
+
+	private Connection connection;
+	private StatementRegistry registry;
+
+	@BeforeEach
+	public void setUp() throws SQLException {
+		connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate(Queries.getQuery("CreateBlockTable"));
+		}
+		registry = new StatementRegistry(connection);
+	}
+
+	@AfterEach
+	public void tearDown() throws SQLException {
+		registry.close();
+		connection.close();
+	}
+
+
+	@Test
+	@DisplayName("a statement is prepared once and reused by later leases, with parameters cleared and uses counted.")
+	void StatementReused() throws SQLException {
+
+		final PreparedStatement first;
+		try (StatementRegistry.Lease lease = registry.acquire("CountAllBlocks")) {
+			first = lease.getStatement();
+			try (ResultSet resultSet = first.executeQuery()) {
+				Assertions.assertTrue(resultSet.next());
+				Assertions.assertEquals(0, resultSet.getInt(1));
+			}
+		}
+
+		try (StatementRegistry.Lease lease = registry.acquire("CountAllBlocks")) {
+			Assertions.assertSame(first, lease.getStatement());
+		}
+
+		final List<StatementRegistry.Statistics> statistics = new ArrayList<>(registry.getStatistics());
+		Assertions.assertEquals(1, statistics.size());
+		Assertions.assertEquals("CountAllBlocks", statistics.get(0).getName());
+		Assertions.assertEquals(2, statistics.get(0).getExecutions());
+	}
+
+
+	@Test
+	@DisplayName("a leased statement is held by one thread until the lease is closed, then released once.")
+	void LeaseIsExclusive() throws Exception {
+
+		final AtomicInteger released = new AtomicInteger();
+		final StatementRegistry.Lease lease = registry.acquire("CountAllBlocks", released::incrementAndGet);
+
+		final CountDownLatch acquired = new CountDownLatch(1);
+		final AtomicBoolean sameStatement = new AtomicBoolean();
+		final Thread other = new Thread(() -> {
+			try (StatementRegistry.Lease otherLease = registry.acquire("CountAllBlocks")) {
+				sameStatement.set(otherLease.getStatement() == lease.getStatement());
+				acquired.countDown();
+			}
+			catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		other.start();
+
+		Assertions.assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+
+		lease.close();
+		lease.close();
+		Assertions.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		other.join(5000);
+		Assertions.assertTrue(sameStatement.get());
+		Assertions.assertEquals(1, released.get());
+	}
+
+
+	@Test
+	@DisplayName("unknown query names are reported, and migration queries are not prepared in advance.")
+	void UnknownAndMigrationQueries() throws SQLException {
+
+		Assertions.assertThrows(SQLException.class, () -> registry.acquire("NoSuchQuery"));
+
+		registry.prepareAll();
+		for (StatementRegistry.Statistics statistics : registry.getStatistics()) {
+			Assertions.assertFalse(statistics.getName().startsWith(StatementRegistry.MIGRATION_PREFIX));
+		}
+	}
+
+}
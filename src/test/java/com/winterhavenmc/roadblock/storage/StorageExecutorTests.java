@@ -0,0 +1,184 @@
+package com.winterhavenmc.roadblock.storage;
+
+import org.junit.jupiter.api.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+
+public class StorageExecutorTests {
+
+	private final Logger logger = Logger.getAnonymousLogger();
+	private StorageExecutor executor;
+
+
+	@BeforeEach
+	void setUp() {
+		logger.setUseParentHandlers(false);
+		executor = new StorageExecutor("Test", logger, 1);
+		executor.start();
+	}
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdown(1000);
+	}
+
+
+	@Test
+	@DisplayName("high priority tasks run while low priority tasks are blocked, even with one thread configured.")
+	void HighPriorityNotHeldBack() throws InterruptedException {
+
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger lowStarted = new AtomicInteger();
+		final CountDownLatch highDone = new CountDownLatch(1);
+		final CountDownLatch lowDone = new CountDownLatch(2);
+
+		for (int i = 0; i < 2; i++) {
+			executor.execute(StorageExecutor.Priority.LOW, () -> {
+				lowStarted.incrementAndGet();
+				try {
+					release.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				lowDone.countDown();
+			});
+		}
+		while (lowStarted.get() == 0) {
+			Thread.onSpinWait();
+		}
+		executor.execute(StorageExecutor.Priority.HIGH, highDone::countDown);
+
+		Assertions.assertTrue(highDone.await(5, TimeUnit.SECONDS));
+
+		// only one low priority task runs at a time on two threads
+		Assertions.assertEquals(1, lowStarted.get());
+		Assertions.assertEquals(1, executor.getQueueDepth(StorageExecutor.Priority.LOW));
+
+		release.countDown();
+		Assertions.assertTrue(lowDone.await(5, TimeUnit.SECONDS));
+	}
+
+
+	@Test
+	@DisplayName("tasks throwing errors do not stop worker threads.")
+	void ErrorsDoNotStopWorkers() throws InterruptedException {
+
+		for (int i = 0; i < 4; i++) {
+			executor.execute(StorageExecutor.Priority.HIGH, () -> {
+				throw new AssertionError("task failed");
+			});
+		}
+
+		final CountDownLatch done = new CountDownLatch(2);
+		executor.execute(StorageExecutor.Priority.HIGH, done::countDown);
+		executor.execute(StorageExecutor.Priority.LOW, done::countDown);
+		Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+
+	@Test
+	@DisplayName("shutdown waits for running tasks, discards queued tasks and rejects new tasks.")
+	void ShutdownDrainsRunningTasks() throws InterruptedException {
+
+		final CountDownLatch started = new CountDownLatch(2);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicBoolean queuedRan = new AtomicBoolean();
+
+		for (int i = 0; i < 2; i++) {
+			executor.execute(StorageExecutor.Priority.HIGH, () -> {
+				started.countDown();
+				try {
+					release.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		}
+		Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+		executor.execute(StorageExecutor.Priority.HIGH, () -> queuedRan.set(true));
+
+		// running tasks are still blocked when the timeout passes
+		Assertions.assertFalse(executor.shutdown(50));
+		Assertions.assertThrows(RejectedExecutionException.class,
+				() -> executor.execute(StorageExecutor.Priority.HIGH, () -> { }));
+
+		release.countDown();
+		Assertions.assertTrue(executor.shutdown(5000));
+		Assertions.assertFalse(queuedRan.get());
+	}
+
+
+	@Test
+	@DisplayName("discardable tasks dropped by shutdown are told, so their futures complete.")
+	void ShutdownCompletesDiscardedTasks() throws InterruptedException {
+
+		final CountDownLatch started = new CountDownLatch(2);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		for (int i = 0; i < 2; i++) {
+			executor.execute(StorageExecutor.Priority.HIGH, () -> {
+				started.countDown();
+				try {
+					release.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		}
+		Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		final CompletableFuture<Boolean> future = new CompletableFuture<>();
+		executor.execute(StorageExecutor.Priority.LOW, StorageExecutor.discardable(() -> future.complete(true),
+				() -> future.completeExceptionally(new RejectedExecutionException("discarded"))));
+
+		Assertions.assertFalse(executor.shutdown(50));
+		final ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+				() -> future.get(5, TimeUnit.SECONDS));
+		Assertions.assertTrue(e.getCause() instanceof RejectedExecutionException);
+		release.countDown();
+	}
+
+
+	@Test
+	@DisplayName("serial lanes discard tasks queued behind a running task and reject tasks after shutdown.")
+	void SerialLaneRejectsAfterShutdown() throws InterruptedException {
+
+		final StorageExecutor.SerialLane lane = executor.serialLane(StorageExecutor.Priority.LOW);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicBoolean queuedRan = new AtomicBoolean();
+		final CountDownLatch discarded = new CountDownLatch(1);
+
+		lane.execute(() -> {
+			started.countDown();
+			try {
+				release.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+		lane.execute(StorageExecutor.discardable(() -> queuedRan.set(true), discarded::countDown));
+
+		executor.shutdown(50);
+		release.countDown();
+		Assertions.assertTrue(executor.shutdown(5000));
+
+		Assertions.assertTrue(discarded.await(5, TimeUnit.SECONDS));
+		Assertions.assertFalse(queuedRan.get());
+		Assertions.assertThrows(RejectedExecutionException.class, () -> lane.execute(() -> { }));
+	}
+
+}
@@ -0,0 +1,225 @@
+package com.winterhavenmc.roadblock.storage;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+
+public class WriteQueueTests {
+
+	private final UUID worldUid = new UUID(1, 2);
+	private final BlockRecord blockA = new BlockRecord("world", worldUid, 1, 64, 1, 0, 0);
+	private final BlockRecord blockB = new BlockRecord("world", worldUid, 2, 64, 2, 0, 0);
+
+	private final Logger logger = Logger.getAnonymousLogger();
+	private final BlockRecordCache blockCache = new BlockRecordCache();
+	private final List<List<WriteQueue.PendingWrite>> batches = Collections.synchronizedList(new ArrayList<>());
+
+	private StorageExecutor executor;
+	private WriteQueue writeQueue;
+
+
+	@BeforeEach
+	void setUp() {
+		logger.setUseParentHandlers(false);
+		executor = new StorageExecutor("Test", logger, 2);
+		executor.start();
+	}
+
+	@AfterEach
+	void tearDown() {
+		if (writeQueue != null) {
+			writeQueue.shutdown(1000);
+		}
+		executor.shutdown(1000);
+	}
+
+
+	private void startQueue(final WriteQueue.BatchWriter batchWriter, final long flushInterval) {
+		writeQueue = new WriteQueue(logger, executor, blockCache, batch -> {
+			batches.add(new ArrayList<>(batch));
+			return batchWriter.write(batch);
+		}, 100, flushInterval);
+		writeQueue.start();
+	}
+
+
+	@Test
+	@DisplayName("operations on the same block are coalesced to the most recent one, keeping its place.")
+	void OperationsCoalesced() {
+
+		startQueue(batch -> true, 60_000);
+
+		writeQueue.enqueue(Collections.singletonList(blockA), CacheStatus.PENDING_INSERT);
+		writeQueue.enqueue(Collections.singletonList(blockB), CacheStatus.PENDING_INSERT);
+		writeQueue.enqueue(Collections.singletonList(blockA), CacheStatus.PENDING_DELETE);
+
+		Assertions.assertEquals(2, writeQueue.size());
+		Assertions.assertEquals(CacheStatus.PENDING_DELETE, blockCache.get(blockA));
+
+		Assertions.assertTrue(writeQueue.drain());
+		Assertions.assertEquals(1, batches.size());
+		final List<WriteQueue.PendingWrite> batch = batches.get(0);
+		Assertions.assertEquals(2, batch.size());
+		Assertions.assertEquals(blockA, batch.get(0).getBlockRecord());
+		Assertions.assertFalse(batch.get(0).isInsert());
+		Assertions.assertEquals(blockB, batch.get(1).getBlockRecord());
+		Assertions.assertTrue(batch.get(1).isInsert());
+	}
+
+
+	@Test
+	@DisplayName("queued operations stay in the pending write cache until the commit sequence has advanced.")
+	void PendingUntilCommitted() {
+
+		final List<Object> seen = new ArrayList<>();
+		startQueue(batch -> {
+			seen.add(blockCache.get(blockA));
+			seen.add(writeQueue.getCommitSequence());
+			return true;
+		}, 60_000);
+
+		writeQueue.enqueue(Collections.singletonList(blockA), CacheStatus.PENDING_INSERT);
+		Assertions.assertEquals(CacheStatus.PENDING_INSERT, blockCache.get(blockA));
+
+		Assertions.assertTrue(writeQueue.drain());
+		Assertions.assertEquals(List.of(CacheStatus.PENDING_INSERT, 0L), seen);
+		Assertions.assertEquals(1, writeQueue.getCommitSequence());
+		Assertions.assertNull(blockCache.get(blockA));
+	}
+
+
+	@Test
+	@DisplayName("a block queued again while its batch is written stays pending after the batch commits.")
+	void RequeuedBlockStaysPending() {
+
+		final List<CacheStatus> seen = new ArrayList<>();
+		startQueue(batch -> {
+			if (batches.size() == 1) {
+				writeQueue.enqueue(Collections.singletonList(blockA), CacheStatus.PENDING_DELETE);
+			}
+			else {
+				seen.add(blockCache.get(blockA));
+			}
+			return true;
+		}, 60_000);
+
+		writeQueue.enqueue(Collections.singletonList(blockA), CacheStatus.PENDING_INSERT);
+
+		Assertions.assertTrue(writeQueue.drain());
+		Assertions.assertEquals(2, batches.size());
+		Assertions.assertEquals(List.of(CacheStatus.PENDING_DELETE), seen);
+		Assertions.assertEquals(2, writeQueue.getCommitSequence());
+		Assertions.assertNull(blockCache.get(blockA));
+	}
+
+
+	@Test
+	@DisplayName("a failed batch stays pending and is written again after the retry delay.")
+	void FailedBatchRetried() throws InterruptedException {
+
+		startQueue(batch -> batches.size() > 1, 10);
+
+		writeQueue.enqueue(Collections.singletonList(blockA), CacheStatus.PENDING_INSERT);
+
+		Assertions.assertFalse(writeQueue.drain());
+		Assertions.assertEquals(1, writeQueue.getFailedBatches());
+		Assertions.assertEquals(1, writeQueue.size());
+		Assertions.assertEquals(CacheStatus.PENDING_INSERT, blockCache.get(blockA));
+
+		final long deadline = System.nanoTime() + 5_000_000_000L;
+		while (writeQueue.getCommitSequence() == 0 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+
+		Assertions.assertEquals(1, writeQueue.getCommitSequence());
+		Assertions.assertEquals(0, writeQueue.size());
+		Assertions.assertNull(blockCache.get(blockA));
+	}
+
+
+	@Test
+	@DisplayName("drain reports a failure when the writer throws an error.")
+	void DrainReportsWriterError() {
+
+		startQueue(batch -> {
+			if (batches.size() == 1) {
+				throw new AssertionError("write failed");
+			}
+			return true;
+		}, 60_000);
+
+		writeQueue.enqueue(Collections.singletonList(blockA), CacheStatus.PENDING_INSERT);
+
+		Assertions.assertFalse(writeQueue.drain());
+		Assertions.assertEquals(1, writeQueue.getFailedBatches());
+		Assertions.assertEquals(CacheStatus.PENDING_INSERT, blockCache.get(blockA));
+	}
+
+
+	@Test
+	@DisplayName("drain writes on the calling thread when its flush is discarded by executor shutdown.")
+	void DrainWritesWhenFlushDiscarded() throws Exception {
+
+		startQueue(batch -> true, 60_000);
+
+		// hold the low priority lane so the flush stays queued
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		executor.execute(StorageExecutor.Priority.LOW, () -> {
+			started.countDown();
+			try {
+				release.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		writeQueue.enqueue(Collections.singletonList(blockA), CacheStatus.PENDING_INSERT);
+		final CompletableFuture<Boolean> drained = CompletableFuture.supplyAsync(writeQueue::drain);
+		while (executor.getQueueDepth(StorageExecutor.Priority.LOW) == 0 && !drained.isDone()) {
+			Thread.onSpinWait();
+		}
+
+		executor.shutdown(50);
+		Assertions.assertTrue(drained.get(5, TimeUnit.SECONDS));
+		Assertions.assertEquals(1, writeQueue.getCommitSequence());
+		Assertions.assertNull(blockCache.get(blockA));
+		release.countDown();
+	}
+
+
+	@Test
+	@DisplayName("a batch that keeps failing is written one operation at a time, dropping operations that still fail.")
+	void FailingBatchSplit() throws InterruptedException {
+
+		// every batch holding block B fails
+		startQueue(batch -> batch.stream()
+				.noneMatch(pendingWrite -> pendingWrite.getBlockRecord().equals(blockB)), 1);
+
+		writeQueue.enqueue(List.of(blockA, blockB), CacheStatus.PENDING_INSERT);
+
+		final long deadline = System.nanoTime() + 5_000_000_000L;
+		while ((blockCache.get(blockA) != null || blockCache.get(blockB) != null) && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+
+		Assertions.assertEquals(0, writeQueue.size());
+		Assertions.assertEquals(1, writeQueue.getDroppedWrites());
+		Assertions.assertEquals(WriteQueue.MAX_BATCH_ATTEMPTS + 1, writeQueue.getFailedBatches());
+		Assertions.assertTrue(batches.stream().anyMatch(batch -> batch.size() == 1
+				&& batch.get(0).getBlockRecord().equals(blockA)));
+		Assertions.assertNull(blockCache.get(blockA));
+		Assertions.assertNull(blockCache.get(blockB));
+	}
+
+}